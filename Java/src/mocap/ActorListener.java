@@ -0,0 +1,32 @@
+package mocap;
+
+/**
+ * Interface for processing the actors of a frame in parallel.
+ *
+ * @author  Stefan Marks
+ *
+ * @see ParallelActorDispatcher
+ */
+public interface ActorListener
+{
+    /**
+     * Called for every actor of a new frame.
+     * The actors of a frame are processed by several threads at the same time,
+     * but an actor is always processed by the same thread,
+     * so per-actor state needs no synchronisation.
+     * The scene is a copy of the client's scene that only changes between frames,
+     * so it doesn't need to be locked and its data must not be modified.
+     *
+     * @param scene  the scene that has been updated
+     * @param actor  the actor to process
+     */
+    void actorUpdated(Scene scene, Actor actor);
+
+
+    /**
+     * Called when all actors of a frame have been processed.
+     *
+     * @param scene  the scene that has been updated
+     */
+    void frameProcessed(Scene scene);
+}
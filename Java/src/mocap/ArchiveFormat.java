@@ -0,0 +1,174 @@
+package mocap;
+
+/**
+ * Constants and encoding helpers of the scene archive format.
+ * <p>
+ * File layout (big endian):
+ * <pre>
+ * header : magic, version, position resolution, frames per block,
+ *          actors with their markers and bones (name, ID, parent ID, offset),
+ *          devices with their channels
+ * blocks : frame count, compressed length of the time chunk, of each actor chunk
+ *          and of the device chunk, then the compressed chunks
+ * index  : block count, then offset, frame count, first frame number,
+ *          first and last timestamp of each block
+ * trailer: offset of the index, magic
+ * </pre>
+ * Each chunk is a set of columns, one for each value of the actor
+ * (or the frame time, or the device channels),
+ * holding the zigzag varint encoded differences between consecutive frames of the block.
+ * Positions are quantised with the position resolution,
+ * rotations with the smallest three components of the quaternion.
+ * Channel values are stored as the bits of the float value.
+ *
+ * @author  Stefan Marks
+ */
+final class ArchiveFormat
+{
+    private ArchiveFormat()
+    {
+        // only static helpers
+    }
+
+
+    /**
+     * Quantises the rotation of a bone into the three smallest components
+     * and the index of the largest one.
+     *
+     * @param bone     the bone
+     * @param columns  the column array to store the four values in
+     * @param pos      the index of the first column value
+     * @param stride   the distance between the columns
+     */
+    static void quantiseRotation(Bone bone, int[] columns, int pos, int stride)
+    {
+        int largest = 0;
+        for ( int idx = 1 ; idx < 4 ; idx++ )
+        {
+            if ( Math.abs(component(bone, idx)) > Math.abs(component(bone, largest)) ) largest = idx;
+        }
+        // q and -q are the same rotation: make the omitted component positive
+        final float scale = (component(bone, largest) < 0) ? -ROTATION_SCALE : ROTATION_SCALE;
+        int col = pos;
+        for ( int idx = 0 ; idx < 4 ; idx++ )
+        {
+            if ( idx == largest ) continue;
+            columns[col] = Math.round(component(bone, idx) * scale);
+            col += stride;
+        }
+        columns[col] = largest;
+    }
+
+
+    /**
+     * Restores the rotation of a bone from the quantised values.
+     *
+     * @param columns  the column array with the four values
+     * @param pos      the index of the first column value
+     * @param stride   the distance between the columns
+     * @param bone     the bone to store the rotation in
+     */
+    static void restoreRotation(int[] columns, int pos, int stride, Bone bone)
+    {
+        final int largest = columns[pos + 3 * stride] & 3;
+        float sum = 0;
+        int col = pos;
+        for ( int idx = 0 ; idx < 4 ; idx++ )
+        {
+            if ( idx == largest ) continue;
+            final float value = columns[col] / ROTATION_SCALE;
+            setComponent(bone, idx, value);
+            sum += value * value;
+            col += stride;
+        }
+        setComponent(bone, largest, (float) Math.sqrt(Math.max(0, 1 - sum)));
+    }
+
+
+    private static float component(Bone bone, int idx)
+    {
+        switch ( idx )
+        {
+            case 0  : return bone.qx;
+            case 1  : return bone.qy;
+            case 2  : return bone.qz;
+            default : return bone.qw;
+        }
+    }
+
+
+    private static void setComponent(Bone bone, int idx, float value)
+    {
+        switch ( idx )
+        {
+            case 0  : bone.qx = value; break;
+            case 1  : bone.qy = value; break;
+            case 2  : bone.qz = value; break;
+            default : bone.qw = value; break;
+        }
+    }
+
+
+    /**
+     * Appends the zigzag varint encoding of a value.
+     *
+     * @param value  the value
+     * @param out    the output buffer
+     * @param pos    the position in the output buffer
+     *
+     * @return the position after the encoded value
+     */
+    static int writeVarLong(long value, byte[] out, int pos)
+    {
+        long v = (value << 1) ^ (value >> 63); // zigzag: small magnitudes give small numbers
+        while ( (v & ~0x7FL) != 0 )
+        {
+            out[pos++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        out[pos++] = (byte) v;
+        return pos;
+    }
+
+
+    /**
+     * Decodes a zigzag varint.
+     *
+     * @param in   the input buffer
+     * @param pos  a one element array with the position in the input buffer, which is advanced
+     *
+     * @return the decoded value
+     */
+    static long readVarLong(byte[] in, int[] pos)
+    {
+        long v     = 0;
+        int  shift = 0;
+        int  p     = pos[0];
+        byte b;
+        do
+        {
+            b = in[p++];
+            v |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ( b < 0 );
+        pos[0] = p;
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+
+    /** values per marker: x, y, z, tracked */
+    final static int MARKER_COLUMNS = 4;
+    /** values per bone: x, y, z, three rotation components, index of the fourth, tracked */
+    final static int BONE_COLUMNS   = 8;
+
+    final static int   MAGIC   = 0x4D434152; // "MCAR"
+    // 1: actors only
+    // 2: device section in the header, device chunk after the actor chunks of each block
+    final static short VERSION = 2;
+
+    /** maximum bytes of a varint */
+    final static int MAX_VARINT = 10;
+
+    // the three smallest components are within +-1/sqrt(2)
+    private final static float ROTATION_SCALE = (float) (32767 * Math.sqrt(2));
+}
@@ -0,0 +1,326 @@
+package mocap;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Base class for exporting the frames of a scene into a text file.
+ * <p>
+ * The thread that updates the scene only copies the values of each frame
+ * into a record, which is a recycled <code>double</code> array.
+ * A background thread formats the records and writes them in large batches,
+ * so a slow disk never stalls the reception of frames.
+ * If the writer can't keep up at all, frames are dropped and counted.
+ * <p>
+ * Subclasses define the layout of a record and how it is formatted.
+ * The layout is fixed when the first suitable scene structure is known.
+ * Later structure changes only link the layout to the new objects by name.
+ *
+ * @author  Stefan Marks
+ */
+public abstract class AsyncExporter implements SceneListener, Closeable
+{
+    /**
+     * Creates an exporter and starts the writer thread.
+     *
+     * @param file  the file to write to
+     *
+     * @throws IOException if the file can't be created
+     */
+    protected AsyncExporter(File file) throws IOException
+    {
+        this.file      = file;
+        this.out       = new BufferedWriter(
+                            new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.US_ASCII),
+                            BUFFER_SIZE);
+        this.text      = new StringBuilder(BATCH_SIZE + 4096);
+        this.ready     = false;
+        this.closed    = false;
+
+        this.writer = new BackgroundWriter<String, double[]>(file, "Exporter Thread (" + file.getName() + ")", QUEUE_SIZE)
+        {
+            @Override
+            protected double[] createRecord()
+            {
+                return new double[recordSize];
+            }
+
+            @Override
+            protected void writeHeader(String header) throws IOException
+            {
+                text.append(header);
+            }
+
+            @Override
+            protected void writeRecord(double[] record) throws IOException
+            {
+                format(record, text);
+                if ( text.length() >= BATCH_SIZE ) flushText();
+            }
+
+            @Override
+            protected void endOfBatch() throws IOException
+            {
+                flushText();
+            }
+
+            @Override
+            protected void closeOutput() throws IOException
+            {
+                out.close();
+            }
+        };
+    }
+
+
+    /**
+     * Gets the file that is written.
+     *
+     * @return the export file
+     */
+    public File getFile()
+    {
+        return file;
+    }
+
+
+    /**
+     * Gets the number of frames that have been queued for writing.
+     *
+     * @return the number of frames
+     */
+    public int getFrameCount()
+    {
+        return frameCount;
+    }
+
+
+    /**
+     * Gets the number of frames that were dropped because the writer could not keep up.
+     *
+     * @return the number of dropped frames
+     */
+    public int getDroppedFrameCount()
+    {
+        return droppedCount;
+    }
+
+
+    @Override
+    public void sceneChanged(Scene scene)
+    {
+        synchronized(scene)
+        {
+            if ( ready )
+            {
+                relink(scene);
+            }
+            else
+            {
+                tryLayout(scene);
+            }
+        }
+    }
+
+
+    @Override
+    public void sceneUpdated(Scene scene)
+    {
+        if ( closed ) return;
+
+        synchronized(scene)
+        {
+            this.scene = scene;
+            if ( closed ) return; // close() may have queued the end of data in the meantime
+            if ( !ready && !tryLayout(scene) ) return;
+
+            final double[] record = writer.obtain();
+            if ( record == null )
+            {
+                droppedCount++;
+                return;
+            }
+            capture(scene, record);
+            writer.submit(record);
+            frameCount++;
+        }
+    }
+
+
+    /**
+     * Stops exporting, writes the remaining frames and closes the file.
+     *
+     * @throws IOException if there was an error writing the file
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if ( closed ) return;
+        closed = true;
+
+        final Scene exported = scene;
+        if ( exported != null )
+        {
+            synchronized(exported)
+            {
+                // wait for a frame that is being queued right now,
+                // later frames see the closed flag
+            }
+        }
+        writer.close();
+        finish(file);
+    }
+
+
+    /**
+     * Defines the layout of the records, once the scene contains the data to export.
+     * Called with the lock of the scene held.
+     *
+     * @param scene the scene
+     *
+     * @return the number of values per record
+     *         or -1 if the scene does not contain the data (yet)
+     */
+    protected abstract int layout(Scene scene);
+
+
+    /**
+     * Creates the text at the beginning of the file.
+     * Called once, right after a successful {@link #layout(Scene)}.
+     *
+     * @return the header text
+     */
+    protected abstract String header();
+
+
+    /**
+     * Links the layout to the objects of a changed scene.
+     * Called with the lock of the scene held.
+     *
+     * @param scene the changed scene
+     */
+    protected abstract void relink(Scene scene);
+
+
+    /**
+     * Copies the values of the current frame into a record.
+     * Called with the lock of the scene held, so this has to be fast.
+     *
+     * @param scene   the scene
+     * @param record  the record to fill
+     */
+    protected abstract void capture(Scene scene, double[] record);
+
+
+    /**
+     * Formats a record, called by the writer thread.
+     *
+     * @param record  the record
+     * @param out     the text to append the formatted record to
+     */
+    protected abstract void format(double[] record, StringBuilder out);
+
+
+    /**
+     * Completes the file after it has been closed, e.g., to patch the header.
+     *
+     * @param file the file that has been written
+     *
+     * @throws IOException if there was an error writing the file
+     */
+    protected void finish(File file) throws IOException
+    {
+        // nothing to do by default
+    }
+
+
+    /**
+     * Appends a number in fixed-point notation,
+     * since not every reader of the exported files understands exponents.
+     *
+     * @param out    the text to append the number to
+     * @param value  the number
+     */
+    protected static void appendFixed(StringBuilder out, float value)
+    {
+        final float magnitude = Math.abs(value);
+        if ( ((magnitude >= 1e-3f) && (magnitude < 1e7f)) || (magnitude == 0) ||
+             Float.isNaN(value) || Float.isInfinite(value) )
+        {
+            // no exponent in this range
+            out.append(value);
+        }
+        else
+        {
+            out.append(new BigDecimal(Float.toString(value)).stripTrailingZeros().toPlainString());
+        }
+    }
+
+
+    /**
+     * Appends a number in fixed-point notation,
+     * since not every reader of the exported files understands exponents.
+     *
+     * @param out    the text to append the number to
+     * @param value  the number
+     */
+    protected static void appendFixed(StringBuilder out, double value)
+    {
+        final double magnitude = Math.abs(value);
+        if ( ((magnitude >= 1e-3) && (magnitude < 1e7)) || (magnitude == 0) ||
+             Double.isNaN(value) || Double.isInfinite(value) )
+        {
+            // no exponent in this range
+            out.append(value);
+        }
+        else
+        {
+            out.append(new BigDecimal(Double.toString(value)).stripTrailingZeros().toPlainString());
+        }
+    }
+
+
+    private boolean tryLayout(Scene scene)
+    {
+        int size = layout(scene);
+        if ( size < 0 ) return false;
+
+        recordSize = size;
+        // header goes first into the queue, so it is written before any record
+        writer.submitHeader(header());
+        ready = true;
+        return true;
+    }
+
+
+    private void flushText() throws IOException
+    {
+        if ( text.length() > 0 )
+        {
+            out.append(text);
+            out.flush();
+        }
+        text.setLength(0);
+    }
+
+
+    private final    File                               file;
+    private final    Writer                             out;
+    private final    StringBuilder                      text;   // writer thread only
+    private final    BackgroundWriter<String, double[]> writer;
+    private volatile boolean                            ready, closed;
+    private          int                                recordSize;
+    private volatile int                                frameCount, droppedCount;
+    private volatile Scene                              scene; // the exported scene
+
+    private final static int    QUEUE_SIZE  = 4096;        // records in flight
+    private final static int    BATCH_SIZE  = 256 * 1024;  // characters per write
+    private final static int    BUFFER_SIZE = 1024 * 1024; // bytes of the file buffer
+}
@@ -0,0 +1,291 @@
+package mocap;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Base class for writing a file on a background thread.
+ * <p>
+ * The thread that updates the scene fills recycled records and queues them,
+ * together with a header that is written before them.
+ * The writer thread writes everything that is waiting as one batch
+ * and returns the records for reuse.
+ * Only a fixed number of records is ever created,
+ * so when the writer falls behind, {@link #obtain()} returns <code>null</code>
+ * and the caller drops the frame instead of blocking.
+ * After a write error, the writer keeps taking records from the queue
+ * without writing them, and {@link #close()} reports the error.
+ *
+ * @param <H> the type of the header
+ * @param <R> the type of the records
+ *
+ * @author  Stefan Marks
+ *
+ * @see AsyncExporter
+ * @see SceneArchiveWriter
+ */
+abstract class BackgroundWriter<H, R> implements Closeable
+{
+    /**
+     * Creates a writer and starts the writer thread.
+     *
+     * @param file        the file that is written (for error messages)
+     * @param threadName  the name of the writer thread
+     * @param maxRecords  the maximum number of records in flight
+     */
+    protected BackgroundWriter(File file, String threadName, int maxRecords)
+    {
+        this.file       = file;
+        this.maxRecords = maxRecords;
+        this.queue      = new ArrayBlockingQueue<>(maxRecords + 2); // header, records, end of data
+        this.free       = new ArrayBlockingQueue<>(maxRecords);
+        this.allocated  = 0;
+
+        writerThread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                writeLoop();
+            }
+        }, threadName);
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+
+    /**
+     * Gets a free record.
+     * Must only be called by one thread at a time, e.g., with the lock of the scene held.
+     *
+     * @return a recycled or new record
+     *         or <code>null</code> if all records are waiting to be written
+     */
+    public R obtain()
+    {
+        R record = free.poll();
+        if ( (record == null) && (allocated < maxRecords) )
+        {
+            record = createRecord();
+            allocated++;
+        }
+        return record;
+    }
+
+
+    /**
+     * Queues the header, which is written before all records that are queued after it.
+     *
+     * @param header the header
+     */
+    public void submitHeader(H header)
+    {
+        queue.offer(new Header(header));
+    }
+
+
+    /**
+     * Queues a record for writing.
+     *
+     * @param record the record, obtained from {@link #obtain()}
+     */
+    public void submit(R record)
+    {
+        queue.offer(record); // never full: there are only maxRecords records
+    }
+
+
+    /**
+     * Writes the records that are still queued and stops the writer thread.
+     * Call only after the last record has been queued.
+     *
+     * @throws IOException if there was an error writing the file
+     */
+    @Override
+    public void close() throws IOException
+    {
+        try
+        {
+            queue.put(END_OF_DATA);
+            writerThread.join();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        if ( writeError != null ) throw writeError;
+    }
+
+
+    /**
+     * Creates a new record.
+     * Called by the thread that calls {@link #obtain()}.
+     *
+     * @return the new record
+     */
+    protected abstract R createRecord();
+
+
+    /**
+     * Writes the header, called by the writer thread.
+     *
+     * @param header the header
+     *
+     * @throws IOException if the header can't be written
+     */
+    protected abstract void writeHeader(H header) throws IOException;
+
+
+    /**
+     * Writes a record, called by the writer thread.
+     * The record is reused afterwards.
+     *
+     * @param record the record
+     *
+     * @throws IOException if the record can't be written
+     */
+    protected abstract void writeRecord(R record) throws IOException;
+
+
+    /**
+     * Called by the writer thread when the queue is empty after writing one or more items.
+     *
+     * @throws IOException if there was an error writing the file
+     */
+    protected void endOfBatch() throws IOException
+    {
+        // nothing to do by default
+    }
+
+
+    /**
+     * Called by the writer thread after the last record, unless there was an error.
+     *
+     * @throws IOException if there was an error writing the file
+     */
+    protected void endOfData() throws IOException
+    {
+        // nothing to do by default
+    }
+
+
+    /**
+     * Closes the output, called by the writer thread at the very end.
+     *
+     * @throws IOException if there was an error closing the file
+     */
+    protected abstract void closeOutput() throws IOException;
+
+
+    @SuppressWarnings("unchecked")
+    private void writeLoop()
+    {
+        try
+        {
+            Object item;
+            while ( (item = queue.take()) != END_OF_DATA )
+            {
+                // write everything that is waiting as one batch
+                do
+                {
+                    if ( item instanceof Header )
+                    {
+                        writeHeader((H) ((Header) item).header);
+                    }
+                    else
+                    {
+                        final R record = (R) item;
+                        try
+                        {
+                            writeRecord(record);
+                        }
+                        finally
+                        {
+                            free.offer(record);
+                        }
+                    }
+                    item = queue.poll();
+                } while ( (item != null) && (item != END_OF_DATA) );
+
+                endOfBatch();
+                if ( item == END_OF_DATA ) break;
+            }
+            endOfData();
+        }
+        catch (IOException e)
+        {
+            writeError = e;
+            LOG.log(Level.SEVERE, "Could not write file {0} ({1}).",
+                    new Object[] { file, e.getMessage() });
+            // keep draining so the producer never blocks
+            drain();
+        }
+        catch (InterruptedException e)
+        {
+            // stop writing
+        }
+        finally
+        {
+            try
+            {
+                closeOutput();
+            }
+            catch (IOException e)
+            {
+                if ( writeError == null ) writeError = e;
+            }
+        }
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private void drain()
+    {
+        try
+        {
+            Object item;
+            while ( (item = queue.take()) != END_OF_DATA )
+            {
+                if ( !(item instanceof Header) ) free.offer((R) item);
+            }
+        }
+        catch (InterruptedException e)
+        {
+            // stop
+        }
+    }
+
+
+    /**
+     * Class for telling the header apart from the records in the queue.
+     */
+    private static class Header
+    {
+        public Header(Object header)
+        {
+            this.header = header;
+        }
+
+
+        public final Object header;
+    }
+
+
+    private final    File                  file;
+    private final    int                   maxRecords;
+    private final    BlockingQueue<Object> queue;
+    private final    BlockingQueue<R>      free;
+    private final    Thread                writerThread;
+    private          int                   allocated;
+    private volatile IOException           writeError;
+
+    private final static Object END_OF_DATA = new Object();
+
+    private final static Logger LOG = Logger.getLogger(BackgroundWriter.class.getName());
+}
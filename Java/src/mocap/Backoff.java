@@ -0,0 +1,70 @@
+package mocap;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Class for the back-off of a thread that polls for data.
+ * The thread first spins, then yields the processor to other threads,
+ * and finally sleeps for a short time between the polls.
+ * <p>
+ * Example: spin 10000 times, yield 100 times, then sleep 50 microseconds
+ * <pre>
+ * client.setBusyPolling(new Backoff(10000, 100, 50));
+ * </pre>
+ *
+ * @author  Stefan Marks
+ */
+public final class Backoff
+{
+    /**
+     * Creates a back-off.
+     *
+     * @param spins      the number of polls without giving up the processor
+     * @param yields     the number of polls after that, yielding the processor in between
+     * @param parkTime   the time to sleep between all further polls in microseconds
+     *                   (0: never sleep)
+     */
+    public Backoff(int spins, int yields, int parkTime)
+    {
+        if ( (spins < 0) || (yields < 0) || (parkTime < 0) )
+        {
+            throw new IllegalArgumentException("Back-off values must not be negative");
+        }
+        this.spins    = spins;
+        this.yields   = yields;
+        this.parkTime = parkTime * 1000L;
+    }
+
+
+    /**
+     * Waits between two polls.
+     *
+     * @param iteration the number of polls since the last data
+     */
+    void idle(int iteration)
+    {
+        if ( iteration < spins )
+        {
+            Thread.onSpinWait();
+        }
+        else if ( (iteration < spins + yields) || (parkTime == 0) )
+        {
+            Thread.yield();
+        }
+        else
+        {
+            LockSupport.parkNanos(this, parkTime);
+        }
+    }
+
+
+    @Override
+    public String toString()
+    {
+        return "spin " + spins + ", yield " + yields + ", park " + (parkTime / 1000) + "us";
+    }
+
+
+    private final int  spins, yields;
+    private final long parkTime;
+}
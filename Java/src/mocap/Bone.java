@@ -21,6 +21,7 @@ public class Bone
     public float   qx, qy, qz, qw;    // rotation
     public float   length;            // length of bone
     public boolean tracked;           // tracking flag
+    public boolean filled;            // pose has been filled in during a tracking gap
     
     public final List<Bone> children; // children of this bone
     public final List<Bone> chain;    // chain from root bone to this bone
@@ -47,6 +48,7 @@ public class Bone
         length = 0;               // no length
         
         tracked = true;
+        filled  = false;
         
         children = new LinkedList<>(); 
         chain    = new LinkedList<>();
@@ -0,0 +1,285 @@
+package mocap;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Class for exporting the skeleton of an actor into a BVH motion file.
+ * <p>
+ * The hierarchy is built from the bones and offsets of the model definition.
+ * Root bones have position and rotation channels, all other bones only rotation channels
+ * in the order Z, X, Y (degrees).
+ * Frame count and frame time are only known at the end,
+ * so they are patched into the header when the exporter is closed.
+ * The frame time is the shortest interval between the timestamps of consecutive frames,
+ * i.e., the capture rate, so frames that were dropped or not sent don't stretch it.
+ * <p>
+ * Example:
+ * <pre>
+ * BvhExporter bvh = new BvhExporter(new File("take1.bvh"), "Skeleton1");
+ * client.addSceneListener(bvh);
+ * ...
+ * client.removeSceneListener(bvh);
+ * bvh.close();
+ * </pre>
+ *
+ * @author  Stefan Marks
+ */
+public class BvhExporter extends AsyncExporter
+{
+    /**
+     * Creates a BVH exporter with positions and offsets in centimeters.
+     *
+     * @param file       the file to write to
+     * @param actorName  the name of the actor to export (Regular Expressions are possible)
+     *
+     * @throws IOException if the file can't be created
+     */
+    public BvhExporter(File file, String actorName) throws IOException
+    {
+        this(file, actorName, 100.0f);
+    }
+
+
+    /**
+     * Creates a BVH exporter.
+     *
+     * @param file       the file to write to
+     * @param actorName  the name of the actor to export (Regular Expressions are possible)
+     * @param scale      the factor for converting positions and offsets into file units
+     *
+     * @throws IOException if the file can't be created
+     */
+    public BvhExporter(File file, String actorName, float scale) throws IOException
+    {
+        super(file);
+        this.actorName = actorName;
+        this.scale     = scale;
+        this.bones     = new ArrayList<>();
+        this.boneNames = new ArrayList<>();
+    }
+
+
+    @Override
+    protected int layout(Scene scene)
+    {
+        Actor actor = scene.findActor(actorName);
+        if ( (actor == null) || (actor.bones.length == 0) ) return -1;
+
+        // bones in the order of the hierarchy
+        for ( Bone bone : actor.bones )
+        {
+            if ( bone.parent == null ) addHierarchy(bone);
+        }
+        isRoot = new boolean[bones.size()];
+        for ( int i = 0 ; i < isRoot.length ; i++ )
+        {
+            isRoot[i] = (bones.get(i).parent == null);
+        }
+
+        StringBuilder h = new StringBuilder();
+        h.append("HIERARCHY\n");
+        for ( Bone bone : bones )
+        {
+            if ( bone.parent == null ) appendBone(h, bone, 0);
+        }
+        h.append("MOTION\n");
+        h.append("Frames: ");
+        framesPosition = h.length();
+        h.append(pad("0", FIELD_WIDTH)).append('\n');
+        h.append("Frame Time: ");
+        frameTimePosition = h.length();
+        h.append(pad("0", FIELD_WIDTH)).append('\n');
+        headerText = h.toString();
+
+        return 1 + bones.size() * VALUES_PER_BONE;
+    }
+
+
+    @Override
+    protected String header()
+    {
+        return headerText;
+    }
+
+
+    @Override
+    protected void relink(Scene scene)
+    {
+        Actor actor = scene.findActor(actorName);
+        for ( int i = 0 ; i < bones.size() ; i++ )
+        {
+            bones.set(i, (actor != null) ? actor.findBone(boneNames.get(i)) : null);
+        }
+    }
+
+
+    @Override
+    protected void capture(Scene scene, double[] record)
+    {
+        record[0] = scene.timestamp;
+        int idx = 1;
+        for ( Bone bone : bones )
+        {
+            if ( bone != null )
+            {
+                record[idx]     = bone.px; record[idx + 1] = bone.py; record[idx + 2] = bone.pz;
+                record[idx + 3] = bone.qx; record[idx + 4] = bone.qy; record[idx + 5] = bone.qz;
+                record[idx + 6] = bone.qw;
+            }
+            else
+            {
+                // bone has disappeared: neutral pose
+                record[idx]     = 0; record[idx + 1] = 0; record[idx + 2] = 0;
+                record[idx + 3] = 0; record[idx + 4] = 0; record[idx + 5] = 0;
+                record[idx + 6] = 1;
+            }
+            idx += VALUES_PER_BONE;
+        }
+    }
+
+
+    @Override
+    protected void format(double[] record, StringBuilder out)
+    {
+        // on the writer thread: remember timing for the header
+        if ( framesWritten > 0 )
+        {
+            final double interval = record[0] - lastTimestamp;
+            if ( (interval > 0) && ((frameTime == 0) || (interval < frameTime)) ) frameTime = interval;
+        }
+        lastTimestamp = record[0];
+        framesWritten++;
+
+        int idx = 1;
+        for ( int i = 0 ; i < bones.size() ; i++ )
+        {
+            if ( isRoot[i] )
+            {
+                appendFixed(out, (float) (record[idx]     * scale)); out.append(' ');
+                appendFixed(out, (float) (record[idx + 1] * scale)); out.append(' ');
+                appendFixed(out, (float) (record[idx + 2] * scale)); out.append(' ');
+            }
+            appendEulerZXY(out, record[idx + 3], record[idx + 4], record[idx + 5], record[idx + 6]);
+            out.append(i < bones.size() - 1 ? ' ' : '\n');
+            idx += VALUES_PER_BONE;
+        }
+    }
+
+
+    @Override
+    protected void finish(File file) throws IOException
+    {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw"))
+        {
+            if ( headerText == null ) return; // nothing was exported
+            raf.seek(framesPosition);
+            raf.write(pad(Integer.toString(framesWritten), FIELD_WIDTH).getBytes(StandardCharsets.US_ASCII));
+            raf.seek(frameTimePosition);
+            raf.write(pad(String.format(Locale.ROOT, "%.8f", frameTime), FIELD_WIDTH).getBytes(StandardCharsets.US_ASCII));
+        }
+    }
+
+
+    private void addHierarchy(Bone bone)
+    {
+        bones.add(bone);
+        boneNames.add(bone.name);
+        for ( Bone child : bone.children )
+        {
+            addHierarchy(child);
+        }
+    }
+
+
+    private void appendBone(StringBuilder h, Bone bone, int depth)
+    {
+        final String indent = indent(depth);
+        h.append(indent).append(bone.parent == null ? "ROOT " : "JOINT ").append(bone.name).append('\n');
+        h.append(indent).append("{\n");
+        h.append(indent).append("\tOFFSET ");
+        appendFixed(h, bone.ox * scale); h.append(' ');
+        appendFixed(h, bone.oy * scale); h.append(' ');
+        appendFixed(h, bone.oz * scale); h.append('\n');
+        if ( bone.parent == null )
+        {
+            h.append(indent).append("\tCHANNELS 6 Xposition Yposition Zposition Zrotation Xrotation Yrotation\n");
+        }
+        else
+        {
+            h.append(indent).append("\tCHANNELS 3 Zrotation Xrotation Yrotation\n");
+        }
+
+        if ( bone.children.isEmpty() )
+        {
+            h.append(indent).append("\tEnd Site\n");
+            h.append(indent).append("\t{\n");
+            h.append(indent).append("\t\tOFFSET 0 0 0\n");
+            h.append(indent).append("\t}\n");
+        }
+        for ( Bone child : bone.children )
+        {
+            appendBone(h, child, depth + 1);
+        }
+        h.append(indent).append("}\n");
+    }
+
+
+    /**
+     * Appends a rotation as Euler angles in degrees,
+     * in the order of the channels (R = Rz * Rx * Ry).
+     */
+    private static void appendEulerZXY(StringBuilder out, double x, double y, double z, double w)
+    {
+        final double r21 = 2 * (y * z + x * w);
+        final double r01 = 2 * (x * y - z * w);
+        final double r11 = 1 - 2 * (x * x + z * z);
+        final double r20 = 2 * (x * z - y * w);
+        final double r22 = 1 - 2 * (x * x + y * y);
+
+        final double rx = Math.asin(Math.max(-1, Math.min(1, r21)));
+        final double rz = Math.atan2(-r01, r11);
+        final double ry = Math.atan2(-r20, r22);
+
+        appendFixed(out, (float) Math.toDegrees(rz)); out.append(' ');
+        appendFixed(out, (float) Math.toDegrees(rx)); out.append(' ');
+        appendFixed(out, (float) Math.toDegrees(ry));
+    }
+
+
+    private static String indent(int depth)
+    {
+        StringBuilder s = new StringBuilder();
+        for ( int i = 0 ; i < depth ; i++ ) s.append('\t');
+        return s.toString();
+    }
+
+
+    private static String pad(String value, int width)
+    {
+        StringBuilder s = new StringBuilder(value);
+        while ( s.length() < width ) s.append(' ');
+        return s.toString();
+    }
+
+
+    private final String       actorName;
+    private final float        scale;
+    private final List<Bone>   bones;
+    private final List<String> boneNames;
+    private       boolean[]    isRoot;
+    private       String       headerText;
+    private       int          framesPosition, frameTimePosition;
+
+    // only used by the writer thread
+    private       int          framesWritten;
+    private       double       lastTimestamp, frameTime;
+
+    private final static int VALUES_PER_BONE = 7;  // position, rotation
+    private final static int FIELD_WIDTH     = 16; // space for patching the header
+}
@@ -0,0 +1,264 @@
+package mocap;
+
+/**
+ * Class for estimating the relation between the server clock and the local clock.
+ * <p>
+ * Every frame provides a sample of the clock offset:
+ * the local arrival time minus the server timestamp, the server latency
+ * and half the network round trip time.
+ * Network and scheduling delays can only make a sample larger,
+ * so, like NTP, only the smallest samples are trusted:
+ * the minimum of each block of samples is kept
+ * and a straight line through the recent minima gives offset and drift.
+ * The round trip time is taken from the ping requests,
+ * using the smallest of the recent measurements.
+ * <p>
+ * All local times are in the units of <code>System.nanoTime()</code>.
+ *
+ * @author  Stefan Marks
+ */
+public class ClockSync
+{
+    /**
+     * Creates a new clock synchronisation object.
+     */
+    public ClockSync()
+    {
+        blockTime    = new double[BLOCK_COUNT];
+        blockOffset  = new double[BLOCK_COUNT];
+        roundTrips   = new long[RTT_COUNT];
+        reset();
+    }
+
+
+    /**
+     * Forgets all samples, e.g., when the server clock has jumped.
+     * The round trip times are kept.
+     */
+    public final synchronized void reset()
+    {
+        origin        = System.nanoTime();
+        blocks        = 0;
+        blockStart    = 0;
+        currentMin    = Double.MAX_VALUE;
+        currentTime   = 0;
+        offset        = 0;
+        drift         = 0;
+        fitTime       = 0;
+        synchronised  = false;
+    }
+
+
+    /**
+     * Adds the round trip time of a ping request.
+     *
+     * @param roundTripTime the round trip time in nanoseconds
+     */
+    public synchronized void addRoundTrip(long roundTripTime)
+    {
+        roundTrips[rttIndex] = roundTripTime;
+        rttIndex = (rttIndex + 1) % RTT_COUNT;
+        rttCount = Math.min(rttCount + 1, RTT_COUNT);
+
+        long min = Long.MAX_VALUE;
+        for ( int i = 0 ; i < rttCount ; i++ )
+        {
+            min = Math.min(min, roundTrips[i]);
+        }
+        this.roundTripTime = min;
+    }
+
+
+    /**
+     * Adds the arrival of a frame.
+     *
+     * @param arrivalTime      the local time the frame packet was received
+     * @param serverTimestamp  the timestamp of the frame in seconds of server time
+     * @param serverLatency    the latency reported by the server in seconds
+     */
+    public synchronized void addFrame(long arrivalTime, double serverTimestamp, double serverLatency)
+    {
+        final double localTime = arrivalTime - origin;
+        final double sample    = localTime - (serverTimestamp + serverLatency) * 1e9 - roundTripTime / 2.0;
+
+        if ( synchronised && (Math.abs(sample - getOffsetAt(localTime)) > MAX_DEVIATION) )
+        {
+            // the server clock has jumped (e.g., restart): start over
+            reset();
+            addFrame(arrivalTime, serverTimestamp, serverLatency);
+            return;
+        }
+
+        if ( sample < currentMin )
+        {
+            currentMin  = sample;
+            currentTime = localTime;
+        }
+
+        if ( blocks == 0 )
+        {
+            // use the first samples until there is a complete block
+            if ( !synchronised ) blockStart = localTime;
+            offset       = currentMin;
+            fitTime      = currentTime;
+            synchronised = true;
+        }
+
+        if ( localTime - blockStart >= BLOCK_DURATION )
+        {
+            // block complete: keep its minimum and fit the line again
+            final int idx = blocks % BLOCK_COUNT;
+            blockTime[idx]   = currentTime;
+            blockOffset[idx] = currentMin;
+            blocks++;
+            blockStart = localTime;
+            currentMin = Double.MAX_VALUE;
+            fit();
+        }
+    }
+
+
+    /**
+     * Checks if there are enough samples for an estimate.
+     *
+     * @return <code>true</code> if the clocks are synchronised
+     */
+    public synchronized boolean isSynchronised()
+    {
+        return synchronised;
+    }
+
+
+    /**
+     * Converts a server timestamp into local time.
+     *
+     * @param serverTimestamp the timestamp in seconds of server time
+     *
+     * @return the corresponding local time in <code>System.nanoTime()</code> units
+     */
+    public synchronized long toLocalTime(double serverTimestamp)
+    {
+        // offset depends on local time, so iterate once from the current estimate
+        double localTime = serverTimestamp * 1e9 + offset;
+        localTime = serverTimestamp * 1e9 + getOffsetAt(localTime);
+        return origin + (long) localTime;
+    }
+
+
+    /**
+     * Gets the current clock offset.
+     *
+     * @return the local time minus the server time in nanoseconds
+     */
+    public synchronized double getOffset()
+    {
+        return getOffsetAt(System.nanoTime() - origin);
+    }
+
+
+    /**
+     * Gets the drift of the server clock relative to the local clock.
+     *
+     * @return the drift in nanoseconds per second (parts per billion)
+     */
+    public synchronized double getDrift()
+    {
+        return drift * 1e9;
+    }
+
+
+    /**
+     * Gets the network round trip time.
+     *
+     * @return the smallest recent round trip time in nanoseconds
+     */
+    public synchronized long getRoundTripTime()
+    {
+        return roundTripTime;
+    }
+
+
+    private double getOffsetAt(double localTime)
+    {
+        return offset + drift * (localTime - fitTime);
+    }
+
+
+    /**
+     * Fits a straight line through the block minima.
+     */
+    private void fit()
+    {
+        final int n = Math.min(blocks, BLOCK_COUNT);
+        if ( n < MIN_BLOCKS_DRIFT )
+        {
+            // not enough for a drift estimate: lowest minimum so far
+            double min = Double.MAX_VALUE;
+            for ( int i = 0 ; i < n ; i++ )
+            {
+                if ( blockOffset[i] < min )
+                {
+                    min     = blockOffset[i];
+                    fitTime = blockTime[i];
+                }
+            }
+            offset = min;
+            drift  = 0;
+            return;
+        }
+
+        // least squares, relative to the mean to keep the numbers small
+        double meanT = 0, meanO = 0;
+        for ( int i = 0 ; i < n ; i++ )
+        {
+            meanT += blockTime[i];
+            meanO += blockOffset[i];
+        }
+        meanT /= n;
+        meanO /= n;
+
+        double stt = 0, sto = 0;
+        for ( int i = 0 ; i < n ; i++ )
+        {
+            final double dt = blockTime[i] - meanT;
+            stt += dt * dt;
+            sto += dt * (blockOffset[i] - meanO);
+        }
+        drift   = (stt > 0) ? sto / stt : 0;
+        fitTime = meanT;
+        offset  = meanO;
+
+        // the line should run along the lower edge of the minima, not through them
+        double lowest = 0;
+        for ( int i = 0 ; i < n ; i++ )
+        {
+            lowest = Math.min(lowest, blockOffset[i] - getOffsetAt(blockTime[i]));
+        }
+        offset += lowest;
+    }
+
+
+    private final double[] blockTime, blockOffset;
+    private       int      blocks;
+    private       double   blockStart;
+    private       double   currentMin, currentTime;
+
+    private final long[]   roundTrips;
+    private       int      rttIndex, rttCount;
+    private       long     roundTripTime;
+
+    private       long     origin;
+    private       double   offset, drift, fitTime;
+    private       boolean  synchronised;
+
+    // duration of a block of samples (ns)
+    private final static double BLOCK_DURATION   = 1e9;
+    // number of blocks to fit the line through
+    private final static int    BLOCK_COUNT      = 64;
+    // minimum number of blocks for estimating the drift
+    private final static int    MIN_BLOCKS_DRIFT = 8;
+    // number of round trip times to keep
+    private final static int    RTT_COUNT        = 8;
+    // deviation of a sample that indicates a clock jump (ns)
+    private final static double MAX_DEVIATION    = 1e9;
+}
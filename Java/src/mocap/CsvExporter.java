@@ -0,0 +1,264 @@
+package mocap;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Class for exporting frames into a wide CSV table with one row per frame.
+ * <p>
+ * The columns are frame number, server timestamp, local time since the first frame,
+ * then position and tracking state of each marker,
+ * position, rotation and tracking state of each bone,
+ * and the value of each device channel.
+ * Values of objects that have disappeared from the scene are left empty.
+ * Column names with commas or quotes are quoted,
+ * and numbers are written without exponents.
+ *
+ * @author  Stefan Marks
+ */
+public class CsvExporter extends AsyncExporter
+{
+    /**
+     * Creates a CSV exporter for all actors and devices.
+     *
+     * @param file the file to write to
+     *
+     * @throws IOException if the file can't be created
+     */
+    public CsvExporter(File file) throws IOException
+    {
+        this(file, ".*");
+    }
+
+
+    /**
+     * Creates a CSV exporter for selected actors and devices.
+     *
+     * @param file  the file to write to
+     * @param name  the name of the actors and devices to export (Regular Expressions are possible)
+     *
+     * @throws IOException if the file can't be created
+     */
+    public CsvExporter(File file, String name) throws IOException
+    {
+        super(file);
+        this.name         = name;
+        this.markerNames  = new ArrayList<>();
+        this.boneNames    = new ArrayList<>();
+        this.channelNames = new ArrayList<>();
+    }
+
+
+    @Override
+    protected int layout(Scene scene)
+    {
+        StringBuilder h = new StringBuilder("frame,timestamp,localTime");
+        for ( Actor actor : scene.actors )
+        {
+            if ( !actor.name.matches(name) ) continue;
+            for ( Marker marker : actor.markers )
+            {
+                markerNames.add(new String[] { actor.name, marker.name });
+                final String col = actor.name + "." + marker.name + ".";
+                for ( String c : MARKER_COLUMNS )
+                {
+                    h.append(',').append(escape(col + c));
+                }
+            }
+            for ( Bone bone : actor.bones )
+            {
+                boneNames.add(new String[] { actor.name, bone.name });
+                final String col = actor.name + "." + bone.name + ".";
+                for ( String c : BONE_COLUMNS )
+                {
+                    h.append(',').append(escape(col + c));
+                }
+            }
+        }
+        for ( Device device : scene.devices )
+        {
+            if ( !device.name.matches(name) ) continue;
+            for ( Channel channel : device.channels )
+            {
+                channelNames.add(new String[] { device.name, channel.name });
+                h.append(',').append(escape(device.name + "." + channel.name));
+            }
+        }
+        if ( markerNames.isEmpty() && boneNames.isEmpty() && channelNames.isEmpty() ) return -1;
+        headerText = h.append('\n').toString();
+
+        markers  = new Marker[markerNames.size()];
+        bones    = new Bone[boneNames.size()];
+        channels = new Channel[channelNames.size()];
+        relink(scene);
+
+        return 3 + markers.length * MARKER_COLUMNS.length + bones.length * BONE_COLUMNS.length + channels.length;
+    }
+
+
+    @Override
+    protected String header()
+    {
+        return headerText;
+    }
+
+
+    @Override
+    protected void relink(Scene scene)
+    {
+        for ( int i = 0 ; i < markers.length ; i++ )
+        {
+            Actor actor = findActor(scene, markerNames.get(i)[0]);
+            markers[i]  = (actor != null) ? findMarker(actor, markerNames.get(i)[1]) : null;
+        }
+        for ( int i = 0 ; i < bones.length ; i++ )
+        {
+            Actor actor = findActor(scene, boneNames.get(i)[0]);
+            bones[i]    = (actor != null) ? findBone(actor, boneNames.get(i)[1]) : null;
+        }
+        for ( int i = 0 ; i < channels.length ; i++ )
+        {
+            Device device = findDevice(scene, channelNames.get(i)[0]);
+            channels[i]   = (device != null) ? findChannel(device, channelNames.get(i)[1]) : null;
+        }
+    }
+
+
+    @Override
+    protected void capture(Scene scene, double[] record)
+    {
+        if ( !started )
+        {
+            startTime = scene.localTimestamp;
+            started   = true;
+        }
+        record[0] = scene.frameNumber;
+        record[1] = scene.timestamp;
+        record[2] = (scene.localTimestamp - startTime) * 1e-9;
+
+        int idx = 3;
+        for ( Marker marker : markers )
+        {
+            if ( marker != null )
+            {
+                record[idx]     = marker.px;
+                record[idx + 1] = marker.py;
+                record[idx + 2] = marker.pz;
+                record[idx + 3] = marker.tracked ? 1 : 0;
+            }
+            else
+            {
+                fillMissing(record, idx, MARKER_COLUMNS.length);
+            }
+            idx += MARKER_COLUMNS.length;
+        }
+        for ( Bone bone : bones )
+        {
+            if ( bone != null )
+            {
+                record[idx]     = bone.px; record[idx + 1] = bone.py; record[idx + 2] = bone.pz;
+                record[idx + 3] = bone.qx; record[idx + 4] = bone.qy; record[idx + 5] = bone.qz;
+                record[idx + 6] = bone.qw;
+                record[idx + 7] = bone.tracked ? 1 : 0;
+            }
+            else
+            {
+                fillMissing(record, idx, BONE_COLUMNS.length);
+            }
+            idx += BONE_COLUMNS.length;
+        }
+        for ( Channel channel : channels )
+        {
+            record[idx++] = (channel != null) ? channel.value : Double.NaN;
+        }
+    }
+
+
+    @Override
+    protected void format(double[] record, StringBuilder out)
+    {
+        out.append((int) record[0]).append(',');
+        appendFixed(out, record[1]);
+        out.append(',');
+        appendFixed(out, record[2]);
+        for ( int i = 3 ; i < record.length ; i++ )
+        {
+            out.append(',');
+            // empty cell for missing values, integers without decimals
+            final double v = record[i];
+            if ( Double.isNaN(v) ) continue;
+            if ( (v == 0) || (v == 1) ) out.append((int) v);
+            else                        appendFixed(out, (float) v);
+        }
+        out.append('\n');
+    }
+
+
+    /**
+     * Quotes a column name if it contains commas, quotes or line breaks (RFC 4180).
+     */
+    private static String escape(String column)
+    {
+        if ( (column.indexOf(',')  < 0) && (column.indexOf('"')  < 0) &&
+             (column.indexOf('\n') < 0) && (column.indexOf('\r') < 0) ) return column;
+        return '"' + column.replace("\"", "\"\"") + '"';
+    }
+
+
+    private static void fillMissing(double[] record, int idx, int count)
+    {
+        for ( int i = 0 ; i < count ; i++ ) record[idx + i] = Double.NaN;
+    }
+
+
+    // exact name lookups (names are not patterns here)
+
+    private static Actor findActor(Scene scene, String name)
+    {
+        for ( Actor actor : scene.actors ) if ( actor.name.equals(name) ) return actor;
+        return null;
+    }
+
+
+    private static Marker findMarker(Actor actor, String name)
+    {
+        for ( Marker marker : actor.markers ) if ( marker.name.equals(name) ) return marker;
+        return null;
+    }
+
+
+    private static Bone findBone(Actor actor, String name)
+    {
+        for ( Bone bone : actor.bones ) if ( bone.name.equals(name) ) return bone;
+        return null;
+    }
+
+
+    private static Device findDevice(Scene scene, String name)
+    {
+        for ( Device device : scene.devices ) if ( device.name.equals(name) ) return device;
+        return null;
+    }
+
+
+    private static Channel findChannel(Device device, String name)
+    {
+        for ( Channel channel : device.channels ) if ( channel.name.equals(name) ) return channel;
+        return null;
+    }
+
+
+    private final String         name;
+    private final List<String[]> markerNames, boneNames, channelNames;
+    private       Marker[]       markers;
+    private       Bone[]         bones;
+    private       Channel[]      channels;
+    private       String         headerText;
+    private       boolean        started;
+    private       long           startTime;
+
+    private final static String[] MARKER_COLUMNS = { "x", "y", "z", "tracked" };
+    private final static String[] BONE_COLUMNS   = { "px", "py", "pz", "qx", "qy", "qz", "qw", "tracked" };
+}
@@ -0,0 +1,196 @@
+package mocap;
+
+/**
+ * Class for a permanent reference to an element of a scene (actor, marker, bone, channel).
+ * <p>
+ * Every new model definition replaces the objects of the scene,
+ * so references to them become stale.
+ * A handle is resolved once by name or ID
+ * and rebound by the client whenever the structure of the scene changes,
+ * so it can be kept and read in every frame without any lookups.
+ * <p>
+ * Example:
+ * <pre>
+ * ElementHandle&lt;Bone&gt; head = client.getBoneHandle("Skeleton1", "Head");
+ * ...
+ * synchronized(scene)
+ * {
+ *     Bone bone = head.get();
+ *     if ( bone != null ) { ... bone.px ... }
+ * }
+ * </pre>
+ *
+ * @param <T> the type of element
+ *
+ * @author  Stefan Marks
+ */
+public abstract class ElementHandle<T>
+{
+    /**
+     * Gets the element the handle is currently bound to.
+     *
+     * @return the element
+     *         or <code>null</code> if the element doesn't exist in the current scene
+     */
+    public T get()
+    {
+        return element;
+    }
+
+
+    /**
+     * Checks if the element exists in the current scene.
+     *
+     * @return <code>true</code> if the handle is bound to an element,
+     *         <code>false</code> if not
+     */
+    public boolean isValid()
+    {
+        return element != null;
+    }
+
+
+    /**
+     * Binds the handle to the matching element of a scene.
+     *
+     * @param scene the scene
+     */
+    void rebind(Scene scene)
+    {
+        element = resolve(scene);
+    }
+
+
+    /**
+     * Finds the matching element in a scene.
+     *
+     * @param scene the scene
+     *
+     * @return the element or <code>null</code> if there is no match
+     */
+    abstract T resolve(Scene scene);
+
+
+    /**
+     * Finds an actor by exact name or by ID.
+     */
+    static Actor findActor(Scene scene, String name, int id)
+    {
+        for ( Actor actor : scene.actors )
+        {
+            if ( (name != null) ? actor.name.equals(name) : (actor.id == id) ) return actor;
+        }
+        return null;
+    }
+
+
+    /**
+     * Class for a handle to an actor.
+     */
+    static class ActorHandle extends ElementHandle<Actor>
+    {
+        public ActorHandle(String name, int id)
+        {
+            this.name = name;
+            this.id   = id;
+        }
+
+        @Override
+        Actor resolve(Scene scene)
+        {
+            return findActor(scene, name, id);
+        }
+
+        private final String name;
+        private final int    id;
+    }
+
+
+    /**
+     * Class for a handle to a marker.
+     */
+    static class MarkerHandle extends ElementHandle<Marker>
+    {
+        public MarkerHandle(String actorName, String markerName)
+        {
+            this.actorName  = actorName;
+            this.markerName = markerName;
+        }
+
+        @Override
+        Marker resolve(Scene scene)
+        {
+            Actor actor = findActor(scene, actorName, 0);
+            if ( actor == null ) return null;
+            for ( Marker marker : actor.markers )
+            {
+                if ( marker.name.equals(markerName) ) return marker;
+            }
+            return null;
+        }
+
+        private final String actorName, markerName;
+    }
+
+
+    /**
+     * Class for a handle to a bone.
+     */
+    static class BoneHandle extends ElementHandle<Bone>
+    {
+        public BoneHandle(String actorName, String boneName, int actorId, int boneId)
+        {
+            this.actorName = actorName;
+            this.boneName  = boneName;
+            this.actorId   = actorId;
+            this.boneId    = boneId;
+        }
+
+        @Override
+        Bone resolve(Scene scene)
+        {
+            Actor actor = findActor(scene, actorName, actorId);
+            if ( actor == null ) return null;
+            for ( Bone bone : actor.bones )
+            {
+                if ( (boneName != null) ? bone.name.equals(boneName) : (bone.id == boneId) ) return bone;
+            }
+            return null;
+        }
+
+        private final String actorName, boneName;
+        private final int    actorId, boneId;
+    }
+
+
+    /**
+     * Class for a handle to a device channel.
+     */
+    static class ChannelHandle extends ElementHandle<Channel>
+    {
+        public ChannelHandle(String deviceName, String channelName)
+        {
+            this.deviceName  = deviceName;
+            this.channelName = channelName;
+        }
+
+        @Override
+        Channel resolve(Scene scene)
+        {
+            for ( Device device : scene.devices )
+            {
+                if ( !device.name.equals(deviceName) ) continue;
+                for ( Channel channel : device.channels )
+                {
+                    if ( channel.name.equals(channelName) ) return channel;
+                }
+            }
+            return null;
+        }
+
+        private final String deviceName, channelName;
+    }
+
+
+    private volatile T element;
+}
@@ -0,0 +1,93 @@
+package mocap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class for numbering the elements of a scene (markers, bones, channels)
+ * in the order they appear, so that aggregates can keep their values in arrays.
+ * <p>
+ * Every element gets its own index, even if its name is not unique.
+ * Looking up a name that appears more than once finds the first element with that name.
+ *
+ * @author  Stefan Marks
+ *
+ * @see SessionAggregate
+ */
+class ElementIndex
+{
+    /**
+     * Creates an empty index.
+     */
+    public ElementIndex()
+    {
+        names   = new ArrayList<>();
+        indices = new HashMap<>();
+    }
+
+
+    /**
+     * Adds an element to the index.
+     *
+     * @param group    the name of the group of the element, e.g., the actor
+     * @param element  the name of the element
+     *
+     * @return the index of the element
+     */
+    public int add(String group, String element)
+    {
+        final String name = group + "/" + element;
+        final int    idx  = names.size();
+        names.add(name);
+        if ( !indices.containsKey(name) )
+        {
+            indices.put(name, idx);
+        }
+        return idx;
+    }
+
+
+    /**
+     * Gets the number of elements in the index.
+     *
+     * @return the number of elements
+     */
+    public int size()
+    {
+        return names.size();
+    }
+
+
+    /**
+     * Finds an element.
+     *
+     * @param group    the name of the group of the element
+     * @param element  the name of the element
+     *
+     * @return the index of the element or -1 if there is no such element
+     */
+    public int find(String group, String element)
+    {
+        final Integer idx = indices.get(group + "/" + element);
+        return (idx == null) ? -1 : idx;
+    }
+
+
+    /**
+     * Gets the full name of an element for reports.
+     *
+     * @param idx  the index of the element
+     *
+     * @return the name in the form "group/element"
+     */
+    public String getName(int idx)
+    {
+        return names.get(idx);
+    }
+
+
+    private final List<String>         names;   // name of each element
+    private final Map<String, Integer> indices; // index of the first element with each name
+}
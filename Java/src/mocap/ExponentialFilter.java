@@ -0,0 +1,48 @@
+package mocap;
+
+/**
+ * Class for an exponential smoothing filter (first order low pass).
+ * The smoothing factor is derived from the time between frames,
+ * so the filter behaves the same at any frame rate and when frames are missing.
+ * 
+ * @author  Stefan Marks
+ */
+public class ExponentialFilter implements ScalarFilter
+{
+    /**
+     * Creates an exponential filter.
+     * 
+     * @param timeConstant  the time constant in seconds 
+     *                      (time after which a step has reached 63% of its height)
+     */
+    public ExponentialFilter(float timeConstant)
+    {
+        this.timeConstant = timeConstant;
+    }
+    
+    
+    @Override
+    public int getStateSize()
+    {
+        return 1; // last output
+    }
+    
+    
+    @Override
+    public void reset(float value, double[] state, int offset)
+    {
+        state[offset] = value;
+    }
+    
+    
+    @Override
+    public float filter(float value, float dt, double[] state, int offset)
+    {
+        final double alpha = dt / (timeConstant + dt);
+        state[offset] += alpha * (value - state[offset]);
+        return (float) state[offset];
+    }
+    
+    
+    private final float timeConstant;
+}
@@ -0,0 +1,308 @@
+package mocap;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Pattern;
+
+/**
+ * Class for filtering the marker positions, bone positions and rotations
+ * and device channel values of each frame.
+ * <p>
+ * The filters are configured by rules that select actors or devices by name.
+ * The first matching rule is used.
+ * The filter state is kept in primitive arrays per actor and device
+ * that are only allocated when the scene structure or the rules change.
+ * Values are only filtered while they are tracked.
+ * When tracking is lost or frames are missing for too long, the filter starts over.
+ * <p>
+ * Example:
+ * <pre>
+ * FilterPipeline filters = new FilterPipeline();
+ * filters.addActorRule("Hand.*", new OneEuroFilter(1.0f, 0.5f), new OneEuroFilter(1.0f, 0.5f));
+ * filters.addDeviceRule(".*", new ExponentialFilter(0.05f));
+ * client.addFrameProcessor(filters);
+ * </pre>
+ * 
+ * @author  Stefan Marks
+ */
+public class FilterPipeline implements FrameProcessor
+{
+    /**
+     * Creates an empty filter pipeline.
+     */
+    public FilterPipeline()
+    {
+        actorRules  = new CopyOnWriteArrayList<>();
+        deviceRules = new CopyOnWriteArrayList<>();
+        actorState  = new ActorState[0];
+        deviceState = new DeviceState[0];
+        rulesChanged = true;
+    }
+    
+    
+    /**
+     * Adds a filter rule for actors.
+     * 
+     * @param actorName        the actor name (Regular Expressions are possible)
+     * @param positionFilter   the filter for marker and bone positions (<code>null</code>: no filtering)
+     * @param rotationFilter   the filter for the bone rotations (<code>null</code>: no filtering)
+     */
+    public void addActorRule(String actorName, ScalarFilter positionFilter, ScalarFilter rotationFilter)
+    {
+        actorRules.add(new Rule(actorName, positionFilter, rotationFilter));
+        rulesChanged = true;
+    }
+    
+    
+    /**
+     * Adds a filter rule for interaction devices.
+     * 
+     * @param deviceName     the device name (Regular Expressions are possible)
+     * @param channelFilter  the filter for the channel values (<code>null</code>: no filtering)
+     */
+    public void addDeviceRule(String deviceName, ScalarFilter channelFilter)
+    {
+        deviceRules.add(new Rule(deviceName, channelFilter, null));
+        rulesChanged = true;
+    }
+    
+    
+    /**
+     * Removes all filter rules.
+     */
+    public void clearRules()
+    {
+        actorRules.clear();
+        deviceRules.clear();
+        rulesChanged = true;
+    }
+    
+    
+    @Override
+    public void sceneChanged(Scene scene)
+    {
+        ActorState[] newActorState = new ActorState[scene.actors.length];
+        for ( int i = 0 ; i < newActorState.length ; i++ )
+        {
+            Rule rule = findRule(actorRules, scene.actors[i].name);
+            newActorState[i] = (rule != null) ? new ActorState(scene.actors[i], rule) : null;
+        }
+        
+        DeviceState[] newDeviceState = new DeviceState[scene.devices.length];
+        for ( int i = 0 ; i < newDeviceState.length ; i++ )
+        {
+            Rule rule = findRule(deviceRules, scene.devices[i].name);
+            newDeviceState[i] = ((rule != null) && (rule.positionFilter != null)) ? 
+                    new DeviceState(scene.devices[i], rule.positionFilter) : null;
+        }
+        
+        actorState    = newActorState;
+        deviceState   = newDeviceState;
+        lastTimestamp = Double.NaN;
+        rulesChanged  = false;
+    }
+    
+    
+    @Override
+    public void processFrame(Scene scene)
+    {
+        if ( rulesChanged || 
+             (actorState.length  != scene.actors.length) || 
+             (deviceState.length != scene.devices.length) )
+        {
+            sceneChanged(scene);
+        }
+        
+        final float   dt    = (float) (scene.timestamp - lastTimestamp);
+        final boolean reset = !(dt > 0) || (dt > MAX_GAP); // also catches NaN
+        lastTimestamp = scene.timestamp;
+        
+        for ( int i = 0 ; i < actorState.length ; i++ )
+        {
+            if ( actorState[i] != null ) actorState[i].process(scene.actors[i], dt, reset);
+        }
+        for ( int i = 0 ; i < deviceState.length ; i++ )
+        {
+            if ( deviceState[i] != null ) deviceState[i].process(scene.devices[i], dt, reset);
+        }
+    }
+    
+    
+    private static Rule findRule(List<Rule> rules, String name)
+    {
+        for ( Rule rule : rules )
+        {
+            if ( rule.pattern.matcher(name).matches() ) return rule;
+        }
+        return null;
+    }
+    
+    
+    /**
+     * Class for a filter rule.
+     */
+    private static class Rule
+    {
+        public Rule(String name, ScalarFilter positionFilter, ScalarFilter rotationFilter)
+        {
+            this.pattern        = Pattern.compile(name);
+            this.positionFilter = positionFilter;
+            this.rotationFilter = (rotationFilter != null) ? new QuaternionFilter(rotationFilter) : null;
+        }
+        
+        public final Pattern          pattern;
+        public final ScalarFilter     positionFilter;
+        public final QuaternionFilter rotationFilter;
+    }
+    
+    
+    /**
+     * Class for the filter state of an actor.
+     * Layout of the state array: 
+     * 3 positions per marker, then 3 positions and 1 rotation per bone.
+     */
+    private static class ActorState
+    {
+        public ActorState(Actor actor, Rule rule)
+        {
+            positionFilter = rule.positionFilter;
+            rotationFilter = rule.rotationFilter;
+            posSize = (positionFilter != null) ? positionFilter.getStateSize() : 0;
+            rotSize = (rotationFilter != null) ? rotationFilter.getStateSize() : 0;
+            
+            markerCount = actor.markers.length;
+            boneCount   = actor.bones.length;
+            boneOffset  = markerCount * 3 * posSize;
+            boneSize    = 3 * posSize + rotSize;
+            state       = new double[boneOffset + boneCount * boneSize];
+            active      = new boolean[markerCount + boneCount];
+        }
+        
+        
+        public void process(Actor actor, float dt, boolean reset)
+        {
+            if ( (actor.markers.length != markerCount) || (actor.bones.length != boneCount) ) return;
+            
+            if ( positionFilter != null )
+            {
+                for ( int i = 0 ; i < markerCount ; i++ )
+                {
+                    final Marker marker = actor.markers[i];
+                    final int    offset = i * 3 * posSize;
+                    if ( !marker.tracked )
+                    {
+                        active[i] = false;
+                    }
+                    else if ( reset || !active[i] )
+                    {
+                        positionFilter.reset(marker.px, state, offset);
+                        positionFilter.reset(marker.py, state, offset + posSize);
+                        positionFilter.reset(marker.pz, state, offset + posSize * 2);
+                        active[i] = true;
+                    }
+                    else
+                    {
+                        marker.px = positionFilter.filter(marker.px, dt, state, offset);
+                        marker.py = positionFilter.filter(marker.py, dt, state, offset + posSize);
+                        marker.pz = positionFilter.filter(marker.pz, dt, state, offset + posSize * 2);
+                    }
+                }
+            }
+            
+            for ( int i = 0 ; i < boneCount ; i++ )
+            {
+                final Bone bone   = actor.bones[i];
+                final int  flag   = markerCount + i;
+                final int  offset = boneOffset + i * boneSize;
+                if ( !bone.tracked )
+                {
+                    active[flag] = false;
+                }
+                else if ( reset || !active[flag] )
+                {
+                    if ( positionFilter != null )
+                    {
+                        positionFilter.reset(bone.px, state, offset);
+                        positionFilter.reset(bone.py, state, offset + posSize);
+                        positionFilter.reset(bone.pz, state, offset + posSize * 2);
+                    }
+                    if ( rotationFilter != null )
+                    {
+                        rotationFilter.reset(bone, state, offset + posSize * 3);
+                    }
+                    active[flag] = true;
+                }
+                else
+                {
+                    if ( positionFilter != null )
+                    {
+                        bone.px = positionFilter.filter(bone.px, dt, state, offset);
+                        bone.py = positionFilter.filter(bone.py, dt, state, offset + posSize);
+                        bone.pz = positionFilter.filter(bone.pz, dt, state, offset + posSize * 2);
+                    }
+                    if ( rotationFilter != null )
+                    {
+                        rotationFilter.filter(bone, dt, state, offset + posSize * 3);
+                    }
+                }
+            }
+        }
+        
+        
+        private final ScalarFilter     positionFilter;
+        private final QuaternionFilter rotationFilter;
+        private final int              posSize, rotSize;
+        private final int              markerCount, boneCount, boneOffset, boneSize;
+        private final double[]         state;
+        private final boolean[]        active;
+    }
+    
+    
+    /**
+     * Class for the filter state of an interaction device.
+     */
+    private static class DeviceState
+    {
+        public DeviceState(Device device, ScalarFilter filter)
+        {
+            this.filter       = filter;
+            this.stateSize    = filter.getStateSize();
+            this.channelCount = device.channels.length;
+            this.state        = new double[channelCount * stateSize];
+        }
+        
+        
+        public void process(Device device, float dt, boolean reset)
+        {
+            if ( device.channels.length != channelCount ) return;
+            
+            for ( int i = 0 ; i < channelCount ; i++ )
+            {
+                final Channel channel = device.channels[i];
+                if ( reset )
+                {
+                    filter.reset(channel.value, state, i * stateSize);
+                }
+                else
+                {
+                    channel.value = filter.filter(channel.value, dt, state, i * stateSize);
+                }
+            }
+        }
+        
+        
+        private final ScalarFilter filter;
+        private final int          stateSize, channelCount;
+        private final double[]     state;
+    }
+    
+    
+    private final List<Rule>    actorRules, deviceRules;
+    private       ActorState[]  actorState;
+    private       DeviceState[] deviceState;
+    private       double        lastTimestamp;
+    private volatile boolean    rulesChanged;
+    
+    // gap in seconds after which the filters start over
+    private final static float MAX_GAP = 0.5f;
+}
@@ -0,0 +1,202 @@
+package mocap;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Java Flight Recorder events of the frame pipeline.
+ * <p>
+ * This class is only loaded through {@link FrameEvents}
+ * when the runtime contains the flight recorder.
+ *
+ * @author  Stefan Marks
+ */
+final class FlightRecorderEvents
+{
+    private FlightRecorderEvents()
+    {
+        // only static helpers
+    }
+
+
+    static Object beginDecode()
+    {
+        if ( !FRAME_DECODE.isEnabled() ) return null;
+        final FrameDecode event = new FrameDecode();
+        event.begin();
+        return event;
+    }
+
+
+    static void endDecode(Object token, int frameNumber, int size, String outcome, long[] sections)
+    {
+        final FrameDecode event = (FrameDecode) token;
+        event.end();
+        if ( !event.shouldCommit() ) return;
+        event.frameNumber = frameNumber;
+        event.size        = size;
+        event.outcome     = outcome;
+        event.lockWait    = sections[0];
+        event.markerSets  = sections[1];
+        event.rigidBodies = sections[2];
+        event.skeletons   = sections[3];
+        event.remainder   = sections[4];
+        event.processors  = sections[5];
+        event.commit();
+    }
+
+
+    static void packetReceived(int packetId, int size)
+    {
+        if ( !PACKET_RECEIVED.isEnabled() ) return;
+        final PacketReceived event = new PacketReceived();
+        if ( !event.shouldCommit() ) return;
+        event.packetId = packetId;
+        event.size     = size;
+        event.commit();
+    }
+
+
+    static Object beginPublish()
+    {
+        if ( !SCENE_PUBLISH.isEnabled() ) return null;
+        final ScenePublish event = new ScenePublish();
+        event.begin();
+        return event;
+    }
+
+
+    static void endPublish(Object token, int frameNumber, int listeners)
+    {
+        final ScenePublish event = (ScenePublish) token;
+        event.end();
+        if ( !event.shouldCommit() ) return;
+        event.frameNumber = frameNumber;
+        event.listeners   = listeners;
+        event.commit();
+    }
+
+
+    static Object beginListener()
+    {
+        if ( !LISTENER_INVOCATION.isEnabled() ) return null;
+        final ListenerInvocation event = new ListenerInvocation();
+        event.begin();
+        return event;
+    }
+
+
+    static void endListener(Object token, Object listener, int frameNumber)
+    {
+        final ListenerInvocation event = (ListenerInvocation) token;
+        event.end();
+        if ( !event.shouldCommit() ) return;
+        event.listener    = listener.getClass().getName();
+        event.frameNumber = frameNumber;
+        event.commit();
+    }
+
+
+    @Name("mocap.PacketReceived")
+    @Label("Packet Received")
+    @Category({ "MoCap", "NatNet" })
+    @Description("A packet has been received from the server")
+    @StackTrace(false)
+    static class PacketReceived extends Event
+    {
+        @Label("Packet ID")
+        int packetId;
+
+        @Label("Size")
+        @DataAmount(DataAmount.BYTES)
+        int size;
+    }
+
+
+    @Name("mocap.FrameDecode")
+    @Label("Frame Decode")
+    @Category({ "MoCap", "NatNet" })
+    @Description("A frame of data has been decoded into the scene, ignored or failed to decode")
+    @StackTrace(false)
+    static class FrameDecode extends Event
+    {
+        @Label("Frame Number")
+        int frameNumber;
+
+        @Label("Size")
+        @DataAmount(DataAmount.BYTES)
+        int size;
+
+        @Label("Outcome")
+        @Description("decoded, old frame or failed")
+        String outcome;
+
+        @Label("Scene Lock Wait")
+        @Timespan(Timespan.NANOSECONDS)
+        long lockWait;
+
+        @Label("Marker Sets")
+        @Timespan(Timespan.NANOSECONDS)
+        long markerSets;
+
+        @Label("Rigid Bodies")
+        @Timespan(Timespan.NANOSECONDS)
+        long rigidBodies;
+
+        @Label("Skeletons")
+        @Timespan(Timespan.NANOSECONDS)
+        long skeletons;
+
+        @Label("Labelled Markers, Force Plates, Timing")
+        @Timespan(Timespan.NANOSECONDS)
+        long remainder;
+
+        @Label("Frame Processors")
+        @Timespan(Timespan.NANOSECONDS)
+        long processors;
+    }
+
+
+    @Name("mocap.ScenePublish")
+    @Label("Scene Publish")
+    @Category({ "MoCap", "NatNet" })
+    @Description("The scene listeners have been notified about a frame")
+    @StackTrace(false)
+    static class ScenePublish extends Event
+    {
+        @Label("Frame Number")
+        int frameNumber;
+
+        @Label("Listeners")
+        int listeners;
+    }
+
+
+    @Name("mocap.ListenerInvocation")
+    @Label("Listener Invocation")
+    @Category({ "MoCap", "NatNet" })
+    @Description("A scene listener has processed a frame")
+    @StackTrace(false)
+    static class ListenerInvocation extends Event
+    {
+        @Label("Listener")
+        String listener;
+
+        @Label("Frame Number")
+        int frameNumber;
+    }
+
+
+    // checked before an event is created, so nothing is allocated while no recording uses the events
+    private final static EventType PACKET_RECEIVED     = EventType.getEventType(PacketReceived.class);
+    private final static EventType FRAME_DECODE        = EventType.getEventType(FrameDecode.class);
+    private final static EventType SCENE_PUBLISH       = EventType.getEventType(ScenePublish.class);
+    private final static EventType LISTENER_INVOCATION = EventType.getEventType(ListenerInvocation.class);
+}
@@ -0,0 +1,140 @@
+package mocap;
+
+/**
+ * Class for determining the peak value of each device channel over a session,
+ * e.g., the peak forces of force plates.
+ * The peak is the value with the largest magnitude.
+ *
+ * @author  Stefan Marks
+ *
+ * @see SessionAnalyzer
+ */
+public class ForcePeaks implements SessionAggregate<ForcePeaks>
+{
+    /**
+     * Creates an empty peak report.
+     */
+    public ForcePeaks()
+    {
+        channels = null;
+    }
+
+
+    @Override
+    public ForcePeaks create()
+    {
+        return new ForcePeaks();
+    }
+
+
+    @Override
+    public void addFrame(Scene scene)
+    {
+        if ( channels == null ) layout(scene);
+
+        int idx = 0;
+        for ( Device device : scene.devices )
+        {
+            for ( Channel channel : device.channels )
+            {
+                if ( Math.abs(channel.value) > Math.abs(peak[idx]) )
+                {
+                    peak[idx]     = channel.value;
+                    peakTime[idx] = scene.timestamp;
+                }
+                idx++;
+            }
+        }
+    }
+
+
+    @Override
+    public void merge(ForcePeaks following)
+    {
+        if ( following.channels == null ) return;
+        if ( channels == null )
+        {
+            channels = following.channels;
+            peak     = following.peak;
+            peakTime = following.peakTime;
+            return;
+        }
+        for ( int idx = 0 ; idx < peak.length ; idx++ )
+        {
+            // on a tie, the earlier peak stays
+            if ( Math.abs(following.peak[idx]) > Math.abs(peak[idx]) )
+            {
+                peak[idx]     = following.peak[idx];
+                peakTime[idx] = following.peakTime[idx];
+            }
+        }
+    }
+
+
+    /**
+     * Gets the peak value of a device channel.
+     *
+     * @param device   the name of the device
+     * @param channel  the name of the channel
+     *
+     * @return the value with the largest magnitude
+     *         or <code>NaN</code> if there is no such channel
+     */
+    public float getPeak(String device, String channel)
+    {
+        final int idx = (channels != null) ? channels.find(device, channel) : -1;
+        return (idx < 0) ? Float.NaN : peak[idx];
+    }
+
+
+    /**
+     * Gets the time of the peak value of a device channel.
+     *
+     * @param device   the name of the device
+     * @param channel  the name of the channel
+     *
+     * @return the timestamp of the first frame with the peak value in seconds
+     *         or <code>NaN</code> if there is no such channel
+     */
+    public double getPeakTime(String device, String channel)
+    {
+        final int idx = (channels != null) ? channels.find(device, channel) : -1;
+        return (idx < 0) ? Double.NaN : peakTime[idx];
+    }
+
+
+    @Override
+    public String toString()
+    {
+        StringBuilder s = new StringBuilder("channel,peak,time\n");
+        if ( channels == null ) return s.toString();
+        for ( int idx = 0 ; idx < peak.length ; idx++ )
+        {
+            s.append(channels.getName(idx))
+             .append(',').append(peak[idx])
+             .append(',').append(peakTime[idx])
+             .append('\n');
+        }
+        return s.toString();
+    }
+
+
+    private void layout(Scene scene)
+    {
+        channels = new ElementIndex();
+        for ( Device device : scene.devices )
+        {
+            for ( Channel channel : device.channels )
+            {
+                channels.add(device.name, channel.name);
+            }
+        }
+        peak     = new float[channels.size()];
+        peakTime = new double[channels.size()];
+    }
+
+
+    private ElementIndex channels;
+    private float[]      peak;
+    private double[]     peakTime;
+}
@@ -0,0 +1,129 @@
+package mocap;
+
+/**
+ * Class for following the frames that a client receives.
+ * <p>
+ * Each consumer uses its own cursor.
+ * The cursor remembers the last frame the consumer has seen,
+ * so the consumer can find out if there is a new frame 
+ * and how many frames it has missed,
+ * or wait for the next frame instead of polling.
+ * <p>
+ * Example for a render loop:
+ * <pre>
+ * FrameCursor cursor = client.createFrameCursor();
+ * while ( running )
+ * {
+ *     if ( cursor.awaitNextFrame(100) )
+ *     {
+ *         synchronized(scene) { ... }
+ *     }
+ * }
+ * </pre>
+ *
+ * @author  Stefan Marks
+ */
+public class FrameCursor
+{
+    /**
+     * Creates a cursor at the latest frame of a client.
+     *
+     * @param client    the client that receives the frames
+     * @param sequence  the frame sequence of the client
+     */
+    FrameCursor(NatNetClient client, FrameSequence sequence)
+    {
+        this.client   = client;
+        this.sequence = sequence;
+        this.position = sequence.get();
+        this.missed   = 0;
+    }
+
+
+    /**
+     * Checks for a new frame without waiting.
+     * If there is a new frame, the cursor moves to it.
+     *
+     * @return <code>true</code> if there is a new frame,
+     *         <code>false</code> if not
+     */
+    public boolean pollFrame()
+    {
+        return moveTo(sequence.get());
+    }
+
+
+    /**
+     * Waits for a new frame.
+     * If there is a new frame, the cursor moves to it.
+     * When the client does not receive a data stream,
+     * the frame is requested from the server.
+     *
+     * @param timeout the maximum time to wait in milliseconds
+     *
+     * @return <code>true</code> if there is a new frame,
+     *         <code>false</code> if the time ran out
+     *
+     * @throws InterruptedException if the thread was interrupted while waiting
+     */
+    public boolean awaitNextFrame(long timeout) throws InterruptedException
+    {
+        if ( client.isConnected() && !client.isStreaming() )
+        {
+            // no stream: request the frame right away (answered in the background)
+            client.update();
+        }
+        return moveTo(sequence.await(position, timeout));
+    }
+
+
+    /**
+     * Gets the number of frames that have been received
+     * since the cursor has last moved.
+     *
+     * @return the number of new frames
+     */
+    public long getFramesSinceCursor()
+    {
+        return sequence.get() - position;
+    }
+
+
+    /**
+     * Gets the number of frames that the cursor has skipped
+     * during its last move, i.e., the frames the consumer never saw.
+     *
+     * @return the number of skipped frames
+     */
+    public long getMissedFrames()
+    {
+        return missed;
+    }
+
+
+    /**
+     * Gets the sequence number of the frame at the cursor.
+     * The sequence number counts the decoded frames of the client.
+     *
+     * @return the sequence number
+     */
+    public long getSequenceNumber()
+    {
+        return position;
+    }
+
+
+    private boolean moveTo(long newPosition)
+    {
+        if ( newPosition == position ) return false;
+        missed   = newPosition - position - 1;
+        position = newPosition;
+        return true;
+    }
+
+
+    private final NatNetClient  client;
+    private final FrameSequence sequence;
+    private       long          position;
+    private       long          missed;
+}
@@ -0,0 +1,105 @@
+package mocap;
+
+/**
+ * Entry points for the Java Flight Recorder events of the frame pipeline.
+ * <p>
+ * The events are only created if the runtime contains the flight recorder
+ * and a recording has enabled them, otherwise the calls return immediately.
+ * Events with a duration are started with a <code>begin...</code> method,
+ * which returns a token, or <code>null</code> if the event is not recorded.
+ * <p>
+ * The events are <code>mocap.PacketReceived</code>, <code>mocap.FrameDecode</code>
+ * (with the time spent waiting for the scene lock and in each section of the frame),
+ * <code>mocap.ScenePublish</code> and <code>mocap.ListenerInvocation</code>.
+ * Example recording:
+ * <pre>
+ * java -XX:StartFlightRecording=filename=show.jfr ...
+ * </pre>
+ *
+ * @author  Stefan Marks
+ */
+final class FrameEvents
+{
+    private FrameEvents()
+    {
+        // only static helpers
+    }
+
+
+    static Object beginDecode()
+    {
+        return AVAILABLE ? FlightRecorderEvents.beginDecode() : null;
+    }
+
+
+    /**
+     * Ends a decode event.
+     *
+     * @param token        the token from {@link #beginDecode()}
+     * @param frameNumber  the frame number or -1 if it could not be read
+     * @param size         the packet size in bytes
+     * @param outcome      what happened to the frame, one of the <code>OUTCOME_...</code> constants
+     * @param sections     the times in nanoseconds of: waiting for the scene lock,
+     *                     marker sets, rigid bodies, skeletons, the rest of the frame,
+     *                     frame processors (0 for sections that were not reached)
+     */
+    static void endDecode(Object token, int frameNumber, int size, String outcome, long[] sections)
+    {
+        if ( token != null ) FlightRecorderEvents.endDecode(token, frameNumber, size, outcome, sections);
+    }
+
+
+    static void packetReceived(int packetId, int size)
+    {
+        if ( AVAILABLE ) FlightRecorderEvents.packetReceived(packetId, size);
+    }
+
+
+    static Object beginPublish()
+    {
+        return AVAILABLE ? FlightRecorderEvents.beginPublish() : null;
+    }
+
+
+    static void endPublish(Object token, int frameNumber, int listeners)
+    {
+        if ( token != null ) FlightRecorderEvents.endPublish(token, frameNumber, listeners);
+    }
+
+
+    static Object beginListener()
+    {
+        return AVAILABLE ? FlightRecorderEvents.beginListener() : null;
+    }
+
+
+    static void endListener(Object token, Object listener, int frameNumber)
+    {
+        if ( token != null ) FlightRecorderEvents.endListener(token, listener, frameNumber);
+    }
+
+
+    private static boolean checkAvailable()
+    {
+        if ( Boolean.getBoolean("mocap.jfr.disabled") ) return false;
+        try
+        {
+            Class.forName("jdk.jfr.Event");
+            return true;
+        }
+        catch (ClassNotFoundException | LinkageError e)
+        {
+            return false;
+        }
+    }
+
+
+    /** the frame has been decoded into the scene */
+    final static String OUTCOME_DECODED   = "decoded";
+    /** the frame is older than the scene and has been ignored */
+    final static String OUTCOME_OLD_FRAME = "old frame";
+    /** decoding has failed, e.g., because the packet was truncated */
+    final static String OUTCOME_FAILED    = "failed";
+
+    private final static boolean AVAILABLE = checkAvailable();
+}
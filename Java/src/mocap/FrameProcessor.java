@@ -0,0 +1,31 @@
+package mocap;
+
+/**
+ * Interface for processing the data of each frame 
+ * after it has been decoded and before the scene listeners are notified,
+ * e.g., for filtering.
+ * <p>
+ * Both methods are called by the thread that decodes the packets 
+ * while holding the lock of the scene,
+ * so they should be fast and not allocate memory per frame.
+ * 
+ * @author  Stefan Marks
+ */
+public interface FrameProcessor 
+{
+    /**
+     * Called when the structure of the scene has changed, 
+     * e.g., to allocate the state for the new actors.
+     * 
+     * @param scene the scene that has been changed
+     */
+    void sceneChanged(Scene scene);
+    
+    
+    /**
+     * Called when a new frame has been decoded into the scene.
+     * 
+     * @param scene the scene with the new frame data
+     */
+    void processFrame(Scene scene);
+}
@@ -0,0 +1,395 @@
+package mocap;
+
+import java.util.ArrayDeque;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Class for publishing the frames of a client as a reactive stream
+ * of immutable {@link FrameView} snapshots.
+ * <p>
+ * Every subscriber has its own queue and receives the frames on an executor,
+ * so a slow subscriber neither blocks the receiver thread of the client
+ * nor the other subscribers.
+ * When a subscriber requests fewer frames than arrive,
+ * the overflow strategy decides what happens to the surplus.
+ *
+ * @author  Stefan Marks
+ */
+public class FramePublisher implements Flow.Publisher<FrameView>, SceneListener
+{
+    /**
+     * Strategies for frames that arrive faster than a subscriber requests them.
+     */
+    public enum OverflowStrategy
+    {
+        /** keep the latest frames, drop the oldest ones when the buffer is full */
+        DROP_OLDEST,
+        /** keep only the latest frame */
+        CONFLATE_LATEST,
+        /** keep all frames, signal an error when the buffer is full */
+        BUFFER
+    }
+
+
+    /**
+     * Creates a publisher that keeps only the latest frame for each subscriber
+     * and delivers the frames on its own threads.
+     *
+     * @param client the client to publish the frames of
+     */
+    public FramePublisher(NatNetClient client)
+    {
+        this(client, null, OverflowStrategy.CONFLATE_LATEST, 1);
+    }
+
+
+    /**
+     * Creates a publisher.
+     *
+     * @param client      the client to publish the frames of
+     * @param executor    the executor for delivering the frames
+     *                    (<code>null</code>: use own threads)
+     * @param strategy    the overflow strategy
+     * @param bufferSize  the maximum number of frames to queue per subscriber
+     */
+    public FramePublisher(NatNetClient client, Executor executor, OverflowStrategy strategy, int bufferSize)
+    {
+        if ( bufferSize < 1 )
+        {
+            throw new IllegalArgumentException("Buffer size must be at least 1");
+        }
+
+        this.client     = client;
+        this.strategy   = strategy;
+        this.bufferSize = (strategy == OverflowStrategy.CONFLATE_LATEST) ? 1 : bufferSize;
+        this.ownedExecutor = (executor == null) ? Executors.newCachedThreadPool(new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r, "FramePublisher Thread");
+                t.setDaemon(true);
+                return t;
+            }
+        }) : null;
+        this.executor      = (executor == null) ? ownedExecutor : executor;
+        this.subscriptions = new CopyOnWriteArraySet<>();
+        this.closed        = false;
+
+        client.addSceneListener(this);
+    }
+
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super FrameView> subscriber)
+    {
+        if ( subscriber == null ) throw new NullPointerException("subscriber");
+
+        FrameSubscription subscription = new FrameSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+        synchronized(subscriptions)
+        {
+            // also when closed: the subscription is removed once it has completed
+            subscriptions.add(subscription);
+        }
+        if ( closed )
+        {
+            subscription.complete();
+        }
+    }
+
+
+    /**
+     * Gets the number of current subscribers.
+     *
+     * @return the number of subscribers
+     */
+    public int getSubscriberCount()
+    {
+        return subscriptions.size();
+    }
+
+
+    /**
+     * Stops publishing frames.
+     * Subscribers receive the frames that are still queued and then complete.
+     * The own delivery threads end when the last subscriber has completed or cancelled.
+     */
+    public void close()
+    {
+        synchronized(subscriptions)
+        {
+            if ( closed ) return;
+            closed = true;
+        }
+        client.removeSceneListener(this);
+        for ( FrameSubscription subscription : subscriptions )
+        {
+            subscription.complete();
+        }
+        removeSubscription(null);
+    }
+
+
+    /**
+     * Removes a finished subscription and stops the own executor
+     * when the publisher is closed and no subscription is left to drain.
+     *
+     * @param subscription  the subscription to remove (<code>null</code>: only check)
+     */
+    private void removeSubscription(FrameSubscription subscription)
+    {
+        synchronized(subscriptions)
+        {
+            if ( subscription != null ) subscriptions.remove(subscription);
+            if ( closed && subscriptions.isEmpty() && (ownedExecutor != null) )
+            {
+                ownedExecutor.shutdown();
+            }
+        }
+    }
+
+
+    @Override
+    public void sceneUpdated(Scene scene)
+    {
+        if ( subscriptions.isEmpty() ) return;
+
+        // one snapshot for all subscribers
+        final FrameView frame;
+        synchronized(scene)
+        {
+            frame = new FrameView(scene);
+        }
+        for ( FrameSubscription subscription : subscriptions )
+        {
+            subscription.offer(frame);
+        }
+    }
+
+
+    @Override
+    public void sceneChanged(Scene scene)
+    {
+        // structure changes are part of the next frame view
+    }
+
+
+    /**
+     * Class for the subscription of a single subscriber.
+     * Frames are queued by the receiver thread and delivered by a drain task
+     * on the executor, which only ever runs once at a time per subscriber.
+     */
+    private class FrameSubscription implements Flow.Subscription, Runnable
+    {
+        public FrameSubscription(Flow.Subscriber<? super FrameView> subscriber)
+        {
+            this.subscriber = subscriber;
+            this.queue      = new ArrayDeque<>(Math.min(bufferSize, 64));
+            this.demand     = 0;
+            this.pending    = new AtomicInteger(0);
+        }
+
+
+        @Override
+        public void request(long n)
+        {
+            synchronized(this)
+            {
+                if ( n <= 0 )
+                {
+                    error = new IllegalArgumentException("Requested " + n + " frames (must be > 0)");
+                    queue.clear();
+                }
+                else
+                {
+                    demand += n;
+                    if ( demand < 0 ) demand = Long.MAX_VALUE; // "unbounded"
+                }
+            }
+            schedule();
+        }
+
+
+        @Override
+        public void cancel()
+        {
+            synchronized(this)
+            {
+                cancelled = true;
+                queue.clear();
+            }
+            removeSubscription(this);
+        }
+
+
+        /**
+         * Queues a new frame.
+         *
+         * @param frame the frame to queue
+         */
+        public void offer(FrameView frame)
+        {
+            synchronized(this)
+            {
+                if ( cancelled || completed || (error != null) ) return;
+
+                if ( queue.size() >= bufferSize )
+                {
+                    switch ( strategy )
+                    {
+                        case BUFFER:
+                        {
+                            error = new IllegalStateException(
+                                    "Subscriber too slow: more than " + bufferSize + " frames queued");
+                            queue.clear();
+                            break;
+                        }
+                        default:
+                        {
+                            queue.pollFirst();
+                            break;
+                        }
+                    }
+                }
+                if ( error == null )
+                {
+                    queue.addLast(frame);
+                }
+            }
+            schedule();
+        }
+
+
+        /**
+         * Completes the subscription after the queued frames have been delivered.
+         */
+        public void complete()
+        {
+            synchronized(this)
+            {
+                completed = true;
+            }
+            schedule();
+        }
+
+
+        private void schedule()
+        {
+            // only start a drain task if there isn't one running already
+            if ( pending.getAndIncrement() == 0 )
+            {
+                try
+                {
+                    executor.execute(this);
+                }
+                catch (RejectedExecutionException e)
+                {
+                    // executor has been shut down by its owner: deliver on this thread
+                    LOG.log(Level.FINE, "Executor rejected delivery, delivering on calling thread ({0}).", e.toString());
+                    run();
+                }
+            }
+        }
+
+
+        @Override
+        public void run()
+        {
+            int missed = 1;
+            do
+            {
+                drain();
+                missed = pending.addAndGet(-missed);
+            }
+            while ( missed != 0 );
+        }
+
+
+        private void drain()
+        {
+            while ( true )
+            {
+                FrameView frame     = null;
+                Throwable failure   = null;
+                boolean   finished  = false;
+                synchronized(this)
+                {
+                    if ( cancelled ) return;
+                    if ( error != null )
+                    {
+                        failure   = error;
+                        cancelled = true;
+                    }
+                    else if ( (demand > 0) && !queue.isEmpty() )
+                    {
+                        frame = queue.pollFirst();
+                        if ( demand != Long.MAX_VALUE ) demand--;
+                    }
+                    else if ( completed && queue.isEmpty() )
+                    {
+                        finished  = true;
+                        cancelled = true;
+                    }
+                    else
+                    {
+                        return; // nothing to do
+                    }
+                }
+
+                if ( failure != null )
+                {
+                    removeSubscription(this);
+                    subscriber.onError(failure);
+                    return;
+                }
+                if ( finished )
+                {
+                    removeSubscription(this);
+                    subscriber.onComplete();
+                    return;
+                }
+
+                try
+                {
+                    subscriber.onNext(frame);
+                }
+                catch (RuntimeException e)
+                {
+                    LOG.log(Level.WARNING, "Subscriber failed, cancelling subscription ({0}).", e.toString());
+                    cancel();
+                    return;
+                }
+            }
+        }
+
+
+        private final Flow.Subscriber<? super FrameView> subscriber;
+        private final ArrayDeque<FrameView>              queue;
+        private final AtomicInteger                      pending;
+        private       long                               demand;
+        private       boolean                            cancelled, completed;
+        private       Throwable                          error;
+    }
+
+
+    private final NatNetClient           client;
+    private final OverflowStrategy       strategy;
+    private final int                    bufferSize;
+    private final Executor               executor;
+    private final ExecutorService        ownedExecutor;
+    private final Set<FrameSubscription> subscriptions;
+    private volatile boolean             closed;
+
+    private final static Logger LOG = Logger.getLogger(FramePublisher.class.getName());
+}
@@ -0,0 +1,328 @@
+package mocap;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Class for releasing the frames of a data stream in the order of their frame numbers.
+ * <p>
+ * Frames that arrive in order are released immediately without being copied.
+ * Frames that arrive early are kept in a small window of slots
+ * until the missing frames before them arrive
+ * or until they have waited for longer than the latency budget.
+ * Duplicate frames and frames that arrive too late are dropped.
+ * A large jump in frame numbers (e.g., looped playback) is treated as a discontinuity.
+ *
+ * @author  Stefan Marks
+ */
+class FrameReorderBuffer
+{
+    /**
+     * Interface for receiving the frames in order.
+     */
+    interface Output
+    {
+        /**
+         * Called when a frame is released.
+         *
+         * @param packet      the frame packet, positioned at the start of the packet
+         * @param arrivalTime the time the packet was received
+         */
+        void frameReleased(ByteBuffer packet, long arrivalTime);
+
+        /**
+         * Called when the frame numbers jump.
+         *
+         * @param lastFrameNumber  the number of the last frame before the jump
+         * @param frameNumber      the number of the first frame after the jump
+         */
+        void discontinuity(int lastFrameNumber, int frameNumber);
+    }
+
+
+    /**
+     * Creates a reorder buffer.
+     *
+     * @param windowSize  the maximum number of frames to hold back
+     * @param maxDelay    the maximum time to hold back a frame in milliseconds
+     * @param statistics  the statistics object to update
+     * @param output      the receiver of the released frames
+     */
+    public FrameReorderBuffer(int windowSize, int maxDelay, StreamStatistics statistics, Output output)
+    {
+        this.windowSize  = windowSize;
+        this.maxDelay    = maxDelay * 1000000L;
+        this.statistics  = statistics;
+        this.output      = output;
+
+        this.discontinuityThreshold = Math.max(windowSize, MIN_DISCONTINUITY);
+
+        slotData     = new byte[windowSize][];
+        slotBuffer   = new ByteBuffer[windowSize];
+        slotFrame    = new int[windowSize];
+        slotArrival  = new long[windowSize];
+        slotUsed     = new boolean[windowSize];
+        for ( int i = 0 ; i < windowSize ; i++ )
+        {
+            allocateSlot(i, 1024);
+        }
+        reset();
+    }
+
+
+    /**
+     * Gets the size of the reorder window.
+     *
+     * @return the maximum number of frames to hold back
+     */
+    public int getWindowSize()
+    {
+        return windowSize;
+    }
+
+
+    /**
+     * Gets the maximum time to hold back a frame.
+     *
+     * @return the maximum delay in milliseconds
+     */
+    public int getMaxDelay()
+    {
+        return (int) (maxDelay / 1000000L);
+    }
+
+
+    /**
+     * Forgets all frames, e.g., when the stream is restarted.
+     */
+    public final void reset()
+    {
+        started  = false;
+        buffered = 0;
+        for ( int i = 0 ; i < windowSize ; i++ )
+        {
+            slotUsed[i]  = false;
+            slotFrame[i] = Integer.MIN_VALUE;
+        }
+    }
+
+
+    /**
+     * Adds a received frame packet.
+     *
+     * @param packet      the frame packet, positioned at the start of the packet
+     * @param arrivalTime the time the packet was received (from <code>System.nanoTime()</code>)
+     */
+    public void add(ByteBuffer packet, long arrivalTime)
+    {
+        final int frameNumber = packet.getInt(packet.position() + 4); // skip ID and length
+        statistics.framesReceived++;
+
+        if ( !started )
+        {
+            started   = true;
+            nextFrame = frameNumber;
+        }
+
+        int delta = frameNumber - nextFrame;
+        if ( (delta < -discontinuityThreshold) || (delta > MAX_FORWARD_JUMP) )
+        {
+            // looped playback or restart: release what is left and start over
+            int lastFrame = nextFrame - 1;
+            releaseUpTo(nextFrame + windowSize, false);
+            statistics.discontinuities++;
+            nextFrame = frameNumber;
+            delta     = 0;
+            output.discontinuity(lastFrame, frameNumber);
+        }
+
+        if ( delta < 0 )
+        {
+            // frame is behind the window
+            if ( slotFrame[slotIndex(frameNumber)] == frameNumber )
+            {
+                statistics.framesDuplicate++;
+            }
+            else
+            {
+                statistics.framesLate++;
+            }
+        }
+        else
+        {
+            if ( delta >= windowSize )
+            {
+                // no room in the window: give up on the oldest missing frames
+                releaseUpTo(frameNumber - windowSize + 1, true);
+                delta = frameNumber - nextFrame;
+            }
+
+            if ( delta == 0 )
+            {
+                // the expected frame: release without copying
+                if ( buffered > 0 ) statistics.framesReordered++;
+                release(packet, frameNumber, arrivalTime);
+                releaseConsecutive();
+            }
+            else
+            {
+                final int slot = slotIndex(frameNumber);
+                if ( slotUsed[slot] && (slotFrame[slot] == frameNumber) )
+                {
+                    statistics.framesDuplicate++;
+                }
+                else
+                {
+                    store(slot, packet, frameNumber, arrivalTime);
+                }
+            }
+        }
+
+        releaseExpired(arrivalTime);
+    }
+
+
+    /**
+     * Releases the frames that have waited longer than the latency budget.
+     *
+     * @param now the current time (from <code>System.nanoTime()</code>)
+     */
+    public void releaseExpired(long now)
+    {
+        while ( buffered > 0 )
+        {
+            // find the oldest frame in the window
+            int  firstFrame = nextFrame;
+            long arrival    = 0;
+            for ( int delta = 1 ; delta < windowSize ; delta++ )
+            {
+                final int slot = slotIndex(nextFrame + delta);
+                if ( slotUsed[slot] && (slotFrame[slot] == nextFrame + delta) )
+                {
+                    firstFrame = nextFrame + delta;
+                    arrival    = slotArrival[slot];
+                    break;
+                }
+            }
+
+            if ( (firstFrame == nextFrame) || (now - arrival < maxDelay) ) break;
+
+            // waited long enough: skip the missing frames
+            releaseUpTo(firstFrame, true);
+            releaseConsecutive();
+        }
+    }
+
+
+    /**
+     * Releases all frames before a frame number, skipping missing frames.
+     *
+     * @param frameNumber  the frame number to stop at
+     * @param countLost    <code>true</code> if missing frames count as lost
+     */
+    private void releaseUpTo(int frameNumber, boolean countLost)
+    {
+        if ( buffered == 0 )
+        {
+            // nothing to release, just move on
+            if ( countLost && (frameNumber > nextFrame) ) statistics.framesLost += frameNumber - nextFrame;
+            nextFrame = Math.max(nextFrame, frameNumber);
+            return;
+        }
+
+        while ( nextFrame < frameNumber )
+        {
+            final int slot = slotIndex(nextFrame);
+            if ( slotUsed[slot] && (slotFrame[slot] == nextFrame) )
+            {
+                releaseSlot(slot);
+            }
+            else
+            {
+                if ( countLost ) statistics.framesLost++;
+                nextFrame++;
+            }
+        }
+    }
+
+
+    /**
+     * Releases all buffered frames that directly follow the last released frame.
+     */
+    private void releaseConsecutive()
+    {
+        while ( buffered > 0 )
+        {
+            final int slot = slotIndex(nextFrame);
+            if ( !slotUsed[slot] || (slotFrame[slot] != nextFrame) ) break;
+            releaseSlot(slot);
+        }
+    }
+
+
+    private void releaseSlot(int slot)
+    {
+        slotUsed[slot] = false;
+        buffered--;
+        release(slotBuffer[slot], slotFrame[slot], slotArrival[slot]);
+    }
+
+
+    private void release(ByteBuffer packet, int frameNumber, long arrivalTime)
+    {
+        slotFrame[slotIndex(frameNumber)] = frameNumber; // remember for duplicate detection
+        nextFrame = frameNumber + 1;
+        output.frameReleased(packet, arrivalTime);
+    }
+
+
+    private void store(int slot, ByteBuffer packet, int frameNumber, long arrivalTime)
+    {
+        final int length = packet.remaining();
+        if ( slotData[slot].length < length )
+        {
+            allocateSlot(slot, length);
+        }
+        packet.get(slotData[slot], 0, length);
+        slotBuffer[slot].clear().limit(length);
+        slotFrame[slot]   = frameNumber;
+        slotArrival[slot] = arrivalTime;
+        slotUsed[slot]    = true;
+        buffered++;
+    }
+
+
+    private void allocateSlot(int slot, int size)
+    {
+        slotData[slot]   = new byte[size];
+        slotBuffer[slot] = ByteBuffer.wrap(slotData[slot]).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+
+    private int slotIndex(int frameNumber)
+    {
+        return ((frameNumber % windowSize) + windowSize) % windowSize;
+    }
+
+
+    private final int              windowSize;
+    private final long             maxDelay;
+    private final int              discontinuityThreshold;
+    private final StreamStatistics statistics;
+    private final Output           output;
+
+    private final byte[][]         slotData;
+    private final ByteBuffer[]     slotBuffer;
+    private final int[]            slotFrame;
+    private final long[]           slotArrival;
+    private final boolean[]        slotUsed;
+
+    private       boolean          started;
+    private       int              nextFrame;
+    private       int              buffered;
+
+    // backwards jumps larger than this are not late frames, but a restart
+    private final static int MIN_DISCONTINUITY = 10;
+    // forward jumps larger than this are not lost frames, but a skip
+    private final static int MAX_FORWARD_JUMP  = 1000;
+}
@@ -0,0 +1,68 @@
+package mocap;
+
+/**
+ * Class for numbering the frames that a client has decoded,
+ * so that consumers can wait for new frames.
+ * The sequence number counts every decoded frame, 
+ * independent of the frame numbers of the server.
+ *
+ * @author  Stefan Marks
+ */
+class FrameSequence
+{
+    /**
+     * Creates a new sequence, starting at 0.
+     */
+    public FrameSequence()
+    {
+        sequence = 0;
+    }
+
+
+    /**
+     * Counts a new frame and wakes up all waiting consumers.
+     */
+    public synchronized void advance()
+    {
+        sequence++;
+        notifyAll();
+    }
+
+
+    /**
+     * Gets the sequence number of the latest frame.
+     *
+     * @return the sequence number
+     */
+    public long get()
+    {
+        return sequence;
+    }
+
+
+    /**
+     * Waits until there is a frame after a given sequence number.
+     *
+     * @param last     the sequence number of the last frame the consumer has seen
+     * @param timeout  the maximum time to wait in milliseconds
+     *
+     * @return the sequence number of the latest frame
+     *         (equal to <code>last</code> if the time ran out)
+     *
+     * @throws InterruptedException if the thread was interrupted while waiting
+     */
+    public synchronized long await(long last, long timeout) throws InterruptedException
+    {
+        final long end = System.nanoTime() + timeout * 1000000L;
+        long remaining = timeout;
+        while ( (sequence == last) && (remaining > 0) )
+        {
+            wait(remaining);
+            remaining = (end - System.nanoTime()) / 1000000L;
+        }
+        return sequence;
+    }
+
+
+    private volatile long sequence; // read without lock by polling consumers
+}
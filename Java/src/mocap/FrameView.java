@@ -0,0 +1,220 @@
+package mocap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Class for an immutable snapshot of the data of a scene.
+ * <p>
+ * Unlike the scene itself, which is overwritten with every new frame,
+ * a frame view can be handed to other threads and kept for later.
+ *
+ * @author  Stefan Marks
+ */
+public final class FrameView
+{
+    public final int              frameNumber;     // frame number
+    public final double           timestamp;       // timestamp in server time
+    public final int              latency;         // delay in milliseconds from camera capture to SDK output
+    public final long             localTimestamp;  // capture time in local System.nanoTime() units
+    public final float            totalLatency;    // delay in milliseconds from camera capture to local delivery
+    public final List<ActorView>  actors;          // actor data
+    public final List<DeviceView> devices;         // interaction device data
+
+
+    /**
+     * Class for an immutable snapshot of a marker.
+     */
+    public static final class MarkerView
+    {
+        public final String  name;        // name
+        public final float   px, py, pz;  // position
+        public final boolean tracked;     // tracking state
+
+        private MarkerView(Marker marker)
+        {
+            name    = marker.name;
+            px      = marker.px;
+            py      = marker.py;
+            pz      = marker.pz;
+            tracked = marker.tracked;
+        }
+    }
+
+
+    /**
+     * Class for an immutable snapshot of a bone.
+     */
+    public static final class BoneView
+    {
+        public final String  name;            // name of the bone
+        public final int     id;              // ID of the bone
+        public final float   px, py, pz;      // position
+        public final float   qx, qy, qz, qw;  // rotation
+        public final boolean tracked;         // tracking flag
+
+        private BoneView(Bone bone)
+        {
+            name    = bone.name;
+            id      = bone.id;
+            px      = bone.px; py = bone.py; pz = bone.pz;
+            qx      = bone.qx; qy = bone.qy; qz = bone.qz; qw = bone.qw;
+            tracked = bone.tracked;
+        }
+    }
+
+
+    /**
+     * Class for an immutable snapshot of an actor.
+     */
+    public static final class ActorView
+    {
+        public final String           name;     // actor name
+        public final int              id;       // actor ID
+        public final List<MarkerView> markers;  // markers
+        public final List<BoneView>   bones;    // bones
+
+        private ActorView(Actor actor)
+        {
+            name = actor.name;
+            id   = actor.id;
+
+            List<MarkerView> markerList = new ArrayList<>(actor.markers.length);
+            for ( Marker marker : actor.markers )
+            {
+                markerList.add(new MarkerView(marker));
+            }
+            markers = Collections.unmodifiableList(markerList);
+
+            List<BoneView> boneList = new ArrayList<>(actor.bones.length);
+            for ( Bone bone : actor.bones )
+            {
+                boneList.add(new BoneView(bone));
+            }
+            bones = Collections.unmodifiableList(boneList);
+        }
+
+        /**
+         * Returns the bone with a given name.
+         *
+         * @param name  the bone name to search for
+         *
+         * @return the bone with that name
+         *         or <code>null</code> if the bone doesn't exist
+         */
+        public BoneView findBone(String name)
+        {
+            for ( BoneView bone : bones )
+            {
+                if ( bone.name.equals(name) ) return bone;
+            }
+            return null;
+        }
+    }
+
+
+    /**
+     * Class for an immutable snapshot of an interaction device.
+     */
+    public static final class DeviceView
+    {
+        public final String       name;          // device name
+        public final int          id;            // device ID
+        public final List<String> channelNames;  // names of the channels
+        private final float[]     values;        // channel values
+
+        private DeviceView(Device device)
+        {
+            name   = device.name;
+            id     = device.id;
+            values = new float[device.channels.length];
+
+            List<String> nameList = new ArrayList<>(device.channels.length);
+            for ( int i = 0 ; i < device.channels.length ; i++ )
+            {
+                nameList.add(device.channels[i].name);
+                values[i] = device.channels[i].value;
+            }
+            channelNames = Collections.unmodifiableList(nameList);
+        }
+
+        /**
+         * Gets the value of a channel.
+         *
+         * @param idx  the index of the channel
+         *
+         * @return the channel value
+         */
+        public float getValue(int idx)
+        {
+            return values[idx];
+        }
+    }
+
+
+    /**
+     * Creates a snapshot of the current data of a scene.
+     * The caller has to hold the lock of the scene.
+     *
+     * @param scene the scene to take the snapshot of
+     */
+    FrameView(Scene scene)
+    {
+        frameNumber    = scene.frameNumber;
+        timestamp      = scene.timestamp;
+        latency        = scene.latency;
+        localTimestamp = scene.localTimestamp;
+        totalLatency   = scene.totalLatency;
+
+        List<ActorView> actorList = new ArrayList<>(scene.actors.length);
+        for ( Actor actor : scene.actors )
+        {
+            actorList.add(new ActorView(actor));
+        }
+        actors = Collections.unmodifiableList(actorList);
+
+        List<DeviceView> deviceList = new ArrayList<>(scene.devices.length);
+        for ( Device device : scene.devices )
+        {
+            deviceList.add(new DeviceView(device));
+        }
+        devices = Collections.unmodifiableList(deviceList);
+    }
+
+
+    /**
+     * Returns the actor with a given name.
+     *
+     * @param name  the actor name to search for
+     *
+     * @return the actor with that name
+     *         or <code>null</code> if the actor doesn't exist
+     */
+    public ActorView findActor(String name)
+    {
+        for ( ActorView actor : actors )
+        {
+            if ( actor.name.equals(name) ) return actor;
+        }
+        return null;
+    }
+
+
+    /**
+     * Returns the device with a given name.
+     *
+     * @param name  the device name to search for
+     *
+     * @return the device with that name
+     *         or <code>null</code> if the device doesn't exist
+     */
+    public DeviceView findDevice(String name)
+    {
+        for ( DeviceView device : devices )
+        {
+            if ( device.name.equals(name) ) return device;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,281 @@
+package mocap;
+
+import java.util.Arrays;
+
+/**
+ * Class for filling in marker positions and bone poses during short tracking dropouts.
+ * <p>
+ * While a marker or bone is tracked, its recent history is recorded.
+ * When tracking is lost, the values are filled in for up to a maximum number of frames,
+ * either by holding the last value or by extrapolating the last movement.
+ * Markers of a rigid body are preferably reconstructed from the pose of the rigid body,
+ * as long as that is still tracked.
+ * Filled values keep <code>tracked == false</code>, but have <code>filled == true</code>.
+ * <p>
+ * The history is kept in primitive arrays that are only allocated
+ * when the scene structure changes.
+ * To combine gap filling with filtering, add the gap filler first.
+ *
+ * @author  Stefan Marks
+ */
+public class GapFiller implements FrameProcessor
+{
+    /**
+     * Methods for filling in the values.
+     */
+    public enum Mode
+    {
+        /** keep the last tracked value */
+        HOLD,
+        /** continue the last movement */
+        LINEAR
+    }
+
+
+    /**
+     * Creates a gap filler.
+     *
+     * @param mode    the method for filling in values
+     * @param maxGap  the maximum number of frames to fill in
+     */
+    public GapFiller(Mode mode, int maxGap)
+    {
+        this.mode     = mode;
+        this.maxGap   = maxGap;
+        this.useRigid = true;
+        this.state    = new ActorState[0];
+    }
+
+
+    /**
+     * Sets whether markers of rigid bodies are reconstructed
+     * from the pose of the rigid body.
+     *
+     * @param enabled <code>true</code> to use the rigid body constraint
+     */
+    public void setRigidBodyFill(boolean enabled)
+    {
+        useRigid = enabled;
+    }
+
+
+    @Override
+    public void sceneChanged(Scene scene)
+    {
+        ActorState[] newState = new ActorState[scene.actors.length];
+        for ( int i = 0 ; i < newState.length ; i++ )
+        {
+            newState[i] = new ActorState(scene.actors[i]);
+        }
+        state = newState;
+    }
+
+
+    @Override
+    public void processFrame(Scene scene)
+    {
+        if ( state.length != scene.actors.length ) sceneChanged(scene);
+
+        for ( int i = 0 ; i < state.length ; i++ )
+        {
+            state[i].process(scene.actors[i]);
+        }
+    }
+
+
+    /**
+     * Class for the history of the markers and bones of an actor.
+     */
+    private class ActorState
+    {
+        public ActorState(Actor actor)
+        {
+            markerCount  = actor.markers.length;
+            boneCount    = actor.bones.length;
+            markerData   = new float[markerCount * MARKER_SIZE];
+            markerGap    = new int[markerCount];
+            markerRigid  = new boolean[markerCount];
+            boneData     = new float[boneCount * BONE_SIZE];
+            boneGap      = new int[boneCount];
+
+            // no history yet
+            Arrays.fill(markerGap, NO_HISTORY);
+            Arrays.fill(boneGap,   NO_HISTORY);
+        }
+
+
+        public void process(Actor actor)
+        {
+            if ( (actor.markers.length != markerCount) || (actor.bones.length != boneCount) ) return;
+
+            // bones first, so the rigid body pose is known for the markers
+            for ( int i = 0 ; i < boneCount ; i++ )
+            {
+                processBone(actor.bones[i], i * BONE_SIZE, i);
+            }
+
+            // markers of a rigid body move with its only bone
+            final Bone rigidBody = (useRigid && (boneCount == 1)) ? actor.bones[0] : null;
+            for ( int i = 0 ; i < markerCount ; i++ )
+            {
+                processMarker(actor.markers[i], rigidBody, i * MARKER_SIZE, i);
+            }
+        }
+
+
+        private void processBone(Bone bone, int o, int idx)
+        {
+            final float[] d = boneData;
+            if ( bone.tracked )
+            {
+                if ( boneGap[idx] == 0 )
+                {
+                    // velocity and rotation change since last frame
+                    d[o + 3] = bone.px - d[o];
+                    d[o + 4] = bone.py - d[o + 1];
+                    d[o + 5] = bone.pz - d[o + 2];
+                    // dq = q * conj(qLast)
+                    final float lx = -d[o + 6], ly = -d[o + 7], lz = -d[o + 8], lw = d[o + 9];
+                    d[o + 10] = bone.qw * lx + bone.qx * lw + bone.qy * lz - bone.qz * ly;
+                    d[o + 11] = bone.qw * ly - bone.qx * lz + bone.qy * lw + bone.qz * lx;
+                    d[o + 12] = bone.qw * lz + bone.qx * ly - bone.qy * lx + bone.qz * lw;
+                    d[o + 13] = bone.qw * lw - bone.qx * lx - bone.qy * ly - bone.qz * lz;
+                }
+                else
+                {
+                    // no movement known yet
+                    d[o + 3] = d[o + 4] = d[o + 5] = 0;
+                    d[o + 10] = d[o + 11] = d[o + 12] = 0; d[o + 13] = 1;
+                }
+                d[o]     = bone.px; d[o + 1] = bone.py; d[o + 2] = bone.pz;
+                d[o + 6] = bone.qx; d[o + 7] = bone.qy; d[o + 8] = bone.qz; d[o + 9] = bone.qw;
+                boneGap[idx] = 0;
+                bone.filled  = false;
+            }
+            else if ( (boneGap[idx] == NO_HISTORY) || (boneGap[idx] >= maxGap) )
+            {
+                // nothing to fill in with or gap too long
+                bone.filled = false;
+            }
+            else
+            {
+                boneGap[idx]++;
+                if ( mode == Mode.LINEAR )
+                {
+                    d[o]     += d[o + 3];
+                    d[o + 1] += d[o + 4];
+                    d[o + 2] += d[o + 5];
+                    // q = dq * q
+                    final float dx = d[o + 10], dy = d[o + 11], dz = d[o + 12], dw = d[o + 13];
+                    final float qx = d[o + 6],  qy = d[o + 7],  qz = d[o + 8],  qw = d[o + 9];
+                    d[o + 6] = dw * qx + dx * qw + dy * qz - dz * qy;
+                    d[o + 7] = dw * qy - dx * qz + dy * qw + dz * qx;
+                    d[o + 8] = dw * qz + dx * qy - dy * qx + dz * qw;
+                    d[o + 9] = dw * qw - dx * qx - dy * qy - dz * qz;
+                }
+                bone.px = d[o];     bone.py = d[o + 1]; bone.pz = d[o + 2];
+                bone.qx = d[o + 6]; bone.qy = d[o + 7]; bone.qz = d[o + 8]; bone.qw = d[o + 9];
+                bone.filled = true;
+            }
+        }
+
+
+        private void processMarker(Marker marker, Bone rigidBody, int o, int idx)
+        {
+            final float[] d = markerData;
+            final boolean rigidTracked = (rigidBody != null) && rigidBody.tracked;
+            if ( marker.tracked )
+            {
+                if ( markerGap[idx] == 0 )
+                {
+                    d[o + 3] = marker.px - d[o];
+                    d[o + 4] = marker.py - d[o + 1];
+                    d[o + 5] = marker.pz - d[o + 2];
+                }
+                else
+                {
+                    d[o + 3] = d[o + 4] = d[o + 5] = 0;
+                }
+                d[o] = marker.px; d[o + 1] = marker.py; d[o + 2] = marker.pz;
+
+                if ( rigidTracked )
+                {
+                    // remember offset in the local coordinate system of the rigid body
+                    rotate(rigidBody, -1,
+                           marker.px - rigidBody.px, marker.py - rigidBody.py, marker.pz - rigidBody.pz,
+                           d, o + 6);
+                    markerRigid[idx] = true;
+                }
+                markerGap[idx] = 0;
+                marker.filled  = false;
+            }
+            else if ( (rigidBody != null) && (rigidTracked || rigidBody.filled) && markerRigid[idx] )
+            {
+                // rigid body constraint: as long as the rigid body pose is known
+                rotate(rigidBody, 1, d[o + 6], d[o + 7], d[o + 8], d, o);
+                d[o] += rigidBody.px; d[o + 1] += rigidBody.py; d[o + 2] += rigidBody.pz;
+                d[o + 3] = d[o + 4] = d[o + 5] = 0;
+                marker.px = d[o]; marker.py = d[o + 1]; marker.pz = d[o + 2];
+                markerGap[idx] = Math.max(1, markerGap[idx]);
+                marker.filled  = true;
+            }
+            else if ( (markerGap[idx] == NO_HISTORY) || (markerGap[idx] >= maxGap) )
+            {
+                marker.filled = false;
+            }
+            else
+            {
+                markerGap[idx]++;
+                if ( mode == Mode.LINEAR )
+                {
+                    d[o] += d[o + 3]; d[o + 1] += d[o + 4]; d[o + 2] += d[o + 5];
+                }
+                marker.px = d[o]; marker.py = d[o + 1]; marker.pz = d[o + 2];
+                marker.filled = true;
+            }
+        }
+
+
+        private final int       markerCount, boneCount;
+        private final float[]   markerData; // per marker: position, velocity, rigid body offset
+        private final int[]     markerGap;  // per marker: frames since last tracked
+        private final boolean[] markerRigid;
+        private final float[]   boneData;   // per bone: position, velocity, rotation, rotation change
+        private final int[]     boneGap;    // per bone: frames since last tracked
+    }
+
+
+    /**
+     * Rotates a vector by the rotation of a bone or by its inverse.
+     *
+     * @param bone       the bone with the rotation
+     * @param direction  1: rotation, -1: inverse rotation
+     * @param vx         X component of the vector
+     * @param vy         Y component of the vector
+     * @param vz         Z component of the vector
+     * @param out        the array for the result
+     * @param o          the offset of the result in the array
+     */
+    private static void rotate(Bone bone, int direction, float vx, float vy, float vz, float[] out, int o)
+    {
+        final float qx = bone.qx * direction, qy = bone.qy * direction, qz = bone.qz * direction;
+        final float qw = bone.qw;
+        // v' = v + 2w (q x v) + 2 q x (q x v)
+        final float tx = 2 * (qy * vz - qz * vy);
+        final float ty = 2 * (qz * vx - qx * vz);
+        final float tz = 2 * (qx * vy - qy * vx);
+        out[o]     = vx + qw * tx + (qy * tz - qz * ty);
+        out[o + 1] = vy + qw * ty + (qz * tx - qx * tz);
+        out[o + 2] = vz + qw * tz + (qx * ty - qy * tx);
+    }
+
+
+    private final    Mode         mode;
+    private final    int          maxGap;
+    private volatile boolean      useRigid;
+    private          ActorState[] state;
+
+    private final static int MARKER_SIZE = 9;  // position, velocity, rigid body offset
+    private final static int BONE_SIZE   = 14; // position, velocity, rotation, rotation change
+    private final static int NO_HISTORY  = -1;
+}
@@ -0,0 +1,86 @@
+package mocap;
+
+/**
+ * Class for a Kalman filter with a constant velocity model.
+ * <p>
+ * The filter estimates value and velocity, so unlike a plain low pass filter
+ * it does not lag behind a steady movement.
+ * The ratio of process noise and measurement noise sets the amount of smoothing.
+ * 
+ * @author  Stefan Marks
+ */
+public class KalmanFilter implements ScalarFilter
+{
+    /**
+     * Creates a Kalman filter.
+     * 
+     * @param processNoise      the variance of the acceleration (units/s&sup2;)&sup2;
+     *                          (higher: follows quick changes faster)
+     * @param measurementNoise  the variance of the measured values (units&sup2;)
+     *                          (higher: more smoothing)
+     */
+    public KalmanFilter(float processNoise, float measurementNoise)
+    {
+        this.processNoise     = processNoise;
+        this.measurementNoise = measurementNoise;
+    }
+    
+    
+    @Override
+    public int getStateSize()
+    {
+        return 5; // value, velocity, covariance (p00, p01, p11)
+    }
+    
+    
+    @Override
+    public void reset(float value, double[] state, int offset)
+    {
+        state[offset]     = value;
+        state[offset + 1] = 0;
+        state[offset + 2] = measurementNoise;
+        state[offset + 3] = 0;
+        state[offset + 4] = INITIAL_VELOCITY_VARIANCE;
+    }
+    
+    
+    @Override
+    public float filter(float value, float dt, double[] state, int offset)
+    {
+        double x   = state[offset];
+        double v   = state[offset + 1];
+        double p00 = state[offset + 2];
+        double p01 = state[offset + 3];
+        double p11 = state[offset + 4];
+        
+        // predict
+        final double dt2 = dt * dt;
+        x   += v * dt;
+        p00 += dt * (2 * p01 + dt * p11) + processNoise * dt2 * dt2 / 4;
+        p01 += dt * p11                  + processNoise * dt2 * dt  / 2;
+        p11 +=                             processNoise * dt2;
+        
+        // correct
+        final double s  = p00 + measurementNoise;
+        final double k0 = p00 / s;
+        final double k1 = p01 / s;
+        final double y  = value - x;
+        x   += k0 * y;
+        v   += k1 * y;
+        p11 -= k1 * p01;
+        p01 -= k0 * p01;
+        p00 -= k0 * p00;
+        
+        state[offset]     = x;
+        state[offset + 1] = v;
+        state[offset + 2] = p00;
+        state[offset + 3] = p01;
+        state[offset + 4] = p11;
+        return (float) x;
+    }
+    
+    
+    private final float processNoise, measurementNoise;
+    
+    private final static double INITIAL_VELOCITY_VARIANCE = 1.0;
+}
@@ -0,0 +1,141 @@
+package mocap;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Class for a histogram of latencies with a constant relative precision.
+ * <p>
+ * Each power of two of microseconds is divided into {@value #SUB_BUCKETS} buckets,
+ * so values are recorded with a precision of about 6%,
+ * from 1 microsecond up to about one hour.
+ * Recording a value does not allocate memory or take a lock.
+ *
+ * @author  Stefan Marks
+ */
+public class LatencyHistogram
+{
+    /**
+     * Creates an empty histogram.
+     */
+    public LatencyHistogram()
+    {
+        counts = new AtomicLongArray(MAGNITUDES * SUB_BUCKETS);
+    }
+
+
+    /**
+     * Records a latency.
+     *
+     * @param latency the latency in nanoseconds
+     */
+    public void record(long latency)
+    {
+        counts.incrementAndGet(bucket(Math.max(0, latency / 1000)));
+    }
+
+
+    /**
+     * Clears the histogram.
+     */
+    public void reset()
+    {
+        for ( int idx = 0 ; idx < counts.length() ; idx++ )
+        {
+            counts.set(idx, 0);
+        }
+    }
+
+
+    /**
+     * Gets the number of recorded latencies.
+     *
+     * @return the number of latencies
+     */
+    public long getCount()
+    {
+        long count = 0;
+        for ( int idx = 0 ; idx < counts.length() ; idx++ )
+        {
+            count += counts.get(idx);
+        }
+        return count;
+    }
+
+
+    /**
+     * Gets the latency that a given percentage of the recorded latencies does not exceed.
+     *
+     * @param percentile the percentage (0...100)
+     *
+     * @return the latency in microseconds (upper end of the bucket)
+     *         or 0 if nothing was recorded
+     */
+    public long getPercentile(double percentile)
+    {
+        final long total = getCount();
+        if ( total == 0 ) return 0;
+
+        final long limit = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+        long count = 0;
+        for ( int idx = 0 ; idx < counts.length() ; idx++ )
+        {
+            count += counts.get(idx);
+            if ( count >= limit ) return upperBound(idx);
+        }
+        return upperBound(counts.length() - 1);
+    }
+
+
+    /**
+     * Gets the highest recorded latency.
+     *
+     * @return the latency in microseconds (upper end of the bucket)
+     *         or 0 if nothing was recorded
+     */
+    public long getMax()
+    {
+        for ( int idx = counts.length() - 1 ; idx >= 0 ; idx-- )
+        {
+            if ( counts.get(idx) > 0 ) return upperBound(idx);
+        }
+        return 0;
+    }
+
+
+    @Override
+    public String toString()
+    {
+        return "n=" + getCount() +
+               ", p50=" + getPercentile(50) + "us" +
+               ", p90=" + getPercentile(90) + "us" +
+               ", p99=" + getPercentile(99) + "us" +
+               ", p99.9=" + getPercentile(99.9) + "us" +
+               ", max=" + getMax() + "us";
+    }
+
+
+    private static int bucket(long value)
+    {
+        if ( value < SUB_BUCKETS ) return (int) value; // first range is exact
+        final int magnitude = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS + 1;
+        if ( magnitude >= MAGNITUDES ) return MAGNITUDES * SUB_BUCKETS - 1;
+        final int sub = (int) (value >>> (magnitude - 1)) - SUB_BUCKETS; // 0...SUB_BUCKETS-1
+        return magnitude * SUB_BUCKETS + sub;
+    }
+
+
+    private static long upperBound(int bucket)
+    {
+        final int magnitude = bucket / SUB_BUCKETS;
+        final int sub       = bucket % SUB_BUCKETS;
+        if ( magnitude == 0 ) return sub;
+        return ((long) (sub + SUB_BUCKETS + 1) << (magnitude - 1)) - 1;
+    }
+
+
+    private final AtomicLongArray counts;
+
+    private final static int SUB_BITS    = 4;
+    private final static int SUB_BUCKETS = 1 << SUB_BITS;
+    private final static int MAGNITUDES  = 29; // up to 2^32 us
+}
@@ -0,0 +1,589 @@
+package mocap;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Class for reading a frame of data directly from the received packet.
+ * <p>
+ * When a packet arrives, only the positions of the sections and elements are indexed.
+ * Marker, bone and channel values are read from the packet when they are requested,
+ * so the effort depends on how much of the frame is actually used.
+ * Elements are addressed by their index in the frame,
+ * the <code>find...</code> methods translate names and IDs into indices.
+ * <p>
+ * The frame is a view of the receive buffer of the client,
+ * which is reused for the next packet.
+ * It is only valid during {@link LazyFrameListener#frameReceived(LazyFrame)}.
+ *
+ * @author  Stefan Marks
+ */
+public final class LazyFrame
+{
+    /**
+     * Creates an empty frame.
+     */
+    LazyFrame()
+    {
+        markerSets  = new int[8];
+        rigidBodies = new int[16];
+        skeletons   = new int[8];
+        boneStart   = new int[9];
+        bones       = new int[64];
+        forcePlates = new int[4];
+    }
+
+
+    /**
+     * Indexes a frame of data.
+     *
+     * @param buf          the buffer with the packet content,
+     *                     positioned after the packet ID and length
+     * @param version      the NatNet version of the server
+     * @param arrivalTime  the time the packet was received (<code>System.nanoTime()</code>)
+     */
+    void index(ByteBuffer buf, byte[] version, long arrivalTime)
+    {
+        // same dataset versions as the decoder of the client
+        final boolean includesMarkerIDsAndSizes   = atLeast(version, 2, 0);
+        final boolean includesSkeletonData        = atLeast(version, 2, 1);
+        final boolean includesLabelledMarkers     = atLeast(version, 2, 3);
+        final boolean includesLabelledMarkerFlags = atLeast(version, 2, 6);
+        final boolean includesForcePlateData      = atLeast(version, 2, 9);
+
+        this.buf                     = buf;
+        this.arrivalTime             = arrivalTime;
+        this.rigidBodyDetails        = includesMarkerIDsAndSizes;
+        this.includesTrackingState   = atLeast(version, 2, 6);
+        this.timecodeDoublePrecision = atLeast(version, 2, 2);
+        nMarkerSets = nRigidBodies = nSkeletons = nForcePlates = 0;
+        boneStart[0] = 0;
+
+        int pos = buf.position();
+        frameNumber = buf.getInt(pos); pos += 4;
+
+        final int markerSetCount = buf.getInt(pos); pos += 4;
+        for ( int idx = 0 ; idx < markerSetCount ; idx++ )
+        {
+            markerSets = add(markerSets, nMarkerSets++, pos); // name
+            while ( buf.get(pos++) != 0 ) { }
+            pos += 4 + buf.getInt(pos) * 12; // count, 3 floats per marker
+        }
+
+        pos += 4 + buf.getInt(pos) * 12; // unidentified markers
+
+        final int rigidBodyCount = buf.getInt(pos); pos += 4;
+        for ( int idx = 0 ; idx < rigidBodyCount ; idx++ )
+        {
+            rigidBodies = add(rigidBodies, nRigidBodies++, pos);
+            pos = skipBone(pos, includesMarkerIDsAndSizes, includesMarkerIDsAndSizes);
+        }
+
+        if ( includesSkeletonData )
+        {
+            final int skeletonCount = buf.getInt(pos); pos += 4;
+            for ( int idx = 0 ; idx < skeletonCount ; idx++ )
+            {
+                skeletons = add(skeletons, nSkeletons, pos);
+                int nBones = boneStart[nSkeletons];
+                final int boneCount = buf.getInt(pos + 4); pos += 8;
+                for ( int boneIdx = 0 ; boneIdx < boneCount ; boneIdx++ )
+                {
+                    bones = add(bones, nBones++, pos);
+                    pos = skipBone(pos, true, true);
+                }
+                nSkeletons++;
+                boneStart = add(boneStart, nSkeletons, nBones);
+            }
+        }
+
+        if ( includesLabelledMarkers )
+        {
+            pos += 4 + buf.getInt(pos) * (includesLabelledMarkerFlags ? 22 : 20);
+        }
+
+        if ( includesForcePlateData )
+        {
+            final int forcePlateCount = buf.getInt(pos); pos += 4;
+            for ( int idx = 0 ; idx < forcePlateCount ; idx++ )
+            {
+                forcePlates = add(forcePlates, nForcePlates++, pos);
+                final int channelCount = buf.getInt(pos + 4); pos += 8;
+                for ( int channel = 0 ; channel < channelCount ; channel++ )
+                {
+                    pos += 4 + buf.getInt(pos) * 4; // frame count, 1 float per frame
+                }
+            }
+        }
+
+        footer = pos; // latency, timecode, timestamp
+        buf.get(footer + 4 + 8 + (timecodeDoublePrecision ? 7 : 3)); // checks the length
+    }
+
+
+    /**
+     * Gets the frame number.
+     *
+     * @return the frame number
+     */
+    public int getFrameNumber()
+    {
+        return frameNumber;
+    }
+
+
+    /**
+     * Gets the timestamp of the frame.
+     *
+     * @return the timestamp in seconds
+     */
+    public double getTimestamp()
+    {
+        return timecodeDoublePrecision ? buf.getDouble(footer + 12) : buf.getFloat(footer + 12);
+    }
+
+
+    /**
+     * Gets the delay from camera capture to the output of the server.
+     *
+     * @return the latency in milliseconds
+     */
+    public int getLatency()
+    {
+        return (int) (buf.getFloat(footer) * 1000);
+    }
+
+
+    /**
+     * Gets the time the packet of this frame was received.
+     *
+     * @return the arrival time (<code>System.nanoTime()</code>)
+     */
+    public long getArrivalTime()
+    {
+        return arrivalTime;
+    }
+
+
+    /**
+     * Gets the number of marker sets.
+     *
+     * @return the number of marker sets
+     */
+    public int getMarkerSetCount()
+    {
+        return nMarkerSets;
+    }
+
+
+    /**
+     * Gets the name of a marker set.
+     *
+     * @param set  the index of the marker set
+     *
+     * @return the name of the marker set
+     */
+    public String getMarkerSetName(int set)
+    {
+        StringBuilder s = new StringBuilder();
+        char c;
+        for ( int pos = markerSets[checkIndex(set, nMarkerSets)] ; (c = (char) buf.get(pos)) != '\0' ; pos++ )
+        {
+            s.append(c);
+        }
+        return s.toString();
+    }
+
+
+    /**
+     * Finds a marker set by its name.
+     *
+     * @param name  the name of the marker set
+     *
+     * @return the index of the marker set
+     *         or -1 if the frame doesn't contain it
+     */
+    public int findMarkerSet(String name)
+    {
+        for ( int set = 0 ; set < nMarkerSets ; set++ )
+        {
+            // compare in place, without creating a string
+            int pos = markerSets[set];
+            int idx = 0;
+            while ( (idx < name.length()) && (buf.get(pos + idx) == (byte) name.charAt(idx)) ) idx++;
+            if ( (idx == name.length()) && (buf.get(pos + idx) == 0) ) return set;
+        }
+        return -1;
+    }
+
+
+    /**
+     * Gets the number of markers in a marker set.
+     *
+     * @param set  the index of the marker set
+     *
+     * @return the number of markers
+     */
+    public int getMarkerCount(int set)
+    {
+        return buf.getInt(markerCountPos(set));
+    }
+
+
+    /**
+     * Reads the position of a marker.
+     *
+     * @param set     the index of the marker set
+     * @param marker  the index of the marker in the set
+     * @param target  the marker to store the position and tracking state in
+     */
+    public void readMarker(int set, int marker, Marker target)
+    {
+        final int countPos = markerCountPos(set);
+        final int pos      = countPos + 4 + checkIndex(marker, buf.getInt(countPos)) * 12;
+        target.px = buf.getFloat(pos);
+        target.py = buf.getFloat(pos + 4);
+        target.pz = buf.getFloat(pos + 8);
+        // XYZ == 0 indicates lost tracking
+        target.tracked = (target.px != 0) || (target.py != 0) || (target.pz != 0);
+    }
+
+
+    /**
+     * Gets the number of rigid bodies.
+     *
+     * @return the number of rigid bodies
+     */
+    public int getRigidBodyCount()
+    {
+        return nRigidBodies;
+    }
+
+
+    /**
+     * Gets the ID of a rigid body.
+     *
+     * @param body  the index of the rigid body
+     *
+     * @return the ID of the rigid body
+     */
+    public int getRigidBodyId(int body)
+    {
+        return buf.getInt(rigidBodies[checkIndex(body, nRigidBodies)]);
+    }
+
+
+    /**
+     * Finds a rigid body by its ID.
+     *
+     * @param id  the ID of the rigid body
+     *
+     * @return the index of the rigid body
+     *         or -1 if the frame doesn't contain it
+     */
+    public int findRigidBody(int id)
+    {
+        return find(rigidBodies, 0, nRigidBodies, id);
+    }
+
+
+    /**
+     * Reads the pose of a rigid body.
+     *
+     * @param body    the index of the rigid body
+     * @param target  the bone to store the pose and tracking state in
+     */
+    public void readRigidBody(int body, Bone target)
+    {
+        readPose(rigidBodies[checkIndex(body, nRigidBodies)], rigidBodyDetails, target);
+    }
+
+
+    /**
+     * Gets the number of skeletons.
+     *
+     * @return the number of skeletons
+     */
+    public int getSkeletonCount()
+    {
+        return nSkeletons;
+    }
+
+
+    /**
+     * Gets the ID of a skeleton.
+     *
+     * @param skeleton  the index of the skeleton
+     *
+     * @return the ID of the skeleton
+     */
+    public int getSkeletonId(int skeleton)
+    {
+        return buf.getInt(skeletons[checkIndex(skeleton, nSkeletons)]);
+    }
+
+
+    /**
+     * Finds a skeleton by its ID.
+     *
+     * @param id  the ID of the skeleton
+     *
+     * @return the index of the skeleton
+     *         or -1 if the frame doesn't contain it
+     */
+    public int findSkeleton(int id)
+    {
+        return find(skeletons, 0, nSkeletons, id);
+    }
+
+
+    /**
+     * Gets the number of bones of a skeleton.
+     *
+     * @param skeleton  the index of the skeleton
+     *
+     * @return the number of bones
+     */
+    public int getBoneCount(int skeleton)
+    {
+        checkIndex(skeleton, nSkeletons);
+        return boneStart[skeleton + 1] - boneStart[skeleton];
+    }
+
+
+    /**
+     * Gets the ID of a bone.
+     *
+     * @param skeleton  the index of the skeleton
+     * @param bone      the index of the bone in the skeleton
+     *
+     * @return the ID of the bone
+     */
+    public int getBoneId(int skeleton, int bone)
+    {
+        return buf.getInt(bones[boneIndex(skeleton, bone)]);
+    }
+
+
+    /**
+     * Finds a bone of a skeleton by its ID.
+     *
+     * @param skeleton  the index of the skeleton
+     * @param id        the ID of the bone
+     *
+     * @return the index of the bone in the skeleton
+     *         or -1 if the frame doesn't contain it
+     */
+    public int findBone(int skeleton, int id)
+    {
+        checkIndex(skeleton, nSkeletons);
+        final int idx = find(bones, boneStart[skeleton], boneStart[skeleton + 1], id);
+        return (idx < 0) ? -1 : idx - boneStart[skeleton];
+    }
+
+
+    /**
+     * Reads the pose of a bone.
+     *
+     * @param skeleton  the index of the skeleton
+     * @param bone      the index of the bone in the skeleton
+     * @param target    the bone to store the pose, length and tracking state in
+     */
+    public void readBone(int skeleton, int bone, Bone target)
+    {
+        final int pos = readPose(bones[boneIndex(skeleton, bone)], true, target);
+        // mean marker error is used to transmit the bone length
+        target.length = buf.getFloat(pos);
+    }
+
+
+    /**
+     * Gets the number of force plates.
+     *
+     * @return the number of force plates
+     */
+    public int getForcePlateCount()
+    {
+        return nForcePlates;
+    }
+
+
+    /**
+     * Gets the ID of a force plate.
+     *
+     * @param plate  the index of the force plate
+     *
+     * @return the ID of the force plate
+     */
+    public int getForcePlateId(int plate)
+    {
+        return buf.getInt(forcePlates[checkIndex(plate, nForcePlates)]);
+    }
+
+
+    /**
+     * Finds a force plate by its ID.
+     *
+     * @param id  the ID of the force plate
+     *
+     * @return the index of the force plate
+     *         or -1 if the frame doesn't contain it
+     */
+    public int findForcePlate(int id)
+    {
+        return find(forcePlates, 0, nForcePlates, id);
+    }
+
+
+    /**
+     * Gets the number of channels of a force plate.
+     *
+     * @param plate  the index of the force plate
+     *
+     * @return the number of channels
+     */
+    public int getChannelCount(int plate)
+    {
+        return buf.getInt(forcePlates[checkIndex(plate, nForcePlates)] + 4);
+    }
+
+
+    /**
+     * Reads the value of a force plate channel.
+     *
+     * @param plate    the index of the force plate
+     * @param channel  the index of the channel
+     *
+     * @return the last value of the channel in this frame or 0 if there is none
+     */
+    public float getChannelValue(int plate, int channel)
+    {
+        checkIndex(channel, getChannelCount(plate));
+        int pos = forcePlates[plate] + 8;
+        for ( int idx = 0 ; idx < channel ; idx++ )
+        {
+            pos += 4 + buf.getInt(pos) * 4;
+        }
+        final int nFrames = buf.getInt(pos);
+        // effectively only read the last (or only) value
+        return (nFrames > 0) ? buf.getFloat(pos + nFrames * 4) : 0;
+    }
+
+
+    /**
+     * Skips the data of a rigid body or skeleton bone.
+     *
+     * @param pos         the position of the ID
+     * @param withIDs     <code>true</code> if marker IDs and sizes are included
+     * @param withError   <code>true</code> if the mean marker error is included
+     *
+     * @return the position after the data
+     */
+    private int skipBone(int pos, boolean withIDs, boolean withError)
+    {
+        pos += 4 + 7 * 4; // ID, position, rotation
+        final int nMarkers = buf.getInt(pos);
+        pos += 4 + nMarkers * (withIDs ? 20 : 12);
+        if ( withError ) pos += 4;
+        if ( includesTrackingState ) pos += 2;
+        return pos;
+    }
+
+
+    /**
+     * Reads the pose and tracking state of a rigid body or skeleton bone.
+     *
+     * @param pos      the position of the ID
+     * @param withIDs  <code>true</code> if marker IDs, sizes and the mean error are included
+     * @param target   the bone to store the pose in
+     *
+     * @return the position of the mean marker error
+     *         (or of the tracking state if there is no error)
+     */
+    private int readPose(int pos, boolean withIDs, Bone target)
+    {
+        target.px = buf.getFloat(pos +  4);
+        target.py = buf.getFloat(pos +  8);
+        target.pz = buf.getFloat(pos + 12);
+        target.qx = buf.getFloat(pos + 16);
+        target.qy = buf.getFloat(pos + 20);
+        target.qz = buf.getFloat(pos + 24);
+        target.qw = buf.getFloat(pos + 28);
+
+        final int nMarkers = buf.getInt(pos + 32);
+        final int errorPos = pos + 36 + nMarkers * (withIDs ? 20 : 12);
+        if ( includesTrackingState )
+        {
+            // 0x01 : rigid body was successfully tracked in this frame
+            final short state = buf.getShort(errorPos + (withIDs ? 4 : 0));
+            target.tracked = (state & 0x01) != 0;
+        }
+        else
+        {
+            // position = (0,0,0) used as "not tracked" indicator
+            target.tracked = (target.px != 0) || (target.py != 0) || (target.pz != 0);
+        }
+        return errorPos;
+    }
+
+
+    private int markerCountPos(int set)
+    {
+        int pos = markerSets[checkIndex(set, nMarkerSets)];
+        while ( buf.get(pos++) != 0 ) { }
+        return pos;
+    }
+
+
+    private int boneIndex(int skeleton, int bone)
+    {
+        checkIndex(skeleton, nSkeletons);
+        return boneStart[skeleton] + checkIndex(bone, boneStart[skeleton + 1] - boneStart[skeleton]);
+    }
+
+
+    private int find(int[] offsets, int start, int end, int id)
+    {
+        for ( int idx = start ; idx < end ; idx++ )
+        {
+            if ( buf.getInt(offsets[idx]) == id ) return idx;
+        }
+        return -1;
+    }
+
+
+    private static int checkIndex(int index, int count)
+    {
+        if ( (index < 0) || (index >= count) )
+        {
+            throw new IndexOutOfBoundsException("Index " + index + " outside 0..." + (count - 1));
+        }
+        return index;
+    }
+
+
+    private static int[] add(int[] array, int index, int value)
+    {
+        if ( index >= array.length )
+        {
+            int[] larger = new int[array.length * 2];
+            System.arraycopy(array, 0, larger, 0, array.length);
+            array = larger;
+        }
+        array[index] = value;
+        return array;
+    }
+
+
+    private static boolean atLeast(byte[] version, int major, int minor)
+    {
+        return ((version[0] == major) && (version[1] >= minor)) || (version[0] > major);
+    }
+
+
+    private ByteBuffer buf;
+    private long       arrivalTime;
+    private boolean    rigidBodyDetails, includesTrackingState, timecodeDoublePrecision;
+    private int        frameNumber, footer;
+    private int[]      markerSets, rigidBodies, skeletons, bones, boneStart, forcePlates; // positions in the buffer
+    private int        nMarkerSets, nRigidBodies, nSkeletons, nForcePlates;
+}
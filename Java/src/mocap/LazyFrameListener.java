@@ -0,0 +1,20 @@
+package mocap;
+
+/**
+ * Interface for reading frames directly from the received packets.
+ *
+ * @author  Stefan Marks
+ *
+ * @see NatNetClient#addLazyFrameListener(LazyFrameListener)
+ */
+public interface LazyFrameListener
+{
+    /**
+     * Called when a frame of data has been received.
+     * The frame is only valid during this call,
+     * values that are needed later have to be copied.
+     *
+     * @param frame  the frame
+     */
+    void frameReceived(LazyFrame frame);
+}
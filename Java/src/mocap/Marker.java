@@ -12,6 +12,7 @@ public class Marker
     
     public       float   px, py, pz; // position
     public       boolean tracked;    // tracking state
+    public       boolean filled;     // position has been filled in during a tracking gap
 
     
     /**
@@ -26,5 +27,6 @@ public class Marker
         this.name  = name;
         px = py = pz = 0.0f;
         tracked = false;
+        filled  = false;
     }
 }
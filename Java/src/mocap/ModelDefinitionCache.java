@@ -0,0 +1,251 @@
+package mocap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Class for a local cache of the last model definition of each server.
+ * <p>
+ * The raw model definition packet is stored in a binary file per server,
+ * together with the data stream address and a hash of the content.
+ * When the client reconnects, it can build the scene from the cache
+ * immediately and verify it against the live definition in the background.
+ *
+ * @author  Stefan Marks
+ */
+public class ModelDefinitionCache
+{
+    /**
+     * Class for a cache entry.
+     */
+    static class Entry
+    {
+        public byte[] packet;            // raw model definition packet
+        public String dataStreamAddress; // data stream address of the server
+        public byte[] hash;              // content hash of the packet
+    }
+
+
+    /**
+     * Creates a cache in the default directory
+     * (<code>.mocap/cache</code> in the user's home directory).
+     */
+    public ModelDefinitionCache()
+    {
+        this(new File(new File(System.getProperty("user.home"), ".mocap"), "cache"));
+    }
+
+
+    /**
+     * Creates a cache in a specific directory.
+     *
+     * @param directory the directory to store the cache files in
+     */
+    public ModelDefinitionCache(File directory)
+    {
+        this.directory = directory;
+    }
+
+
+    /**
+     * Gets the directory of the cache files.
+     *
+     * @return the cache directory
+     */
+    public File getDirectory()
+    {
+        return directory;
+    }
+
+
+    /**
+     * Deletes all cache files.
+     */
+    public void clear()
+    {
+        File[] files = directory.listFiles();
+        if ( files == null ) return;
+        for ( File file : files )
+        {
+            if ( file.getName().endsWith(FILE_EXTENSION) && !file.delete() )
+            {
+                LOG.log(Level.WARNING, "Could not delete cache file {0}", file);
+            }
+        }
+    }
+
+
+    /**
+     * Loads the cached model definition of a server.
+     *
+     * @param server the server information
+     *
+     * @return the cache entry or <code>null</code> if there is no valid entry
+     */
+    Entry load(NatNetClient.ServerInfo server)
+    {
+        File file = getFile(server);
+        if ( !file.isFile() ) return null;
+
+        Entry entry = null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file))))
+        {
+            if ( (in.readInt()   != MAGIC) ||
+                 (in.readShort() != FORMAT_VERSION) )
+            {
+                throw new IOException("invalid file format");
+            }
+
+            String serverName    = in.readUTF();
+            byte[] versionServer = new byte[4]; in.readFully(versionServer);
+            byte[] versionNatNet = new byte[4]; in.readFully(versionNatNet);
+            if ( !serverName.equals(server.serverName) ||
+                 !Arrays.equals(versionServer, server.versionServer) ||
+                 !Arrays.equals(versionNatNet, server.versionNatNet) )
+            {
+                throw new IOException("entry is for a different server");
+            }
+
+            entry = new Entry();
+            entry.dataStreamAddress = in.readUTF();
+            entry.hash   = new byte[in.readUnsignedShort()]; in.readFully(entry.hash);
+            entry.packet = new byte[in.readInt()];           in.readFully(entry.packet);
+
+            if ( !Arrays.equals(entry.hash, hash(entry.packet)) )
+            {
+                throw new IOException("content hash mismatch");
+            }
+            LOG.log(Level.INFO, "Loaded cached model definition from {0}", file);
+        }
+        catch (IOException e)
+        {
+            LOG.log(Level.WARNING, "Ignoring cached model definition {0} ({1}).",
+                    new Object[] { file, e.getMessage() });
+            entry = null;
+        }
+        return entry;
+    }
+
+
+    /**
+     * Stores the model definition of a server.
+     *
+     * @param server             the server information
+     * @param dataStreamAddress  the data stream address of the server
+     * @param packet             the raw model definition packet
+     */
+    void store(NatNetClient.ServerInfo server, String dataStreamAddress, byte[] packet)
+    {
+        File file = getFile(server);
+        File temp = new File(directory, file.getName() + ".tmp");
+        if ( !directory.isDirectory() && !directory.mkdirs() )
+        {
+            LOG.log(Level.WARNING, "Could not create cache directory {0}", directory);
+            return;
+        }
+
+        byte[] hash = hash(packet);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp))))
+        {
+            out.writeInt(MAGIC);
+            out.writeShort(FORMAT_VERSION);
+            out.writeUTF(server.serverName);
+            out.write(server.versionServer, 0, 4);
+            out.write(server.versionNatNet, 0, 4);
+            out.writeUTF(dataStreamAddress);
+            out.writeShort(hash.length);
+            out.write(hash);
+            out.writeInt(packet.length);
+            out.write(packet);
+        }
+        catch (IOException e)
+        {
+            LOG.log(Level.WARNING, "Could not write model definition cache {0} ({1}).",
+                    new Object[] { temp, e.getMessage() });
+            return;
+        }
+
+        // replace old file in one step so a reader never sees a partial file
+        try
+        {
+            try
+            {
+                Files.move(temp.toPath(), file.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (AtomicMoveNotSupportedException e)
+            {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            LOG.log(Level.FINE, "Stored model definition in {0}", file);
+        }
+        catch (IOException e)
+        {
+            LOG.log(Level.WARNING, "Could not write model definition cache {0} ({1}).",
+                    new Object[] { file, e.getMessage() });
+        }
+    }
+
+
+    /**
+     * Calculates the content hash of a model definition packet.
+     *
+     * @param packet the packet data
+     *
+     * @return the hash value
+     */
+    static byte[] hash(byte[] packet)
+    {
+        try
+        {
+            return MessageDigest.getInstance(HASH_ALGORITHM).digest(packet);
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            // every Java platform has to support SHA-1
+            throw new IllegalStateException(e);
+        }
+    }
+
+
+    private File getFile(NatNetClient.ServerInfo server)
+    {
+        StringBuilder name = new StringBuilder();
+        for ( char c : server.serverName.toCharArray() )
+        {
+            name.append(Character.isLetterOrDigit(c) ? c : '_');
+        }
+        name.append("_v")
+            .append(server.versionServer[0]).append('.').append(server.versionServer[1]).append('.')
+            .append(server.versionServer[2]).append('.').append(server.versionServer[3])
+            .append("_natnet")
+            .append(server.versionNatNet[0]).append('.').append(server.versionNatNet[1]).append('.')
+            .append(server.versionNatNet[2]).append('.').append(server.versionNatNet[3])
+            .append(FILE_EXTENSION);
+        return new File(directory, name.toString());
+    }
+
+
+    private final File directory;
+
+    private final static int    MAGIC          = 0x4D444331; // "MDC1"
+    private final static short  FORMAT_VERSION = 1;
+    private final static String FILE_EXTENSION = ".mdc";
+    private final static String HASH_ALGORITHM = "SHA-1";
+
+    private final static Logger LOG = Logger.getLogger(ModelDefinitionCache.class.getName());
+}
@@ -1,19 +1,42 @@
 package mocap;
 
 import java.io.IOException;
+import java.lang.ref.WeakReference;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
+import java.net.Inet6Address;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.InterfaceAddress;
 import java.net.MulticastSocket;
+import java.net.NetworkInterface;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
 import java.net.UnknownHostException;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.util.HashSet;
+import java.nio.channels.DatagramChannel;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -44,34 +67,50 @@ public class NatNetClient implements MoCapClient
     // 1503 is taken by Windows messenger, 
     // 1512 is taken by WINS
     // -> so let's use 1508, 1509
-    private final static int PORT_COMMAND = 1508; 
-    private final static int PORT_DATA    = 1509;
+    final static int PORT_COMMAND = 1508; 
+    final static int PORT_DATA    = 1509;
 
-    // timeout values for initial connections and for streaming
+    // timeout values for initial connections and for streaming, interval for pings
     private final int TIMEOUT_INITIAL = 1000;
     private final int TIMEOUT_RUNNING = 100;
+    private final int PING_INTERVAL   = 2000;
+    private final int TIMEOUT_STALL   = 1000; // no packets for this long: stream has stalled
+    private final int POLL_DELAY_MAX  = 2000; // maximum back-off when polling frames
+    private final int DEFAULT_POLLING_RATE = 60;
+    private final int RECONNECT_DELAY_MIN    = 250;   // first delay of automatic reconnection
+    private final int RECONNECT_DELAY_MAX    = 5000;  // maximum back-off of automatic reconnection
+    private final int RECONNECT_FAILURES     = 5;     // unanswered frame requests that count as lost connection
+    private final int MAX_ERRORS             = 30;    // failed command responses before disconnecting
+    private final int MODEL_REFRESH_INTERVAL = 1000;  // minimum time between background model requests
+    private final int MODEL_REFRESH_MAX      = 60000; // maximum back-off of model requests without a new definition
+    private final int PRODUCER_PARK   = 50000; // ns for a receiver waiting for the pipeline
+    private final int TIMEOUT_STAGE   = 1000;  // maximum wait for each pipeline stage to end
 
-    private final static short NAT_PING                 = 0;
-    private final static short NAT_PINGRESPONSE         = 1;
-    private final static short NAT_REQUEST              = 2;
-    private final static short NAT_RESPONSE             = 3;
-    private final static short NAT_REQUEST_MODELDEF     = 4;
-    private final static short NAT_MODELDEF             = 5;
-    private final static short NAT_REQUEST_FRAMEOFDATA  = 6;
-    private final static short NAT_FRAMEOFDATA          = 7;
-    private final static short NAT_MESSAGESTRING        = 8;
-    private final static short NAT_UNRECOGNIZED_REQUEST = 100;
+    final static short NAT_PING                 = 0;
+    final static short NAT_PINGRESPONSE         = 1;
+    final static short NAT_REQUEST              = 2;
+    final static short NAT_RESPONSE             = 3;
+    final static short NAT_REQUEST_MODELDEF     = 4;
+    final static short NAT_MODELDEF             = 5;
+    final static short NAT_REQUEST_FRAMEOFDATA  = 6;
+    final static short NAT_FRAMEOFDATA          = 7;
+    final static short NAT_MESSAGESTRING        = 8;
+    final static short NAT_UNRECOGNIZED_REQUEST = 100;
     
     private final static short DATASET_TYPE_MARKERSET  = 0;
     private final static short DATASET_TYPE_RIGIDBODY  = 1;
     private final static short DATASET_TYPE_SKELETON   = 2;
     private final static short DATASET_TYPE_FORCEPLATE = 3;
     
-    private final static int MAX_NAMELENGTH = 256;
-    private final static int MAX_PACKETSIZE = 65535; // 10000 is not enough for 4 actors
+    private final static int MAX_NAMELENGTH     = 256;
+    private final static int MAX_COMMANDSIZE    = 4096;
+    private final static int INITIAL_PACKETSIZE = 16384; // grows with the size of model definitions and frames
+
+    private final static int DECODE_SECTIONS    = 6; // lock wait, marker sets, rigid bodies, skeletons, remainder, processors
     
-    private final Command COMMAND_FRAMEOFDATA = new Command_RequestFrameOfData();
-    private final Command COMMAND_MODELDEF    = new Command_RequestModelDefinition();
+    private final Command COMMAND_FRAMEOFDATA   = new Command_RequestFrameOfData();
+    private final Command COMMAND_MODELDEF      = new Command_RequestModelDefinition();
+    private final Command COMMAND_STREAMADDRESS = new Command_Request("getDataStreamAddress");
         
     private interface Command  { void marshal(ByteBuffer buffer);   }
     private interface Response {  }
@@ -168,70 +207,119 @@ public class NatNetClient implements MoCapClient
      */
     private class Response_ModelDefinition implements Response
     {
+        private Response_ModelDefinition()
+        {
+            // definition has not changed > nothing to do here
+            changed = false;
+        }
+        
+        
         private Response_ModelDefinition(ByteBuffer buf, Scene scene)
         {
             logBufferData(buf, buf.remaining());
             int nDatasets = buf.getInt(); // datasets
             List<Actor>  actors = new LinkedList<>();
             List<Device> devices = new LinkedList<>();
-            for ( int datasetIdx = 0 ; datasetIdx < nDatasets ; datasetIdx++ )
+            int datasetIdx = 0;
+            try
             {
-                int datasetType = buf.getInt();
-                switch ( datasetType )
+                // parse dataset by dataset, so a truncated definition 
+                // still yields all the complete datasets before the cut
+                for ( datasetIdx = 0 ; datasetIdx < nDatasets ; datasetIdx++ )
                 {
-                    case DATASET_TYPE_MARKERSET : 
-                    {
-                        parseMarkerset(buf, actors);
-                        break;
-                    }
-                    
-                    case DATASET_TYPE_RIGIDBODY : 
-                    {
-                        parseRigidBody(buf, actors); 
-                        break;
-                    }
-                    
-                    case DATASET_TYPE_SKELETON : 
-                    {
-                        parseSkeleton(buf, actors);
-                        break;
-                    } 
-                    
-                    case DATASET_TYPE_FORCEPLATE : 
+                    int datasetType = buf.getInt();
+                    switch ( datasetType )
                     {
-                        parseForcePlate(buf, devices); 
-                        break;
+                        case DATASET_TYPE_MARKERSET : 
+                        {
+                            parseMarkerset(buf, actors);
+                            break;
+                        }
+
+                        case DATASET_TYPE_RIGIDBODY : 
+                        {
+                            parseRigidBody(buf, actors); 
+                            break;
+                        }
+
+                        case DATASET_TYPE_SKELETON : 
+                        {
+                            parseSkeleton(buf, actors);
+                            break;
+                        } 
+
+                        case DATASET_TYPE_FORCEPLATE : 
+                        {
+                            parseForcePlate(buf, devices); 
+                            break;
+                        }
+
+                        default: 
+                        {
+                            LOG.log(Level.WARNING, 
+                                    "Invalid dataset type {0} in model definition respose.",
+                                    datasetType);
+                            break;
+                        }                    
                     }
-                    
-                    default: 
-                    {
-                        LOG.log(Level.WARNING, 
-                                "Invalid dataset type {0} in model definition respose.",
-                                datasetType);
-                        break;
-                    }                    
                 }
             }
+            catch (BufferUnderflowException e)
+            {
+                LOG.log(Level.WARNING, 
+                        "Model definition incomplete: only {0} of {1} datasets received.",
+                        new Object[] { datasetIdx, nDatasets });
+            }
             
+            final SceneChange change;
             synchronized(scene)
             {
-                scene.actors  = actors.toArray(new Actor[actors.size()]);
-                scene.devices = devices.toArray(new Device[devices.size()]);
+                Actor[]  newActors  = actors.toArray(new Actor[actors.size()]);
+                Device[] newDevices = devices.toArray(new Device[devices.size()]);
+                // keep the objects of unchanged actors and devices
+                change = SceneChange.compare(scene, newActors, newDevices);
+                if ( !change.isEmpty() )
+                {
+                    scene.actors  = newActors;
+                    scene.devices = newDevices;
+
+                    rebindHandles();
+                    for ( FrameProcessor processor : frameProcessors )
+                    {
+                        processor.sceneChanged(scene);
+                    }
+                }
             }
+            changed = !change.isEmpty();
             
-            // scene might have changed -> update listeners
-            notifyListeners_Change();
+            if ( changed )
+            {
+                LOG.log(Level.INFO, "Scene definition changed ({0})", change);
+                notifyListeners_Change(change);
+            }
+        }
+        
+        
+        /**
+         * Checks if the definition was different from the previous one.
+         * 
+         * @return <code>true</code> if the structure of the scene has changed,
+         *         <code>false</code> if the definition was unchanged
+         */
+        public boolean isChanged()
+        {
+            return changed;
         }
         
         
+        
         private void parseMarkerset(ByteBuffer buf, List<Actor> actors)
         {
             int    id   = 0;                    // no ID for markersets
             String name = unmarshalString(buf); // markerset name
             Actor actor = new Actor(scene, name, id); 
 
-            int nMarkers = buf.getInt();         // marker count
-            // TODO: Sanity check on the number before allocating that much space
+            int nMarkers = checkCount(buf.getInt(), 1, buf); // marker count
             actor.markers = new Marker[nMarkers];
             for ( int markerIdx = 0 ; markerIdx < nMarkers ; markerIdx++ )
             {   
@@ -320,8 +408,7 @@ public class NatNetClient implements MoCapClient
             }
             actor.id = skeletonId;
 
-            int nBones = buf.getInt(); // Skeleton bone count
-            // TODO: Sanity check on the number before allocating that much space
+            int nBones = checkCount(buf.getInt(), 20, buf); // Skeleton bone count
             actor.bones = new Bone[nBones];
             for ( int boneIdx = 0 ; boneIdx < nBones ; boneIdx++ )
             {
@@ -361,7 +448,7 @@ public class NatNetClient implements MoCapClient
             // (SDK 2.9 sample code does not explain what this is about)
             buf.position(buf.position() + 652); 
             
-            int nChannels = buf.getInt(); // channel count
+            int nChannels = checkCount(buf.getInt(), 1, buf); // channel count
             device.channels = new Channel[nChannels];
             for ( int channelIdx = 0 ; channelIdx < nChannels ; channelIdx++ )
             {   
@@ -371,6 +458,8 @@ public class NatNetClient implements MoCapClient
             }
             devices.add(device);
         }
+        
+        private final boolean changed;
     }
     
     
@@ -400,7 +489,13 @@ public class NatNetClient implements MoCapClient
      */
     private class Response_FrameOfData implements Response
     {
-        private Response_FrameOfData(ByteBuffer buf, Scene scene)
+        private Response_FrameOfData()
+        {
+            // frame is not decoded into the scene
+        }
+        
+        
+        private Response_FrameOfData(ByteBuffer buf, Scene scene, long arrivalTime)
         {
             // determine special datasets depending on NatNet version
             final boolean includesMarkerIDsAndSizes = // starting at v2.0
@@ -430,270 +525,360 @@ public class NatNetClient implements MoCapClient
                       (serverInfo.versionNatNet[1] >= 2) ) ||
                     (serverInfo.versionNatNet[0] > 2);
 
-            synchronized(scene)
+            // set when the frame contains elements that the model definition doesn't know
+            boolean unknown = false;
+            
+            // section timings are only taken while a flight recording is running
+            final Object  decodeEvent = FrameEvents.beginDecode();
+            final long[]  sections    = (decodeEvent != null) ? new long[DECODE_SECTIONS] : null;
+            final int     size        = buf.remaining();
+            long          mark        = (decodeEvent != null) ? System.nanoTime() : 0;
+            
+            // the event ends on every way out, also for old frames and truncated packets
+            int    frameNumber = -1;
+            String outcome     = FrameEvents.OUTCOME_FAILED;
+            try
             {
-                int frameNumber = buf.getInt(); // frame number
-                // check if this is a newer frame
-                // delta < 10: but do consider looping playback 
-                // when frame numbers suddenly differ significantly
-                int deltaFrame = frameNumber - scene.frameNumber;
-                if ( (deltaFrame < 0) && (deltaFrame > -10) ) return; // old frame, get out
-
-                logBufferData(buf, 400);
-                scene.frameNumber = frameNumber;
-
-                // Read actor data
-                int nActors = buf.getInt(); // actor count
-                for ( int actorIdx = 0 ; actorIdx < nActors ; actorIdx++ )
+                synchronized(scene)
                 {
-                    String actorName = unmarshalString(buf);
-                    // find the corresponding actor
-                    Actor actor = scene.findActor(actorName);
-
-                    int nMarkers = buf.getInt();
-                    for ( int markerIdx = 0 ; markerIdx < nMarkers ; markerIdx++ )
+                    if ( sections != null ) mark = lapSection(sections, 0, mark);
+                    
+                    frameNumber = buf.getInt(); // frame number
+                    // check if this is a newer frame
+                    // delta < 10: but do consider looping playback 
+                    // when frame numbers suddenly differ significantly
+                    int deltaFrame = frameNumber - scene.frameNumber;
+                    if ( (deltaFrame < 0) && (deltaFrame > -10) ) 
                     {
-                        Marker marker = (actor != null) ? actor.markers[markerIdx] : DUMMY_MARKER;
-
-                        // read coordinate
-                        marker.px = buf.getFloat();
-                        marker.py = buf.getFloat();
-                        marker.pz = buf.getFloat();
-                        
-                        // XYZ == 0 indicates lost tracking
-                        marker.tracked = 
-                                (marker.px != 0) ||
-                                (marker.py != 0) ||
-                                (marker.pz != 0);
-                    }        
-                }
+                        outcome = FrameEvents.OUTCOME_OLD_FRAME;
+                        return; // old frame, get out
+                    }
 
-                // skip unidentified marker data
-                int nUnidentifiedMarkers = buf.getInt();
-                final int unidentifiedMarkerDataSize = 3 * 4; // 3 floats
-                buf.position(buf.position() + unidentifiedMarkerDataSize * nUnidentifiedMarkers);
-                // without skipping:
-                // for ( int idx = 0 ; idx < nUnknownMarkers ; idx++ )
-                // {
-                //     buf.getFloat(); // x
-                //     buf.getFloat(); // y
-                //     buf.getFloat(); // z
-                // }
-                
-                // Read rigid body data
-                int nRigidBodies = buf.getInt(); // bone count
-                for ( int rigidBodyIdx = 0 ; rigidBodyIdx < nRigidBodies ; rigidBodyIdx++ )
-                {
-                    int rigidBodyID = buf.getInt(); // get rigid body ID
+                    logBufferData(buf, 400);
+                    scene.frameNumber = frameNumber;
 
-                    // find the corresponding actor
-                    Bone bone = DUMMY_BONE;
-                    if ( checkActorId(rigidBodyID) )
+                    // Read actor data
+                    int nActors = buf.getInt(); // actor count
+                    for ( int actorIdx = 0 ; actorIdx < nActors ; actorIdx++ )
                     {
-                        Actor actor = scene.actors[rigidBodyID];
-                        if ( actor.bones.length == 0 )
-                        {
-                            // in case there is no bone, create one
-                            actor.bones = new Bone[1];
-                            actor.bones[0] = new Bone(actor, "", 0);
-                        }
-                        bone = actor.bones[0];
-                    }
+                        // find the corresponding actor
+                        Actor actor = findMarkerSetActor(buf, scene, actorIdx);
 
-                    bone.px = buf.getFloat(); // position
-                    bone.py = buf.getFloat();
-                    bone.pz = buf.getFloat();
-                    bone.qx = buf.getFloat(); // rotation
-                    bone.qy = buf.getFloat();
-                    bone.qz = buf.getFloat();
-                    bone.qw = buf.getFloat();
+                        int nMarkers = buf.getInt();
+                        for ( int markerIdx = 0 ; markerIdx < nMarkers ; markerIdx++ )
+                        {
+                            Marker marker = DUMMY_MARKER;
+                            if ( (actor != null) && (markerIdx < actor.markers.length) )
+                            {
+                                marker = actor.markers[markerIdx];
+                            }
+                            else
+                            {
+                                unknown = true;
+                            }
 
-                    int nMarkers = buf.getInt();
-                    for ( int i = 0 ; i < nMarkers ; i++ )
-                    {
-                        buf.getFloat(); // Marker X
-                        buf.getFloat(); // Marker Y
-                        buf.getFloat(); // Marker Z
+                            // read coordinate
+                            marker.px = buf.getFloat();
+                            marker.py = buf.getFloat();
+                            marker.pz = buf.getFloat();
+                            
+                            // XYZ == 0 indicates lost tracking
+                            marker.tracked = 
+                                    (marker.px != 0) ||
+                                    (marker.py != 0) ||
+                                    (marker.pz != 0);
+                        }        
                     }
-                    if ( includesMarkerIDsAndSizes  )
+
+                    // skip unidentified marker data
+                    int nUnidentifiedMarkers = buf.getInt();
+                    final int unidentifiedMarkerDataSize = 3 * 4; // 3 floats
+                    buf.position(buf.position() + unidentifiedMarkerDataSize * nUnidentifiedMarkers);
+                    // without skipping:
+                    // for ( int idx = 0 ; idx < nUnknownMarkers ; idx++ )
+                    // {
+                    //     buf.getFloat(); // x
+                    //     buf.getFloat(); // y
+                    //     buf.getFloat(); // z
+                    // }
+                    
+                    if ( sections != null ) mark = lapSection(sections, 1, mark);
+                    
+                    // Read rigid body data
+                    int nRigidBodies = buf.getInt(); // bone count
+                    for ( int rigidBodyIdx = 0 ; rigidBodyIdx < nRigidBodies ; rigidBodyIdx++ )
                     {
-                        // also, marker IDs and sizes
-                        for ( int i = 0 ; i < nMarkers ; i++ )
+                        int rigidBodyID = buf.getInt(); // get rigid body ID
+
+                        // find the corresponding actor
+                        Bone bone = DUMMY_BONE;
+                        if ( checkActorId(rigidBodyID) )
                         {
-                            buf.getInt(); // Marker ID
-                        } 
-                        // and sizes
-                        for ( int i = 0 ; i < nMarkers ; i++ )
+                            Actor actor = scene.actors[rigidBodyID];
+                            if ( actor.bones.length == 0 )
+                            {
+                                // in case there is no bone, create one
+                                actor.bones = new Bone[1];
+                                actor.bones[0] = new Bone(actor, "", 0);
+                            }
+                            bone = actor.bones[0];
+                        }
+                        else
                         {
-                            buf.getFloat(); // Marker size
-                        } 
+                            unknown = true;
+                        }
 
-                        buf.getFloat(); // Mean marker error
-                    }
-                    
-                    // Tracking state
-                    if ( includesTrackingState )
-                    {
-                        short state = buf.getShort();
-                        // 0x01 : rigid body was successfully tracked in this frame
-                        bone.tracked = (state & 0x01) != 0;
-                    }
-                    else
-                    {
-                        // tracking state not sent separately,
-                        // but position = (0,0,0) used as "not tracked" indicator
-                        bone.tracked = (bone.px != 0) ||
-                                       (bone.py != 0) ||
-                                       (bone.pz != 0);
-                    }
-                }
+                        bone.px = buf.getFloat(); // position
+                        bone.py = buf.getFloat();
+                        bone.pz = buf.getFloat();
+                        bone.qx = buf.getFloat(); // rotation
+                        bone.qy = buf.getFloat();
+                        bone.qz = buf.getFloat();
+                        bone.qw = buf.getFloat();
 
-                // Read skeleton data
-                if ( includesSkeletonData )
-                {
-                    int nSkeletons = buf.getInt();
-                    for ( int skeletonIdx = 0 ; skeletonIdx < nSkeletons ; skeletonIdx++ )
-                    {
-                        // read skeleton ID and find actor
-                        int skeletonId = buf.getInt();
-                        Actor actor = scene.findActor(skeletonId);
-                        if ( actor == null ) 
+                        int nMarkers = buf.getInt();
+                        for ( int i = 0 ; i < nMarkers ; i++ )
                         {
-                            System.err.println("could not find actor " + skeletonId);
-                            return;
+                            buf.getFloat(); // Marker X
+                            buf.getFloat(); // Marker Y
+                            buf.getFloat(); // Marker Z
                         }
-                        
-                        // # of bones in skeleton
-                        int nBones = buf.getInt();
-                        // TODO: Number sanity check
-                        for ( int nBodyIdx = 0 ; nBodyIdx < nBones ; nBodyIdx++ ) 
-                        { 
-                            // read bone ID and find bone
-                            int boneId = buf.getInt();
-                            Bone bone = actor.findBone(boneId);
-                            if ( bone == null ) bone = DUMMY_BONE;
-                            
-                            bone.px = buf.getFloat(); // read position
-                            bone.py = buf.getFloat();
-                            bone.pz = buf.getFloat();
-                            bone.qx = buf.getFloat(); // read orientation
-                            bone.qy = buf.getFloat();
-                            bone.qz = buf.getFloat();
-                            bone.qw = buf.getFloat();
-                            
-                            // read/skip rigid marker data
-                            int nMarkers = buf.getInt();
-                            for ( int i = 0 ; i < nMarkers ; i++ )
-                            {
-                                buf.getFloat(); // X/Y/Z position
-                                buf.getFloat();
-                                buf.getFloat();
-                            }       
+                        if ( includesMarkerIDsAndSizes  )
+                        {
+                            // also, marker IDs and sizes
                             for ( int i = 0 ; i < nMarkers ; i++ )
                             {
-                                buf.getInt(); // Marker IDs
-                            }       
+                                buf.getInt(); // Marker ID
+                            } 
+                            // and sizes
                             for ( int i = 0 ; i < nMarkers ; i++ )
                             {
                                 buf.getFloat(); // Marker size
-                            }       
+                            } 
 
-                            // Mean marker error
-                            // ATTENTION: Used to transmit bone length
-                            bone.length = buf.getFloat();
+                            buf.getFloat(); // Mean marker error
+                        }
+                        
+                        // Tracking state
+                        if ( includesTrackingState )
+                        {
+                            short state = buf.getShort();
+                            // 0x01 : rigid body was successfully tracked in this frame
+                            bone.tracked = (state & 0x01) != 0;
+                        }
+                        else
+                        {
+                            // tracking state not sent separately,
+                            // but position = (0,0,0) used as "not tracked" indicator
+                            bone.tracked = (bone.px != 0) ||
+                                           (bone.py != 0) ||
+                                           (bone.pz != 0);
+                        }
+                    }
 
-                            // Tracking state
-                            if ( includesTrackingState )
-                            {
-                                short state = buf.getShort();
-                                // 0x01 : rigid body was successfully tracked in this frame
-                                bone.tracked = (state & 0x01) != 0;
-                            }
-                            else
-                            {
-                                // tracking state not sent separately,
-                                // but position = (0,0,0) used as "not tracked" indicator
-                                bone.tracked = (bone.px != 0) ||
-                                               (bone.py != 0) ||
-                                               (bone.pz != 0);
-                            }
-                        } // next rigid body
-                    } // next skeleton 
-                }
-                
-                // skip labelled markers 
-		if ( includesLabelledMarkers )
-		{
-                    int nLabelledMarkers = buf.getInt();
-                    final int labelledMarkerDataSize = 
-                            includesLabelledMarkerFlags ? 
-                                5 * 4 + 1 * 2 : // 1 int, 4 floats, 1 short
-                                5 * 4; // 1 int, 4 floats
-                    buf.position(buf.position() + nLabelledMarkers * labelledMarkerDataSize);
-                    // without skipping:
-                    // for ( int markerIdx = 0; markerIdx  < nLabeledMarkers; markerIdx++ )
-                    // {
-                    //     int   id   = buf.getInt();
-                    //     float x    = buf.getFloat();
-                    //     float y    = buf.getFloat();
-                    //     float z    = buf.getFloat();
-                    //     float size = buf.getFloat();
+                    if ( sections != null ) mark = lapSection(sections, 2, mark);
+                    
+                    // Read skeleton data
+                    if ( includesSkeletonData )
+                    {
+                        int nSkeletons = buf.getInt();
+                        for ( int skeletonIdx = 0 ; skeletonIdx < nSkeletons ; skeletonIdx++ )
+                        {
+                            // read skeleton ID and find actor
+                            int skeletonId = buf.getInt();
+                            Actor actor = scene.findActor(skeletonId);
+                            if ( actor == null ) unknown = true;
+                            
+                            // # of bones in skeleton
+                            int nBones = buf.getInt();
+                            // TODO: Number sanity check
+                            for ( int nBodyIdx = 0 ; nBodyIdx < nBones ; nBodyIdx++ ) 
+                            { 
+                                // read bone ID and find bone
+                                int boneId = buf.getInt();
+                                Bone bone = (actor != null) ? actor.findBone(boneId) : null;
+                                if ( bone == null ) 
+                                {
+                                    bone    = DUMMY_BONE;
+                                    unknown = true;
+                                }
+                                
+                                bone.px = buf.getFloat(); // read position
+                                bone.py = buf.getFloat();
+                                bone.pz = buf.getFloat();
+                                bone.qx = buf.getFloat(); // read orientation
+                                bone.qy = buf.getFloat();
+                                bone.qz = buf.getFloat();
+                                bone.qw = buf.getFloat();
+                                
+                                // read/skip rigid marker data
+                                int nMarkers = buf.getInt();
+                                for ( int i = 0 ; i < nMarkers ; i++ )
+                                {
+                                    buf.getFloat(); // X/Y/Z position
+                                    buf.getFloat();
+                                    buf.getFloat();
+                                }       
+                                for ( int i = 0 ; i < nMarkers ; i++ )
+                                {
+                                    buf.getInt(); // Marker IDs
+                                }       
+                                for ( int i = 0 ; i < nMarkers ; i++ )
+                                {
+                                    buf.getFloat(); // Marker size
+                                }       
 
-                    //     if ( includesLabelledMarkerFlags ) 
-                    //     {
-                    //         short params = buf.getShort();
-                    //     }
-                    // }
-		}
+                                // Mean marker error
+                                // ATTENTION: Used to transmit bone length
+                                bone.length = buf.getFloat();
 
-                // read force plate data
-                if ( includesForcePlateData )
-                {   
-                    int nForcePlates = buf.getInt();
-                    for (int forcePlateIdx = 0; forcePlateIdx < nForcePlates; forcePlateIdx++)
-                    {
-                        // read force plate ID and find corresponding device
-                        int forcePlateId = buf.getInt();
-                        Device device = scene.findDevice(forcePlateId);
-                        if ( device == null ) device = DUMMY_DEVICE;
+                                // Tracking state
+                                if ( includesTrackingState )
+                                {
+                                    short state = buf.getShort();
+                                    // 0x01 : rigid body was successfully tracked in this frame
+                                    bone.tracked = (state & 0x01) != 0;
+                                }
+                                else
+                                {
+                                    // tracking state not sent separately,
+                                    // but position = (0,0,0) used as "not tracked" indicator
+                                    bone.tracked = (bone.px != 0) ||
+                                                   (bone.py != 0) ||
+                                                   (bone.pz != 0);
+                                }
+                            } // next rigid body
+                        } // next skeleton 
+                    }
+                    
+                    if ( sections != null ) mark = lapSection(sections, 3, mark);
+                    
+                    // skip labelled markers 
+		    if ( includesLabelledMarkers )
+		    {
+                        int nLabelledMarkers = buf.getInt();
+                        final int labelledMarkerDataSize = 
+                                includesLabelledMarkerFlags ? 
+                                    5 * 4 + 1 * 2 : // 1 int, 4 floats, 1 short
+                                    5 * 4; // 1 int, 4 floats
+                        buf.position(buf.position() + nLabelledMarkers * labelledMarkerDataSize);
+                        // without skipping:
+                        // for ( int markerIdx = 0; markerIdx  < nLabeledMarkers; markerIdx++ )
+                        // {
+                        //     int   id   = buf.getInt();
+                        //     float x    = buf.getFloat();
+                        //     float y    = buf.getFloat();
+                        //     float z    = buf.getFloat();
+                        //     float size = buf.getFloat();
+
+                        //     if ( includesLabelledMarkerFlags ) 
+                        //     {
+                        //         short params = buf.getShort();
+                        //     }
+                        // }
+		    }
 
-                        // channel count
-                        int nChannels = buf.getInt();
-                        // channel data
-                        for (int i = 0; i < nChannels; i++)
+                    // read force plate data
+                    if ( includesForcePlateData )
+                    {   
+                        int nForcePlates = buf.getInt();
+                        for (int forcePlateIdx = 0; forcePlateIdx < nForcePlates; forcePlateIdx++)
                         {
-                            // frame count
-                            int   nFrames = buf.getInt();
-                            float value   = 0;
-                            for (int frameIdx = 0; frameIdx < nFrames; frameIdx++)
+                            // read force plate ID and find corresponding device
+                            int forcePlateId = buf.getInt();
+                            Device device = scene.findDevice(forcePlateId);
+                            if ( device == null ) 
                             {
-                                // frame data
-                                value = buf.getFloat();
+                                device  = DUMMY_DEVICE;
+                                unknown = true;
                             }
-                            if ( i < device.channels.length )
+
+                            // channel count
+                            int nChannels = buf.getInt();
+                            // channel data
+                            for (int i = 0; i < nChannels; i++)
                             {
-                                // effectively only read the last (or only) value
-                                device.channels[i].value = value;
+                                // frame count
+                                int   nFrames = buf.getInt();
+                                float value   = 0;
+                                for (int frameIdx = 0; frameIdx < nFrames; frameIdx++)
+                                {
+                                    // frame data
+                                    value = buf.getFloat();
+                                }
+                                if ( i < device.channels.length )
+                                {
+                                    // effectively only read the last (or only) value
+                                    device.channels[i].value = value;
+                                }
                             }
                         }
                     }
+                    
+                    // read latency and convert from s to ms
+                    final float latency = buf.getFloat();
+                    scene.latency = (int) (latency * 1000);
+                    
+                    // skip timecode
+                    buf.position(buf.position() + 8);
+                    
+                    // timestamp
+                    scene.timestamp = timecodeDoublePrecision ? buf.getDouble() : buf.getFloat();
+                    
+                    // translate into local time
+                    clockSync.addFrame(arrivalTime, scene.timestamp, latency);
+                    scene.localTimestamp = clockSync.toLocalTime(scene.timestamp);
+                    scene.totalLatency   = (System.nanoTime() - scene.localTimestamp) / 1e6f;
+                    captureTime          = scene.localTimestamp; // for the latency histogram, without the scene lock
+                    
+                    if ( sections != null ) mark = lapSection(sections, 4, mark);
+                    
+                    for ( FrameProcessor processor : frameProcessors )
+                    {
+                        processor.processFrame(scene);
+                    }
+                    
+                    if ( sections != null ) lapSection(sections, 5, mark);
+                    outcome = FrameEvents.OUTCOME_DECODED;
                 }
-                
-                // read latency and convert from s to ms
-                scene.latency = (int) (buf.getFloat() * 1000);
-                
-                // skip timecode
-                buf.position(buf.position() + 8);
-                
-                // timestamp
-                scene.timestamp = timecodeDoublePrecision ? buf.getDouble() : buf.getFloat();
+            }
+            finally
+            {
+                FrameEvents.endDecode(decodeEvent, frameNumber, size, outcome, sections);
+            }
+            
+            if ( unknown )
+            {
+                requestModelRefresh();
             }
             
-            notifyListeners_Update();
+            frameSequence.advance();
+            if ( dispatchingReceiver.get() == null )
+            {
+                // otherwise, the dispatch stage of the receive pipeline notifies
+                notifyListeners_Update();
+            }
         }
     }
     
     
+    /**
+     * Stores the time since the last mark as the duration of a decoding section.
+     * 
+     * @param sections  the section durations
+     * @param section   the index of the section that ends now
+     * @param mark      the time the section started
+     * 
+     * @return the time the next section starts
+     */
+    private static long lapSection(long[] sections, int section, long mark)
+    {
+        final long now = System.nanoTime();
+        sections[section] = now - mark;
+        return now;
+    }
+    
+    
     /**
      * Class for a custom request command.
      */
@@ -779,120 +964,714 @@ public class NatNetClient implements MoCapClient
         this.scene      = new Scene();
         
         this.cmdSocket  = null;
-        this.packetOut  = new DatagramPacket(new byte[MAX_PACKETSIZE], MAX_PACKETSIZE);
-        this.packetIn   = new DatagramPacket(new byte[MAX_PACKETSIZE], MAX_PACKETSIZE);
-        this.bufOut     = ByteBuffer.allocate(MAX_PACKETSIZE).order(ByteOrder.LITTLE_ENDIAN);
+        this.bufOut     = ByteBuffer.allocate(MAX_COMMANDSIZE).order(ByteOrder.LITTLE_ENDIAN);
+        this.packetOut  = new DatagramPacket(bufOut.array(), 0);
+        this.cmdBuffer    = new PacketBuffer(INITIAL_PACKETSIZE);
+        this.streamBuffer = new PacketBuffer(INITIAL_PACKETSIZE);
         this.serverInfo = new ServerInfo();   
         
-        this.sceneListeners = new HashSet<>();
+        this.sceneListeners  = new CopyOnWriteArraySet<>();
+        this.packetListeners = new CopyOnWriteArraySet<>();
+        this.streamListeners = new CopyOnWriteArraySet<>();
+        this.lazyFrameListeners = new CopyOnWriteArraySet<>();
+        this.frameProcessors = new CopyOnWriteArrayList<>();
+        this.handles         = new LinkedList<>();
+        this.streamStatistics = new StreamStatistics();
+        this.reorderBuffer    = null;
+        this.clockSync        = new ClockSync();
+        this.frameSequence    = new FrameSequence();
+        this.dispatchingReceiver = new AtomicReference<>();
+        this.lazyFrame        = new LazyFrame();
+        this.sceneDecoding    = true;
+        this.latencyHistogram = new LatencyHistogram();
+        this.pollingRate      = DEFAULT_POLLING_RATE;
+        this.modelRefreshDelay = MODEL_REFRESH_INTERVAL;
     }
     
     
     @Override
     public boolean connect(InetAddress host)
     {
-        if ( connected )
-        {
-            disconnect();
-        }
-        
-        try
+        cancelReconnect();
+        return open(host);
+    }
+    
+    
+    /**
+     * Connects to a server and starts receiving the data stream.
+     * 
+     * @param host the server address
+     * 
+     * @return <code>true</code> if the connection was successful,
+     *         <code>false</code> if not
+     */
+    private boolean open(final InetAddress host)
+    {
+        synchronized(lifecycleLock)
         {
-            cmdSocket = new DatagramSocket();
-            cmdSocket.connect(host, PORT_COMMAND);
-            cmdSocket.setSoTimeout(100);
-            packetOut.setAddress(null); // make packet neutral
+            close();
             
-            Response_Ping ping = pingServer();
-            if ( ping != null )
-            {
-                connected = true;
-                LOG.log(Level.INFO, "Connected to server ''{0}'' v{1}.{2}.{3}.{4}, NatNet v{5}.{6}.{7}.{8}", 
-                        new Object[]{
-                            serverInfo.serverName,
-                            serverInfo.versionServer[0], serverInfo.versionServer[1], serverInfo.versionServer[2], serverInfo.versionServer[3],
-                            serverInfo.versionNatNet[0], serverInfo.versionNatNet[1], serverInfo.versionNatNet[2], serverInfo.versionNatNet[3]
-                        });
-                
-                // trigger sending of scene description and the first frame
-                sendCommandPacket(COMMAND_MODELDEF);
-                receiveResponsePacket(Response_ModelDefinition.class);
-                sendCommandPacket(COMMAND_FRAMEOFDATA);
-                receiveResponsePacket(Response_FrameOfData.class);
+            try
+            {
+                errorCounter  = 0;
+                serverAddress = host;
+                modelRefreshDelay = MODEL_REFRESH_INTERVAL;
+                cmdSocket = new DatagramSocket();
+                cmdSocket.connect(host, PORT_COMMAND);
+                cmdSocket.setSoTimeout(100);
+                packetOut.setAddress(null); // make packet neutral
                 
-                // get data stream source address
-                InetAddress dataStreamAddr    = host;
-                String      strDataStreamAddr = sendCommand("getDataStreamAddress");
-                try
+                Response_Ping ping = pingServer();
+                if ( ping != null )
                 {
-                    dataStreamAddr = InetAddress.getByName(strDataStreamAddr);
+                    connected = true;
+                    LOG.log(Level.INFO, "Connected to server ''{0}'' v{1}.{2}.{3}.{4}, NatNet v{5}.{6}.{7}.{8}", 
+                            new Object[]{
+                                serverInfo.serverName,
+                                serverInfo.versionServer[0], serverInfo.versionServer[1], serverInfo.versionServer[2], serverInfo.versionServer[3],
+                                serverInfo.versionNatNet[0], serverInfo.versionNatNet[1], serverInfo.versionNatNet[2], serverInfo.versionNatNet[3]
+                            });
+                    
+                    backgroundTasks = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+                    {
+                        @Override
+                        public Thread newThread(Runnable r)
+                        {
+                            Thread t = new Thread(r, "NatNetClient Background Thread");
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+                    
+                    final ModelDefinitionCache.Entry cached = 
+                            (modelCache != null) ? modelCache.load(serverInfo) : null;
+                    if ( cached != null )
+                    {
+                        // warm start: build scene from the cache and receive the stream right away,
+                        // then compare with the live definition in the background
+                        parsePacket(ByteBuffer.wrap(cached.packet).order(ByteOrder.LITTLE_ENDIAN), System.nanoTime());
+                        startReceiver(resolveDataStreamAddress(cached.dataStreamAddress, host));
+                        backgroundTasks.execute(new Runnable()
+                        {
+                            @Override
+                            public void run()
+                            {
+                                refreshModelDefinition(host);
+                            }
+                        });
+                    }
+                    else
+                    {
+                        // request scene description, data stream address and the first frame
+                        // all at once and collect the responses in whatever order they arrive
+                        Response[] responses;
+                        synchronized(cmdLock)
+                        {
+                            sendCommandPacket(COMMAND_MODELDEF);
+                            sendCommandPacket(COMMAND_STREAMADDRESS);
+                            sendCommandPacket(COMMAND_FRAMEOFDATA);
+                            responses = receiveResponsePackets(
+                                    Response_ModelDefinition.class, 
+                                    Response_Request.class, 
+                                    Response_FrameOfData.class);
+                        }
+                        
+                        String strDataStreamAddr = (responses[1] != null) ? 
+                                                   ((Response_Request) responses[1]).getValue() : 
+                                                   null;
+                        startReceiver(resolveDataStreamAddress(strDataStreamAddr, host));
+                        storeModelDefinition(strDataStreamAddr);
+                    }
+                    
+                    // keep measuring the round trip time for the clock synchronisation
+                    backgroundTasks.scheduleWithFixedDelay(new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            pingServer();
+                        }
+                    }, PING_INTERVAL, PING_INTERVAL, TimeUnit.MILLISECONDS);
+                    
+                    // fallback when the data stream stalls
+                    poller = new FramePoller();
+                    poller.trigger();
                 }
-                catch (UnknownHostException e)
+                else
                 {
-                    LOG.log(Level.WARNING, 
-                            "Could not resolve data stream address ''{0}''", 
-                            strDataStreamAddr);
+                    cmdSocket.close();
+                    cmdSocket = null;
                 }
-                LOG.log(Level.INFO, 
-                        "Server data stream address: {0} {1}", 
-                        new Object[] {
-                            dataStreamAddr, 
-                            dataStreamAddr.isMulticastAddress() ? "(multicast)" : ""
-                        });
-
-                // start stream receiver thread
-                frameStreaming = false;
-                receiverThread = new ReceiverThread(dataStreamAddr);
-                receiverThread.start();
-            }
-            else
-            {
-                cmdSocket.close();
-                cmdSocket = null;
-            }
-        }
-        catch (IllegalArgumentException | SocketException e)
-        {
-            if ( cmdSocket == null )
-            {
-                LOG.severe("Could not create socket.");
             }
-            else
+            catch (IllegalArgumentException | SocketException e)
             {
-                LOG.log(Level.SEVERE, "Could not connect to server ({0}).", e.getMessage());
+                if ( cmdSocket == null )
+                {
+                    LOG.severe("Could not create socket.");
+                }
+                else
+                {
+                    LOG.log(Level.SEVERE, "Could not connect to server ({0}).", e.getMessage());
+                }
+                cmdSocket = null;                
             }
-            cmdSocket = null;                
+            
+            return connected;
         }
-        
-        return connected;
     }
 
     
-    @Override
-    public boolean isConnected()
+    /**
+     * Sets the cache for model definitions.
+     * If a cached definition exists for a server, the scene is built from it
+     * when connecting and the live definition is only checked in the background.
+     * 
+     * @param cache the model definition cache (<code>null</code>: no caching)
+     */
+    public void setModelDefinitionCache(ModelDefinitionCache cache)
     {
-        return connected;
+        modelCache = cache;
     }
     
     
-    @Override
-    public String getServerName()
+    /**
+     * Requests the model definition and data stream address from the server
+     * and updates scene, receiver and cache if anything has changed.
+     * 
+     * @param host the server address
+     * 
+     * @return <code>true</code> if the model definition has changed,
+     *         <code>false</code> if not
+     */
+    private boolean refreshModelDefinition(InetAddress host)
     {
-        return serverInfo.serverName + " v" +
-               serverInfo.versionServer[0] + "." + serverInfo.versionServer[1] + "." +
-               serverInfo.versionServer[2] + "." + serverInfo.versionServer[3];
+        Response[] responses;
+        synchronized(cmdLock)
+        {
+            if ( !connected ) return false;
+            sendCommandPacket(COMMAND_MODELDEF);
+            sendCommandPacket(COMMAND_STREAMADDRESS);
+            responses = receiveResponsePackets(
+                    Response_ModelDefinition.class, 
+                    Response_Request.class);
+        }
+        checkErrors();
+        if ( (responses[0] == null) || (responses[1] == null) ) return false;
+        
+        final boolean changed = ((Response_ModelDefinition) responses[0]).isChanged();
+        if ( changed )
+        {
+            LOG.info("Model definition was outdated");
+        }
+        String strDataStreamAddr = ((Response_Request) responses[1]).getValue();
+        if ( !strDataStreamAddr.equals(dataStreamAddress) )
+        {
+            LOG.info("Data stream address has changed");
+            startReceiver(resolveDataStreamAddress(strDataStreamAddr, host));
+        }
+        storeModelDefinition(strDataStreamAddr);
+        return changed;
     }
     
     
-    @Override
-    public void update()
-    {
+    /**
+     * Requests a new model definition in the background, 
+     * e.g., because frames contain unknown elements.
+     * Requests are limited to one per second.
+     * While the server keeps sending the same definition,
+     * the time between the requests doubles up to one minute.
+     */
+    private void requestModelRefresh()
+    {
+        final ScheduledExecutorService tasks = backgroundTasks;
+        final InetAddress              host  = serverAddress;
+        final long                     now   = System.nanoTime();
+        if ( (tasks == null) || modelRefreshPending || 
+             (now - lastModelRefresh < modelRefreshDelay * 1000000L) ) return;
+        
+        modelRefreshPending = true;
+        LOG.info("Frame contains unknown elements > requesting model definition");
+        try
+        {
+            tasks.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    boolean changed = false;
+                    try
+                    {
+                        changed = refreshModelDefinition(host);
+                    }
+                    finally
+                    {
+                        // the same definition won't resolve the unknown elements any sooner
+                        modelRefreshDelay   = changed ? MODEL_REFRESH_INTERVAL : 
+                                              Math.min(modelRefreshDelay * 2, MODEL_REFRESH_MAX);
+                        lastModelRefresh    = System.nanoTime();
+                        modelRefreshPending = false;
+                    }
+                }
+            });
+        }
+        catch (RejectedExecutionException e)
+        {
+            // client has disconnected
+            modelRefreshPending = false;
+        }
+    }
+    
+    
+    /**
+     * Writes the current model definition to the cache in the background.
+     * 
+     * @param strDataStreamAddr the data stream address reported by the server
+     */
+    private void storeModelDefinition(final String strDataStreamAddr)
+    {
+        final ModelDefinitionCache     cache  = modelCache;
+        final byte[]                   packet = modelDefinitionPacket;
+        final ScheduledExecutorService tasks  = backgroundTasks;
+        if ( (cache == null) || (packet == null) || (strDataStreamAddr == null) || (tasks == null) ) return;
+        
+        tasks.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                cache.store(serverInfo, strDataStreamAddr, packet);
+            }
+        });
+    }
+    
+    
+    /**
+     * Resolves the data stream address reported by the server.
+     * 
+     * @param strDataStreamAddr  the address string reported by the server
+     * @param host               the server address to use as fallback
+     * 
+     * @return the data stream address
+     */
+    private InetAddress resolveDataStreamAddress(String strDataStreamAddr, InetAddress host)
+    {
+        InetAddress dataStreamAddr = host;
+        try
+        {
+            if ( strDataStreamAddr != null )
+            {
+                dataStreamAddr = InetAddress.getByName(strDataStreamAddr);
+            }
+        }
+        catch (UnknownHostException e)
+        {
+            LOG.log(Level.WARNING, 
+                    "Could not resolve data stream address ''{0}''", 
+                    strDataStreamAddr);
+        }
+        LOG.log(Level.INFO, 
+                "Server data stream address: {0} {1}", 
+                new Object[] {
+                    dataStreamAddr, 
+                    dataStreamAddr.isMulticastAddress() ? "(multicast)" : ""
+                });
+        dataStreamAddress = strDataStreamAddr;
+        return dataStreamAddr;
+    }
+    
+    
+    /**
+     * Starts (or restarts) the stream receiver thread.
+     * 
+     * @param dataStreamAddr the address of the data stream
+     */
+    private synchronized void startReceiver(InetAddress dataStreamAddr)
+    {
+        stopReceiver();
+        frameStreaming = false;
+        FrameReorderBuffer reorder = reorderBuffer;
+        if ( reorder != null ) reorder.reset();
+        clockSync.reset();
+        receiverThread = new ReceiverThread(dataStreamAddr);
+        receiverThread.start();
+    }
+    
+    
+    /**
+     * Stops the stream receiver thread.
+     */
+    private synchronized void stopReceiver()
+    {
+        if ( receiverThread != null )
+        {
+            receiverThread.terminate();
+            try
+            {
+                // the receiver notices within one receive timeout,
+                // stops its pipeline stages and then closes the data port
+                receiverThread.join(TIMEOUT_INITIAL + TIMEOUT_RUNNING + 2 * TIMEOUT_STAGE);
+                if ( receiverThread.isAlive() )
+                {
+                    LOG.warning("Receiver thread did not stop in time");
+                }
+            }
+            catch (InterruptedException e)
+            {
+                // ignore
+            }
+            receiverThread = null;
+        }
+    }
+    
+    
+    /**
+     * Connects to the first MoCap server that responds 
+     * out of a list of candidate addresses.
+     * 
+     * @param hosts      the candidate server addresses
+     * @param broadcast  <code>true</code> to also search all local networks
+     *                   by broadcasting the ping request
+     * 
+     * @return <code>true</code> if the connection was successful,
+     *         <code>false</code> if not
+     */
+    public boolean connect(Collection<InetAddress> hosts, boolean broadcast)
+    {
+        boolean success = false;
+        InetAddress host = discoverServer(hosts, broadcast, TIMEOUT_INITIAL);
+        if ( host != null )
+        {
+            success = connect(host);
+        }
+        else
+        {
+            LOG.warning("No MoCap server found.");
+        }
+        return success;
+    }
+    
+    
+    /**
+     * Searches for a MoCap server by pinging all candidate addresses at once.
+     * 
+     * @param hosts      the candidate server addresses
+     * @param broadcast  <code>true</code> to also search all local networks
+     *                   by broadcasting the ping request
+     * @param timeout    the maximum time to wait for a response in milliseconds
+     * 
+     * @return the address of the first server that responded
+     *         or <code>null</code> if no server responded
+     */
+    public InetAddress discoverServer(Collection<InetAddress> hosts, boolean broadcast, int timeout)
+    {
+        Set<InetAddress> targets = new LinkedHashSet<>(hosts);
+        if ( broadcast )
+        {
+            targets.addAll(getBroadcastAddresses());
+        }
+        
+        InetAddress    server = null;
+        DatagramSocket socket = null;
+        try
+        {
+            socket = new DatagramSocket();
+            socket.setBroadcast(broadcast);
+            
+            // send ping to all candidates at once
+            final ByteBuffer     buf    = ByteBuffer.allocate(MAX_NAMELENGTH + 16).order(ByteOrder.LITTLE_ENDIAN);
+            final DatagramPacket packet = new DatagramPacket(buf.array(), buf.capacity());
+            new Command_Ping(appName, appVersion).marshal(buf);
+            buf.putShort(2, (short) (buf.position() - 4));
+            packet.setLength(buf.position());
+            packet.setPort(PORT_COMMAND);
+            for ( InetAddress target : targets )
+            {
+                try
+                {
+                    packet.setAddress(target);
+                    socket.send(packet);
+                }
+                catch (IOException e)
+                {
+                    LOG.log(Level.FINE, "Could not send ping to {0} ({1}).", 
+                            new Object[] { target, e.getMessage() });
+                }
+            }
+            LOG.log(Level.INFO, "Searching for MoCap server at {0}", targets);
+            
+            // wait for the first ping response
+            final byte[]         arrIn    = new byte[MAX_NAMELENGTH + 16];
+            final DatagramPacket response = new DatagramPacket(arrIn, arrIn.length);
+            final long           endTime  = System.currentTimeMillis() + timeout;
+            long                 remaining;
+            while ( (server == null) && 
+                    ((remaining = endTime - System.currentTimeMillis()) > 0) )
+            {
+                socket.setSoTimeout((int) remaining);
+                response.setLength(arrIn.length);
+                socket.receive(response);
+                int packetId = (arrIn[0] & 0xFF) | ((arrIn[1] & 0xFF) << 8);
+                if ( (response.getLength() >= 4) && (packetId == NAT_PINGRESPONSE) )
+                {
+                    server = response.getAddress();
+                    LOG.log(Level.INFO, "Found MoCap server at {0}", server);
+                }
+            }
+        }
+        catch (SocketTimeoutException e)
+        {
+            // no response in time
+        }
+        catch (IOException e)
+        {
+            LOG.log(Level.SEVERE, "Could not search for MoCap server ({0}).", e.getMessage());
+        }
+        finally
+        {
+            if ( socket != null ) socket.close();
+        }
+        return server;
+    }
+    
+    
+    /**
+     * Collects the broadcast addresses of all active local IPv4 networks.
+     * 
+     * @return the list of broadcast addresses
+     */
+    private static List<InetAddress> getBroadcastAddresses()
+    {
+        List<InetAddress> addresses = new LinkedList<>();
+        try
+        {
+            Enumeration<NetworkInterface> interfaces = NetworkInterface.getNetworkInterfaces();
+            while ( (interfaces != null) && interfaces.hasMoreElements() )
+            {
+                NetworkInterface ni = interfaces.nextElement();
+                if ( !ni.isUp() ) continue;
+                for ( InterfaceAddress ia : ni.getInterfaceAddresses() )
+                {
+                    if ( ia.getBroadcast() != null )
+                    {
+                        addresses.add(ia.getBroadcast());
+                    }
+                }
+            }
+        }
+        catch (SocketException e)
+        {
+            LOG.log(Level.WARNING, "Could not enumerate network interfaces ({0}).", e.getMessage());
+        }
+        if ( addresses.isEmpty() )
+        {
+            try
+            {
+                addresses.add(InetAddress.getByName("255.255.255.255"));
+            }
+            catch (UnknownHostException e)
+            {
+                // can't happen for a numerical address
+            }
+        }
+        return addresses;
+    }
+    
+    
+    @Override
+    public boolean isConnected()
+    {
+        return connected;
+    }
+    
+    
+    @Override
+    public String getServerName()
+    {
+        return serverInfo.serverName + " v" +
+               serverInfo.versionServer[0] + "." + serverInfo.versionServer[1] + "." +
+               serverInfo.versionServer[2] + "." + serverInfo.versionServer[3];
+    }
+    
+    
+    /**
+     * Requests a frame when the data stream is not active.
+     * The request is sent and answered in the background,
+     * so this method never waits for the network.
+     * Usually, this is not necessary, since frames are polled 
+     * at the polling rate anyway (see {@link #setPollingRate(int)}).
+     */
+    @Override
+    public void update()
+    {
         // only poll "manually" when streaming does not work
         // (for whatever reason)
-        if ( connected && !frameStreaming ) 
+        final FramePoller p = poller;
+        if ( connected && !frameStreaming && (p != null) ) 
+        {
+            p.trigger();
+        }
+    }
+    
+    
+    /**
+     * Sets the rate for polling frames while the data stream is not active.
+     * When the server does not respond, the polling slows down
+     * and speeds up again as soon as there is a response.
+     * 
+     * @param rate  the number of frames to poll per second
+     *              (0: only poll when {@link #update()} is called)
+     */
+    public void setPollingRate(int rate)
+    {
+        pollingRate = Math.max(0, rate);
+        update();
+    }
+    
+    
+    /**
+     * Checks if the client receives the data stream of the server.
+     * If not, frames are polled in the background (see {@link #setPollingRate(int)}).
+     * 
+     * @return <code>true</code> if the data stream is active,
+     *         <code>false</code> if not
+     */
+    public boolean isStreaming()
+    {
+        return frameStreaming;
+    }
+    
+    
+    /**
+     * Creates a cursor for following the received frames,
+     * starting at the latest frame.
+     * 
+     * @return the new frame cursor
+     */
+    public FrameCursor createFrameCursor()
+    {
+        return new FrameCursor(this, frameSequence);
+    }
+    
+    
+    /**
+     * Gets a permanent handle to an actor.
+     * 
+     * @param actorName  the exact name of the actor
+     * 
+     * @return the handle that is rebound whenever the scene structure changes
+     */
+    public ElementHandle<Actor> getActorHandle(String actorName)
+    {
+        return registerHandle(new ElementHandle.ActorHandle(actorName, 0));
+    }
+    
+    
+    /**
+     * Gets a permanent handle to an actor.
+     * 
+     * @param actorId  the ID of the actor
+     * 
+     * @return the handle that is rebound whenever the scene structure changes
+     */
+    public ElementHandle<Actor> getActorHandle(int actorId)
+    {
+        return registerHandle(new ElementHandle.ActorHandle(null, actorId));
+    }
+    
+    
+    /**
+     * Gets a permanent handle to a marker.
+     * 
+     * @param actorName   the exact name of the actor
+     * @param markerName  the exact name of the marker
+     * 
+     * @return the handle that is rebound whenever the scene structure changes
+     */
+    public ElementHandle<Marker> getMarkerHandle(String actorName, String markerName)
+    {
+        return registerHandle(new ElementHandle.MarkerHandle(actorName, markerName));
+    }
+    
+    
+    /**
+     * Gets a permanent handle to a bone.
+     * 
+     * @param actorName  the exact name of the actor
+     * @param boneName   the exact name of the bone
+     * 
+     * @return the handle that is rebound whenever the scene structure changes
+     */
+    public ElementHandle<Bone> getBoneHandle(String actorName, String boneName)
+    {
+        return registerHandle(new ElementHandle.BoneHandle(actorName, boneName, 0, 0));
+    }
+    
+    
+    /**
+     * Gets a permanent handle to a bone.
+     * 
+     * @param actorId  the ID of the actor
+     * @param boneId   the ID of the bone
+     * 
+     * @return the handle that is rebound whenever the scene structure changes
+     */
+    public ElementHandle<Bone> getBoneHandle(int actorId, int boneId)
+    {
+        return registerHandle(new ElementHandle.BoneHandle(null, null, actorId, boneId));
+    }
+    
+    
+    /**
+     * Gets a permanent handle to an interaction device channel.
+     * 
+     * @param deviceName   the exact name of the device
+     * @param channelName  the exact name of the channel
+     * 
+     * @return the handle that is rebound whenever the scene structure changes
+     */
+    public ElementHandle<Channel> getChannelHandle(String deviceName, String channelName)
+    {
+        return registerHandle(new ElementHandle.ChannelHandle(deviceName, channelName));
+    }
+    
+    
+    /**
+     * Binds a new handle and keeps it for rebinding.
+     * Handles are only weakly referenced, so unused handles can be collected.
+     * 
+     * @param handle the handle to register
+     * 
+     * @return the handle
+     */
+    private <T> ElementHandle<T> registerHandle(ElementHandle<T> handle)
+    {
+        synchronized(scene)
         {
-            sendCommandPacket(COMMAND_FRAMEOFDATA);
-            receiveResponsePacket(Response_FrameOfData.class);
+            handle.rebind(scene);
+            handles.add(new WeakReference<ElementHandle<?>>(handle));
+        }
+        return handle;
+    }
+    
+    
+    /**
+     * Rebinds all handles after a change of the scene structure.
+     * Called with the lock of the scene held.
+     */
+    private void rebindHandles()
+    {
+        Iterator<WeakReference<ElementHandle<?>>> it = handles.iterator();
+        while ( it.hasNext() )
+        {
+            ElementHandle<?> handle = it.next().get();
+            if ( handle == null )
+            {
+                it.remove(); // handle is not used any more
+            }
+            else
+            {
+                handle.rebind(scene);
+            }
         }
     }
     
@@ -907,9 +1686,14 @@ public class NatNetClient implements MoCapClient
     @Override
     public String sendCommand(String command)
     {
-        String retVal = null;
-        sendCommandPacket(new Command_Request(command));
-        Response response = receiveResponsePacket(Response_Request.class);
+        String   retVal = null;
+        Response response;
+        synchronized(cmdLock)
+        {
+            sendCommandPacket(new Command_Request(command));
+            response = receiveResponsePacket(Response_Request.class);
+        }
+        checkErrors();
         if ( response != null )
         {
             retVal = ((Response_Request) response).getValue();
@@ -921,53 +1705,578 @@ public class NatNetClient implements MoCapClient
     @Override
     public boolean disconnect()
     {
-        if ( connected )
+        cancelReconnect();
+        close();
+        return !connected;
+    }
+    
+    
+    /**
+     * Enables or disables automatic reconnection.
+     * When the server stops responding, the client disconnects
+     * and tries to connect again in the background,
+     * with an increasing delay between the attempts.
+     * Stream listeners are notified when the connection is lost and restored.
+     * An explicit call of {@link #connect(InetAddress)} or {@link #disconnect()} 
+     * stops pending attempts.
+     * 
+     * @param enabled <code>true</code> to reconnect automatically
+     */
+    public void setAutoReconnect(boolean enabled)
+    {
+        autoReconnect = enabled;
+        if ( !enabled ) cancelReconnect();
+    }
+    
+    
+    /**
+     * Gets the number of times the client has reconnected automatically.
+     * 
+     * @return the number of successful reconnections
+     */
+    public int getReconnectCount()
+    {
+        return reconnectCount;
+    }
+    
+    
+    /**
+     * Handles a connection that has been lost:
+     * disconnects and, if enabled, starts trying to reconnect.
+     */
+    private void connectionLost()
+    {
+        final InetAddress host;
+        synchronized(lifecycleLock)
+        {
+            if ( !connected ) return; // already handled
+            host = serverAddress;
+            close();
+        }
+        notifyListeners_Connection(false);
+        if ( autoReconnect && (host != null) )
+        {
+            LOG.log(Level.WARNING, "Connection to {0} lost > reconnecting", host);
+            scheduleReconnect(host, RECONNECT_DELAY_MIN);
+        }
+    }
+    
+    
+    /**
+     * Schedules an attempt to reconnect.
+     * 
+     * @param host   the server to reconnect to
+     * @param delay  the delay until the attempt in milliseconds
+     */
+    private synchronized void scheduleReconnect(final InetAddress host, final long delay)
+    {
+        if ( supervisor == null )
+        {
+            supervisor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+            {
+                @Override
+                public Thread newThread(Runnable r)
+                {
+                    Thread t = new Thread(r, "NatNetClient Supervisor Thread");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        final int generation = reconnectGeneration;
+        reconnectTask = supervisor.schedule(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                final boolean reconnected;
+                synchronized(lifecycleLock)
+                {
+                    // the application may have connected, disconnected or cancelled
+                    if ( !autoReconnect || connected || (generation != reconnectGeneration) ) return;
+                    reconnected = open(host);
+                    if ( reconnected && (generation != reconnectGeneration) )
+                    {
+                        // cancelled while connecting
+                        close();
+                        return;
+                    }
+                }
+                if ( reconnected )
+                {
+                    reconnectCount++;
+                    LOG.log(Level.INFO, "Reconnected to {0}", host);
+                    cancelReconnect(); // releases the supervisor thread
+                    notifyListeners_Connection(true);
+                }
+                else
+                {
+                    synchronized(NatNetClient.this)
+                    {
+                        // unless cancelled in the meantime
+                        if ( generation == reconnectGeneration )
+                        {
+                            scheduleReconnect(host, Math.min(delay * 2, RECONNECT_DELAY_MAX));
+                        }
+                    }
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+    
+    
+    /**
+     * Stops pending attempts to reconnect and the supervisor thread.
+     */
+    private synchronized void cancelReconnect()
+    {
+        reconnectGeneration++; // a task that is already running gives up
+        if ( reconnectTask != null )
+        {
+            reconnectTask.cancel(false);
+            reconnectTask = null;
+        }
+        if ( supervisor != null )
+        {
+            supervisor.shutdown();
+            supervisor = null;
+        }
+    }
+    
+    
+    /**
+     * Stops the receiver and background tasks and closes the command socket.
+     * Several threads can get here at the same time (the application, the frame poller
+     * and the ping task), so the connection state is checked and cleared under the lifecycle lock.
+     * Must not be called while holding the command lock.
+     */
+    private void close()
+    {
+        synchronized(lifecycleLock)
+        {
+            if ( !connected ) return;
+            
+            stopReceiver();
+            
+            final FramePoller p = poller;
+            poller = null;
+            if ( p != null ) p.shutdown();
+            backgroundTasks.shutdown();
+            backgroundTasks = null;
+            
+            synchronized(cmdLock)
+            {
+                cmdSocket.disconnect();
+                cmdSocket.close();
+                cmdSocket = null;
+            
+                connected = false;
+            }
+        }
+    }
+    
+    
+    @Override
+    public boolean addSceneListener(SceneListener listener)
+    {
+        boolean added = sceneListeners.add(listener);
+        if ( added )
+        {
+            // immediately notify
+            if ( listener instanceof SceneChangeListener )
+            {
+                final SceneChange change;
+                synchronized(scene)
+                {
+                    change = SceneChange.allAdded(scene);
+                }
+                ((SceneChangeListener) listener).sceneChanged(scene, change);
+            }
+            else
+            {
+                listener.sceneChanged(scene);
+            }
+        }
+        return added;
+    }
+    
+    
+    @Override
+    public boolean removeSceneListener(SceneListener listener)
+    {
+        boolean removed = sceneListeners.remove(listener);
+        return  removed;
+    }
+
+
+    /**
+     * Registers a listener for raw incoming packets.
+     * 
+     * @param listener the listener to register
+     * 
+     * @return <code>true</code> if listener was registered,
+     *         <code>false</code> if not
+     */
+    public boolean addPacketListener(PacketListener listener)
+    {
+        return packetListeners.add(listener);
+    }
+    
+    
+    /**
+     * Removes a listener for raw incoming packets.
+     * 
+     * @param listener the listener to remove
+     * 
+     * @return <code>true</code> if listener was removed,
+     *         <code>false</code> if not
+     */
+    public boolean removePacketListener(PacketListener listener)
+    {
+        return packetListeners.remove(listener);
+    }
+    
+    
+    /**
+     * Adds a processor for the frame data, e.g., a filter.
+     * Processors run in the order they were added,
+     * after a frame has been decoded and before the scene listeners are notified.
+     * 
+     * @param processor the processor to add
+     */
+    public void addFrameProcessor(FrameProcessor processor)
+    {
+        synchronized(scene)
+        {
+            processor.sceneChanged(scene);
+            frameProcessors.add(processor);
+        }
+    }
+    
+    
+    /**
+     * Removes a processor for the frame data.
+     * 
+     * @param processor the processor to remove
+     * 
+     * @return <code>true</code> if processor was removed,
+     *         <code>false</code> if not
+     */
+    public boolean removeFrameProcessor(FrameProcessor processor)
+    {
+        return frameProcessors.remove(processor);
+    }
+    
+    
+    /**
+     * Registers a listener for events in the data stream.
+     * 
+     * @param listener the listener to register
+     * 
+     * @return <code>true</code> if listener was registered,
+     *         <code>false</code> if not
+     */
+    public boolean addStreamListener(StreamListener listener)
+    {
+        return streamListeners.add(listener);
+    }
+    
+    
+    /**
+     * Removes a listener for events in the data stream.
+     * 
+     * @param listener the listener to remove
+     * 
+     * @return <code>true</code> if listener was removed,
+     *         <code>false</code> if not
+     */
+    public boolean removeStreamListener(StreamListener listener)
+    {
+        return streamListeners.remove(listener);
+    }
+    
+    
+    /**
+     * Registers a listener that reads frames directly from the received packets.
+     * 
+     * @param listener the listener to register
+     * 
+     * @return <code>true</code> if listener was registered,
+     *         <code>false</code> if not
+     * 
+     * @see #setSceneDecoding(boolean)
+     */
+    public boolean addLazyFrameListener(LazyFrameListener listener)
+    {
+        return lazyFrameListeners.add(listener);
+    }
+    
+    
+    /**
+     * Removes a listener that reads frames directly from the received packets.
+     * 
+     * @param listener the listener to remove
+     * 
+     * @return <code>true</code> if listener was removed,
+     *         <code>false</code> if not
+     */
+    public boolean removeLazyFrameListener(LazyFrameListener listener)
+    {
+        return lazyFrameListeners.remove(listener);
+    }
+    
+    
+    /**
+     * Enables or disables decoding frames into the scene.
+     * When all consumers read the frames through {@link LazyFrameListener}s,
+     * decoding can be disabled, and only the values that are read are extracted.
+     * The scene, frame processors, cursors and scene listeners
+     * then don't receive any frame updates.
+     * 
+     * @param enabled <code>true</code> to decode frames into the scene (default),
+     *                <code>false</code> to only deliver them to lazy frame listeners
+     */
+    public void setSceneDecoding(boolean enabled)
+    {
+        sceneDecoding = enabled;
+    }
+    
+    
+    /**
+     * Sets up a window for putting frames of the data stream back into order.
+     * Frames that arrive early are held back until the missing frames arrive
+     * or until they have waited for the maximum delay.
+     * Duplicate and late frames are dropped.
+     * 
+     * @param frames    the maximum number of frames to hold back (0: disable reordering)
+     * @param maxDelay  the maximum time to hold back a frame in milliseconds
+     */
+    public void setReorderWindow(int frames, int maxDelay)
+    {
+        if ( frames > 0 )
+        {
+            reorderBuffer = new FrameReorderBuffer(frames, Math.max(1, maxDelay), streamStatistics,
+                    new FrameReorderBuffer.Output()
+                    {
+                        @Override
+                        public void frameReleased(ByteBuffer packet, long arrivalTime)
+                        {
+                            parsePacket(packet, arrivalTime);
+                        }
+
+                        @Override
+                        public void discontinuity(int lastFrameNumber, int frameNumber)
+                        {
+                            notifyListeners_Discontinuity(lastFrameNumber, frameNumber);
+                        }
+                    });
+            LOG.log(Level.INFO, "Reordering frames (window: {0} frames, max. delay: {1}ms)",
+                    new Object[] { frames, maxDelay });
+        }
+        else
+        {
+            reorderBuffer = null;
+        }
+    }
+    
+    
+    /**
+     * Sets up the receive pipeline.
+     * By default, the receiver thread receives, decodes and notifies the listeners,
+     * so the next packet is only received after every listener has returned.
+     * With the pipeline, the receiver thread only copies packets into a ring of buffers.
+     * A decoder thread decodes them and a dispatcher thread notifies the listeners.
+     * If the listeners are slower than the data stream, 
+     * they are notified once for several frames.
+     * A running receiver is restarted with the new setting.
+     * 
+     * @param strategy  the wait strategy for the decoder and dispatcher threads
+     *                  (<code>null</code>: no pipeline)
+     * @param ringSize  the number of packets the ring can hold between receiving and decoding
+     */
+    public void setReceivePipeline(WaitStrategy strategy, int ringSize)
+    {
+        synchronized(this)
+        {
+            pipelineStrategy = strategy;
+            pipelineSize     = Math.max(2, ringSize);
+            if ( receiverThread != null )
+            {
+                startReceiver(receiverThread.streamAddress);
+            }
+        }
+        if ( strategy != null )
+        {
+            LOG.log(Level.INFO, "Using receive pipeline ({0}, {1} packets)",
+                    new Object[] { strategy, ringSize });
+        }
+    }
+    
+    
+    /**
+     * Sets up busy polling of the data stream.
+     * Instead of sleeping in a blocking receive call until the operating system
+     * wakes it up, the receiver thread polls a non-blocking channel.
+     * Between the polls, it backs off by spinning, yielding and sleeping.
+     * This reduces the latency and its jitter at the cost of CPU time.
+     * A running receiver is restarted with the new setting.
+     * 
+     * @param backoff  the back-off between polls 
+     *                 (<code>null</code>: blocking receive)
+     */
+    public void setBusyPolling(Backoff backoff)
+    {
+        synchronized(this)
+        {
+            busyPolling = backoff;
+            if ( receiverThread != null )
+            {
+                startReceiver(receiverThread.streamAddress);
+            }
+        }
+    }
+    
+    
+    /**
+     * Sets the factory for the threads that receive, decode and dispatch the data stream,
+     * e.g., to name them or pin them to isolated processor cores.
+     * The factory is used the next time the receiver is started.
+     * The client sets the daemon flag of the threads itself:
+     * the receiver thread is not a daemon thread, the pipeline stages are.
+     * 
+     * @param factory  the thread factory
+     *                 (<code>null</code>: default threads)
+     */
+    public void setThreadFactory(ThreadFactory factory)
+    {
+        threadFactory = factory;
+    }
+    
+    
+    /**
+     * Gets the histogram of the latencies from the capture of a frame 
+     * to the notification of the scene listeners.
+     * The latencies include the network, waking up the receiver and decoding,
+     * and are only recorded once the clocks are synchronised (see {@link #getClockSync()}).
+     * 
+     * @return the latency histogram
+     */
+    public LatencyHistogram getLatencyHistogram()
+    {
+        return latencyHistogram;
+    }
+    
+    
+    /**
+     * Creates a thread for receiving, decoding or dispatching the data stream.
+     * 
+     * @param name      the name of the thread, unless there is a thread factory
+     * @param runnable  the code for the thread
+     * @param daemon    the daemon flag of the thread
+     * 
+     * @return the thread (not started yet)
+     */
+    private Thread newThread(String name, Runnable runnable, boolean daemon)
+    {
+        final ThreadFactory factory = threadFactory;
+        Thread thread = (factory != null) ? factory.newThread(runnable) : new Thread(runnable, name);
+        thread.setDaemon(daemon);
+        return thread;
+    }
+    
+    
+    /**
+     * Gets the synchronisation between the server clock and the local clock.
+     * 
+     * @return the clock synchronisation object
+     */
+    public ClockSync getClockSync()
+    {
+        return clockSync;
+    }
+    
+    
+    /**
+     * Gets the statistics about the frames of the data stream
+     * (only counted while a reorder window is set).
+     * 
+     * @return the stream statistics
+     */
+    public StreamStatistics getStreamStatistics()
+    {
+        return streamStatistics;
+    }
+    
+    
+    /**
+     * Gets a copy of the last raw ping response packet received from the server.
+     * 
+     * @return the ping response packet or <code>null</code> if there is none
+     */
+    byte[] getPingResponsePacket()
+    {
+        final byte[] packet = pingResponsePacket;
+        return (packet != null) ? packet.clone() : null;
+    }
+    
+    
+    /**
+     * Gets a copy of the last raw model definition packet received from the server.
+     * 
+     * @return the model definition packet or <code>null</code> if there is none
+     */
+    byte[] getModelDefinitionPacket()
+    {
+        final byte[] packet = modelDefinitionPacket;
+        return (packet != null) ? packet.clone() : null;
+    }
+    
+    
+    /**
+     * Finds the actor of a marker set by comparing its name in place,
+     * so that decoding a frame doesn't create a string and a pattern per actor.
+     * Marker sets are usually sent in the order of the model definition,
+     * so the actor with the same index is tried first.
+     * 
+     * @param buf     the buffer positioned at the name of the marker set,
+     *                afterwards positioned after the name
+     * @param scene   the scene with the actors
+     * @param setIdx  the index of the marker set in the frame
+     * 
+     * @return the actor with the name of the marker set
+     *         or <code>null</code> if there is no such actor
+     */
+    private static Actor findMarkerSetActor(ByteBuffer buf, Scene scene, int setIdx)
+    {
+        final int start = buf.position();
+        int       end   = start;
+        while ( buf.get(end) != 0 ) { end++; }
+        buf.position(end + 1);
+        
+        final Actor[] actors = scene.actors;
+        if ( (setIdx < actors.length) && nameEquals(buf, start, end, actors[setIdx].name) )
         {
-            if ( receiverThread != null )
-            {
-                receiverThread.terminate();
-                try
-                {
-                    receiverThread.join(1000);
-                }
-                catch (InterruptedException e)
-                {
-                    // ignore
-                }
-                receiverThread = null;
-            }
-            
-            cmdSocket.disconnect();
-            cmdSocket.close();
-            cmdSocket = null;
-            
-            connected = false;
+            return actors[setIdx];
         }
-        return !connected;
+        for ( Actor actor : actors )
+        {
+            if ( nameEquals(buf, start, end, actor.name) ) return actor;
+        }
+        return null;
     }
     
     
-    @Override
-    public boolean addSceneListener(SceneListener listener)
+    private static boolean nameEquals(ByteBuffer buf, int start, int end, String name)
     {
-        boolean added = sceneListeners.add(listener);
-        if ( added )
+        if ( name.length() != end - start ) return false;
+        for ( int idx = 0 ; idx < name.length() ; idx++ )
         {
-            // immediately notify
-            listener.sceneChanged(scene);
+            if ( (char) buf.get(start + idx) != name.charAt(idx) ) return false;
         }
-        return added;
+        return true;
     }
     
     
-    @Override
-    public boolean removeSceneListener(SceneListener listener)
-    {
-        boolean removed = sceneListeners.remove(listener);
-        return  removed;
-    }
-
-
     private boolean checkActorId(int actorId)
     {
         boolean valid = (actorId >= 0) && (actorId < scene.actors.length);
@@ -995,10 +2304,19 @@ public class NatNetClient implements MoCapClient
         Response_Ping result = null;
         if ( cmdSocket != null )
         {
-            if ( sendCommandPacket(new Command_Ping(appName, appVersion)) )
+            synchronized(cmdLock)
             {
-                result = (Response_Ping) receiveResponsePacket(Response_Ping.class);        
-            }            
+                final long sendTime = System.nanoTime();
+                if ( sendCommandPacket(new Command_Ping(appName, appVersion)) )
+                {
+                    result = (Response_Ping) receiveResponsePacket(Response_Ping.class);        
+                }
+                if ( result != null )
+                {
+                    clockSync.addRoundTrip(System.nanoTime() - sendTime);
+                }
+            }
+            checkErrors();
         }
         return result;
     }
@@ -1007,6 +2325,7 @@ public class NatNetClient implements MoCapClient
     private boolean sendCommandPacket(Command cmd)
     {
         boolean success = false;
+        if ( cmdSocket == null ) return success;
         
         cmd.marshal(bufOut);
         int len = bufOut.position(); 
@@ -1027,17 +2346,49 @@ public class NatNetClient implements MoCapClient
     }
     
     
-    private Response receiveResponsePacket(Class c)
+    private Response receiveResponsePacket(Class<?> c)
     {
-        Response response = null;
+        return receiveResponsePackets(c)[0];
+    }
+    
+    
+    /**
+     * Receives responses of several types, in any order.
+     * 
+     * @param classes the response types to wait for
+     * 
+     * @return the responses in the order of the requested types,
+     *         with <code>null</code> for responses that were not received
+     */
+    private Response[] receiveResponsePackets(Class<?>... classes)
+    {
+        Response[] responses = new Response[classes.length];
+        int        missing   = classes.length;
+        if ( cmdSocket == null ) return responses;
         try
         {
-            do
+            while ( missing > 0 )
             {
-                cmdSocket.receive(packetIn);
-                response = parsePacket(packetIn);
+                if ( !cmdBuffer.receive(cmdSocket) )
+                {
+                    // response did not fit into the buffer > ask again (buffer has grown)
+                    repeatRequest(cmdBuffer.getPacketId());
+                    continue;
+                }
+                final long arrivalTime = System.nanoTime();
+                notifyListeners_Packet(cmdBuffer);
+                Response response = parsePacket(cmdBuffer.getBuffer(), arrivalTime);
                 errorCounter = 0;
-            } while ( !c.isInstance(response) );
+                for ( int i = 0 ; i < classes.length ; i++ )
+                {
+                    if ( (responses[i] == null) && classes[i].isInstance(response) )
+                    {
+                        responses[i] = response;
+                        missing--;
+                        break;
+                    }
+                }
+            }
         }
         catch (IOException e)
         {
@@ -1046,116 +2397,443 @@ public class NatNetClient implements MoCapClient
                 LOG.log(Level.SEVERE, "Could not receive command ({0}).", e.getMessage());
             }
             errorCounter++;
-            if ( errorCounter > 30 )
+            if ( errorCounter == MAX_ERRORS + 1 )
             {
+                // the caller holds the command lock > disconnect in checkErrors()
                 LOG.log(Level.SEVERE, "Too many errors > disconnecting.");
-                disconnect();
             }
         }
-        return response;
+        return responses;
     }
    
     
-    private Response parsePacket(DatagramPacket packet)
+    /**
+     * Disconnects after too many failed command responses.
+     * This is not done in {@link #receiveResponsePackets(Class...)},
+     * because disconnecting stops the receiver and must not happen while holding the command lock.
+     */
+    private void checkErrors()
+    {
+        if ( errorCounter > MAX_ERRORS ) connectionLost();
+    }
+    
+    
+    /**
+     * Sends a request again after its response was truncated.
+     * 
+     * @param packetId the ID of the truncated response
+     */
+    private void repeatRequest(int packetId)
+    {
+        switch ( packetId )
+        {
+            case NAT_MODELDEF    : sendCommandPacket(COMMAND_MODELDEF);    break;
+            case NAT_FRAMEOFDATA : sendCommandPacket(COMMAND_FRAMEOFDATA); break;
+            default: 
+            {
+                LOG.log(Level.WARNING, "Truncated response (ID={0}) lost.", packetId);
+                break;
+            }
+        }
+    }
+    
+    
+    /**
+     * Parses and decodes a received packet.
+     * 
+     * @param bufIn       the buffer with the packet, positioned at the start of the packet
+     * @param arrivalTime the local time the packet was received (from <code>System.nanoTime()</code>)
+     * 
+     * @return the response object for the packet 
+     *         or <code>null</code> if the packet could not be decoded
+     */
+    private Response parsePacket(ByteBuffer bufIn, long arrivalTime)
     {
         Response response = null;
-        int rcvLength = packet.getLength();
-        if ( rcvLength > 0 )
+        int rcvLength = bufIn.remaining();
+        if ( rcvLength >= 4 )
         {
-            final ByteBuffer bufIn = ByteBuffer.wrap(packet.getData(), 0, rcvLength).order(ByteOrder.LITTLE_ENDIAN);
             logBufferData(bufIn, rcvLength);
             int packetId    = bufIn.getShort();
-            int packetLen   = bufIn.getShort();
+            int packetLen   = bufIn.getShort() & 0xFFFF; // unsigned 16 bit value
             int receivedLen = rcvLength; 
             if ( packetLen == receivedLen - 4 ) // don't count the 4 bytes id and length
             {
-                switch ( packetId )
+                final byte[] data   = bufIn.array();
+                final int    offset = bufIn.arrayOffset();
+                
+                if ( (packetId == NAT_FRAMEOFDATA) && !lazyFrameListeners.isEmpty() )
+                {
+                    // guarded separately: listener errors must not affect the decoding of the scene
+                    notifyListeners_LazyFrame(bufIn, arrivalTime);
+                }
+                
+                try
                 {
-                    case NAT_PINGRESPONSE :
+                    switch ( packetId )
                     {
-                        response = new Response_Ping(bufIn, serverInfo);
-                        break;
-                    }
+                        case NAT_PINGRESPONSE :
+                        {
+                            pingResponsePacket = Arrays.copyOfRange(data, offset, offset + rcvLength);
+                            response = new Response_Ping(bufIn, serverInfo);
+                            break;
+                        }
 
-                    case NAT_RESPONSE :
-                    {
-                        response = new Response_Request(bufIn);
-                        break;
-                    }
-                    
-                    case NAT_MODELDEF :
-                    {
-                        response = new Response_ModelDefinition(bufIn, scene);
-                        break;
-                    }
+                        case NAT_RESPONSE :
+                        {
+                            response = new Response_Request(bufIn);
+                            break;
+                        }
 
-                    case NAT_FRAMEOFDATA :
-                    {
-                        response = new Response_FrameOfData(bufIn, scene);
-                        break;
-                    }
+                        case NAT_MODELDEF :
+                        {
+                            byte[] packetData = Arrays.copyOfRange(data, offset, offset + rcvLength);
+                            if ( Arrays.equals(packetData, modelDefinitionPacket) )
+                            {
+                                // same definition as before (e.g., from the cache)
+                                response = new Response_ModelDefinition();
+                            }
+                            else
+                            {
+                                modelDefinitionPacket = packetData;
+                                response = new Response_ModelDefinition(bufIn, scene);
+                            }
+                            break;
+                        }
 
-                    case NAT_UNRECOGNIZED_REQUEST :
-                    {
-                        response = new Response_UnrecognizedRequest();
-                        LOG.log(Level.WARNING, "Unrecognized request.");
-                        break;
-                    }
+                        case NAT_FRAMEOFDATA :
+                        {
+                            response = sceneDecoding ?
+                                    new Response_FrameOfData(bufIn, scene, arrivalTime) :
+                                    new Response_FrameOfData();
+                            break;
+                        }
 
-                    default:
-                    {
-                        LOG.log(Level.WARNING, "Unknown packet ID {0}.", packetId);
-                        break;
+                        case NAT_UNRECOGNIZED_REQUEST :
+                        {
+                            response = new Response_UnrecognizedRequest();
+                            LOG.log(Level.WARNING, "Unrecognized request.");
+                            break;
+                        }
+
+                        default:
+                        {
+                            LOG.log(Level.WARNING, "Unknown packet ID {0}.", packetId);
+                            break;
+                        }
                     }
                 }
+                catch (BufferUnderflowException | IndexOutOfBoundsException e)
+                {
+                    LOG.log(Level.WARNING, 
+                            "Malformed packet (ID={0}, Length={1}).", 
+                            new Object[]{packetId, receivedLen});
+                }
+            }
+            else
+            {
+                LOG.log(Level.WARNING, 
+                        "Incoming packet length error (ID={0}, Packet Length={1}, Received Length={2}).", 
+                        new Object[]{packetId, packetLen, receivedLen});
+            }
+        }
+        return response;
+    }
+    
+    
+    /**
+     * Checks if an element count read from a packet is plausible
+     * before space for that many elements is allocated.
+     * 
+     * @param count    the element count
+     * @param minSize  the minimum size of an element in bytes
+     * @param buf      the buffer the elements are read from
+     * 
+     * @return the element count
+     * 
+     * @throws BufferUnderflowException if the remaining data can't contain that many elements
+     */
+    private static int checkCount(int count, int minSize, ByteBuffer buf)
+    {
+        if ( (count < 0) || (count > buf.remaining() / minSize) )
+        {
+            throw new BufferUnderflowException();
+        }
+        return count;
+    }
+    
+    
+    /**
+     * Extracts a null-terminated string from the buffer.
+     * 
+     * @param buf the buffer to extract the string from
+     * 
+     * @return  the extracted string
+     */
+    private String unmarshalString(ByteBuffer buf)
+    {
+        StringBuilder s = new StringBuilder();
+        char c;
+        while ( (c = (char) buf.get()) != '\0' ) { s.append(c); }
+        return s.toString();
+    }
+    
+    
+    /**
+     * Notifies all scene listeners about the update of the scene data.
+     */
+    private void notifyListeners_Update()
+    {
+        if ( clockSync.isSynchronised() )
+        {
+            latencyHistogram.record(System.nanoTime() - captureTime);
+        }
+        
+        final Object publishEvent = FrameEvents.beginPublish();
+        if ( publishEvent == null )
+        {
+            for ( SceneListener listener : sceneListeners )
+            {
+                listener.sceneUpdated(scene);
+            }
+            return;
+        }
+        
+        // recording: time each listener separately
+        final int frameNumber = scene.frameNumber;
+        int       listeners   = 0;
+        for ( SceneListener listener : sceneListeners )
+        {
+            final Object listenerEvent = FrameEvents.beginListener();
+            listener.sceneUpdated(scene);
+            FrameEvents.endListener(listenerEvent, listener, frameNumber);
+            listeners++;
+        }
+        FrameEvents.endPublish(publishEvent, frameNumber, listeners);
+    }
+    
+
+    /**
+     * Notifies all packet listeners about a received raw packet
+     * before it is reordered or decoded.
+     * 
+     * @param buffer  the buffer with the complete packet
+     */
+    private void notifyListeners_Packet(PacketBuffer buffer)
+    {
+        final ByteBuffer buf    = buffer.getBuffer();
+        final int        length = buf.remaining();
+        FrameEvents.packetReceived(buffer.getPacketId(), length);
+        if ( packetListeners.isEmpty() || (buffer.getPacketLength() != length - 4) ) return;
+        
+        for ( PacketListener listener : packetListeners )
+        {
+            listener.packetReceived(buf.array(), buf.arrayOffset(), length);
+        }
+    }
+    
+    
+    /**
+     * Indexes a frame of data and passes it to all lazy frame listeners.
+     * 
+     * @param buf          the buffer with the frame, positioned after the packet header
+     * @param arrivalTime  the local time the packet was received
+     */
+    private void notifyListeners_LazyFrame(ByteBuffer buf, long arrivalTime)
+    {
+        // the command and the data socket can deliver frames at the same time
+        synchronized(lazyFrame)
+        {
+            try
+            {
+                lazyFrame.index(buf, serverInfo.versionNatNet, arrivalTime);
+            }
+            catch (BufferUnderflowException | IndexOutOfBoundsException e)
+            {
+                LOG.log(Level.WARNING, "Malformed frame, not passed to lazy frame listeners ({0}).", e.toString());
+                return;
+            }
+            
+            for ( LazyFrameListener listener : lazyFrameListeners )
+            {
+                try
+                {
+                    listener.frameReceived(lazyFrame);
+                }
+                catch (RuntimeException e)
+                {
+                    LOG.log(Level.WARNING, "Lazy frame listener failed ({0}).", e.toString());
+                }
+            }
+        }
+    }
+    
+    
+    /**
+     * Notifies all stream listeners about a jump in the frame numbers.
+     * 
+     * @param lastFrameNumber  the number of the last frame before the jump
+     * @param frameNumber      the number of the first frame after the jump
+     */
+    private void notifyListeners_Discontinuity(int lastFrameNumber, int frameNumber)
+    {
+        LOG.log(Level.INFO, "Frame number discontinuity ({0} > {1})",
+                new Object[] { lastFrameNumber, frameNumber });
+        clockSync.reset();
+        for ( StreamListener listener : streamListeners )
+        {
+            listener.streamDiscontinuity(lastFrameNumber, frameNumber);
+        }
+    }
+    
+
+    /**
+     * Notifies all stream listeners about a lost or restored connection.
+     * 
+     * @param connected  <code>true</code> if the connection has been restored
+     */
+    private void notifyListeners_Connection(boolean connected)
+    {
+        for ( StreamListener listener : streamListeners )
+        {
+            listener.connectionChanged(connected);
+        }
+    }
+    
+
+    /**
+     * Class for polling frames in the background while the data stream is not active.
+     * The polls run on a thread of their own,
+     * so that waiting for a slow server doesn't hold up the other background tasks.
+     * If the server does not respond, the time between polls doubles 
+     * up to a maximum, and returns to normal with the first response.
+     */
+    private class FramePoller implements Runnable
+    {
+        public FramePoller()
+        {
+            this.tasks    = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+            {
+                @Override
+                public Thread newThread(Runnable r)
+                {
+                    Thread t = new Thread(r, "NatNetClient Poller Thread");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            this.failures = 0;
+        }
+        
+        
+        /**
+         * Polls as soon as possible, unless a poll is about to happen anyway.
+         */
+        public synchronized void trigger()
+        {
+            if ( (next != null) && !next.isDone() )
+            {
+                if ( next.getDelay(TimeUnit.MILLISECONDS) <= 0 ) return;
+                if ( failures > 0 ) return; // don't undo the back-off
+                next.cancel(false);
+            }
+            schedule(0);
+        }
+        
+        
+        /**
+         * Stops polling.
+         */
+        public void shutdown()
+        {
+            tasks.shutdown();
+        }
+        
+        
+        @Override
+        public void run()
+        {
+            final int     rate    = pollingRate;
+            final boolean polling = connected && !frameStreaming;
+            Response response = null;
+            if ( polling )
+            {
+                synchronized(cmdLock)
+                {
+                    sendCommandPacket(COMMAND_FRAMEOFDATA);
+                    response = receiveResponsePacket(Response_FrameOfData.class);
+                }
+                checkErrors();
             }
-            else
+            
+            boolean lost = false;
+            synchronized(this)
             {
-                LOG.log(Level.WARNING, 
-                        "Incoming packet length error (ID={0}, Packet Length={1}, Received Length={2}).", 
-                        new Object[]{packetId, packetLen, receivedLen});
+                long delay = (rate > 0) ? Math.max(1, 1000 / rate) : 0;
+                if ( !polling )
+                {
+                    // data stream is running: only check from time to time
+                    failures = 0;
+                    delay    = Math.max(delay, TIMEOUT_RUNNING);
+                }
+                else if ( response != null )
+                {
+                    if ( failures > 0 ) LOG.info("Server responds to frame requests again");
+                    failures = 0;
+                }
+                else
+                {
+                    if ( failures == 0 ) LOG.warning("Server does not respond to frame requests");
+                    failures = Math.min(failures + 1, 16);
+                    // don't wait for the error limit
+                    lost  = autoReconnect && (failures >= RECONNECT_FAILURES);
+                    delay = Math.min(delay << failures, POLL_DELAY_MAX);
+                }
+                
+                // with rate 0, only update() polls, also after a failure
+                if ( !lost && (rate > 0) && (poller == this) ) schedule(delay);
             }
+            
+            if ( lost ) connectionLost();
         }
-        return response;
-    }
-    
-    
-    /**
-     * Extracts a null-terminated string from the buffer.
-     * 
-     * @param buf the buffer to extract the string from
-     * 
-     * @return  the extracted string
-     */
-    private String unmarshalString(ByteBuffer buf)
-    {
-        StringBuilder s = new StringBuilder();
-        char c;
-        while ( (c = (char) buf.get()) != '\0' ) { s.append(c); }
-        return s.toString();
-    }
-    
-    
-    /**
-     * Notifies all scene listeners about the update of the scene data.
-     */
-    private void notifyListeners_Update()
-    {
-        for ( SceneListener listener : sceneListeners )
+        
+        
+        private void schedule(long delay)
         {
-            listener.sceneUpdated(scene);
+            try
+            {
+                next = tasks.schedule(this, delay, TimeUnit.MILLISECONDS);
+            }
+            catch (RejectedExecutionException e)
+            {
+                // client has disconnected
+            }
         }
+        
+        
+        private final ScheduledExecutorService tasks;
+        private       ScheduledFuture<?>       next;     // guarded by this
+        private       int                      failures; // guarded by this
     }
     
-
+    
     /**
      * Notifies scene listeners of a scene structure change.
+     * 
+     * @param change  the elements that have changed
      */
-    private void notifyListeners_Change()
+    private void notifyListeners_Change(SceneChange change)
     {
         for ( SceneListener listener : sceneListeners )
         {
-            listener.sceneChanged(scene);
+            if ( listener instanceof SceneChangeListener )
+            {
+                ((SceneChangeListener) listener).sceneChanged(scene, change);
+            }
+            else
+            {
+                listener.sceneChanged(scene);
+            }
         }
     }
     
@@ -1196,16 +2874,23 @@ public class NatNetClient implements MoCapClient
     }
     
     
-    private class ReceiverThread extends Thread
+    private class ReceiverThread implements Runnable
     {
         public ReceiverThread(InetAddress dataStreamAddress)
         {
+            this.streamAddress = dataStreamAddress;
+            this.backoff       = busyPolling;
             try
             {
-                if ( dataStreamAddress.isMulticastAddress() )
+                if ( backoff != null )
+                {
+                    dataChannel = openChannel(dataStreamAddress);
+                }
+                else if ( dataStreamAddress.isMulticastAddress() )
                 {
                     MulticastSocket socket = new MulticastSocket(PORT_DATA);
-                    socket.joinGroup(dataStreamAddress);
+                    // null: the interface of the system
+                    socket.joinGroup(new InetSocketAddress(dataStreamAddress, PORT_DATA), findServerInterface());
                     dataSocket = socket;
                 }
                 else
@@ -1213,8 +2898,7 @@ public class NatNetClient implements MoCapClient
                     dataSocket = new DatagramSocket(PORT_DATA, dataStreamAddress);
                 }
                 
-                dataSocket.setSoTimeout(TIMEOUT_INITIAL);
-                packetIn = new DatagramPacket(new byte[MAX_PACKETSIZE], MAX_PACKETSIZE);
+                setTimeout(TIMEOUT_INITIAL);
             }
             catch (IOException e)
             {
@@ -1223,36 +2907,237 @@ public class NatNetClient implements MoCapClient
                         e.getMessage());
             }
         }
+        
+        
+        /**
+         * Opens a non-blocking channel for busy polling the data stream.
+         * 
+         * @param address the address of the data stream
+         * 
+         * @return the channel
+         * 
+         * @throws IOException if the channel could not be opened
+         */
+        private DatagramChannel openChannel(InetAddress address) throws IOException
+        {
+            DatagramChannel channel = DatagramChannel.open(
+                    (address instanceof Inet6Address) ? StandardProtocolFamily.INET6 : StandardProtocolFamily.INET);
+            try
+            {
+                if ( address.isMulticastAddress() )
+                {
+                    channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+                    channel.bind(new InetSocketAddress(PORT_DATA));
+                    NetworkInterface nif = findServerInterface();
+                    if ( nif == null ) nif = findMulticastInterface();
+                    channel.join(address, nif);
+                }
+                else
+                {
+                    channel.bind(new InetSocketAddress(address, PORT_DATA));
+                }
+                channel.configureBlocking(false);
+            }
+            catch (IOException e)
+            {
+                channel.close();
+                throw e;
+            }
+            LOG.log(Level.INFO, "Busy polling data stream ({0})", backoff);
+            return channel;
+        }
+        
+        
+        /**
+         * Finds the network interface that the connection to the server uses,
+         * so that the data stream is received on the same network.
+         * 
+         * @return the network interface
+         *         or <code>null</code> if it is unknown or doesn't support multicast
+         * 
+         * @throws IOException if the interface could not be queried
+         */
+        private NetworkInterface findServerInterface() throws IOException
+        {
+            final DatagramSocket socket = cmdSocket;
+            final InetAddress    local  = (socket != null) ? socket.getLocalAddress() : null;
+            if ( (local == null) || local.isAnyLocalAddress() ) return null;
+            
+            final NetworkInterface nif = NetworkInterface.getByInetAddress(local);
+            return ((nif != null) && nif.isUp() && nif.supportsMulticast()) ? nif : null;
+        }
+        
+        
+        /**
+         * Finds a network interface for joining a multicast group 
+         * when the interface of the server connection is unknown.
+         * 
+         * @return the first active multicast interface
+         * 
+         * @throws IOException if the interfaces could not be queried
+         */
+        private NetworkInterface findMulticastInterface() throws IOException
+        {
+            for ( NetworkInterface nif : Collections.list(NetworkInterface.getNetworkInterfaces()) )
+            {
+                if ( nif.isUp() && nif.supportsMulticast() && !nif.isLoopback() ) return nif;
+            }
+            // last resort (e.g., only loopback)
+            return NetworkInterface.getByInetAddress(InetAddress.getLoopbackAddress());
+        }
+        
+        
+        /**
+         * Starts the receiver thread.
+         */
+        public void start()
+        {
+            // set before starting, so that an early terminate() isn't overwritten
+            runReceiver = true;
+            thread = newThread("NatNetClient Receiver Thread", this, false);
+            thread.start();
+        }
+        
+        
+        /**
+         * Waits for the receiver thread to end.
+         * 
+         * @param timeout the maximum time to wait in milliseconds
+         * 
+         * @throws InterruptedException if the waiting thread was interrupted
+         */
+        public void join(long timeout) throws InterruptedException
+        {
+            if ( thread != null ) thread.join(timeout);
+        }
+        
+        
+        /**
+         * Checks if the receiver thread is still running.
+         * 
+         * @return <code>true</code> if the thread is running,
+         *         <code>false</code> if not
+         */
+        public boolean isAlive()
+        {
+            return (thread != null) && thread.isAlive();
+        }
+        
+        
+        /**
+         * Sets the timeout for receiving packets.
+         * 
+         * @param timeout the timeout in milliseconds
+         * 
+         * @throws SocketException if the timeout could not be set
+         */
+        private void setTimeout(int timeout) throws SocketException
+        {
+            receiveTimeout = timeout;
+            if ( dataSocket != null ) dataSocket.setSoTimeout(timeout);
+        }
+        
+        
+        /**
+         * Receives the next packet, either from the socket
+         * or by polling the channel with back-off.
+         * 
+         * @param target the buffer to receive into
+         * 
+         * @return <code>true</code> if a complete packet was received,
+         *         <code>false</code> if the packet was truncated
+         * 
+         * @throws SocketTimeoutException if there was no packet in time
+         * @throws IOException            if there was an error receiving the packet
+         */
+        private boolean receive(PacketBuffer target) throws IOException
+        {
+            if ( dataChannel == null ) return target.receive(dataSocket);
+            
+            final long start     = System.nanoTime();
+            int        iteration = 0;
+            while ( !target.poll(dataChannel) )
+            {
+                if ( !runReceiver || 
+                     (System.nanoTime() - start > receiveTimeout * 1000000L) )
+                {
+                    throw new SocketTimeoutException();
+                }
+                backoff.idle(iteration++);
+            }
+            return target.isComplete();
+        }
 
         @Override
         public void run()
         {
-            if ( dataSocket == null ) return;
+            if ( (dataSocket == null) && (dataChannel == null) ) return;
             
-            runReceiver = true;
             LOG.info("Receiver thread started");
             
+            final WaitStrategy strategy = pipelineStrategy;
+            PacketRing ring       = null;
+            Thread     decoder    = null;
+            Thread     dispatcher = null;
+            if ( strategy != null )
+            {
+                ring = new PacketRing(pipelineSize, streamBuffer.getCapacity(), strategy);
+                final PacketRing decoderRing = ring;
+                decoder = startStage("NatNetClient Decoder Thread", new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        runDecoder(decoderRing);
+                    }
+                });
+                dispatcher = startStage("NatNetClient Dispatcher Thread", new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        runDispatcher(strategy);
+                    }
+                });
+                dispatchingReceiver.set(this);
+            }
+            
             boolean firstPacketReceived = false;
-            int     timeoutCounter      = 0;
+            long    lastPacketTime      = System.nanoTime();
             
             while ( runReceiver )
             {
                 try
                 {
-                    dataSocket.receive(packetIn);
-                    parsePacket(packetIn);
+                    if ( ring == null )
+                    {
+                        if ( receive(streamBuffer) )
+                        {
+                            handlePacket(streamBuffer, System.nanoTime());
+                        }
+                    }
+                    else
+                    {
+                        // only copy the packet, the decoder stage does the rest
+                        PacketBuffer slot = claimSlot(ring, strategy);
+                        if ( slot == null ) break; // stopped while waiting
+                        if ( receive(slot) )
+                        {
+                            ring.publish(System.nanoTime());
+                        }
+                    }
                     frameStreaming = true;
+                    lastPacketTime = System.nanoTime();
                     
                     if ( !firstPacketReceived )
                     {
                         LOG.info("Data stream active");
                         firstPacketReceived = true;
-                        timeoutCounter = 0;
                         
                         // OK, data is coming in > set timeout to less
                         try
                         {
-                            dataSocket.setSoTimeout(TIMEOUT_RUNNING);
+                            setTimeout(getRunningTimeout());
                         }
                         catch (SocketException e)
                         {
@@ -1262,7 +3147,13 @@ public class NatNetClient implements MoCapClient
                 } 
                 catch (SocketTimeoutException ex)
                 {
-                    if ( (timeoutCounter > 10) && frameStreaming )
+                    // don't hold back frames while the stream pauses
+                    // (the decoder stage takes care of that itself)
+                    final FrameReorderBuffer reorder = reorderBuffer;
+                    if ( (reorder != null) && (ring == null) ) reorder.releaseExpired(System.nanoTime());
+                    
+                    if ( frameStreaming && 
+                         (System.nanoTime() - lastPacketTime > TIMEOUT_STALL * 1000000L) )
                     {
                         // data was streaming (or is expected to)
                         frameStreaming = false;
@@ -1278,7 +3169,7 @@ public class NatNetClient implements MoCapClient
                         try
                         {
                             // try again with longer timeout
-                            dataSocket.setSoTimeout(TIMEOUT_INITIAL);
+                            setTimeout(TIMEOUT_INITIAL);
                             firstPacketReceived = false;
                         }
                         catch (SocketException e)
@@ -1297,13 +3188,176 @@ public class NatNetClient implements MoCapClient
                 }
             }
             
-            dataSocket.disconnect();
-            dataSocket.close();
-            dataSocket = null;
+            if ( ring != null )
+            {
+                runReceiver = false;
+                // a newer receiver may have taken over the dispatching already
+                dispatchingReceiver.compareAndSet(this, null);
+                ring.close();
+                dispatcher.interrupt();
+                try
+                {
+                    decoder.join(TIMEOUT_STAGE);
+                    dispatcher.join(TIMEOUT_STAGE);
+                }
+                catch (InterruptedException e)
+                {
+                    // ignore
+                }
+            }
+            
+            if ( dataSocket != null )
+            {
+                dataSocket.disconnect();
+                dataSocket.close();
+                dataSocket = null;
+            }
+            if ( dataChannel != null )
+            {
+                try
+                {
+                    dataChannel.close();
+                }
+                catch (IOException e)
+                {
+                    // ignore
+                }
+                dataChannel = null;
+            }
             LOG.info("Receiver thread stopped");
         }
         
         
+        /**
+         * Processes a received packet: 
+         * notifies the packet listeners and decodes the packet,
+         * possibly after putting it back into order.
+         * 
+         * @param buffer       the buffer with the packet
+         * @param arrivalTime  the time the packet was received
+         */
+        private void handlePacket(PacketBuffer buffer, long arrivalTime)
+        {
+            notifyListeners_Packet(buffer);
+            
+            final FrameReorderBuffer reorder = reorderBuffer;
+            if ( (reorder != null) && 
+                 (buffer.getPacketId() == NAT_FRAMEOFDATA) &&
+                 (buffer.getBuffer().remaining() >= 8) )
+            {
+                reorder.add(buffer.getBuffer(), arrivalTime);
+            }
+            else
+            {
+                parsePacket(buffer.getBuffer(), arrivalTime);
+            }
+        }
+        
+        
+        /**
+         * Waits for a free buffer in the ring of the pipeline.
+         * 
+         * @param ring      the ring
+         * @param strategy  the wait strategy
+         * 
+         * @return the free buffer
+         *         or <code>null</code> if the receiver was stopped while waiting
+         */
+        private PacketBuffer claimSlot(PacketRing ring, WaitStrategy strategy)
+        {
+            PacketBuffer slot;
+            int iteration = 0;
+            while ( ((slot = ring.claim()) == null) && runReceiver )
+            {
+                // decoder is behind: the socket buffer has to take the load meanwhile
+                strategy.idle(iteration++, PRODUCER_PARK);
+            }
+            return slot;
+        }
+        
+        
+        private Thread startStage(String name, Runnable stage)
+        {
+            Thread stageThread = newThread(name, stage, true);
+            stageThread.start();
+            return stageThread;
+        }
+        
+        
+        /**
+         * Decoder stage of the pipeline: decodes the packets from the ring.
+         * 
+         * @param ring the ring to take the packets from
+         */
+        private void runDecoder(PacketRing ring)
+        {
+            while ( runReceiver )
+            {
+                PacketBuffer packet = ring.take(getRunningTimeout() * 1000000L);
+                if ( packet != null )
+                {
+                    handlePacket(packet, ring.getArrivalTime());
+                    ring.release();
+                }
+                else
+                {
+                    // don't hold back frames while the stream pauses
+                    final FrameReorderBuffer reorder = reorderBuffer;
+                    if ( reorder != null ) reorder.releaseExpired(System.nanoTime());
+                }
+            }
+        }
+        
+        
+        /**
+         * Dispatch stage of the pipeline: notifies the listeners about new frames.
+         * 
+         * @param strategy the wait strategy
+         */
+        private void runDispatcher(WaitStrategy strategy)
+        {
+            long lastSequence = frameSequence.get();
+            int  iteration    = 0;
+            try
+            {
+                while ( runReceiver )
+                {
+                    final long sequence = (strategy == WaitStrategy.BLOCKING) ?
+                            frameSequence.await(lastSequence, TIMEOUT_RUNNING) :
+                            frameSequence.get();
+                    if ( sequence != lastSequence )
+                    {
+                        lastSequence = sequence;
+                        iteration    = 0;
+                        notifyListeners_Update();
+                    }
+                    else if ( strategy != WaitStrategy.BLOCKING )
+                    {
+                        strategy.idle(iteration++, 0);
+                    }
+                }
+            }
+            catch (InterruptedException e)
+            {
+                // stop
+            }
+        }
+        
+        
+        /**
+         * Gets the socket timeout while the stream is running.
+         * With reordering, the timeout must not be longer than the maximum delay
+         * so held back frames are released in time when the stream pauses.
+         * 
+         * @return the timeout in milliseconds
+         */
+        private int getRunningTimeout()
+        {
+            final FrameReorderBuffer reorder = reorderBuffer;
+            return (reorder == null) ? TIMEOUT_RUNNING : Math.min(TIMEOUT_RUNNING, reorder.getMaxDelay());
+        }
+        
+        
         public void terminate()
         {
             if ( runReceiver )
@@ -1313,9 +3367,13 @@ public class NatNetClient implements MoCapClient
             }
         }
         
-        private DatagramSocket  dataSocket;
-        private DatagramPacket  packetIn;
-        private boolean         runReceiver;
+        private final    InetAddress     streamAddress;
+        private final    Backoff         backoff;
+        private          DatagramSocket  dataSocket;
+        private          DatagramChannel dataChannel;
+        private          int             receiveTimeout;
+        private          Thread          thread;
+        private volatile boolean         runReceiver;
     }
     
     
@@ -1323,15 +3381,55 @@ public class NatNetClient implements MoCapClient
     private final byte[]          appVersion;
     private final Scene           scene;
     private       DatagramSocket  cmdSocket;
-    private final DatagramPacket  packetIn, packetOut;
+    private final DatagramPacket  packetOut;
     private final ByteBuffer      bufOut;
-    private       boolean         connected;
-    private       int             errorCounter;
-    private       boolean         frameStreaming;
+    private final PacketBuffer    cmdBuffer, streamBuffer;
+    private volatile boolean      connected;
+    private volatile int          errorCounter;
+    private volatile boolean      frameStreaming;
     private final ServerInfo      serverInfo;
     private       ReceiverThread  receiverThread;
+    private final Object          cmdLock = new Object();
+    private final Object          lifecycleLock = new Object(); // for opening and closing the connection
+    
+    private volatile ModelDefinitionCache     modelCache;
+    private volatile String                   dataStreamAddress;
+    private          ScheduledExecutorService backgroundTasks;
 
-    private final Set<SceneListener> sceneListeners;
+    private final Set<SceneListener>   sceneListeners;
+    private final Set<PacketListener>  packetListeners;
+    private final Set<StreamListener>  streamListeners;
+    private final Set<LazyFrameListener> lazyFrameListeners;
+    private final List<FrameProcessor> frameProcessors;
+    private final List<WeakReference<ElementHandle<?>>> handles; // guarded by scene lock
+    
+    private final    StreamStatistics   streamStatistics;
+    private final    ClockSync          clockSync;
+    private final    FrameSequence      frameSequence;
+    private volatile FrameReorderBuffer reorderBuffer;
+    private volatile WaitStrategy       pipelineStrategy;
+    private volatile int                pipelineSize;
+    private final AtomicReference<ReceiverThread> dispatchingReceiver; // receiver with a dispatch stage
+    private volatile FramePoller        poller;
+    private volatile InetAddress        serverAddress;
+    private volatile boolean            autoReconnect;
+    private volatile int                reconnectCount;
+    private ScheduledExecutorService    supervisor;    // guarded by this
+    private ScheduledFuture<?>          reconnectTask; // guarded by this
+    private volatile int                reconnectGeneration; // incremented when reconnection is cancelled
+    private volatile boolean            modelRefreshPending;
+    private volatile long               lastModelRefresh;
+    private volatile int                modelRefreshDelay; // ms
+    private volatile int                pollingRate;
+    private volatile Backoff            busyPolling;
+    private volatile ThreadFactory      threadFactory;
+    private final    LatencyHistogram   latencyHistogram;
+    private volatile long               captureTime; // local capture time of the latest frame
+    private final    LazyFrame          lazyFrame;
+    private volatile boolean            sceneDecoding;
+    
+    private volatile byte[] pingResponsePacket;
+    private volatile byte[] modelDefinitionPacket;
     
     private final static Marker DUMMY_MARKER  = new Marker(null, "dummy");
     private final static Bone   DUMMY_BONE    = new Bone(null, "dummy", 0);
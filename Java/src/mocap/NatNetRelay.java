@@ -0,0 +1,400 @@
+package mocap;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Class for relaying the data stream of a NatNet client to other networks.
+ * <p>
+ * Every frame packet that the client receives is forwarded unchanged
+ * to a list of unicast addresses and/or multicast groups,
+ * before the client decodes it and without copying the packet data.
+ * Downstream clients can connect to the relay like to a normal server:
+ * ping and model definition requests are answered from the cached packets
+ * of the upstream server, frame requests are answered with the next
+ * frame that arrives from upstream.
+ *
+ * @author  Stefan Marks
+ */
+public class NatNetRelay implements PacketListener
+{
+    /**
+     * Creates a relay for a NatNet client.
+     *
+     * @param client        the client to relay the data of
+     * @param localAddress  the address of the local network interface
+     *                      to accept downstream commands on and to send data from
+     *                      (<code>null</code>: any interface)
+     */
+    public NatNetRelay(NatNetClient client, InetAddress localAddress)
+    {
+        this.client        = client;
+        this.localAddress  = localAddress;
+        this.targets       = new CopyOnWriteArrayList<>();
+        this.frameRequests = new ConcurrentLinkedQueue<>();
+
+        this.timeToLive    = 1;
+        this.forwardPacket = new DatagramPacket(new byte[0], 0);
+        this.requestPacket = new DatagramPacket(new byte[0], 0);
+        this.commandIn     = new DatagramPacket(new byte[MAX_COMMANDSIZE], MAX_COMMANDSIZE);
+        this.bufResponse   = ByteBuffer.allocate(MAX_COMMANDSIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        this.forwardedPackets = 0;
+        this.forwardErrors    = 0;
+    }
+
+
+    /**
+     * Adds a target for the data stream.
+     *
+     * @param target a unicast address or multicast group address
+     *
+     * @return <code>true</code> if the target was added,
+     *         <code>false</code> if it already was in the list
+     */
+    public boolean addTarget(InetAddress target)
+    {
+        return targets.addIfAbsent(target);
+    }
+
+
+    /**
+     * Removes a target for the data stream.
+     *
+     * @param target the unicast address or multicast group address to remove
+     *
+     * @return <code>true</code> if the target was removed,
+     *         <code>false</code> if not
+     */
+    public boolean removeTarget(InetAddress target)
+    {
+        return targets.remove(target);
+    }
+
+
+    /**
+     * Sets the time-to-live value for multicast packets.
+     * Has to be called before the relay is started.
+     *
+     * @param ttl the time-to-live value (1: local network only)
+     */
+    public void setTimeToLive(int ttl)
+    {
+        timeToLive = ttl;
+    }
+
+
+    /**
+     * Starts relaying the data stream and answering downstream commands.
+     *
+     * @return <code>true</code> if the relay was started,
+     *         <code>false</code> if not
+     */
+    public boolean start()
+    {
+        if ( commandThread != null ) return true;
+
+        try
+        {
+            MulticastSocket socket = new MulticastSocket(new InetSocketAddress(localAddress, 0));
+            socket.setTimeToLive(timeToLive);
+            final NetworkInterface downstream = (localAddress != null) ? NetworkInterface.getByInetAddress(localAddress) : null;
+            if ( downstream != null )
+            {
+                // send multicast packets via the downstream interface
+                socket.setNetworkInterface(downstream);
+            }
+            dataSocket = socket;
+
+            cmdSocket = new DatagramSocket(new InetSocketAddress(localAddress, NatNetClient.PORT_COMMAND));
+        }
+        catch (IOException e)
+        {
+            LOG.log(Level.SEVERE, "Could not create relay sockets ({0}).", e.getMessage());
+            if ( dataSocket != null )
+            {
+                dataSocket.close();
+                dataSocket = null;
+            }
+            return false;
+        }
+
+        client.addPacketListener(this);
+
+        commandThread = new CommandThread(cmdSocket);
+        commandThread.start();
+
+        LOG.log(Level.INFO, "Relay started (targets: {0})", targets);
+        return true;
+    }
+
+
+    /**
+     * Stops the relay.
+     */
+    public void stop()
+    {
+        if ( commandThread == null ) return;
+
+        client.removePacketListener(this);
+
+        synchronized(forwardPacket)
+        {
+            // closing the socket unblocks and terminates the command thread
+            cmdSocket.close();
+            cmdSocket = null;
+            dataSocket.close();
+            dataSocket = null;
+        }
+        try
+        {
+            commandThread.join(1000);
+        }
+        catch (InterruptedException e)
+        {
+            // ignore
+        }
+        commandThread = null;
+        frameRequests.clear();
+
+        LOG.info("Relay stopped");
+    }
+
+
+    /**
+     * Gets the number of packets that have been forwarded.
+     *
+     * @return the number of forwarded packets
+     */
+    public long getForwardedPacketCount()
+    {
+        return forwardedPackets;
+    }
+
+
+    @Override
+    public void packetReceived(byte[] data, int offset, int length)
+    {
+        // packet ID is the first (little endian) short
+        int packetId = (data[offset] & 0xFF) | ((data[offset + 1] & 0xFF) << 8);
+        if ( packetId != NatNetClient.NAT_FRAMEOFDATA ) return;
+
+        synchronized(forwardPacket)
+        {
+            if ( dataSocket == null ) return;
+
+            forwardPacket.setData(data, offset, length);
+            forwardPacket.setPort(NatNetClient.PORT_DATA);
+            for ( InetAddress target : targets )
+            {
+                forwardPacket.setAddress(target);
+                sendPacket(dataSocket, forwardPacket);
+            }
+
+            // answer pending frame requests (via the command socket)
+            SocketAddress requester;
+            while ( (requester = frameRequests.poll()) != null )
+            {
+                forwardPacket.setSocketAddress(requester);
+                sendPacket(cmdSocket, forwardPacket);
+            }
+            forwardedPackets++;
+        }
+    }
+
+
+    private void sendPacket(DatagramSocket socket, DatagramPacket packet)
+    {
+        try
+        {
+            socket.send(packet);
+            forwardErrors = 0;
+        }
+        catch (IOException e)
+        {
+            if ( forwardErrors == 0 )
+            {
+                LOG.log(Level.WARNING, "Could not forward packet to {0} ({1}).",
+                        new Object[] { packet.getSocketAddress(), e.getMessage() });
+            }
+            forwardErrors++;
+        }
+    }
+
+
+    /**
+     * Handles a command packet from a downstream client.
+     *
+     * @param socket the socket to send the response with
+     * @param packet the command packet
+     */
+    private void handleCommand(DatagramSocket socket, DatagramPacket packet)
+    {
+        final ByteBuffer buf = ByteBuffer.wrap(packet.getData(), 0, packet.getLength()).order(ByteOrder.LITTLE_ENDIAN);
+        if ( buf.remaining() < 4 ) return;
+
+        int    packetId       = buf.getShort();
+                                buf.getShort(); // packet length
+        byte[] response       = null;
+        int    responseLength = 0;
+
+        switch ( packetId )
+        {
+            case NatNetClient.NAT_PING :
+            {
+                response = client.getPingResponsePacket();
+                break;
+            }
+
+            case NatNetClient.NAT_REQUEST_MODELDEF :
+            {
+                response = client.getModelDefinitionPacket();
+                break;
+            }
+
+            case NatNetClient.NAT_REQUEST_FRAMEOFDATA :
+            {
+                // will be answered with the next frame from upstream
+                frameRequests.add(packet.getSocketAddress());
+                break;
+            }
+
+            case NatNetClient.NAT_REQUEST :
+            {
+                String request = unmarshalString(buf);
+                bufResponse.clear();
+                if ( request.equals("getDataStreamAddress") )
+                {
+                    bufResponse.putShort(NatNetClient.NAT_RESPONSE);
+                    bufResponse.putShort((short) 0);
+                    bufResponse.put(getDataStreamAddress(packet.getAddress()).getBytes()).put((byte) 0);
+                }
+                else
+                {
+                    bufResponse.putShort(NatNetClient.NAT_UNRECOGNIZED_REQUEST);
+                    bufResponse.putShort((short) 0);
+                }
+                bufResponse.putShort(2, (short) (bufResponse.position() - 4));
+                response       = bufResponse.array();
+                responseLength = bufResponse.position();
+                break;
+            }
+
+            default:
+            {
+                LOG.log(Level.FINE, "Ignoring downstream packet ID {0}.", packetId);
+                break;
+            }
+        }
+
+        if ( response != null )
+        {
+            if ( responseLength == 0 ) responseLength = response.length;
+            requestPacket.setData(response, 0, responseLength);
+            requestPacket.setSocketAddress(packet.getSocketAddress());
+            sendPacket(socket, requestPacket);
+        }
+    }
+
+
+    /**
+     * Determines the data stream address to report to a downstream client.
+     *
+     * @param requester the address of the downstream client
+     *
+     * @return the first multicast target or, if there is none,
+     *         the client's own address so it can receive unicast packets
+     */
+    private String getDataStreamAddress(InetAddress requester)
+    {
+        for ( InetAddress target : targets )
+        {
+            if ( target.isMulticastAddress() )
+            {
+                return target.getHostAddress();
+            }
+        }
+        return requester.getHostAddress();
+    }
+
+
+    private static String unmarshalString(ByteBuffer buf)
+    {
+        StringBuilder s = new StringBuilder();
+        char c;
+        while ( buf.hasRemaining() && ((c = (char) buf.get()) != '\0') ) { s.append(c); }
+        return s.toString();
+    }
+
+
+    /**
+     * Thread for answering commands from downstream clients.
+     */
+    private class CommandThread extends Thread
+    {
+        public CommandThread(DatagramSocket socket)
+        {
+            super("NatNetRelay Command Thread");
+            setDaemon(true);
+            this.socket = socket;
+        }
+
+        @Override
+        public void run()
+        {
+            LOG.info("Relay command thread started");
+            while ( !socket.isClosed() )
+            {
+                try
+                {
+                    commandIn.setLength(commandIn.getData().length);
+                    socket.receive(commandIn);
+                    handleCommand(socket, commandIn);
+                }
+                catch (SocketException e)
+                {
+                    // socket closed > stop
+                }
+                catch (IOException e)
+                {
+                    LOG.log(Level.WARNING, "Error while receiving relay command ({0})", e.getMessage());
+                }
+            }
+            LOG.info("Relay command thread stopped");
+        }
+        
+        private final DatagramSocket socket;
+    }
+
+
+    private final NatNetClient                          client;
+    private final InetAddress                           localAddress;
+    private final CopyOnWriteArrayList<InetAddress>     targets;
+    private final Queue<SocketAddress>                  frameRequests;
+    private       int                                   timeToLive;
+    private       DatagramSocket                        dataSocket;
+    private       DatagramSocket                        cmdSocket;
+    private       CommandThread                         commandThread;
+    private final DatagramPacket                        forwardPacket, requestPacket, commandIn;
+    private final ByteBuffer                            bufResponse;
+    private volatile long                               forwardedPackets; // only written by the receiver thread
+    private       int                                   forwardErrors;
+
+    private final static int MAX_COMMANDSIZE = 1024;
+
+    private final static Logger LOG = Logger.getLogger(NatNetRelay.class.getName());
+}
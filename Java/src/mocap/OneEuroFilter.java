@@ -0,0 +1,81 @@
+package mocap;
+
+/**
+ * Class for a One Euro filter (Casiez, Roussel, Vogel, CHI 2012).
+ * <p>
+ * This is a low pass filter with a cutoff frequency that rises with the speed of the value:
+ * slow movements are smoothed strongly to remove jitter,
+ * fast movements hardly at all to keep the lag small.
+ * 
+ * @author  Stefan Marks
+ */
+public class OneEuroFilter implements ScalarFilter
+{
+    /**
+     * Creates a One Euro filter with the default cutoff frequency for the derivative (1Hz).
+     * 
+     * @param minCutoff  the cutoff frequency at rest in Hz (lower: less jitter)
+     * @param beta       the increase of the cutoff frequency with speed (higher: less lag)
+     */
+    public OneEuroFilter(float minCutoff, float beta)
+    {
+        this(minCutoff, beta, 1.0f);
+    }
+    
+    
+    /**
+     * Creates a One Euro filter.
+     * 
+     * @param minCutoff  the cutoff frequency at rest in Hz (lower: less jitter)
+     * @param beta       the increase of the cutoff frequency with speed (higher: less lag)
+     * @param dCutoff    the cutoff frequency for the derivative in Hz
+     */
+    public OneEuroFilter(float minCutoff, float beta, float dCutoff)
+    {
+        this.minCutoff = minCutoff;
+        this.beta      = beta;
+        this.dCutoff   = dCutoff;
+    }
+    
+    
+    @Override
+    public int getStateSize()
+    {
+        return 2; // last output, last derivative
+    }
+    
+    
+    @Override
+    public void reset(float value, double[] state, int offset)
+    {
+        state[offset]     = value;
+        state[offset + 1] = 0;
+    }
+    
+    
+    @Override
+    public float filter(float value, float dt, double[] state, int offset)
+    {
+        final double lastValue = state[offset];
+        
+        // smoothed derivative
+        final double dx  = (value - lastValue) / dt;
+        final double edx = state[offset + 1] + alpha(dCutoff, dt) * (dx - state[offset + 1]);
+        state[offset + 1] = edx;
+        
+        // cutoff depending on speed
+        final double cutoff = minCutoff + beta * Math.abs(edx);
+        state[offset] = lastValue + alpha(cutoff, dt) * (value - lastValue);
+        return (float) state[offset];
+    }
+    
+    
+    private static double alpha(double cutoff, float dt)
+    {
+        final double tau = 1.0 / (2 * Math.PI * cutoff);
+        return 1.0 / (1.0 + tau / dt);
+    }
+    
+    
+    private final float minCutoff, beta, dCutoff;
+}
@@ -0,0 +1,495 @@
+package mocap;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Class for converting MoCap scene data into OSC bundles
+ * and sending them to a list of receivers.
+ * <p>
+ * The bridge is registered as a scene listener with a MoCap client
+ * and therefore runs at the full rate of the data stream.
+ * Each actor is sent as one OSC bundle with the messages of its bones
+ * in one of two formats:
+ * <ul>
+ * <li>{@link MessageFormat#AXIS_ANGLE} (default, as sent by earlier versions of the OSC converter):
+ * <pre>
+ *   /&lt;actor&gt;/&lt;bone&gt;/x ,f  px
+ *   /&lt;actor&gt;/&lt;bone&gt;/y ,f  py
+ *   /&lt;actor&gt;/&lt;bone&gt;/z ,f  pz
+ *   /&lt;actor&gt;/&lt;bone&gt;/a ,f  rotation angle in radians
+ * </pre></li>
+ * <li>{@link MessageFormat#POSE} (one message with the complete pose):
+ * <pre>
+ *   /&lt;actor&gt;/&lt;bone&gt; ,fffffffT  px py pz qx qy qz qw (tracked)
+ * </pre></li>
+ * </ul>
+ * The address patterns are built only for actors that are new or have changed
+ * and the bundles are encoded into a single reusable buffer,
+ * so sending a frame does not create any objects.
+ * The bundles are encoded while the scene is locked and sent afterwards.
+ *
+ * @author  Stefan Marks
+ */
+public class OscBridge implements SceneChangeListener
+{
+    public static final int DEFAULT_PORT = 57120;
+
+
+    /**
+     * Formats of the OSC messages for the bones.
+     */
+    public enum MessageFormat
+    {
+        /** one float message per position coordinate and the rotation angle */
+        AXIS_ANGLE,
+        /** one message with position, rotation quaternion and tracking state */
+        POSE
+    }
+
+
+    /**
+     * Creates an OSC bridge that sends from a random local port.
+     *
+     * @throws IOException if the network channel could not be opened
+     */
+    public OscBridge() throws IOException
+    {
+        this(0);
+    }
+
+
+    /**
+     * Creates an OSC bridge.
+     *
+     * @param localPort the local port to send from (0: random port)
+     *
+     * @throws IOException if the network channel could not be opened
+     */
+    public OscBridge(int localPort) throws IOException
+    {
+        this(localPort, MessageFormat.AXIS_ANGLE);
+    }
+
+
+    /**
+     * Creates an OSC bridge.
+     *
+     * @param localPort  the local port to send from (0: random port)
+     * @param format     the format of the bone messages
+     *
+     * @throws IOException if the network channel could not be opened
+     */
+    public OscBridge(int localPort, MessageFormat format) throws IOException
+    {
+        this.format = format;
+        channel = DatagramChannel.open();
+        channel.bind(new InetSocketAddress(localPort));
+        channel.configureBlocking(false);
+
+        receivers     = new CopyOnWriteArrayList<>();
+        actorMessages = new BoneMessages[0];
+        bundleEnds    = new int[0];
+        axisAngle     = new float[4];
+        buffer        = ByteBuffer.allocateDirect(MIN_BUFFERSIZE);
+        rootBoneOnly  = false;
+        droppedPackets = 0;
+    }
+
+
+    /**
+     * Adds a receiver for the OSC bundles.
+     *
+     * @param receiver the address and port of the receiver
+     *
+     * @return <code>true</code> if the receiver was added,
+     *         <code>false</code> if it was already in the list
+     */
+    public boolean addReceiver(InetSocketAddress receiver)
+    {
+        return receivers.addIfAbsent(receiver);
+    }
+
+
+    /**
+     * Removes a receiver of OSC bundles.
+     *
+     * @param receiver the address and port of the receiver
+     *
+     * @return <code>true</code> if the receiver was removed,
+     *         <code>false</code> if not
+     */
+    public boolean removeReceiver(InetSocketAddress receiver)
+    {
+        return receivers.remove(receiver);
+    }
+
+
+    /**
+     * Defines whether only the root bone of each actor is sent.
+     *
+     * @param rootOnly <code>true</code> to only send the first bone of each actor,
+     *                 <code>false</code> to send all bones
+     */
+    public void setRootBoneOnly(boolean rootOnly)
+    {
+        rootBoneOnly = rootOnly;
+    }
+
+
+    /**
+     * Checks whether only the root bone of each actor is sent.
+     *
+     * @return <code>true</code> if only the first bone of each actor is sent,
+     *         <code>false</code> if all bones are sent
+     */
+    public boolean isRootBoneOnly()
+    {
+        return rootBoneOnly;
+    }
+
+
+    /**
+     * Gets the number of packets that could not be sent
+     * because the network buffer of the channel was full.
+     *
+     * @return the number of dropped packets
+     */
+    public long getDroppedPacketCount()
+    {
+        return droppedPackets;
+    }
+
+
+    /**
+     * Closes the network channel of the bridge.
+     */
+    public void close()
+    {
+        try
+        {
+            channel.close();
+        }
+        catch (IOException e)
+        {
+            LOG.log(Level.WARNING, "Could not close OSC channel ({0}).", e.getMessage());
+        }
+    }
+
+
+    /**
+     * Gets the format of the bone messages.
+     *
+     * @return the message format
+     */
+    public MessageFormat getMessageFormat()
+    {
+        return format;
+    }
+
+
+    @Override
+    public void sceneChanged(Scene scene)
+    {
+        final SceneChange change;
+        synchronized(scene)
+        {
+            // unknown change: rebuild everything
+            change = SceneChange.allAdded(scene);
+        }
+        sceneChanged(scene, change);
+    }
+
+
+    @Override
+    public synchronized void sceneChanged(Scene scene, SceneChange change)
+    {
+        // lock order: bridge, then scene
+        synchronized(scene)
+        {
+            final BoneMessages[] oldMessages = actorMessages;
+            BoneMessages[] messages = new BoneMessages[scene.actors.length];
+            int frameSize = MIN_BUFFERSIZE;
+            for ( int actorIdx = 0 ; actorIdx < scene.actors.length ; actorIdx++ )
+            {
+                final Actor actor = scene.actors[actorIdx];
+                if ( !change.isNew(actor) )
+                {
+                    // unchanged actor: keep the address patterns
+                    for ( BoneMessages m : oldMessages )
+                    {
+                        if ( m.actor == actor ) messages[actorIdx] = m;
+                    }
+                }
+                if ( messages[actorIdx] == null )
+                {
+                    messages[actorIdx] = new BoneMessages(actor, format);
+                }
+                frameSize += messages[actorIdx].bundleSize;
+            }
+
+            // all bundles of a frame are encoded before the first one is sent
+            if ( buffer.capacity() < frameSize )
+            {
+                buffer = ByteBuffer.allocateDirect(frameSize);
+            }
+            bundleEnds    = new int[messages.length];
+            actorMessages = messages;
+        }
+    }
+
+
+    @Override
+    public synchronized void sceneUpdated(Scene scene)
+    {
+        if ( receivers.isEmpty() || !channel.isOpen() ) return;
+
+        // encode all bundles while the scene is locked...
+        int bundles = 0;
+        buffer.clear();
+        synchronized(scene)
+        {
+            final BoneMessages[] messages = actorMessages;
+            for ( int actorIdx = 0 ; actorIdx < messages.length ; actorIdx++ )
+            {
+                if ( encodeBundle(messages[actorIdx]) )
+                {
+                    bundleEnds[bundles++] = buffer.position();
+                }
+            }
+        }
+
+        // ...and send them without holding up the receiver
+        int start = 0;
+        for ( int idx = 0 ; idx < bundles ; idx++ )
+        {
+            sendBundle(start, bundleEnds[idx]);
+            start = bundleEnds[idx];
+        }
+    }
+
+
+    /**
+     * Appends the OSC bundle for one actor to the send buffer.
+     *
+     * @param messages the precomputed bone messages of the actor
+     *
+     * @return <code>true</code> if there is anything to send,
+     *         <code>false</code> if not
+     */
+    private boolean encodeBundle(BoneMessages messages)
+    {
+        final Bone[] bones = messages.actor.bones;
+        int nBones = Math.min(bones.length, messages.headers.length);
+        if ( rootBoneOnly ) nBones = Math.min(nBones, 1);
+        if ( nBones == 0 ) return false;
+
+        buffer.put(BUNDLE_HEADER);
+        buffer.putLong(TIMETAG_IMMEDIATELY);
+        for ( int boneIdx = 0 ; boneIdx < nBones ; boneIdx++ )
+        {
+            final Bone     bone    = bones[boneIdx];
+            final byte[][] headers = messages.headers[boneIdx];
+
+            if ( format == MessageFormat.POSE )
+            {
+                final byte[] header = headers[0];
+                buffer.putInt(header.length + POSE_DATA_SIZE);
+                buffer.put(header);
+                // patch the tracking flag in the type tag string
+                buffer.put(buffer.position() - messages.trackedTagOffsets[boneIdx],
+                           bone.tracked ? (byte) 'T' : (byte) 'F');
+                buffer.putFloat(bone.px);
+                buffer.putFloat(bone.py);
+                buffer.putFloat(bone.pz);
+                buffer.putFloat(bone.qx);
+                buffer.putFloat(bone.qy);
+                buffer.putFloat(bone.qz);
+                buffer.putFloat(bone.qw);
+            }
+            else
+            {
+                bone.getAxisAngle(axisAngle);
+                putFloatMessage(headers[0], bone.px);
+                putFloatMessage(headers[1], bone.py);
+                putFloatMessage(headers[2], bone.pz);
+                putFloatMessage(headers[3], axisAngle[3]);
+            }
+        }
+        return true;
+    }
+
+
+    private void putFloatMessage(byte[] header, float value)
+    {
+        buffer.putInt(header.length + 4);
+        buffer.put(header);
+        buffer.putFloat(value);
+    }
+
+
+    /**
+     * Sends a bundle from the buffer to all receivers.
+     *
+     * @param start  the start of the bundle in the buffer
+     * @param end    the end of the bundle in the buffer
+     */
+    private void sendBundle(int start, int end)
+    {
+        for ( InetSocketAddress receiver : receivers )
+        {
+            buffer.limit(end).position(start);
+            try
+            {
+                if ( channel.send(buffer, receiver) == 0 )
+                {
+                    droppedPackets++;
+                }
+            }
+            catch (IOException e)
+            {
+                droppedPackets++;
+                if ( droppedPackets == 1 )
+                {
+                    LOG.log(Level.WARNING, "Could not send OSC bundle to {0} ({1}).",
+                            new Object[] { receiver, e.getMessage() });
+                }
+            }
+        }
+        buffer.limit(buffer.capacity());
+    }
+
+
+    /**
+     * Encodes a string as an OSC string (null terminated, padded to 4 bytes).
+     *
+     * @param str  the string to encode
+     * @param out  the list to add the bytes to
+     */
+    private static void encodeString(String str, List<Byte> out)
+    {
+        for ( int i = 0 ; i < str.length() ; i++ )
+        {
+            out.add((byte) str.charAt(i));
+        }
+        do
+        {
+            out.add((byte) 0);
+        } while ( out.size() % 4 != 0 );
+    }
+
+
+    /**
+     * Converts a name into an OSC address part
+     * by replacing characters with special meaning in OSC address patterns.
+     *
+     * @param name the name to convert
+     *
+     * @return the converted name
+     */
+    private static String toAddressPart(String name)
+    {
+        StringBuilder s = new StringBuilder(name.length());
+        for ( int i = 0 ; i < name.length() ; i++ )
+        {
+            char c = name.charAt(i);
+            if ( (c <= ' ') || (c >= 127) || (" #*,/?[]{}".indexOf(c) >= 0) )
+            {
+                c = '_';
+            }
+            s.append(c);
+        }
+        return s.toString();
+    }
+
+
+    /**
+     * Class for the precomputed message headers of an actor's bones.
+     */
+    private static class BoneMessages
+    {
+        public BoneMessages(Actor actor, MessageFormat format)
+        {
+            this.actor = actor;
+
+            final String actorAddress = "/" + toAddressPart(actor.name) + "/";
+            headers           = new byte[actor.bones.length][][];
+            trackedTagOffsets = new int[actor.bones.length];
+            int size = BUNDLE_HEADER.length + 8; // header and timetag
+
+            List<Byte> bytes = new ArrayList<>();
+            for ( int boneIdx = 0 ; boneIdx < actor.bones.length ; boneIdx++ )
+            {
+                final String boneAddress = actorAddress + toAddressPart(actor.bones[boneIdx].name);
+                if ( format == MessageFormat.POSE )
+                {
+                    bytes.clear();
+                    encodeString(boneAddress, bytes);
+                    int typeTagStart = bytes.size();
+                    encodeString(POSE_TYPETAGS, bytes);
+
+                    byte[] header = toArray(bytes);
+                    headers[boneIdx] = new byte[][] { header };
+                    // offset of the T/F tag, counted backwards from the end of the header
+                    trackedTagOffsets[boneIdx] = header.length - (typeTagStart + POSE_TYPETAGS.length() - 1);
+
+                    size += 4 + header.length + POSE_DATA_SIZE;
+                }
+                else
+                {
+                    headers[boneIdx] = new byte[AXIS_ANGLE_PARTS.length][];
+                    for ( int part = 0 ; part < AXIS_ANGLE_PARTS.length ; part++ )
+                    {
+                        bytes.clear();
+                        encodeString(boneAddress + AXIS_ANGLE_PARTS[part], bytes);
+                        encodeString(FLOAT_TYPETAGS, bytes);
+                        headers[boneIdx][part] = toArray(bytes);
+
+                        size += 4 + headers[boneIdx][part].length + 4;
+                    }
+                }
+            }
+            bundleSize = size;
+        }
+
+        private static byte[] toArray(List<Byte> bytes)
+        {
+            byte[] array = new byte[bytes.size()];
+            for ( int i = 0 ; i < array.length ; i++ ) { array[i] = bytes.get(i); }
+            return array;
+        }
+
+        public final Actor      actor;
+        public final byte[][][] headers;           // message headers of each bone
+        public final int[]      trackedTagOffsets; // only for the pose format
+        public final int        bundleSize;
+    }
+
+
+    private final MessageFormat                            format;
+    private final DatagramChannel                          channel;
+    private final CopyOnWriteArrayList<InetSocketAddress>  receivers;
+    private       BoneMessages[]                           actorMessages;
+    private       int[]                                    bundleEnds;
+    private final float[]                                  axisAngle;
+    private       ByteBuffer                               buffer;
+    private volatile boolean                               rootBoneOnly;
+    private volatile long                                  droppedPackets; // only written by the sending thread
+
+    private final static byte[]   BUNDLE_HEADER       = { '#', 'b', 'u', 'n', 'd', 'l', 'e', 0 };
+    private final static long     TIMETAG_IMMEDIATELY = 1;
+    private final static String   POSE_TYPETAGS       = ",fffffffT";
+    private final static int      POSE_DATA_SIZE      = 7 * 4; // 7 floats
+    private final static String   FLOAT_TYPETAGS      = ",f";
+    private final static String[] AXIS_ANGLE_PARTS    = { "/x", "/y", "/z", "/a" };
+    private final static int      MIN_BUFFERSIZE      = 1024;
+
+    private final static Logger LOG = Logger.getLogger(OscBridge.class.getName());
+}
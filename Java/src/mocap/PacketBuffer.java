@@ -0,0 +1,181 @@
+package mocap;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.DatagramChannel;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Class for a reusable receive buffer for NatNet packets.
+ * <p>
+ * The buffer starts small and grows whenever a packet did not fit,
+ * up to the maximum size of a UDP datagram.
+ * The byte buffer view on the data is only recreated when the buffer grows,
+ * so receiving a packet does not allocate any memory.
+ *
+ * @author  Stefan Marks
+ */
+class PacketBuffer
+{
+    /**
+     * Creates a new packet buffer.
+     *
+     * @param initialSize the initial size of the buffer in bytes
+     */
+    public PacketBuffer(int initialSize)
+    {
+        allocate(Math.min(initialSize, MAX_SIZE));
+    }
+
+
+    /**
+     * Receives a packet from a socket.
+     * If the packet did not fit into the buffer, the buffer grows.
+     * The truncated packet itself is lost and has to be requested again.
+     *
+     * @param socket the socket to receive from
+     *
+     * @return <code>true</code> if a complete packet was received,
+     *         <code>false</code> if the packet was truncated
+     *
+     * @throws IOException if there was an error receiving the packet
+     */
+    public boolean receive(DatagramSocket socket) throws IOException
+    {
+        packet.setLength(data.length);
+        socket.receive(packet);
+        return checkPacket(packet.getLength());
+    }
+
+
+    /**
+     * Receives a packet from a non-blocking channel, if there is one.
+     * If the packet did not fit into the buffer, the buffer grows.
+     *
+     * @param channel the channel to receive from
+     *
+     * @return <code>true</code> if a packet was received
+     *         (check {@link #isComplete()} whether it was truncated),
+     *         <code>false</code> if there was no packet waiting
+     *
+     * @throws IOException if there was an error receiving the packet
+     */
+    public boolean poll(DatagramChannel channel) throws IOException
+    {
+        buffer.clear();
+        if ( channel.receive(buffer) == null ) 
+        {
+            buffer.limit(0);
+            return false;
+        }
+        final int length = buffer.position();
+        buffer.position(0);
+        complete = checkPacket(length);
+        return true;
+    }
+
+
+    /**
+     * Checks if the last packet received by {@link #poll(DatagramChannel)} was complete.
+     *
+     * @return <code>true</code> if the packet was complete,
+     *         <code>false</code> if it was truncated
+     */
+    public boolean isComplete()
+    {
+        return complete;
+    }
+
+
+    private boolean checkPacket(int length)
+    {
+        buffer.clear().limit(length);
+        packetId     = (length >= 2) ? (buffer.getShort(0) & 0xFFFF) : -1;
+        packetLength = (length >= 4) ? (buffer.getShort(2) & 0xFFFF) : 0;
+
+        boolean complete = true;
+        if ( (length == data.length) && (data.length < MAX_SIZE) && (packetLength > length - 4) )
+        {
+            // buffer was full and the header says there is more
+            complete = false;
+            int newSize = Math.min(Math.max(data.length * 2, packetLength + 4), MAX_SIZE);
+            LOG.log(Level.INFO,
+                    "Truncated packet (ID={0}, {1} bytes) > increasing buffer size to {2} bytes",
+                    new Object[] { packetId, packetLength + 4, newSize });
+            allocate(newSize);
+        }
+        return complete;
+    }
+
+
+    /**
+     * Gets the byte buffer view of the last received packet,
+     * positioned at the start of the packet.
+     *
+     * @return the byte buffer
+     */
+    public ByteBuffer getBuffer()
+    {
+        return buffer;
+    }
+
+
+    /**
+     * Gets the current capacity of the buffer.
+     *
+     * @return the capacity in bytes
+     */
+    public int getCapacity()
+    {
+        return data.length;
+    }
+
+
+    /**
+     * Gets the ID field from the header of the last received packet
+     * (also valid when the packet was truncated).
+     *
+     * @return the packet ID
+     */
+    public int getPacketId()
+    {
+        return packetId;
+    }
+
+
+    /**
+     * Gets the length field from the header of the last received packet
+     * (also valid when the packet was truncated).
+     *
+     * @return the packet length (without the header)
+     */
+    public int getPacketLength()
+    {
+        return packetLength;
+    }
+
+
+    private void allocate(int size)
+    {
+        data   = new byte[size];
+        packet = new DatagramPacket(data, size);
+        buffer = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.limit(0);
+    }
+
+
+    private byte[]         data;
+    private DatagramPacket packet;
+    private ByteBuffer     buffer;
+    private int            packetId, packetLength;
+    private boolean        complete;
+
+    // maximum payload of a UDP datagram
+    public final static int MAX_SIZE = 65507;
+
+    private final static Logger LOG = Logger.getLogger(PacketBuffer.class.getName());
+}
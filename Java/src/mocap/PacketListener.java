@@ -0,0 +1,20 @@
+package mocap;
+
+/**
+ * Interface for listening to raw packets received from a MoCap server.
+ *
+ * @author  Stefan Marks
+ */
+public interface PacketListener
+{
+    /**
+     * Called when a packet has been received, before it is decoded.
+     * The data array is reused for the next packet,
+     * so its content is only valid during this call.
+     *
+     * @param data    the array containing the packet
+     * @param offset  the offset of the packet within the array
+     * @param length  the length of the packet in bytes
+     */
+    void packetReceived(byte[] data, int offset, int length);
+}
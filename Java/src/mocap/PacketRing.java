@@ -0,0 +1,158 @@
+package mocap;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Class for a ring of preallocated packet buffers
+ * between exactly one producer thread and one consumer thread.
+ * <p>
+ * The producer claims a free buffer, fills it and publishes it,
+ * the consumer takes the oldest published buffer and releases it when done.
+ * Neither side locks, they only exchange their positions through volatile fields.
+ * A waiting consumer uses the wait strategy of the ring
+ * and is woken up by the producer if it sleeps.
+ *
+ * @author  Stefan Marks
+ */
+class PacketRing
+{
+    /**
+     * Creates a packet ring.
+     *
+     * @param capacity    the number of buffers (rounded up to a power of 2)
+     * @param bufferSize  the initial size of each buffer in bytes
+     * @param strategy    the wait strategy of the consumer
+     */
+    public PacketRing(int capacity, int bufferSize, WaitStrategy strategy)
+    {
+        int size = 1;
+        while ( size < capacity ) size *= 2;
+
+        this.buffers      = new PacketBuffer[size];
+        this.arrivalTimes = new long[size];
+        this.mask         = size - 1;
+        this.strategy     = strategy;
+        for ( int idx = 0 ; idx < size ; idx++ )
+        {
+            buffers[idx] = new PacketBuffer(bufferSize);
+        }
+        head   = 0;
+        tail   = 0;
+        closed = false;
+    }
+
+
+    /**
+     * Gets the number of buffers in the ring.
+     *
+     * @return the number of buffers
+     */
+    public int getCapacity()
+    {
+        return buffers.length;
+    }
+
+
+    /**
+     * Claims the next free buffer, called by the producer.
+     *
+     * @return the buffer to fill
+     *         or <code>null</code> if all buffers are in use
+     */
+    public PacketBuffer claim()
+    {
+        if ( tail - head >= buffers.length ) return null;
+        return buffers[(int) tail & mask];
+    }
+
+
+    /**
+     * Publishes the buffer that has been claimed and filled, called by the producer.
+     *
+     * @param arrivalTime  the time the packet was received (<code>System.nanoTime()</code>)
+     */
+    public void publish(long arrivalTime)
+    {
+        arrivalTimes[(int) tail & mask] = arrivalTime;
+        tail++; // volatile write makes the buffer content visible
+
+        final Thread waiting = consumer;
+        if ( waiting != null ) LockSupport.unpark(waiting);
+    }
+
+
+    /**
+     * Takes the oldest published buffer, called by the consumer.
+     * Waits according to the wait strategy until there is a buffer.
+     *
+     * @param timeout  the maximum time to wait in nanoseconds
+     *
+     * @return the buffer to process
+     *         or <code>null</code> if the time ran out or the ring has been closed
+     */
+    public PacketBuffer take(long timeout)
+    {
+        final long end = System.nanoTime() + timeout;
+        int iteration = 0;
+        while ( !closed )
+        {
+            if ( head != tail ) return buffers[(int) head & mask];
+
+            final long remaining = end - System.nanoTime();
+            if ( remaining <= 0 ) break;
+            if ( strategy == WaitStrategy.BLOCKING )
+            {
+                // announce the wait before checking a last time, so no wakeup is lost
+                consumer = Thread.currentThread();
+                if ( (head == tail) && !closed ) strategy.idle(iteration++, remaining);
+                consumer = null;
+            }
+            else
+            {
+                strategy.idle(iteration++, remaining);
+            }
+        }
+        return null;
+    }
+
+
+    /**
+     * Gets the arrival time of the buffer that has been taken.
+     *
+     * @return the arrival time of the packet (<code>System.nanoTime()</code>)
+     */
+    public long getArrivalTime()
+    {
+        return arrivalTimes[(int) head & mask];
+    }
+
+
+    /**
+     * Releases the buffer that has been taken, called by the consumer.
+     */
+    public void release()
+    {
+        head++;
+    }
+
+
+    /**
+     * Closes the ring and wakes up a waiting consumer.
+     */
+    public void close()
+    {
+        closed = true;
+        final Thread waiting = consumer;
+        if ( waiting != null ) LockSupport.unpark(waiting);
+    }
+
+
+    private final    PacketBuffer[] buffers;
+    private final    long[]         arrivalTimes;
+    private final    int            mask;
+    private final    WaitStrategy   strategy;
+    private volatile long           head;     // next buffer to take, written by the consumer
+    private volatile long           tail;     // next buffer to claim, written by the producer
+    private volatile Thread         consumer; // waiting consumer, if blocked
+    private volatile boolean        closed;
+}
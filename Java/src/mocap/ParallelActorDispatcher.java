@@ -0,0 +1,313 @@
+package mocap;
+
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Phaser;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Class for processing the actors of each frame in parallel on several worker threads.
+ * <p>
+ * The actors are split into stripes by their index in the scene,
+ * and every worker thread calls the actor listeners for its own stripe,
+ * so the same actor is always processed by the same thread.
+ * The frame is held until all workers have finished,
+ * then {@link ActorListener#frameProcessed(Scene)} signals the end of the frame.
+ * <p>
+ * The listeners receive a copy of the scene, which is updated between frames,
+ * so the client's scene isn't locked while they run.
+ * Element handles are bound to the client's scene, not to the copy,
+ * so listeners find their elements in the copy by name or ID,
+ * e.g., with {@link Actor#findBone(String)}.
+ * <p>
+ * Example: run IK solvers for all performers on four cores
+ * <pre>
+ * ParallelActorDispatcher dispatcher = new ParallelActorDispatcher(client, 4);
+ * dispatcher.addActorListener(solver);
+ * </pre>
+ *
+ * @author  Stefan Marks
+ */
+public class ParallelActorDispatcher implements SceneListener
+{
+    /**
+     * Creates a dispatcher with one worker thread per processor.
+     *
+     * @param client  the client to process the frames of
+     */
+    public ParallelActorDispatcher(NatNetClient client)
+    {
+        this(client, Runtime.getRuntime().availableProcessors());
+    }
+
+
+    /**
+     * Creates a dispatcher.
+     *
+     * @param client   the client to process the frames of
+     * @param threads  the number of worker threads
+     */
+    public ParallelActorDispatcher(NatNetClient client, int threads)
+    {
+        if ( threads < 1 )
+        {
+            throw new IllegalArgumentException("At least one worker thread is required");
+        }
+
+        this.client    = client;
+        this.snapshot  = new Scene();
+        this.source    = null;
+        this.listeners = new CopyOnWriteArraySet<>();
+        this.barrier   = new Phaser(threads + 1); // workers and the dispatching thread
+        this.workers   = new Thread[threads];
+        this.closed    = false;
+        for ( int idx = 0 ; idx < threads ; idx++ )
+        {
+            workers[idx] = new Thread(new Worker(idx), "ParallelActorDispatcher Worker " + idx);
+            workers[idx].setDaemon(true);
+            workers[idx].start();
+        }
+
+        client.addSceneListener(this);
+    }
+
+
+    /**
+     * Adds an actor listener.
+     *
+     * @param listener  the listener to add
+     *
+     * @return <code>true</code> if the listener was added,
+     *         <code>false</code> if it was already registered
+     */
+    public boolean addActorListener(ActorListener listener)
+    {
+        return listeners.add(listener);
+    }
+
+
+    /**
+     * Removes an actor listener.
+     *
+     * @param listener  the listener to remove
+     *
+     * @return <code>true</code> if the listener was removed,
+     *         <code>false</code> if it was not registered
+     */
+    public boolean removeActorListener(ActorListener listener)
+    {
+        return listeners.remove(listener);
+    }
+
+
+    /**
+     * Gets the number of worker threads.
+     *
+     * @return the number of worker threads
+     */
+    public int getThreadCount()
+    {
+        return workers.length;
+    }
+
+
+    /**
+     * Stops processing frames and ends the worker threads.
+     */
+    public synchronized void close()
+    {
+        if ( closed ) return;
+        closed = true;
+        client.removeSceneListener(this);
+        barrier.arriveAndDeregister(); // releases the workers, which see the flag and end
+    }
+
+
+    @Override
+    public synchronized void sceneUpdated(Scene scene)
+    {
+        if ( closed || listeners.isEmpty() ) return;
+
+        synchronized(scene)
+        {
+            copyFrame(scene);
+        }
+
+        // the workers only see the copy, so the client's scene stays unlocked
+        barrier.arriveAndAwaitAdvance(); // start the workers
+        barrier.arriveAndAwaitAdvance(); // wait until all stripes are done
+
+        for ( ActorListener listener : listeners )
+        {
+            try
+            {
+                listener.frameProcessed(snapshot);
+            }
+            catch (Throwable t)
+            {
+                LOG.log(Level.WARNING, "Actor listener failed ({0}).", t.toString());
+            }
+        }
+    }
+
+
+    @Override
+    public void sceneChanged(Scene scene)
+    {
+        // the actors are taken from the scene with every frame
+    }
+
+
+    /**
+     * Copies the data of a frame into the scene copy for the workers,
+     * rebuilding the copy when the structure of the scene has changed.
+     *
+     * @param scene  the scene of the client (locked by the caller)
+     */
+    private void copyFrame(Scene scene)
+    {
+        if ( !sameStructure(scene) ) copyStructure(scene);
+
+        snapshot.frameNumber    = scene.frameNumber;
+        snapshot.timestamp      = scene.timestamp;
+        snapshot.latency        = scene.latency;
+        snapshot.localTimestamp = scene.localTimestamp;
+        snapshot.totalLatency   = scene.totalLatency;
+        for ( int a = 0 ; a < scene.actors.length ; a++ )
+        {
+            final Actor from = scene.actors[a];
+            final Actor to   = snapshot.actors[a];
+            for ( int m = 0 ; m < from.markers.length ; m++ )
+            {
+                final Marker src = from.markers[m];
+                final Marker dst = to.markers[m];
+                dst.px = src.px; dst.py = src.py; dst.pz = src.pz;
+                dst.tracked = src.tracked;
+                dst.filled  = src.filled;
+            }
+            for ( int b = 0 ; b < from.bones.length ; b++ )
+            {
+                final Bone src = from.bones[b];
+                final Bone dst = to.bones[b];
+                dst.px = src.px; dst.py = src.py; dst.pz = src.pz;
+                dst.qx = src.qx; dst.qy = src.qy; dst.qz = src.qz; dst.qw = src.qw;
+                dst.length  = src.length;
+                dst.tracked = src.tracked;
+                dst.filled  = src.filled;
+            }
+        }
+        for ( int d = 0 ; d < scene.devices.length ; d++ )
+        {
+            final Channel[] from = scene.devices[d].channels;
+            final Channel[] to   = snapshot.devices[d].channels;
+            for ( int c = 0 ; c < from.length ; c++ )
+            {
+                to[c].value = from[c].value;
+            }
+        }
+    }
+
+
+    private boolean sameStructure(Scene scene)
+    {
+        if ( (scene.actors != source) || (scene.devices.length != snapshot.devices.length) ) return false;
+        for ( int a = 0 ; a < scene.actors.length ; a++ )
+        {
+            // the bones of rigid bodies are created when the first frame arrives
+            if ( (scene.actors[a].markers.length != snapshot.actors[a].markers.length) ||
+                 (scene.actors[a].bones.length   != snapshot.actors[a].bones.length) ) return false;
+        }
+        for ( int d = 0 ; d < scene.devices.length ; d++ )
+        {
+            if ( scene.devices[d].channels.length != snapshot.devices[d].channels.length ) return false;
+        }
+        return true;
+    }
+
+
+    private void copyStructure(Scene scene)
+    {
+        source = scene.actors;
+        snapshot.actors = new Actor[scene.actors.length];
+        for ( int a = 0 ; a < scene.actors.length ; a++ )
+        {
+            final Actor actor = scene.actors[a];
+            snapshot.actors[a] = SceneStructure.copyActor(snapshot, actor, actor.name, actor.id);
+        }
+        snapshot.devices = new Device[scene.devices.length];
+        for ( int d = 0 ; d < scene.devices.length ; d++ )
+        {
+            final Device device = scene.devices[d];
+            snapshot.devices[d] = SceneStructure.copyDevice(snapshot, device, device.name, device.id);
+        }
+    }
+
+
+    /**
+     * Class for a worker thread that processes one stripe of the actors.
+     */
+    private class Worker implements Runnable
+    {
+        public Worker(int stripe)
+        {
+            this.stripe = stripe;
+        }
+
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                while ( true )
+                {
+                    barrier.arriveAndAwaitAdvance(); // wait for a frame
+                    if ( closed ) break;
+                    processStripe();
+                    barrier.arriveAndAwaitAdvance(); // signal the end of the stripe
+                }
+            }
+            finally
+            {
+                // also when the worker fails, so that the dispatching thread isn't blocked
+                barrier.arriveAndDeregister();
+            }
+        }
+
+
+        private void processStripe()
+        {
+            // the copy isn't changed until all workers are done
+            final Actor[] actors = snapshot.actors;
+            for ( int idx = stripe ; idx < actors.length ; idx += workers.length )
+            {
+                for ( ActorListener listener : listeners )
+                {
+                    try
+                    {
+                        listener.actorUpdated(snapshot, actors[idx]);
+                    }
+                    catch (Throwable t)
+                    {
+                        LOG.log(Level.WARNING, "Actor listener failed ({0}).", t.toString());
+                    }
+                }
+            }
+        }
+
+
+        private final int stripe;
+    }
+
+
+    private final NatNetClient       client;
+    private final Set<ActorListener> listeners;
+    private final Phaser             barrier;
+    private final Thread[]           workers;
+    private final Scene              snapshot; // copy of the frame being processed, published through the barrier
+    private       Actor[]            source;   // actors of the client's scene the copy was made from
+    private volatile boolean         closed;
+
+    private final static Logger LOG = Logger.getLogger(ParallelActorDispatcher.class.getName());
+}
@@ -0,0 +1,96 @@
+package mocap;
+
+/**
+ * Class for filtering the rotation of a bone with a scalar filter.
+ * <p>
+ * The components of a quaternion can't be filtered independently without care:
+ * q and -q describe the same rotation, and a sign flip between two frames
+ * would make the filter swing through the whole range.
+ * Therefore each new rotation is flipped into the hemisphere of the last filtered rotation,
+ * and the result is normalised again after filtering.
+ * 
+ * @author  Stefan Marks
+ */
+public class QuaternionFilter 
+{
+    /**
+     * Creates a rotation filter.
+     * 
+     * @param filter the filter to use for the quaternion components
+     */
+    public QuaternionFilter(ScalarFilter filter)
+    {
+        this.filter    = filter;
+        this.stateSize = filter.getStateSize();
+    }
+    
+    
+    /**
+     * Gets the number of state variables per rotation.
+     * 
+     * @return the size of the state in the state array
+     */
+    public int getStateSize()
+    {
+        return 4 * stateSize;
+    }
+    
+    
+    /**
+     * Initialises the state of a rotation.
+     * 
+     * @param bone    the bone with the current rotation
+     * @param state   the state array
+     * @param offset  the offset of the state of this rotation in the array
+     */
+    public void reset(Bone bone, double[] state, int offset)
+    {
+        filter.reset(bone.qx, state, offset);
+        filter.reset(bone.qy, state, offset + stateSize);
+        filter.reset(bone.qz, state, offset + stateSize * 2);
+        filter.reset(bone.qw, state, offset + stateSize * 3);
+    }
+    
+    
+    /**
+     * Filters the rotation of a bone.
+     * 
+     * @param bone    the bone with the new raw rotation (receives the filtered rotation)
+     * @param dt      the time since the last rotation in seconds
+     * @param state   the state array
+     * @param offset  the offset of the state of this rotation in the array
+     */
+    public void filter(Bone bone, float dt, double[] state, int offset)
+    {
+        // the first state variable of every scalar filter is its last output
+        final double lx = state[offset];
+        final double ly = state[offset + stateSize];
+        final double lz = state[offset + stateSize * 2];
+        final double lw = state[offset + stateSize * 3];
+        
+        float qx = bone.qx, qy = bone.qy, qz = bone.qz, qw = bone.qw;
+        if ( qx * lx + qy * ly + qz * lz + qw * lw < 0 )
+        {
+            // same rotation, but on the other side of the hypersphere
+            qx = -qx; qy = -qy; qz = -qz; qw = -qw;
+        }
+        
+        qx = filter.filter(qx, dt, state, offset);
+        qy = filter.filter(qy, dt, state, offset + stateSize);
+        qz = filter.filter(qz, dt, state, offset + stateSize * 2);
+        qw = filter.filter(qw, dt, state, offset + stateSize * 3);
+        
+        final float len = (float) Math.sqrt(qx * qx + qy * qy + qz * qz + qw * qw);
+        if ( len > 0 )
+        {
+            bone.qx = qx / len;
+            bone.qy = qy / len;
+            bone.qz = qz / len;
+            bone.qw = qw / len;
+        }
+    }
+    
+    
+    private final ScalarFilter filter;
+    private final int          stateSize;
+}
@@ -0,0 +1,168 @@
+package mocap;
+
+/**
+ * Class for determining the range of motion of each bone over a session:
+ * the bounding box of the positions and the range of the rotation angles.
+ * Only frames in which a bone is tracked are considered.
+ *
+ * @author  Stefan Marks
+ *
+ * @see SessionAnalyzer
+ */
+public class RangeOfMotion implements SessionAggregate<RangeOfMotion>
+{
+    /**
+     * Creates an empty range of motion.
+     */
+    public RangeOfMotion()
+    {
+        bones = null;
+    }
+
+
+    @Override
+    public RangeOfMotion create()
+    {
+        return new RangeOfMotion();
+    }
+
+
+    @Override
+    public void addFrame(Scene scene)
+    {
+        if ( bones == null ) layout(scene);
+
+        int idx = 0;
+        for ( Actor actor : scene.actors )
+        {
+            for ( Bone bone : actor.bones )
+            {
+                if ( bone.tracked )
+                {
+                    final float[] r = range[idx];
+                    final float angle = (float) Math.toDegrees(2 * Math.acos(Math.min(1, Math.abs(bone.qw))));
+                    include(r, 0, bone.px);
+                    include(r, 1, bone.py);
+                    include(r, 2, bone.pz);
+                    include(r, 3, angle);
+                }
+                idx++;
+            }
+        }
+    }
+
+
+    @Override
+    public void merge(RangeOfMotion following)
+    {
+        if ( following.bones == null ) return;
+        if ( bones == null )
+        {
+            bones = following.bones;
+            range = following.range;
+            return;
+        }
+        for ( int idx = 0 ; idx < range.length ; idx++ )
+        {
+            for ( int value = 0 ; value < 4 ; value++ )
+            {
+                range[idx][value]     = Math.min(range[idx][value],     following.range[idx][value]);
+                range[idx][value + 4] = Math.max(range[idx][value + 4], following.range[idx][value + 4]);
+            }
+        }
+    }
+
+
+    /**
+     * Gets the range of the positions of a bone.
+     *
+     * @param actor  the name of the actor
+     * @param bone   the name of the bone
+     *
+     * @return minimum X, Y, Z and maximum X, Y, Z
+     *         or <code>null</code> if the bone was never tracked
+     */
+    public float[] getPositionRange(String actor, String bone)
+    {
+        final float[] r = find(actor, bone);
+        return (r == null) ? null : new float[] { r[0], r[1], r[2], r[4], r[5], r[6] };
+    }
+
+
+    /**
+     * Gets the range of the rotation angles of a bone.
+     *
+     * @param actor  the name of the actor
+     * @param bone   the name of the bone
+     *
+     * @return minimum and maximum angle in degrees
+     *         or <code>null</code> if the bone was never tracked
+     */
+    public float[] getAngleRange(String actor, String bone)
+    {
+        final float[] r = find(actor, bone);
+        return (r == null) ? null : new float[] { r[3], r[7] };
+    }
+
+
+    @Override
+    public String toString()
+    {
+        StringBuilder s = new StringBuilder("bone,minX,minY,minZ,maxX,maxY,maxZ,minAngle,maxAngle\n");
+        if ( bones == null ) return s.toString();
+        for ( int idx = 0 ; idx < range.length ; idx++ )
+        {
+            final float[] r = range[idx];
+            if ( r[0] > r[4] ) continue; // never tracked
+            s.append(bones.getName(idx));
+            for ( int value : new int[] { 0, 1, 2, 4, 5, 6, 3, 7 } )
+            {
+                s.append(',').append(r[value]);
+            }
+            s.append('\n');
+        }
+        return s.toString();
+    }
+
+
+    private void layout(Scene scene)
+    {
+        bones = new ElementIndex();
+        for ( Actor actor : scene.actors )
+        {
+            for ( Bone bone : actor.bones )
+            {
+                bones.add(actor.name, bone.name);
+            }
+        }
+        range = new float[bones.size()][8];
+        for ( float[] r : range )
+        {
+            for ( int value = 0 ; value < 4 ; value++ )
+            {
+                r[value]     = Float.POSITIVE_INFINITY;
+                r[value + 4] = Float.NEGATIVE_INFINITY;
+            }
+        }
+    }
+
+
+    private float[] find(String actor, String bone)
+    {
+        final int idx = (bones != null) ? bones.find(actor, bone) : -1;
+        if ( idx < 0 ) return null;
+        final float[] r = range[idx];
+        return (r[0] > r[4]) ? null : r;
+    }
+
+
+    private static void include(float[] r, int value, float v)
+    {
+        if ( v < r[value]     ) r[value]     = v;
+        if ( v > r[value + 4] ) r[value + 4] = v;
+    }
+
+
+    private ElementIndex bones;
+    private float[][]    range; // minimum X, Y, Z, angle, maximum X, Y, Z, angle
+}
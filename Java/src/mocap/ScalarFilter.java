@@ -0,0 +1,45 @@
+package mocap;
+
+/**
+ * Interface for a filter for a single value, e.g., one coordinate of a marker.
+ * <p>
+ * The filter object itself only holds the parameters.
+ * The state of each filtered value is kept by the caller in a double array,
+ * so one filter object can serve any number of values without allocating memory.
+ * The first state variable always holds the last filtered value.
+ * 
+ * @author  Stefan Marks
+ */
+public interface ScalarFilter 
+{
+    /**
+     * Gets the number of state variables per filtered value.
+     * 
+     * @return the size of the state in the state array
+     */
+    int getStateSize();
+    
+    
+    /**
+     * Initialises the state of a value, e.g., for the first frame
+     * or when tracking has been lost.
+     * 
+     * @param value   the current value
+     * @param state   the state array
+     * @param offset  the offset of the state of this value in the array
+     */
+    void reset(float value, double[] state, int offset);
+    
+    
+    /**
+     * Filters a new value.
+     * 
+     * @param value   the new raw value
+     * @param dt      the time since the last value in seconds
+     * @param state   the state array
+     * @param offset  the offset of the state of this value in the array
+     * 
+     * @return the filtered value
+     */
+    float filter(float value, float dt, double[] state, int offset);
+}
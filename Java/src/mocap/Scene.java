@@ -10,6 +10,8 @@ public class Scene
     public int      frameNumber; // current frame number
     public double   timestamp;   // current timestamp
     public int      latency;     // delay in milliseconds from camera capture to SDK output
+    public long     localTimestamp;  // capture time in local System.nanoTime() units
+    public float    totalLatency;    // delay in milliseconds from camera capture to local delivery
     
     public Actor[]  actors;      // data for the actors
     public Device[] devices;     // data for interaction devices
@@ -22,6 +24,8 @@ public class Scene
     {
         frameNumber = 0;
         latency     = 0;
+        localTimestamp = 0;
+        totalLatency   = 0;
         actors      = new Actor[0];
         devices     = new Device[0];
     }
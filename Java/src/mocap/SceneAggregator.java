@@ -0,0 +1,701 @@
+package mocap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Class for merging the scenes of several clients into one scene,
+ * e.g., for tracking across adjacent volumes with a MotionServer each.
+ * <p>
+ * The actors and devices of each source are renamed to <code>namespace/name</code>,
+ * and their IDs are offset by {@value #ID_RANGE} per source.
+ * Actors and devices with IDs outside of 0...{@value #ID_RANGE}-1 would collide with other sources
+ * and get negative IDs (-1, -2, ...) in the merged scene instead.
+ * Marker positions and the poses of root bones can be moved into a common coordinate system
+ * by a rigid transform per source.
+ * Child bones are relative to their parent and are not transformed.
+ * <p>
+ * The frames of all sources are aligned by their local capture time
+ * (see {@link Scene#localTimestamp}).
+ * Every source keeps a short history of frames.
+ * Once all sources have reached a frame time of any of them,
+ * the merged scene is updated to that time, interpolating the frames of the other sources.
+ * This results in one frame stream at the combined rate of all sources.
+ * The listeners of the merged scene are notified on the thread of one of the clients,
+ * but never while the aggregator is locked, so they can't hold up the other sources.
+ * A source that stops sending frames is ignored after a maximum waiting time:
+ * its markers and bones are marked as not tracked and its device channels are set to 0.
+ * <p>
+ * Example:
+ * <pre>
+ * SceneAggregator aggregator = new SceneAggregator();
+ * aggregator.addSource(client1, "Room1");
+ * aggregator.addSource(client2, "Room2", 5.0f, 0, 0, 0, 0, 0, 1);
+ * aggregator.addSceneListener(listener);
+ * </pre>
+ *
+ * @author  Stefan Marks
+ */
+public class SceneAggregator
+{
+    /**
+     * Offset between the actor and device IDs of consecutive sources.
+     */
+    public static final int ID_RANGE = 1000;
+
+
+    /**
+     * Creates a scene aggregator with the default waiting time for stalled sources.
+     */
+    public SceneAggregator()
+    {
+        this(DEFAULT_MAX_WAIT);
+    }
+
+
+    /**
+     * Creates a scene aggregator.
+     *
+     * @param maxWait  the time in milliseconds after which a source without new frames
+     *                 is ignored for the alignment
+     */
+    public SceneAggregator(int maxWait)
+    {
+        this.maxWait   = maxWait * 1000000L;
+        this.scene     = new Scene();
+        this.sources   = new ArrayList<>();
+        this.listeners = new CopyOnWriteArraySet<>();
+        this.publishLock = new Object();
+        this.lastTime  = Long.MIN_VALUE;
+        this.origin    = System.nanoTime();
+    }
+
+
+    /**
+     * Adds a client as a source without transforming its data.
+     *
+     * @param client     the client to add
+     * @param namespace  the name to prefix the actors and devices of the client with
+     */
+    public void addSource(NatNetClient client, String namespace)
+    {
+        addSource(client, namespace, 0, 0, 0, 0, 0, 0, 1);
+    }
+
+
+    /**
+     * Adds a client as a source.
+     * The data of the source is rotated first and then translated.
+     *
+     * @param client     the client to add
+     * @param namespace  the name to prefix the actors and devices of the client with
+     * @param tx         X component of the translation
+     * @param ty         Y component of the translation
+     * @param tz         Z component of the translation
+     * @param qx         X component of the rotation quaternion
+     * @param qy         Y component of the rotation quaternion
+     * @param qz         Z component of the rotation quaternion
+     * @param qw         W component of the rotation quaternion
+     */
+    public void addSource(NatNetClient client, String namespace,
+                          float tx, float ty, float tz,
+                          float qx, float qy, float qz, float qw)
+    {
+        Source source;
+        synchronized(this)
+        {
+            source = new Source(client, namespace, sources.size(), tx, ty, tz, qx, qy, qz, qw);
+            sources.add(source);
+        }
+        // calls sceneChanged immediately and builds the merged scene
+        client.addSceneListener(source);
+    }
+
+
+    /**
+     * Stops merging the scenes of the sources.
+     */
+    public void close()
+    {
+        List<Source> list;
+        synchronized(this)
+        {
+            list = new ArrayList<>(sources);
+        }
+        for ( Source source : list )
+        {
+            source.client.removeSceneListener(source);
+        }
+    }
+
+
+    /**
+     * Gets the merged scene.
+     *
+     * @return the merged scene
+     */
+    public Scene getScene()
+    {
+        return scene;
+    }
+
+
+    /**
+     * Registers a listener for the merged scene.
+     *
+     * @param listener the listener to register
+     *
+     * @return <code>true</code> if listener was registered,
+     *         <code>false</code> if not
+     */
+    public boolean addSceneListener(SceneListener listener)
+    {
+        boolean added = listeners.add(listener);
+        if ( added )
+        {
+            // immediately notify
+            if ( listener instanceof SceneChangeListener )
+            {
+                final SceneChange change;
+                synchronized(scene)
+                {
+                    change = SceneChange.allAdded(scene);
+                }
+                ((SceneChangeListener) listener).sceneChanged(scene, change);
+            }
+            else
+            {
+                listener.sceneChanged(scene);
+            }
+        }
+        return added;
+    }
+
+
+    /**
+     * Removes a listener for the merged scene.
+     *
+     * @param listener the listener to remove
+     *
+     * @return <code>true</code> if listener was removed,
+     *         <code>false</code> if not
+     */
+    public boolean removeSceneListener(SceneListener listener)
+    {
+        return listeners.remove(listener);
+    }
+
+
+    /**
+     * Builds the structure of the merged scene from the structures of all sources.
+     *
+     * @return the changes of the merged scene
+     */
+    private synchronized SceneChange rebuild()
+    {
+        List<Actor>  actors  = new ArrayList<>();
+        List<Device> devices = new ArrayList<>();
+        remappedIds = 0;
+        for ( Source source : sources )
+        {
+            source.actorStart  = actors.size();
+            source.deviceStart = devices.size();
+            for ( Actor actor : source.actors )
+            {
+                actors.add(copyStructure(actor, source));
+            }
+            for ( Device device : source.devices )
+            {
+                devices.add(copyStructure(device, source));
+            }
+        }
+
+        Actor[]  newActors  = actors.toArray(new Actor[actors.size()]);
+        Device[] newDevices = devices.toArray(new Device[devices.size()]);
+        final SceneChange change;
+        synchronized(scene)
+        {
+            // keep the merged objects of unchanged elements
+            change = SceneChange.compare(scene, newActors, newDevices);
+            scene.actors  = newActors;
+            scene.devices = newDevices;
+            for ( Source source : sources )
+            {
+                source.link(newActors, newDevices);
+            }
+        }
+
+        return change;
+    }
+
+
+    /**
+     * Notifies the listeners about a change of the merged scene.
+     *
+     * @param change  the changes of the merged scene
+     */
+    private void notifyChange(SceneChange change)
+    {
+        if ( change.isEmpty() ) return;
+        synchronized(publishLock)
+        {
+            for ( SceneListener listener : listeners )
+            {
+                if ( listener instanceof SceneChangeListener )
+                {
+                    ((SceneChangeListener) listener).sceneChanged(scene, change);
+                }
+                else
+                {
+                    listener.sceneChanged(scene);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Calculates the ID of an actor or device in the merged scene.
+     *
+     * @param source  the source of the element
+     * @param id      the ID of the element in the source
+     * @param name    the name of the element in the merged scene
+     *
+     * @return the merged ID
+     */
+    private int mergeId(Source source, int id, String name)
+    {
+        if ( (id >= 0) && (id < ID_RANGE) ) return source.index * ID_RANGE + id;
+
+        remappedIds++;
+        LOG.log(Level.WARNING, "ID {0} of {1} is out of range, using {2}",
+                new Object[] { id, name, -remappedIds });
+        return -remappedIds;
+    }
+
+
+    private Actor copyStructure(Actor actor, Source source)
+    {
+        final String name = source.namespace + "/" + actor.name;
+        return SceneStructure.copyActor(scene, actor, name, mergeId(source, actor.id, name));
+    }
+
+
+    private Device copyStructure(Device device, Source source)
+    {
+        final String name = source.namespace + "/" + device.name;
+        return SceneStructure.copyDevice(scene, device, name, mergeId(source, device.id, name));
+    }
+
+
+    /**
+     * Updates the merged scene to every frame time up to the latest time
+     * that all active sources have reached
+     * and notifies the listeners after each of these frames.
+     */
+    private void align()
+    {
+        // one thread at a time, so the listeners get the frames in order
+        synchronized(publishLock)
+        {
+            while ( alignNext() )
+            {
+                for ( SceneListener listener : listeners )
+                {
+                    listener.sceneUpdated(scene);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Updates the merged scene to the next frame time,
+     * if all active sources have reached it.
+     *
+     * @return <code>true</code> if the merged scene has been updated,
+     *         <code>false</code> if not
+     */
+    private synchronized boolean alignNext()
+    {
+        final long now = System.nanoTime();
+        long horizon = Long.MAX_VALUE;
+        int  latency = 0;
+        for ( Source source : sources )
+        {
+            final boolean active = (source.count > 0) && (now - source.lastArrival <= maxWait);
+            if ( active != source.active )
+            {
+                LOG.log(Level.INFO, "Source {0} is {1}", 
+                        new Object[] { source.namespace, active ? "active" : "stalled" });
+                source.active = active;
+            }
+            if ( active )
+            {
+                horizon = Math.min(horizon, source.getLatestTime());
+                latency = Math.max(latency, source.latency);
+            }
+        }
+        if ( (horizon == Long.MAX_VALUE) || (lastTime >= horizon) ) return false; // no active source or no new frame
+
+        // one merged frame for the frame time of any source
+        long time = horizon;
+        for ( Source source : sources )
+        {
+            if ( source.active ) time = Math.min(time, source.getTimeAfter(lastTime));
+        }
+        lastTime = time;
+
+        synchronized(scene)
+        {
+            for ( Source source : sources )
+            {
+                source.apply(time);
+            }
+            scene.frameNumber++;
+            scene.timestamp      = (time - origin) / 1e9;
+            scene.latency        = latency;
+            scene.localTimestamp = time;
+            scene.totalLatency   = (now - time) / 1e6f;
+        }
+        return true;
+    }
+
+
+    /**
+     * Class for a single source with its history of frames.
+     * The history is a ring of records with the values of all elements
+     * in the order of the structure of the source.
+     */
+    private class Source implements SceneListener
+    {
+        public Source(NatNetClient client, String namespace, int index,
+                      float tx, float ty, float tz,
+                      float qx, float qy, float qz, float qw)
+        {
+            this.client    = client;
+            this.namespace = namespace;
+            this.index     = index;
+            this.tx = tx; this.ty = ty; this.tz = tz;
+            // normalise, just in case
+            final float len = (float) Math.sqrt(qx * qx + qy * qy + qz * qz + qw * qw);
+            this.qx = qx / len; this.qy = qy / len; this.qz = qz / len; this.qw = qw / len;
+            this.actors  = new Actor[0];
+            this.devices = new Device[0];
+            this.srcMarkers  = this.dstMarkers  = new Marker[0];
+            this.srcBones    = this.dstBones    = new Bone[0];
+            this.srcChannels = this.dstChannels = new Channel[0];
+            this.times   = new long[HISTORY_SIZE];
+            this.records = new float[HISTORY_SIZE][0];
+            this.active  = false;
+        }
+
+
+        @Override
+        public void sceneChanged(Scene sourceScene)
+        {
+            final Actor[]  newActors;
+            final Device[] newDevices;
+            synchronized(sourceScene)
+            {
+                newActors  = sourceScene.actors.clone();
+                newDevices = sourceScene.devices.clone();
+            }
+            final SceneChange change;
+            synchronized(SceneAggregator.this)
+            {
+                // rebuild() and link() read the actors and devices of all sources
+                actors  = newActors;
+                devices = newDevices;
+
+                List<Marker>  markers  = new ArrayList<>();
+                List<Bone>    bones    = new ArrayList<>();
+                List<Channel> channels = new ArrayList<>();
+                for ( Actor actor : actors )
+                {
+                    for ( Marker marker : actor.markers ) markers.add(marker);
+                    for ( Bone   bone   : actor.bones   ) bones.add(bone);
+                }
+                for ( Device device : devices )
+                {
+                    for ( Channel channel : device.channels ) channels.add(channel);
+                }
+                srcMarkers  = markers.toArray(new Marker[markers.size()]);
+                srcBones    = bones.toArray(new Bone[bones.size()]);
+                srcChannels = channels.toArray(new Channel[channels.size()]);
+
+                // new layout: start a new history
+                final int size = srcMarkers.length * MARKER_SIZE + srcBones.length * BONE_SIZE + srcChannels.length;
+                for ( int idx = 0 ; idx < HISTORY_SIZE ; idx++ )
+                {
+                    records[idx] = new float[size];
+                }
+                count  = 0;
+                change = rebuild();
+            }
+            notifyChange(change);
+        }
+
+
+        @Override
+        public void sceneUpdated(Scene sourceScene)
+        {
+            synchronized(sourceScene)
+            {
+                synchronized(SceneAggregator.this)
+                {
+                    capture(sourceScene);
+                }
+            }
+            align();
+        }
+
+
+        /**
+         * Links the source to the elements of the merged scene.
+         */
+        public void link(Actor[] mergedActors, Device[] mergedDevices)
+        {
+            dstMarkers  = new Marker[srcMarkers.length];
+            dstBones    = new Bone[srcBones.length];
+            dstChannels = new Channel[srcChannels.length];
+            int markerIdx = 0, boneIdx = 0, channelIdx = 0;
+            for ( int idx = 0 ; idx < actors.length ; idx++ )
+            {
+                final Actor actor = mergedActors[actorStart + idx];
+                for ( Marker marker : actor.markers ) dstMarkers[markerIdx++] = marker;
+                for ( Bone   bone   : actor.bones   ) dstBones[boneIdx++]     = bone;
+            }
+            for ( int idx = 0 ; idx < devices.length ; idx++ )
+            {
+                final Device device = mergedDevices[deviceStart + idx];
+                for ( Channel channel : device.channels ) dstChannels[channelIdx++] = channel;
+            }
+        }
+
+
+        public long getLatestTime()
+        {
+            return times[(head + HISTORY_SIZE - 1) % HISTORY_SIZE];
+        }
+
+
+        /**
+         * Gets the time of the oldest frame in the history after a given time.
+         */
+        public long getTimeAfter(long time)
+        {
+            long result = Long.MAX_VALUE;
+            for ( int n = 1 ; n <= count ; n++ )
+            {
+                final long t = times[(head + HISTORY_SIZE - n) % HISTORY_SIZE];
+                if ( t <= time ) break;
+                result = t;
+            }
+            return result;
+        }
+
+
+        private void capture(Scene sourceScene)
+        {
+            final float[] r = records[head];
+            if ( r.length != srcMarkers.length * MARKER_SIZE + srcBones.length * BONE_SIZE + srcChannels.length ) return;
+            // out of order frame (e.g., after a clock resynchronisation): start again
+            if ( (count > 0) && (sourceScene.localTimestamp <= getLatestTime()) ) count = 0;
+
+            int o = 0;
+            for ( Marker marker : srcMarkers )
+            {
+                r[o] = marker.px; r[o + 1] = marker.py; r[o + 2] = marker.pz;
+                r[o + 3] = marker.tracked ? 1 : 0;
+                o += MARKER_SIZE;
+            }
+            for ( Bone bone : srcBones )
+            {
+                r[o]     = bone.px; r[o + 1] = bone.py; r[o + 2] = bone.pz;
+                r[o + 3] = bone.qx; r[o + 4] = bone.qy; r[o + 5] = bone.qz; r[o + 6] = bone.qw;
+                r[o + 7] = bone.tracked ? 1 : 0;
+                o += BONE_SIZE;
+            }
+            for ( Channel channel : srcChannels )
+            {
+                r[o++] = channel.value;
+            }
+            times[head] = sourceScene.localTimestamp;
+            head        = (head + 1) % HISTORY_SIZE;
+            count       = Math.min(count + 1, HISTORY_SIZE);
+            latency     = sourceScene.latency;
+            lastArrival = System.nanoTime();
+        }
+
+
+        /**
+         * Writes the values at a specific time into the merged scene.
+         */
+        public void apply(long time)
+        {
+            if ( !active || (count == 0) )
+            {
+                for ( Marker  marker  : dstMarkers  ) { marker.tracked = false; }
+                for ( Bone    bone    : dstBones    ) { bone.tracked   = false; }
+                for ( Channel channel : dstChannels ) { channel.value  = 0; }
+                return;
+            }
+
+            // find the frames before and after the time
+            int   before = -1, after = -1;
+            for ( int n = 1 ; n <= count ; n++ )
+            {
+                final int idx = (head + HISTORY_SIZE - n) % HISTORY_SIZE;
+                if ( times[idx] <= time ) { before = idx; break; }
+                after = idx;
+            }
+            if ( before < 0 ) { before = after; after = -1; } // older than history: oldest frame
+            float t = 0;
+            if ( after >= 0 )
+            {
+                t = (float) (time - times[before]) / (float) (times[after] - times[before]);
+            }
+            final float[] a = records[before];
+            final float[] b = (after >= 0) ? records[after] : a;
+
+            int o = 0;
+            for ( Marker marker : dstMarkers )
+            {
+                if ( (a[o + 3] == 0) || (b[o + 3] == 0) )
+                {
+                    // not tracked in one of the frames: use the nearest one
+                    final float[] n = (t < 0.5f) ? a : b;
+                    copyMarker(marker, n[o], n[o + 1], n[o + 2], n[o + 3] != 0);
+                }
+                else
+                {
+                    copyMarker(marker,
+                               a[o]     + (b[o]     - a[o])     * t,
+                               a[o + 1] + (b[o + 1] - a[o + 1]) * t,
+                               a[o + 2] + (b[o + 2] - a[o + 2]) * t,
+                               true);
+                }
+                o += MARKER_SIZE;
+            }
+            for ( Bone bone : dstBones )
+            {
+                final float[] n = (t < 0.5f) ? a : b;
+                if ( (a[o + 7] == 0) || (b[o + 7] == 0) )
+                {
+                    copyBone(bone, n, o, n, o, 0);
+                }
+                else
+                {
+                    copyBone(bone, a, o, b, o, t);
+                }
+                o += BONE_SIZE;
+            }
+            for ( Channel channel : dstChannels )
+            {
+                channel.value = a[o] + (b[o] - a[o]) * t;
+                o++;
+            }
+        }
+
+
+        private void copyMarker(Marker marker, float px, float py, float pz, boolean tracked)
+        {
+            marker.tracked = tracked;
+            if ( !tracked )
+            {
+                // keep (0,0,0) as "not tracked" indicator
+                marker.px = marker.py = marker.pz = 0;
+                return;
+            }
+            rotate(px, py, pz);
+            marker.px = vx + tx; marker.py = vy + ty; marker.pz = vz + tz;
+        }
+
+
+        private void copyBone(Bone bone, float[] a, int oa, float[] b, int ob, float t)
+        {
+            float px = a[oa]     + (b[ob]     - a[oa])     * t;
+            float py = a[oa + 1] + (b[ob + 1] - a[oa + 1]) * t;
+            float pz = a[oa + 2] + (b[ob + 2] - a[oa + 2]) * t;
+            // normalised linear interpolation along the shorter arc
+            final float sign = (a[oa + 3] * b[ob + 3] + a[oa + 4] * b[ob + 4] +
+                                a[oa + 5] * b[ob + 5] + a[oa + 6] * b[ob + 6] < 0) ? -1 : 1;
+            float qx = a[oa + 3] + (sign * b[ob + 3] - a[oa + 3]) * t;
+            float qy = a[oa + 4] + (sign * b[ob + 4] - a[oa + 4]) * t;
+            float qz = a[oa + 5] + (sign * b[ob + 5] - a[oa + 5]) * t;
+            float qw = a[oa + 6] + (sign * b[ob + 6] - a[oa + 6]) * t;
+            final float len = (float) Math.sqrt(qx * qx + qy * qy + qz * qz + qw * qw);
+            if ( len > 0 ) { qx /= len; qy /= len; qz /= len; qw /= len; }
+
+            if ( bone.parent == null )
+            {
+                // root bone: into the common coordinate system
+                rotate(px, py, pz);
+                px = vx + tx; py = vy + ty; pz = vz + tz;
+                final float rx = this.qw * qx + this.qx * qw + this.qy * qz - this.qz * qy;
+                final float ry = this.qw * qy - this.qx * qz + this.qy * qw + this.qz * qx;
+                final float rz = this.qw * qz + this.qx * qy - this.qy * qx + this.qz * qw;
+                final float rw = this.qw * qw - this.qx * qx - this.qy * qy - this.qz * qz;
+                qx = rx; qy = ry; qz = rz; qw = rw;
+            }
+            bone.px = px; bone.py = py; bone.pz = pz;
+            bone.qx = qx; bone.qy = qy; bone.qz = qz; bone.qw = qw;
+            bone.tracked = (a[oa + 7] != 0);
+        }
+
+
+        /**
+         * Rotates a vector by the rotation of the source into (vx, vy, vz).
+         */
+        private void rotate(float px, float py, float pz)
+        {
+            // v' = v + 2w (q x v) + 2 q x (q x v)
+            final float cx = 2 * (qy * pz - qz * py);
+            final float cy = 2 * (qz * px - qx * pz);
+            final float cz = 2 * (qx * py - qy * px);
+            vx = px + qw * cx + (qy * cz - qz * cy);
+            vy = py + qw * cy + (qz * cx - qx * cz);
+            vz = pz + qw * cz + (qx * cy - qy * cx);
+        }
+
+
+        private final NatNetClient client;
+        private final String       namespace;
+        private final int          index;
+        private final float        tx, ty, tz, qx, qy, qz, qw;
+        private       Actor[]      actors;  // guarded by the aggregator
+        private       Device[]     devices; // guarded by the aggregator
+        private       int          actorStart, deviceStart;
+        private       Marker[]     srcMarkers, dstMarkers;
+        private       Bone[]       srcBones,   dstBones;
+        private       Channel[]    srcChannels, dstChannels;
+        private final long[]       times;
+        private final float[][]    records;
+        private       int          head, count, latency;
+        private       long         lastArrival;
+        private       boolean      active;
+        private       float        vx, vy, vz; // result of rotate()
+    }
+
+
+    private final long              maxWait;
+    private final Scene             scene;
+    private final List<Source>      sources;
+    private final Set<SceneListener> listeners;
+    private final Object            publishLock; // taken before the aggregator lock
+    private final long              origin;
+    private       long              lastTime;
+    private       int               remappedIds;
+
+    private final static int DEFAULT_MAX_WAIT = 100; // ms
+    private final static int HISTORY_SIZE     = 32;  // frames per source
+    private final static int MARKER_SIZE      = 4;   // position, tracked
+    private final static int BONE_SIZE        = 8;   // position, rotation, tracked
+
+    private final static Logger LOG = Logger.getLogger(SceneAggregator.class.getName());
+}
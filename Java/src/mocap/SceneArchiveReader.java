@@ -0,0 +1,520 @@
+package mocap;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Class for reading an archive that has been written by {@link SceneArchiveWriter}.
+ * <p>
+ * The block index is used to find the blocks of a time range,
+ * and only the compressed chunks of the requested actors (or devices) are read and decoded.
+ * The decoded frames are delivered through the same listener interfaces
+ * as live frames, using the scene of the reader, so exporters and actor listeners
+ * can process archived data without any change.
+ * <p>
+ * Example: process the second minute of one performer
+ * <pre>
+ * try ( SceneArchiveReader archive = new SceneArchiveReader(new File("session.mca")) )
+ * {
+ *     double start = archive.getStartTime() + 60;
+ *     archive.readActor("Performer1", start, start + 60, solver);
+ * }
+ * </pre>
+ *
+ * @author  Stefan Marks
+ */
+public class SceneArchiveReader implements Closeable
+{
+    /**
+     * Opens an archive.
+     *
+     * @param file  the archive file
+     *
+     * @throws IOException if the file can't be read or is not a complete archive
+     */
+    public SceneArchiveReader(File file) throws IOException
+    {
+        this.file     = new RandomAccessFile(file, "r");
+        this.scene    = new Scene();
+        this.inflater = new Inflater();
+        try
+        {
+            readIndex();
+            readHeader();
+        }
+        catch (IOException e)
+        {
+            close();
+            throw e;
+        }
+    }
+
+
+    /**
+     * Gets the scene that decoded frames are stored in.
+     * The scene contains the actors of the archive with their markers and bones
+     * and the devices with their channels.
+     *
+     * @return the scene of the archive
+     */
+    public Scene getScene()
+    {
+        return scene;
+    }
+
+
+    /**
+     * Gets the number of frames in the archive.
+     *
+     * @return the number of frames
+     */
+    public int getFrameCount()
+    {
+        int count = 0;
+        for ( int frames : blockFrameCount ) count += frames;
+        return count;
+    }
+
+
+    /**
+     * Gets the timestamp of the first frame.
+     *
+     * @return the timestamp in seconds or 0 if the archive contains no frames
+     */
+    public double getStartTime()
+    {
+        return (blockOffset.length > 0) ? blockFirstTime[0] / 1e6 : 0;
+    }
+
+
+    /**
+     * Gets the timestamp of the last frame.
+     *
+     * @return the timestamp in seconds or 0 if the archive contains no frames
+     */
+    public double getEndTime()
+    {
+        return (blockOffset.length > 0) ? blockLastTime[blockOffset.length - 1] / 1e6 : 0;
+    }
+
+
+    /**
+     * Decodes the frames of a single actor within a time range.
+     * For each frame, the scene timestamp and frame number and the data of the actor
+     * are updated, then {@link ActorListener#actorUpdated(Scene, Actor)}
+     * and {@link ActorListener#frameProcessed(Scene)} are called.
+     * The data of the other actors is not touched.
+     *
+     * @param name       the name of the actor
+     * @param startTime  the first timestamp to decode in seconds
+     * @param endTime    the last timestamp to decode in seconds
+     * @param listener   the listener for the decoded frames
+     *
+     * @return the number of decoded frames
+     *
+     * @throws IOException if the archive can't be read
+     */
+    public int readActor(String name, double startTime, double endTime, ActorListener listener) throws IOException
+    {
+        final int actorIdx = scene.findActorIdx(name);
+        if ( actorIdx < 0 )
+        {
+            throw new IllegalArgumentException("Actor " + name + " is not in the archive");
+        }
+
+        final Actor actor = scene.actors[actorIdx];
+        int count = 0;
+        for ( int block = findBlock(startTime) ; block < blockOffset.length ; block++ )
+        {
+            if ( blockFirstTime[block] > Math.round(endTime * 1e6) ) break;
+            readBlock(block, actorIdx);
+            for ( int f = 0 ; f < frames ; f++ )
+            {
+                if ( !selectFrame(f, startTime, endTime) ) continue;
+                restoreActor(actorIdx, f);
+                listener.actorUpdated(scene, actor);
+                listener.frameProcessed(scene);
+                count++;
+            }
+        }
+        return count;
+    }
+
+
+    /**
+     * Decodes all actors and devices of the frames within a time range.
+     * For each frame, the scene is updated,
+     * then {@link SceneListener#sceneUpdated(Scene)} is called.
+     *
+     * @param startTime  the first timestamp to decode in seconds
+     * @param endTime    the last timestamp to decode in seconds
+     * @param listener   the listener for the decoded frames
+     *
+     * @return the number of decoded frames
+     *
+     * @throws IOException if the archive can't be read
+     */
+    public int readScene(double startTime, double endTime, SceneListener listener) throws IOException
+    {
+        return readScene(findBlock(startTime), blockOffset.length, startTime, endTime, listener);
+    }
+
+
+    /**
+     * Decodes all actors and devices of the frames within a range of blocks and a time range.
+     *
+     * @param firstBlock  the index of the first block
+     * @param endBlock    the index after the last block
+     * @param startTime   the first timestamp to decode in seconds
+     * @param endTime     the last timestamp to decode in seconds
+     * @param listener    the listener for the decoded frames
+     *
+     * @return the number of decoded frames
+     *
+     * @throws IOException if the archive can't be read
+     */
+    int readScene(int firstBlock, int endBlock, double startTime, double endTime, SceneListener listener) throws IOException
+    {
+        int count = 0;
+        for ( int block = firstBlock ; block < endBlock ; block++ )
+        {
+            if ( blockFirstTime[block] > Math.round(endTime * 1e6) ) break;
+            readBlock(block, -1);
+            for ( int f = 0 ; f < frames ; f++ )
+            {
+                if ( !selectFrame(f, startTime, endTime) ) continue;
+                for ( int a = 0 ; a < scene.actors.length ; a++ )
+                {
+                    restoreActor(a, f);
+                }
+                restoreDevices(f);
+                listener.sceneUpdated(scene);
+                count++;
+            }
+        }
+        return count;
+    }
+
+
+    @Override
+    public void close() throws IOException
+    {
+        inflater.end();
+        file.close();
+    }
+
+
+    /**
+     * Gets the number of blocks in the archive.
+     *
+     * @return the number of blocks
+     */
+    int getBlockCount()
+    {
+        return blockOffset.length;
+    }
+
+
+    private void readIndex() throws IOException
+    {
+        final long length = file.length();
+        if ( length < 12 ) throw new IOException("Archive is empty or incomplete");
+        file.seek(length - 12);
+        indexOffset = file.readLong();
+        if ( (file.readInt() != ArchiveFormat.MAGIC) || (indexOffset < 0) || (indexOffset > length - 16) )
+        {
+            throw new IOException("Archive is incomplete");
+        }
+
+        // read in one go: the index of a long session has thousands of entries
+        final DataInputStream index = readFully(indexOffset, (int) (length - 12 - indexOffset));
+        final int nBlocks = index.readInt();
+        blockOffset     = new long[nBlocks];
+        blockFrameCount = new int[nBlocks];
+        blockFirstTime  = new long[nBlocks];
+        blockLastTime   = new long[nBlocks];
+        for ( int block = 0 ; block < nBlocks ; block++ )
+        {
+            blockOffset[block]     = index.readLong();
+            blockFrameCount[block] = index.readInt();
+            index.readInt(); // first frame number
+            blockFirstTime[block]  = index.readLong();
+            blockLastTime[block]   = index.readLong();
+        }
+    }
+
+
+    private DataInputStream readFully(long offset, int length) throws IOException
+    {
+        final byte[] data = new byte[length];
+        file.seek(offset);
+        file.readFully(data);
+        return new DataInputStream(new ByteArrayInputStream(data));
+    }
+
+
+    private void readHeader() throws IOException
+    {
+        // the header ends where the first block starts
+        final DataInputStream header = readFully(0, (int) ((blockOffset.length > 0) ? blockOffset[0] : indexOffset));
+        if ( header.readInt() != ArchiveFormat.MAGIC ) throw new IOException("Not an archive");
+        final short version = header.readShort();
+        if ( (version < 1) || (version > ArchiveFormat.VERSION) ) throw new IOException("Unsupported archive version " + version);
+        resolution  = header.readFloat();
+        blockFrames = header.readInt();
+
+        final int nActors = header.readInt();
+        scene.actors = new Actor[nActors];
+        columnCounts = new int[nActors + 1]; // last chunk: all device channels
+        int maxColumns = 2;
+        for ( int a = 0 ; a < nActors ; a++ )
+        {
+            final Actor actor = new Actor(scene, header.readUTF(), header.readInt());
+            actor.markers = new Marker[header.readInt()];
+            for ( int m = 0 ; m < actor.markers.length ; m++ )
+            {
+                actor.markers[m] = new Marker(actor, header.readUTF());
+            }
+            actor.bones = new Bone[header.readInt()];
+            for ( int b = 0 ; b < actor.bones.length ; b++ )
+            {
+                final Bone bone = new Bone(actor, header.readUTF(), header.readInt());
+                bone.parent = actor.findBone(header.readInt());
+                if ( bone.parent != null )
+                {
+                    bone.parent.children.add(bone);
+                }
+                bone.buildChain();
+                bone.ox = header.readFloat();
+                bone.oy = header.readFloat();
+                bone.oz = header.readFloat();
+                actor.bones[b] = bone;
+            }
+            scene.actors[a] = actor;
+            columnCounts[a] = actor.markers.length * ArchiveFormat.MARKER_COLUMNS +
+                              actor.bones.length   * ArchiveFormat.BONE_COLUMNS;
+            maxColumns = Math.max(maxColumns, columnCounts[a]);
+        }
+
+        // version 1 archives have no devices and no device chunk
+        chunkCount    = (version >= 2) ? nActors + 1 : nActors;
+        scene.devices = new Device[(version >= 2) ? header.readInt() : 0];
+        for ( int d = 0 ; d < scene.devices.length ; d++ )
+        {
+            final Device device = new Device(scene, header.readUTF(), header.readInt());
+            device.channels = new Channel[header.readInt()];
+            for ( int c = 0 ; c < device.channels.length ; c++ )
+            {
+                device.channels[c] = new Channel(device, header.readUTF());
+            }
+            scene.devices[d] = device;
+            columnCounts[nActors] += device.channels.length;
+        }
+        maxColumns = Math.max(maxColumns, columnCounts[nActors]);
+
+        frameNumbers = new int[blockFrames];
+        timestamps   = new long[blockFrames];
+        columns      = new int[nActors + 1][];
+        raw          = new byte[maxColumns * blockFrames * ArchiveFormat.MAX_VARINT];
+        compressed   = new byte[0];
+        position     = new int[1];
+    }
+
+
+    /**
+     * Finds the first block that can contain a timestamp.
+     *
+     * @param time the timestamp in seconds
+     *
+     * @return the index of the block
+     */
+    int findBlock(double time)
+    {
+        final long t = Math.round(time * 1e6);
+        int lo = 0, hi = blockOffset.length;
+        while ( lo < hi )
+        {
+            final int mid = (lo + hi) >>> 1;
+            if ( blockLastTime[mid] < t ) lo = mid + 1; else hi = mid;
+        }
+        return lo;
+    }
+
+
+    /**
+     * Reads and decodes the time chunk and the chunks of one or all actors of a block.
+     *
+     * @param block     the index of the block
+     * @param actorIdx  the index of the actor or -1 for all actors
+     *
+     * @throws IOException if the block can't be read
+     */
+    private void readBlock(int block, int actorIdx) throws IOException
+    {
+        file.seek(blockOffset[block]);
+        frames = file.readInt();
+        if ( (frames < 1) || (frames > blockFrames) ) throw new IOException("Corrupt block " + block);
+
+        final int timeLength = file.readInt();
+        final int[] chunkLengths = new int[chunkCount];
+        for ( int a = 0 ; a < chunkLengths.length ; a++ ) chunkLengths[a] = file.readInt();
+
+        long chunkOffset = file.getFilePointer();
+        inflate(timeLength);
+        long previous = 0;
+        for ( int f = 0 ; f < frames ; f++ )
+        {
+            previous += ArchiveFormat.readVarLong(raw, position);
+            frameNumbers[f] = (int) previous;
+        }
+        previous = 0;
+        for ( int f = 0 ; f < frames ; f++ )
+        {
+            previous += ArchiveFormat.readVarLong(raw, position);
+            timestamps[f] = previous;
+        }
+        chunkOffset += timeLength;
+
+        for ( int a = 0 ; a < chunkCount ; a++ )
+        {
+            if ( (actorIdx < 0) || (a == actorIdx) )
+            {
+                file.seek(chunkOffset); // skips the chunks of other actors
+                inflate(chunkLengths[a]);
+                if ( columns[a] == null ) columns[a] = new int[columnCounts[a] * blockFrames];
+                final int[] col = columns[a];
+                for ( int c = 0 ; c < columnCounts[a] ; c++ )
+                {
+                    long value = 0;
+                    for ( int f = 0 ; f < frames ; f++ )
+                    {
+                        value += ArchiveFormat.readVarLong(raw, position);
+                        col[c * blockFrames + f] = (int) value;
+                    }
+                }
+            }
+            chunkOffset += chunkLengths[a];
+        }
+    }
+
+
+    /**
+     * Reads and decompresses a chunk at the current file position.
+     *
+     * @param length the compressed length
+     *
+     * @throws IOException if the chunk can't be read or is corrupt
+     */
+    private void inflate(int length) throws IOException
+    {
+        if ( compressed.length < length ) compressed = new byte[length];
+        file.readFully(compressed, 0, length);
+        inflater.reset();
+        inflater.setInput(compressed, 0, length);
+        try
+        {
+            int total = 0;
+            while ( !inflater.finished() )
+            {
+                final int n = inflater.inflate(raw, total, raw.length - total);
+                if ( (n == 0) && (inflater.needsInput() || (total == raw.length)) )
+                {
+                    throw new IOException("Corrupt chunk");
+                }
+                total += n;
+            }
+        }
+        catch (DataFormatException e)
+        {
+            throw new IOException("Corrupt chunk (" + e.getMessage() + ")");
+        }
+        position[0] = 0;
+    }
+
+
+    /**
+     * Checks if a frame of the current block is within a time range
+     * and stores its frame number and timestamp in the scene.
+     */
+    private boolean selectFrame(int f, double startTime, double endTime)
+    {
+        final double t = timestamps[f] / 1e6;
+        if ( (t < startTime) || (t > endTime) ) return false;
+        scene.frameNumber = frameNumbers[f];
+        scene.timestamp   = t;
+        return true;
+    }
+
+
+    /**
+     * Restores the data of an actor from a frame of the current block.
+     */
+    private void restoreActor(int actorIdx, int f)
+    {
+        final Actor actor = scene.actors[actorIdx];
+        final int[] col   = columns[actorIdx];
+        final int   n     = blockFrames;
+        int c = 0;
+        for ( Marker marker : actor.markers )
+        {
+            marker.px      = col[ c      * n + f] * resolution;
+            marker.py      = col[(c + 1) * n + f] * resolution;
+            marker.pz      = col[(c + 2) * n + f] * resolution;
+            marker.tracked = col[(c + 3) * n + f] != 0;
+            c += ArchiveFormat.MARKER_COLUMNS;
+        }
+        for ( Bone bone : actor.bones )
+        {
+            bone.px = col[ c      * n + f] * resolution;
+            bone.py = col[(c + 1) * n + f] * resolution;
+            bone.pz = col[(c + 2) * n + f] * resolution;
+            ArchiveFormat.restoreRotation(col, (c + 3) * n + f, n, bone);
+            bone.tracked = col[(c + 7) * n + f] != 0;
+            c += ArchiveFormat.BONE_COLUMNS;
+        }
+    }
+
+
+    /**
+     * Restores the channel values of all devices from a frame of the current block.
+     */
+    private void restoreDevices(int f)
+    {
+        final int[] col = columns[scene.actors.length];
+        int c = 0;
+        for ( Device device : scene.devices )
+        {
+            for ( Channel channel : device.channels )
+            {
+                channel.value = Float.intBitsToFloat(col[c++ * blockFrames + f]);
+            }
+        }
+    }
+
+
+    private final RandomAccessFile file;
+    private final Scene            scene;
+    private final Inflater         inflater;
+
+    private long[] blockOffset, blockFirstTime, blockLastTime; // microseconds
+    private int[]  blockFrameCount;
+    private long   indexOffset;
+    private float  resolution;
+    private int    blockFrames;
+    private int[]  columnCounts; // per actor, then for all devices
+    private int    chunkCount;   // chunks per block
+
+    // current block
+    private int     frames;
+    private int[]   frameNumbers;
+    private long[]  timestamps;
+    private int[][] columns;
+    private byte[]  raw, compressed;
+    private int[]   position;
+}
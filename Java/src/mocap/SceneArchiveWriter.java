@@ -0,0 +1,612 @@
+package mocap;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * Class for recording the actors and devices of a scene into a compact, column oriented archive.
+ * <p>
+ * Frames are collected into blocks.
+ * Within a block, every value of an actor (e.g., the X position of a bone)
+ * forms a column of quantised values, which is stored as the differences
+ * between consecutive frames, so slow motion leads to small numbers.
+ * Each actor of a block and the device channels are compressed separately, and an index of the blocks
+ * at the end of the file allows {@link SceneArchiveReader} to decode
+ * a single actor over a time range without touching the rest of the file.
+ * <p>
+ * The thread that updates the scene only quantises the values into the current block.
+ * Compression and writing happen on a background thread.
+ * If the writer can't keep up at all, frames are dropped and counted.
+ * The layout is fixed when the first frame arrives.
+ * Later structure changes only link the layout to the new objects by name.
+ * <p>
+ * Example:
+ * <pre>
+ * SceneArchiveWriter archive = new SceneArchiveWriter(new File("session.mca"));
+ * client.addSceneListener(archive);
+ * ...
+ * client.removeSceneListener(archive);
+ * archive.close();
+ * </pre>
+ *
+ * @author  Stefan Marks
+ */
+public class SceneArchiveWriter implements SceneListener, Closeable
+{
+    /**
+     * Creates an archive writer with blocks of {@value #DEFAULT_BLOCK_FRAMES} frames
+     * and a position resolution of 0.1mm.
+     *
+     * @param file  the file to write to
+     *
+     * @throws IOException if the file can't be created
+     */
+    public SceneArchiveWriter(File file) throws IOException
+    {
+        this(file, DEFAULT_BLOCK_FRAMES, DEFAULT_RESOLUTION);
+    }
+
+
+    /**
+     * Creates an archive writer.
+     *
+     * @param file         the file to write to
+     * @param blockFrames  the number of frames per block
+     *                     (larger blocks compress better, smaller blocks allow finer seeking)
+     * @param resolution   the resolution of the positions in scene units (e.g., metres)
+     *
+     * @throws IOException if the file can't be created
+     */
+    public SceneArchiveWriter(File file, int blockFrames, float resolution) throws IOException
+    {
+        if ( (blockFrames < 1) || !(resolution > 0) )
+        {
+            throw new IllegalArgumentException("Block size and resolution must be positive");
+        }
+
+        this.file        = file;
+        this.blockFrames = blockFrames;
+        this.resolution  = resolution;
+        this.out         = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+        this.index       = new ArrayList<>();
+        this.ready       = false;
+        this.closed      = false;
+
+        this.writer = new BackgroundWriter<byte[], Block>(file, "Archive Writer Thread (" + file.getName() + ")", MAX_BLOCKS)
+        {
+            @Override
+            protected Block createRecord()
+            {
+                return new Block();
+            }
+
+            @Override
+            protected void writeHeader(byte[] header) throws IOException
+            {
+                writeFileHeader(header);
+            }
+
+            @Override
+            protected void writeRecord(Block block) throws IOException
+            {
+                writeBlock(block);
+            }
+
+            @Override
+            protected void endOfData() throws IOException
+            {
+                // an archive without any frame stays empty
+                if ( deflater != null ) writeIndex();
+            }
+
+            @Override
+            protected void closeOutput() throws IOException
+            {
+                out.close();
+            }
+        };
+    }
+
+
+    /**
+     * Gets the file that is written.
+     *
+     * @return the archive file
+     */
+    public File getFile()
+    {
+        return file;
+    }
+
+
+    /**
+     * Gets the number of frames that have been recorded.
+     *
+     * @return the number of frames
+     */
+    public int getFrameCount()
+    {
+        return frameCount;
+    }
+
+
+    /**
+     * Gets the number of frames that were dropped because the writer could not keep up.
+     *
+     * @return the number of dropped frames
+     */
+    public int getDroppedFrameCount()
+    {
+        return droppedCount;
+    }
+
+
+    @Override
+    public void sceneChanged(Scene scene)
+    {
+        synchronized(scene)
+        {
+            if ( ready ) relink(scene);
+        }
+    }
+
+
+    @Override
+    public void sceneUpdated(Scene scene)
+    {
+        if ( closed ) return;
+
+        synchronized(scene)
+        {
+            if ( closed ) return;
+            if ( !ready )
+            {
+                if ( scene.actors.length == 0 ) return;
+                layout(scene);
+            }
+
+            if ( current == null )
+            {
+                current = writer.obtain();
+                if ( current == null )
+                {
+                    droppedCount++;
+                    return;
+                }
+                current.count = 0;
+            }
+
+            capture(scene, current);
+            frameCount++;
+            if ( current.count == blockFrames )
+            {
+                writer.submit(current);
+                current = null;
+            }
+        }
+    }
+
+
+    /**
+     * Stops recording, writes the remaining frames and the block index and closes the file.
+     *
+     * @throws IOException if there was an error writing the file
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if ( closed ) return;
+        closed = true;
+
+        Block last = null;
+        final Scene recorded = scene;
+        if ( recorded != null )
+        {
+            synchronized(recorded)
+            {
+                last    = current;
+                current = null;
+            }
+        }
+        if ( (last != null) && (last.count > 0) ) writer.submit(last);
+        writer.close();
+    }
+
+
+    /**
+     * Fixes the layout of the archive and queues the header.
+     * Called with the lock of the scene held.
+     *
+     * @param scene the scene
+     */
+    private void layout(Scene scene)
+    {
+        final int nActors  = scene.actors.length;
+        final int nDevices = scene.devices.length;
+        actorNames   = new String[nActors];
+        markerNames  = new String[nActors][];
+        boneNames    = new String[nActors][];
+        markers      = new Marker[nActors][];
+        bones        = new Bone[nActors][];
+        deviceNames  = new String[nDevices];
+        channelNames = new String[nDevices][];
+        channels     = new Channel[nDevices][];
+        columnCounts = new int[nActors + 1]; // last chunk: all device channels
+        this.scene   = scene;
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        try ( DataOutputStream h = new DataOutputStream(header) )
+        {
+            h.writeInt(ArchiveFormat.MAGIC);
+            h.writeShort(ArchiveFormat.VERSION);
+            h.writeFloat(resolution);
+            h.writeInt(blockFrames);
+            h.writeInt(nActors);
+            for ( int a = 0 ; a < nActors ; a++ )
+            {
+                final Actor actor = scene.actors[a];
+                actorNames[a]  = actor.name;
+                markerNames[a] = new String[actor.markers.length];
+                boneNames[a]   = new String[actor.bones.length];
+                columnCounts[a] = actor.markers.length * ArchiveFormat.MARKER_COLUMNS +
+                                  actor.bones.length   * ArchiveFormat.BONE_COLUMNS;
+
+                h.writeUTF(actor.name);
+                h.writeInt(actor.id);
+                h.writeInt(actor.markers.length);
+                for ( int m = 0 ; m < actor.markers.length ; m++ )
+                {
+                    markerNames[a][m] = actor.markers[m].name;
+                    h.writeUTF(actor.markers[m].name);
+                }
+                h.writeInt(actor.bones.length);
+                for ( int b = 0 ; b < actor.bones.length ; b++ )
+                {
+                    final Bone bone = actor.bones[b];
+                    boneNames[a][b] = bone.name;
+                    h.writeUTF(bone.name);
+                    h.writeInt(bone.id);
+                    h.writeInt((bone.parent != null) ? bone.parent.id : -1);
+                    h.writeFloat(bone.ox);
+                    h.writeFloat(bone.oy);
+                    h.writeFloat(bone.oz);
+                }
+            }
+            h.writeInt(nDevices);
+            for ( int d = 0 ; d < nDevices ; d++ )
+            {
+                final Device device = scene.devices[d];
+                deviceNames[d]  = device.name;
+                channelNames[d] = new String[device.channels.length];
+                columnCounts[nActors] += device.channels.length;
+
+                h.writeUTF(device.name);
+                h.writeInt(device.id);
+                h.writeInt(device.channels.length);
+                for ( int c = 0 ; c < device.channels.length ; c++ )
+                {
+                    channelNames[d][c] = device.channels[c].name;
+                    h.writeUTF(device.channels[c].name);
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            // can't happen with a byte array
+        }
+
+        relink(scene);
+        // header goes first into the queue, so it is written before any block
+        writer.submitHeader(header.toByteArray());
+        ready = true;
+    }
+
+
+    /**
+     * Links the layout to the objects of the scene by their names.
+     * Called with the lock of the scene held.
+     *
+     * @param scene the scene
+     */
+    private void relink(Scene scene)
+    {
+        for ( int a = 0 ; a < actorNames.length ; a++ )
+        {
+            Actor actor = null;
+            for ( Actor candidate : scene.actors )
+            {
+                if ( candidate.name.equals(actorNames[a]) ) actor = candidate;
+            }
+            markers[a] = new Marker[markerNames[a].length];
+            bones[a]   = new Bone[boneNames[a].length];
+            if ( actor == null ) continue;
+
+            for ( int m = 0 ; m < markers[a].length ; m++ )
+            {
+                for ( Marker marker : actor.markers )
+                {
+                    if ( marker.name.equals(markerNames[a][m]) ) markers[a][m] = marker;
+                }
+            }
+            for ( int b = 0 ; b < bones[a].length ; b++ )
+            {
+                bones[a][b] = actor.findBone(boneNames[a][b]);
+            }
+        }
+        for ( int d = 0 ; d < deviceNames.length ; d++ )
+        {
+            channels[d] = new Channel[channelNames[d].length];
+            for ( Device device : scene.devices )
+            {
+                if ( !device.name.equals(deviceNames[d]) ) continue;
+                for ( int c = 0 ; c < channels[d].length ; c++ )
+                {
+                    for ( Channel channel : device.channels )
+                    {
+                        if ( channel.name.equals(channelNames[d][c]) ) channels[d][c] = channel;
+                    }
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Quantises the values of the current frame into a block.
+     * Called with the lock of the scene held, so this has to be fast.
+     *
+     * @param scene  the scene
+     * @param block  the block to fill
+     */
+    private void capture(Scene scene, Block block)
+    {
+        final int f = block.count++;
+        final int n = blockFrames;
+        block.frameNumbers[f] = scene.frameNumber;
+        block.timestamps[f]   = Math.round(scene.timestamp * 1e6); // microseconds
+
+        for ( int a = 0 ; a < markers.length ; a++ )
+        {
+            final int[] col = block.columns[a];
+            int c = 0;
+            for ( Marker marker : markers[a] )
+            {
+                final boolean valid = (marker != null);
+                col[ c      * n + f] = valid ? Math.round(marker.px / resolution) : 0;
+                col[(c + 1) * n + f] = valid ? Math.round(marker.py / resolution) : 0;
+                col[(c + 2) * n + f] = valid ? Math.round(marker.pz / resolution) : 0;
+                col[(c + 3) * n + f] = (valid && marker.tracked) ? 1 : 0;
+                c += ArchiveFormat.MARKER_COLUMNS;
+            }
+            for ( Bone bone : bones[a] )
+            {
+                final boolean valid = (bone != null);
+                col[ c      * n + f] = valid ? Math.round(bone.px / resolution) : 0;
+                col[(c + 1) * n + f] = valid ? Math.round(bone.py / resolution) : 0;
+                col[(c + 2) * n + f] = valid ? Math.round(bone.pz / resolution) : 0;
+                if ( valid )
+                {
+                    ArchiveFormat.quantiseRotation(bone, col, (c + 3) * n + f, n);
+                }
+                else
+                {
+                    col[(c + 3) * n + f] = 0; // identity
+                    col[(c + 4) * n + f] = 0;
+                    col[(c + 5) * n + f] = 0;
+                    col[(c + 6) * n + f] = 3;
+                }
+                col[(c + 7) * n + f] = (valid && bone.tracked) ? 1 : 0;
+                c += ArchiveFormat.BONE_COLUMNS;
+            }
+        }
+
+        final int[] col = block.columns[markers.length];
+        int c = 0;
+        for ( Channel[] deviceChannels : channels )
+        {
+            for ( Channel channel : deviceChannels )
+            {
+                col[c++ * n + f] = (channel != null) ? Float.floatToIntBits(channel.value) : 0;
+            }
+        }
+    }
+
+
+    private void writeFileHeader(byte[] header) throws IOException
+    {
+        out.write(header);
+        offset += header.length;
+
+        deflater  = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        blockData = new ByteArrayOutputStream();
+        buffer    = new byte[65536];
+        int maxColumns = 2;
+        for ( int c : columnCounts ) maxColumns = Math.max(maxColumns, c);
+        raw = new byte[maxColumns * blockFrames * ArchiveFormat.MAX_VARINT];
+        chunkLengths = new int[columnCounts.length];
+    }
+
+
+    /**
+     * Encodes, compresses and writes a block.
+     *
+     * @param block the block to write
+     *
+     * @throws IOException if the block can't be written
+     */
+    private void writeBlock(Block block) throws IOException
+    {
+        final int count = block.count;
+        blockData.reset();
+
+        // time chunk: frame numbers, then timestamps
+        int length = 0;
+        long previous = 0;
+        for ( int f = 0 ; f < count ; f++ )
+        {
+            length   = ArchiveFormat.writeVarLong(block.frameNumbers[f] - previous, raw, length);
+            previous = block.frameNumbers[f];
+        }
+        previous = 0;
+        for ( int f = 0 ; f < count ; f++ )
+        {
+            length   = ArchiveFormat.writeVarLong(block.timestamps[f] - previous, raw, length);
+            previous = block.timestamps[f];
+        }
+        final int timeLength = compress(length);
+
+        // actor chunks and device chunk: column by column
+        for ( int a = 0 ; a < columnCounts.length ; a++ )
+        {
+            final int[] col = block.columns[a];
+            length = 0;
+            for ( int c = 0 ; c < columnCounts[a] ; c++ )
+            {
+                int prev = 0;
+                for ( int f = 0 ; f < count ; f++ )
+                {
+                    final int value = col[c * blockFrames + f];
+                    length = ArchiveFormat.writeVarLong((long) value - prev, raw, length);
+                    prev   = value;
+                }
+            }
+            chunkLengths[a] = compress(length);
+        }
+
+        index.add(new BlockInfo(offset, count, block.frameNumbers[0],
+                                block.timestamps[0], block.timestamps[count - 1]));
+
+        out.writeInt(count);
+        out.writeInt(timeLength);
+        for ( int chunkLength : chunkLengths ) out.writeInt(chunkLength);
+        blockData.writeTo(out);
+        offset += 8 + 4 * chunkLengths.length + blockData.size();
+    }
+
+
+    /**
+     * Compresses the encoded columns and appends them to the block data.
+     *
+     * @param length the number of encoded bytes
+     *
+     * @return the compressed length
+     */
+    private int compress(int length)
+    {
+        final int start = blockData.size();
+        deflater.reset();
+        deflater.setInput(raw, 0, length);
+        deflater.finish();
+        while ( !deflater.finished() )
+        {
+            blockData.write(buffer, 0, deflater.deflate(buffer));
+        }
+        return blockData.size() - start;
+    }
+
+
+    private void writeIndex() throws IOException
+    {
+        final long indexOffset = offset;
+        out.writeInt(index.size());
+        for ( BlockInfo info : index )
+        {
+            out.writeLong(info.offset);
+            out.writeInt(info.frameCount);
+            out.writeInt(info.firstFrame);
+            out.writeLong(info.firstTime);
+            out.writeLong(info.lastTime);
+        }
+        out.writeLong(indexOffset);
+        out.writeInt(ArchiveFormat.MAGIC);
+        deflater.end();
+    }
+
+
+    /**
+     * Class for the quantised values of a block of frames, column by column.
+     */
+    private class Block
+    {
+        public Block()
+        {
+            frameNumbers = new int[blockFrames];
+            timestamps   = new long[blockFrames];
+            columns      = new int[columnCounts.length][];
+            for ( int a = 0 ; a < columns.length ; a++ )
+            {
+                columns[a] = new int[columnCounts[a] * blockFrames];
+            }
+        }
+
+
+        public final int[]   frameNumbers;
+        public final long[]  timestamps;
+        public final int[][] columns;
+        public       int     count;
+    }
+
+
+    /**
+     * Class for an entry of the block index.
+     */
+    private static class BlockInfo
+    {
+        public BlockInfo(long offset, int frameCount, int firstFrame, long firstTime, long lastTime)
+        {
+            this.offset     = offset;
+            this.frameCount = frameCount;
+            this.firstFrame = firstFrame;
+            this.firstTime  = firstTime;
+            this.lastTime   = lastTime;
+        }
+
+
+        public final long offset;
+        public final int  frameCount, firstFrame;
+        public final long firstTime, lastTime;
+    }
+
+
+    private final    File                            file;
+    private final    int                             blockFrames;
+    private final    float                           resolution;
+    private final    DataOutputStream                out;
+    private final    List<BlockInfo>                 index;
+    private final    BackgroundWriter<byte[], Block> writer;
+    private volatile boolean                         ready, closed;
+    private volatile int                             frameCount, droppedCount;
+
+    // layout, guarded by the scene lock
+    private String[]    actorNames, deviceNames;
+    private String[][]  markerNames, boneNames, channelNames;
+    private Marker[][]  markers;
+    private Bone[][]    bones;
+    private Channel[][] channels;
+    private int[]       columnCounts; // per actor, then for all devices
+    private Block       current;
+    private volatile Scene scene;     // the recorded scene
+
+    // writer thread only
+    private long                  offset;
+    private Deflater              deflater;
+    private ByteArrayOutputStream blockData;
+    private byte[]                buffer, raw;
+    private int[]                 chunkLengths;
+
+    private final static int    MAX_BLOCKS  = 4;           // blocks in flight
+    private final static int    BUFFER_SIZE = 1024 * 1024; // bytes of the file buffer
+
+    /** default number of frames per block */
+    public final static int   DEFAULT_BLOCK_FRAMES = 256;
+    /** default resolution of positions: 0.1mm */
+    public final static float DEFAULT_RESOLUTION   = 0.0001f;
+}
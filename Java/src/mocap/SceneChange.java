@@ -0,0 +1,239 @@
+package mocap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Class for the difference between two model definitions of a scene.
+ * <p>
+ * Actors and devices are matched by name.
+ * If the structure of an element is the same in both definitions
+ * (ID, marker names, bone names, IDs, parents and offsets, channel names),
+ * the existing object is kept in the scene, including its current data.
+ * Otherwise, the element is replaced by a new object and listed as modified.
+ * Modified and added lists contain the new objects,
+ * removed lists contain the objects that are no longer part of the scene.
+ *
+ * @author  Stefan Marks
+ */
+public final class SceneChange
+{
+    public final List<Actor>  addedActors;     // actors that are new in the scene
+    public final List<Actor>  removedActors;   // actors that are no longer in the scene
+    public final List<Actor>  modifiedActors;  // actors that have been replaced
+    public final List<Device> addedDevices;    // devices that are new in the scene
+    public final List<Device> removedDevices;  // devices that are no longer in the scene
+    public final List<Device> modifiedDevices; // devices that have been replaced
+
+
+    private SceneChange(List<Actor> addedActors, List<Actor> removedActors, List<Actor> modifiedActors,
+                        List<Device> addedDevices, List<Device> removedDevices, List<Device> modifiedDevices)
+    {
+        this.addedActors     = Collections.unmodifiableList(addedActors);
+        this.removedActors   = Collections.unmodifiableList(removedActors);
+        this.modifiedActors  = Collections.unmodifiableList(modifiedActors);
+        this.addedDevices    = Collections.unmodifiableList(addedDevices);
+        this.removedDevices  = Collections.unmodifiableList(removedDevices);
+        this.modifiedDevices = Collections.unmodifiableList(modifiedDevices);
+    }
+
+
+    /**
+     * Creates a change set that lists every element of a scene as added,
+     * e.g., for a listener that has just been registered.
+     * Has to be called with the lock of the scene held.
+     *
+     * @param scene the scene
+     *
+     * @return the change set
+     */
+    static SceneChange allAdded(Scene scene)
+    {
+        List<Actor>  noActors  = Collections.emptyList();
+        List<Device> noDevices = Collections.emptyList();
+        return new SceneChange(
+                new ArrayList<>(Arrays.asList(scene.actors)), noActors, noActors,
+                new ArrayList<>(Arrays.asList(scene.devices)), noDevices, noDevices);
+    }
+
+
+    /**
+     * Compares a new model definition with the current structure of a scene.
+     * Elements of the new definition that have not changed
+     * are replaced in the arrays by the existing objects of the scene.
+     * Has to be called with the lock of the scene held.
+     *
+     * @param scene    the scene with the current structure
+     * @param actors   the actors of the new definition (modified in place)
+     * @param devices  the devices of the new definition (modified in place)
+     *
+     * @return the change set
+     */
+    static SceneChange compare(Scene scene, Actor[] actors, Device[] devices)
+    {
+        List<Actor> addedActors    = new ArrayList<>();
+        List<Actor> modifiedActors = new ArrayList<>();
+        boolean[]   keptActors     = new boolean[scene.actors.length];
+        for ( int idx = 0 ; idx < actors.length ; idx++ )
+        {
+            int oldIdx = findUnused(scene.actors, keptActors, actors[idx].name);
+            if ( oldIdx < 0 )
+            {
+                addedActors.add(actors[idx]);
+                continue;
+            }
+            keptActors[oldIdx] = true;
+            if ( isSameStructure(scene.actors[oldIdx], actors[idx]) )
+            {
+                actors[idx] = scene.actors[oldIdx];
+            }
+            else
+            {
+                modifiedActors.add(actors[idx]);
+            }
+        }
+        List<Actor> removedActors = new ArrayList<>();
+        for ( int oldIdx = 0 ; oldIdx < keptActors.length ; oldIdx++ )
+        {
+            if ( !keptActors[oldIdx] ) removedActors.add(scene.actors[oldIdx]);
+        }
+
+        List<Device> addedDevices    = new ArrayList<>();
+        List<Device> modifiedDevices = new ArrayList<>();
+        boolean[]    keptDevices     = new boolean[scene.devices.length];
+        for ( int idx = 0 ; idx < devices.length ; idx++ )
+        {
+            int oldIdx = findUnused(scene.devices, keptDevices, devices[idx].name);
+            if ( oldIdx < 0 )
+            {
+                addedDevices.add(devices[idx]);
+                continue;
+            }
+            keptDevices[oldIdx] = true;
+            if ( isSameStructure(scene.devices[oldIdx], devices[idx]) )
+            {
+                devices[idx] = scene.devices[oldIdx];
+            }
+            else
+            {
+                modifiedDevices.add(devices[idx]);
+            }
+        }
+        List<Device> removedDevices = new ArrayList<>();
+        for ( int oldIdx = 0 ; oldIdx < keptDevices.length ; oldIdx++ )
+        {
+            if ( !keptDevices[oldIdx] ) removedDevices.add(scene.devices[oldIdx]);
+        }
+
+        return new SceneChange(addedActors, removedActors, modifiedActors,
+                               addedDevices, removedDevices, modifiedDevices);
+    }
+
+
+    /**
+     * Checks if the change set is empty.
+     *
+     * @return <code>true</code> if the structure of the scene has not changed,
+     *         <code>false</code> if any element was added, removed or modified
+     */
+    public boolean isEmpty()
+    {
+        return addedActors.isEmpty()  && removedActors.isEmpty()  && modifiedActors.isEmpty() &&
+               addedDevices.isEmpty() && removedDevices.isEmpty() && modifiedDevices.isEmpty();
+    }
+
+
+    /**
+     * Checks if an actor is new, i.e., has been added or modified.
+     * Listeners only need to rebuild their state for those actors.
+     *
+     * @param actor  the actor to check
+     *
+     * @return <code>true</code> if the actor is new in the scene,
+     *         <code>false</code> if it existed before
+     */
+    public boolean isNew(Actor actor)
+    {
+        return addedActors.contains(actor) || modifiedActors.contains(actor);
+    }
+
+
+    /**
+     * Checks if a device is new, i.e., has been added or modified.
+     *
+     * @param device  the device to check
+     *
+     * @return <code>true</code> if the device is new in the scene,
+     *         <code>false</code> if it existed before
+     */
+    public boolean isNew(Device device)
+    {
+        return addedDevices.contains(device) || modifiedDevices.contains(device);
+    }
+
+
+    @Override
+    public String toString()
+    {
+        return "SceneChange[actors +" + addedActors.size() + " -" + removedActors.size() +
+               " ~" + modifiedActors.size() + ", devices +" + addedDevices.size() +
+               " -" + removedDevices.size() + " ~" + modifiedDevices.size() + "]";
+    }
+
+
+    private static int findUnused(Actor[] actors, boolean[] used, String name)
+    {
+        for ( int idx = 0 ; idx < actors.length ; idx++ )
+        {
+            if ( !used[idx] && actors[idx].name.equals(name) ) return idx;
+        }
+        return -1;
+    }
+
+
+    private static int findUnused(Device[] devices, boolean[] used, String name)
+    {
+        for ( int idx = 0 ; idx < devices.length ; idx++ )
+        {
+            if ( !used[idx] && devices[idx].name.equals(name) ) return idx;
+        }
+        return -1;
+    }
+
+
+    private static boolean isSameStructure(Actor a, Actor b)
+    {
+        if ( (a.id != b.id) ||
+             (a.markers.length != b.markers.length) ||
+             (a.bones.length   != b.bones.length) ) return false;
+
+        for ( int idx = 0 ; idx < a.markers.length ; idx++ )
+        {
+            if ( !a.markers[idx].name.equals(b.markers[idx].name) ) return false;
+        }
+        for ( int idx = 0 ; idx < a.bones.length ; idx++ )
+        {
+            final Bone boneA = a.bones[idx];
+            final Bone boneB = b.bones[idx];
+            final int  parentA = (boneA.parent != null) ? boneA.parent.id : -1;
+            final int  parentB = (boneB.parent != null) ? boneB.parent.id : -1;
+            if ( !boneA.name.equals(boneB.name) || (boneA.id != boneB.id) || (parentA != parentB) ||
+                 (boneA.ox != boneB.ox) || (boneA.oy != boneB.oy) || (boneA.oz != boneB.oz) ) return false;
+        }
+        return true;
+    }
+
+
+    private static boolean isSameStructure(Device a, Device b)
+    {
+        if ( (a.id != b.id) || (a.channels.length != b.channels.length) ) return false;
+
+        for ( int idx = 0 ; idx < a.channels.length ; idx++ )
+        {
+            if ( !a.channels[idx].name.equals(b.channels[idx].name) ) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,23 @@
+package mocap;
+
+/**
+ * Interface for scene listeners that want to know exactly
+ * which elements a new scene definition has changed.
+ * <p>
+ * Listeners implementing this interface receive
+ * {@link #sceneChanged(Scene, SceneChange)} instead of {@link #sceneChanged(Scene)},
+ * so they can keep their state for the actors and devices that are unchanged.
+ *
+ * @author  Stefan Marks
+ */
+public interface SceneChangeListener extends SceneListener
+{
+    /**
+     * Called when the scene has changed because of a new scene definition.
+     * When the listener is registered, all existing elements are reported as added.
+     *
+     * @param scene   the scene that has been changed
+     * @param change  the elements that have been added, removed or modified
+     */
+    void sceneChanged(Scene scene, SceneChange change);
+}
@@ -0,0 +1,78 @@
+package mocap;
+
+/**
+ * Helper class for copying the structure of actors and devices into another scene.
+ * <p>
+ * The copies have the same markers, bones (with their hierarchy and offsets) and channels,
+ * but no values yet.
+ *
+ * @author  Stefan Marks
+ *
+ * @see ParallelActorDispatcher
+ * @see SceneAggregator
+ */
+final class SceneStructure
+{
+    private SceneStructure()
+    {
+        // static methods only
+    }
+
+
+    /**
+     * Copies the structure of an actor.
+     *
+     * @param scene  the scene the copy belongs to
+     * @param actor  the actor to copy
+     * @param name   the name of the copy
+     * @param id     the ID of the copy
+     *
+     * @return the copy of the actor
+     */
+    static Actor copyActor(Scene scene, Actor actor, String name, int id)
+    {
+        final Actor copy = new Actor(scene, name, id);
+        copy.markers = new Marker[actor.markers.length];
+        for ( int idx = 0 ; idx < copy.markers.length ; idx++ )
+        {
+            copy.markers[idx] = new Marker(copy, actor.markers[idx].name);
+        }
+        copy.bones = new Bone[actor.bones.length];
+        for ( int idx = 0 ; idx < copy.bones.length ; idx++ )
+        {
+            final Bone bone = actor.bones[idx];
+            Bone b = new Bone(copy, bone.name, bone.id);
+            if ( bone.parent != null )
+            {
+                b.parent = copy.findBone(bone.parent.id);
+                if ( b.parent != null ) b.parent.children.add(b);
+            }
+            b.buildChain();
+            b.ox = bone.ox; b.oy = bone.oy; b.oz = bone.oz;
+            copy.bones[idx] = b;
+        }
+        return copy;
+    }
+
+
+    /**
+     * Copies the structure of a device.
+     *
+     * @param scene   the scene the copy belongs to
+     * @param device  the device to copy
+     * @param name    the name of the copy
+     * @param id      the ID of the copy
+     *
+     * @return the copy of the device
+     */
+    static Device copyDevice(Scene scene, Device device, String name, int id)
+    {
+        final Device copy = new Device(scene, name, id);
+        copy.channels = new Channel[device.channels.length];
+        for ( int idx = 0 ; idx < copy.channels.length ; idx++ )
+        {
+            copy.channels[idx] = new Channel(copy, device.channels[idx].name);
+        }
+        return copy;
+    }
+}
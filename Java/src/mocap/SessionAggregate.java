@@ -0,0 +1,39 @@
+package mocap;
+
+/**
+ * Interface for a result that is accumulated over the frames of a recorded session,
+ * e.g., the range of motion of each bone.
+ * <p>
+ * {@link SessionAnalyzer} accumulates separate aggregates for consecutive chunks
+ * of the session in parallel and merges them afterwards,
+ * so the result must not depend on how the session is split.
+ *
+ * @param <A> the type of the aggregate
+ *
+ * @author  Stefan Marks
+ */
+public interface SessionAggregate<A extends SessionAggregate<A>>
+{
+    /**
+     * Creates an empty aggregate with the same settings as this one.
+     *
+     * @return the new aggregate
+     */
+    A create();
+
+
+    /**
+     * Adds a frame to the aggregate.
+     *
+     * @param scene the scene with the data of the frame
+     */
+    void addFrame(Scene scene);
+
+
+    /**
+     * Merges the aggregate of the chunk that directly follows the chunk of this aggregate.
+     *
+     * @param following the aggregate of the following chunk
+     */
+    void merge(A following);
+}
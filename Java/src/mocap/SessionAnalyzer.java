@@ -0,0 +1,175 @@
+package mocap;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Class for analysing a recorded session offline and in parallel.
+ * <p>
+ * The blocks of a {@link SceneArchiveWriter} archive are split into chunks,
+ * which are decoded and aggregated by the threads of a fork/join pool,
+ * each with its own reader.
+ * The chunk aggregates are then merged in time order.
+ * <p>
+ * Example: tracking quality of a whole session
+ * <pre>
+ * SessionAnalyzer analyzer = new SessionAnalyzer(new File("session.mca"));
+ * TrackingQuality quality  = analyzer.analyze(new TrackingQuality());
+ * System.out.println(quality);
+ * </pre>
+ *
+ * @author  Stefan Marks
+ */
+public class SessionAnalyzer
+{
+    /**
+     * Creates an analyzer that uses the common fork/join pool.
+     *
+     * @param archive  the archive of the session
+     */
+    public SessionAnalyzer(File archive)
+    {
+        this(archive, ForkJoinPool.commonPool());
+    }
+
+
+    /**
+     * Creates an analyzer.
+     *
+     * @param archive  the archive of the session
+     * @param pool     the fork/join pool to run the analysis in
+     */
+    public SessionAnalyzer(File archive, ForkJoinPool pool)
+    {
+        this.archive = archive;
+        this.pool    = pool;
+    }
+
+
+    /**
+     * Analyses the whole session.
+     *
+     * @param <A>        the type of the aggregate
+     * @param prototype  an empty aggregate, which creates the aggregates of the chunks
+     *
+     * @return the aggregate of the session
+     *
+     * @throws IOException if the archive can't be read
+     */
+    public <A extends SessionAggregate<A>> A analyze(A prototype) throws IOException
+    {
+        return analyze(prototype, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+    }
+
+
+    /**
+     * Analyses a time range of the session.
+     *
+     * @param <A>        the type of the aggregate
+     * @param prototype  an empty aggregate, which creates the aggregates of the chunks
+     * @param startTime  the first timestamp to analyse in seconds
+     * @param endTime    the last timestamp to analyse in seconds
+     *
+     * @return the aggregate of the time range
+     *
+     * @throws IOException if the archive can't be read
+     */
+    public <A extends SessionAggregate<A>> A analyze(A prototype, double startTime, double endTime) throws IOException
+    {
+        final int firstBlock, endBlock;
+        try ( SceneArchiveReader reader = new SceneArchiveReader(archive) )
+        {
+            firstBlock = reader.findBlock(startTime);
+            endBlock   = Math.min(reader.findBlock(endTime) + 1, reader.getBlockCount());
+        }
+        final int blocks = endBlock - firstBlock;
+        if ( blocks <= 0 ) return prototype.create();
+
+        // a few chunks per thread, so uneven chunks are balanced
+        final int chunkBlocks = Math.max(MIN_CHUNK_BLOCKS, blocks / (pool.getParallelism() * 4));
+        try
+        {
+            return pool.invoke(new ChunkTask<>(prototype, firstBlock, endBlock, chunkBlocks, startTime, endTime));
+        }
+        catch (UncheckedIOException e)
+        {
+            throw e.getCause();
+        }
+    }
+
+
+    /**
+     * Class for the analysis of a range of blocks.
+     * Large ranges are split in half, small ranges are decoded.
+     */
+    private class ChunkTask<A extends SessionAggregate<A>> extends RecursiveTask<A>
+    {
+        public ChunkTask(A prototype, int firstBlock, int endBlock, int chunkBlocks,
+                         double startTime, double endTime)
+        {
+            this.prototype   = prototype;
+            this.firstBlock  = firstBlock;
+            this.endBlock    = endBlock;
+            this.chunkBlocks = chunkBlocks;
+            this.startTime   = startTime;
+            this.endTime     = endTime;
+        }
+
+
+        @Override
+        protected A compute()
+        {
+            if ( endBlock - firstBlock > chunkBlocks )
+            {
+                final int middle = (firstBlock + endBlock) >>> 1;
+                ChunkTask<A> first  = new ChunkTask<>(prototype, firstBlock, middle, chunkBlocks, startTime, endTime);
+                ChunkTask<A> second = new ChunkTask<>(prototype, middle, endBlock, chunkBlocks, startTime, endTime);
+                first.fork();
+                A secondResult = second.compute();
+                A result       = first.join();
+                result.merge(secondResult);
+                return result;
+            }
+
+            final A result = prototype.create();
+            try ( SceneArchiveReader reader = new SceneArchiveReader(archive) )
+            {
+                reader.readScene(firstBlock, endBlock, startTime, endTime, new SceneListener()
+                {
+                    @Override
+                    public void sceneUpdated(Scene scene)
+                    {
+                        result.addFrame(scene);
+                    }
+
+                    @Override
+                    public void sceneChanged(Scene scene)
+                    {
+                        // the structure of an archive doesn't change
+                    }
+                });
+            }
+            catch (IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+            return result;
+        }
+
+
+        private final A      prototype;
+        private final int    firstBlock, endBlock, chunkBlocks;
+        private final double startTime, endTime;
+
+        private final static long serialVersionUID = 1L;
+    }
+
+
+    private final File         archive;
+    private final ForkJoinPool pool;
+
+    private final static int MIN_CHUNK_BLOCKS = 4;
+}
@@ -0,0 +1,31 @@
+package mocap;
+
+/**
+ * Interface for listening to events in the data stream.
+ *
+ * @author  Stefan Marks
+ */
+public interface StreamListener
+{
+    /**
+     * Called when the frame numbers of the stream jump,
+     * e.g., because a recording is played back in a loop
+     * or the server has been restarted.
+     *
+     * @param lastFrameNumber  the number of the last frame before the jump
+     * @param frameNumber      the number of the first frame after the jump
+     */
+    void streamDiscontinuity(int lastFrameNumber, int frameNumber);
+
+
+    /**
+     * Called when the connection to the server has been lost
+     * or has been restored by the automatic reconnection.
+     *
+     * @param connected  <code>true</code> if the client has reconnected,
+     *                   <code>false</code> if the connection has been lost
+     *
+     * @see NatNetClient#setAutoReconnect(boolean)
+     */
+    void connectionChanged(boolean connected);
+}
@@ -0,0 +1,121 @@
+package mocap;
+
+/**
+ * Class for counting what happens to the frames of a data stream.
+ * The counters are updated by the receiver thread of the client.
+ *
+ * @author  Stefan Marks
+ */
+public class StreamStatistics
+{
+    /**
+     * Creates a new set of counters.
+     */
+    public StreamStatistics()
+    {
+        reset();
+    }
+
+
+    /**
+     * Resets all counters to zero.
+     */
+    public final void reset()
+    {
+        framesReceived  = 0;
+        framesReordered = 0;
+        framesDuplicate = 0;
+        framesLate      = 0;
+        framesLost      = 0;
+        discontinuities = 0;
+    }
+
+
+    /**
+     * Gets the number of frame packets received from the stream.
+     *
+     * @return the number of received frames
+     */
+    public long getFramesReceived()
+    {
+        return framesReceived;
+    }
+
+
+    /**
+     * Gets the number of frames that arrived after a later frame,
+     * but still in time to be released in order.
+     *
+     * @return the number of reordered frames
+     */
+    public long getFramesReordered()
+    {
+        return framesReordered;
+    }
+
+
+    /**
+     * Gets the number of frames that were dropped because they were received twice.
+     *
+     * @return the number of duplicate frames
+     */
+    public long getFramesDuplicate()
+    {
+        return framesDuplicate;
+    }
+
+
+    /**
+     * Gets the number of frames that were dropped because they arrived
+     * after the reorder window had already moved past them.
+     *
+     * @return the number of late frames
+     */
+    public long getFramesLate()
+    {
+        return framesLate;
+    }
+
+
+    /**
+     * Gets the number of frames that were skipped because they didn't arrive in time.
+     *
+     * @return the number of lost frames
+     */
+    public long getFramesLost()
+    {
+        return framesLost;
+    }
+
+
+    /**
+     * Gets the number of jumps in the frame numbers,
+     * e.g., because playback has looped.
+     *
+     * @return the number of discontinuities
+     */
+    public long getDiscontinuities()
+    {
+        return discontinuities;
+    }
+
+
+    @Override
+    public String toString()
+    {
+        return "received="    + framesReceived  +
+               ", reordered=" + framesReordered +
+               ", duplicate=" + framesDuplicate +
+               ", late="      + framesLate      +
+               ", lost="      + framesLost      +
+               ", discontinuities=" + discontinuities;
+    }
+
+
+    volatile long framesReceived;
+    volatile long framesReordered;
+    volatile long framesDuplicate;
+    volatile long framesLate;
+    volatile long framesLost;
+    volatile long discontinuities;
+}
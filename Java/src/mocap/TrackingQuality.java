@@ -0,0 +1,200 @@
+package mocap;
+
+/**
+ * Class for determining the tracking quality of each marker and bone over a session:
+ * the ratio of tracked frames and the longest gap in frames.
+ *
+ * @author  Stefan Marks
+ *
+ * @see SessionAnalyzer
+ */
+public class TrackingQuality implements SessionAggregate<TrackingQuality>
+{
+    /**
+     * Creates an empty tracking quality report.
+     */
+    public TrackingQuality()
+    {
+        markers = null;
+        bones   = null;
+        frames  = 0;
+    }
+
+
+    @Override
+    public TrackingQuality create()
+    {
+        return new TrackingQuality();
+    }
+
+
+    @Override
+    public void addFrame(Scene scene)
+    {
+        if ( markers == null ) layout(scene);
+
+        // markers first, then bones
+        int markerIdx = 0;
+        int boneIdx   = markers.size();
+        for ( Actor actor : scene.actors )
+        {
+            for ( Marker marker : actor.markers )
+            {
+                add(markerIdx++, marker.tracked);
+            }
+            for ( Bone bone : actor.bones )
+            {
+                add(boneIdx++, bone.tracked);
+            }
+        }
+        frames++;
+    }
+
+
+    @Override
+    public void merge(TrackingQuality following)
+    {
+        if ( following.markers == null ) return;
+        if ( markers == null )
+        {
+            markers  = following.markers;
+            bones    = following.bones;
+            tracked  = following.tracked;
+            longest  = following.longest;
+            leading  = following.leading;
+            trailing = following.trailing;
+            frames   = following.frames;
+            return;
+        }
+        for ( int idx = 0 ; idx < tracked.length ; idx++ )
+        {
+            // a gap can span the border between the chunks
+            longest[idx] = Math.max(Math.max(longest[idx], following.longest[idx]),
+                                    trailing[idx] + following.leading[idx]);
+            if ( tracked[idx] == 0 )
+            {
+                leading[idx] = frames + following.leading[idx];
+            }
+            trailing[idx] = (following.tracked[idx] == 0) ?
+                    trailing[idx] + following.frames :
+                    following.trailing[idx];
+            tracked[idx] += following.tracked[idx];
+        }
+        frames += following.frames;
+    }
+
+
+    /**
+     * Gets the number of frames in the report.
+     *
+     * @return the number of frames
+     */
+    public int getFrameCount()
+    {
+        return frames;
+    }
+
+
+    /**
+     * Gets the ratio of frames in which a marker or bone was tracked.
+     * If a bone and a marker of the actor have the same name, the bone is used.
+     *
+     * @param actor    the name of the actor
+     * @param element  the name of the marker or bone
+     *
+     * @return the ratio (0...1) or -1 if there is no such marker or bone
+     */
+    public float getTrackedRatio(String actor, String element)
+    {
+        final int idx = find(actor, element);
+        return (idx < 0) ? -1 : (frames > 0) ? tracked[idx] / (float) frames : 0;
+    }
+
+
+    /**
+     * Gets the longest number of consecutive frames in which a marker or bone was not tracked.
+     * If a bone and a marker of the actor have the same name, the bone is used.
+     *
+     * @param actor    the name of the actor
+     * @param element  the name of the marker or bone
+     *
+     * @return the number of frames or -1 if there is no such marker or bone
+     */
+    public int getLongestGap(String actor, String element)
+    {
+        final int idx = find(actor, element);
+        return (idx < 0) ? -1 : longest[idx];
+    }
+
+
+    @Override
+    public String toString()
+    {
+        StringBuilder s = new StringBuilder("element,tracked,longestGap\n");
+        if ( markers == null ) return s.toString();
+        for ( int idx = 0 ; idx < tracked.length ; idx++ )
+        {
+            s.append((idx < markers.size()) ? markers.getName(idx) : bones.getName(idx - markers.size()))
+             .append(',').append(tracked[idx] / (float) frames)
+             .append(',').append(longest[idx])
+             .append('\n');
+        }
+        return s.toString();
+    }
+
+
+    private void layout(Scene scene)
+    {
+        markers = new ElementIndex();
+        bones   = new ElementIndex();
+        for ( Actor actor : scene.actors )
+        {
+            for ( Marker marker : actor.markers )
+            {
+                markers.add(actor.name, marker.name);
+            }
+            for ( Bone bone : actor.bones )
+            {
+                bones.add(actor.name, bone.name);
+            }
+        }
+        final int count = markers.size() + bones.size();
+        tracked  = new int[count];
+        longest  = new int[count];
+        leading  = new int[count];
+        trailing = new int[count];
+    }
+
+
+    private void add(int idx, boolean isTracked)
+    {
+        if ( isTracked )
+        {
+            tracked[idx]++;
+            trailing[idx] = 0;
+        }
+        else
+        {
+            if ( tracked[idx] == 0 ) leading[idx]++;
+            trailing[idx]++;
+            longest[idx] = Math.max(longest[idx], trailing[idx]);
+        }
+    }
+
+
+    private int find(String actor, String element)
+    {
+        if ( markers == null ) return -1;
+        final int boneIdx = bones.find(actor, element);
+        return (boneIdx >= 0) ? markers.size() + boneIdx : markers.find(actor, element);
+    }
+
+
+    private ElementIndex markers;  // markers, in front of the bones in the arrays
+    private ElementIndex bones;
+    private int[]        tracked;  // number of tracked frames
+    private int[]        longest;  // longest gap
+    private int[]        leading;  // gap at the start of the chunk
+    private int[]        trailing; // gap at the end of the chunk
+    private int          frames;
+}
@@ -0,0 +1,45 @@
+package mocap;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Strategies for a thread that waits for work, e.g., a stage of the receive pipeline.
+ * The strategies trade CPU usage for the delay until the work is picked up.
+ *
+ * @author  Stefan Marks
+ */
+public enum WaitStrategy
+{
+    /** spin briefly, then sleep until woken up: lowest CPU usage */
+    BLOCKING,
+    /** spin briefly, then give the processor to other threads */
+    YIELDING,
+    /** spin without ever giving up the processor: lowest delay, occupies one core */
+    BUSY_SPIN;
+
+
+    /**
+     * Waits a little, called repeatedly as long as there is nothing to do.
+     *
+     * @param iteration  the number of calls since there was the last work
+     * @param maxPark    the maximum time to sleep in nanoseconds (only for {@link #BLOCKING})
+     */
+    void idle(int iteration, long maxPark)
+    {
+        if ( (this == BUSY_SPIN) || (iteration < SPIN_TRIES) )
+        {
+            Thread.onSpinWait();
+        }
+        else if ( this == YIELDING )
+        {
+            Thread.yield();
+        }
+        else
+        {
+            LockSupport.parkNanos(this, maxPark);
+        }
+    }
+
+
+    private final static int SPIN_TRIES = 100;
+}
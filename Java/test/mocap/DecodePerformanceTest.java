@@ -0,0 +1,303 @@
+package mocap;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.util.BitSet;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Regression tests for the allocation and latency of the decode path.
+ * <p>
+ * The client is connected to a {@link SyntheticServer} on the loopback interface.
+ * Each frame is measured on the thread that receives it,
+ * from the raw packet listener to the scene listener:
+ * the bytes allocated by that thread and its CPU time,
+ * so that the limits don't depend on other threads and processes on the test machine.
+ * The first frames are not measured, so class loading and compilation don't count.
+ *
+ * @author  Stefan Marks
+ */
+public class DecodePerformanceTest
+{
+    @Before
+    public void setUp()
+    {
+        server = null;
+        client = null;
+    }
+
+
+    @After
+    public void tearDown()
+    {
+        if ( client != null ) client.disconnect();
+        if ( server != null ) server.close();
+    }
+
+
+    /**
+     * Decoding a frame into an existing scene must not allocate per marker or bone.
+     *
+     * @throws Exception if the test fails to run
+     */
+    @Test
+    public void testAllocationPerFrame() throws Exception
+    {
+        Assume.assumeTrue("Thread allocation counters not supported", 
+                (THREAD_COUNTERS != null) && THREAD_COUNTERS.isThreadAllocatedMemorySupported());
+        THREAD_COUNTERS.setThreadAllocatedMemoryEnabled(true);
+
+        final DecodeProbe probe = measure(LARGE_SKELETONS, LARGE_BONES, MEASURED_FRAMES, RATE);
+        assertTrue("No frames measured", probe.getFrameCount() > 0);
+        assertTrue("Average allocation per frame: " + probe.getAverageAllocation() + " bytes",
+                probe.getAverageAllocation() <= MAX_BYTES_PER_FRAME);
+    }
+
+
+    /**
+     * Decoding a small scene must stay within its time limit.
+     *
+     * @throws Exception if the test fails to run
+     */
+    @Test
+    public void testDecodeTimeSmallScene() throws Exception
+    {
+        Assume.assumeTrue("Thread CPU time not supported", THREADS.isCurrentThreadCpuTimeSupported());
+        final DecodeProbe probe = measure(SMALL_SKELETONS, SMALL_BONES, MEASURED_FRAMES, RATE);
+        assertTrue("No frames measured", probe.getFrameCount() > 0);
+        assertTrue("Maximum decode time: " + probe.getMaxTime() / 1000 + " us",
+                probe.getMaxTime() <= MAX_DECODE_TIME_SMALL);
+    }
+
+
+    /**
+     * Decoding a large scene must stay within its time limit.
+     *
+     * @throws Exception if the test fails to run
+     */
+    @Test
+    public void testDecodeTimeLargeScene() throws Exception
+    {
+        Assume.assumeTrue("Thread CPU time not supported", THREADS.isCurrentThreadCpuTimeSupported());
+        final DecodeProbe probe = measure(LARGE_SKELETONS, LARGE_BONES, MEASURED_FRAMES, RATE);
+        assertTrue("No frames measured", probe.getFrameCount() > 0);
+        assertTrue("Maximum decode time: " + probe.getMaxTime() / 1000 + " us",
+                probe.getMaxTime() <= MAX_DECODE_TIME_LARGE);
+    }
+
+
+    /**
+     * Every frame streamed at the target rate must reach the scene listeners.
+     *
+     * @throws Exception if the test fails to run
+     */
+    @Test
+    public void testNoFrameLoss() throws Exception
+    {
+        final DecodeProbe probe = measure(MEDIUM_SKELETONS, MEDIUM_BONES, LOSS_FRAMES, LOSS_RATE);
+        final int first = WARMUP_FRAMES + 1;
+        final int last  = server.getFrameNumber();
+        assertEquals("Frames lost", 0, probe.countMissing(first, last));
+    }
+
+
+    /**
+     * Connects a client to a synthetic server, warms up the decode path
+     * and measures a number of streamed frames.
+     *
+     * @param skeletons  the number of skeletons in the scene
+     * @param bones      the number of bones of each skeleton
+     * @param frames     the number of frames to measure
+     * @param rate       the frame rate in Hz
+     *
+     * @return the probe with the measurements
+     *
+     * @throws Exception if the stream fails
+     */
+    private DecodeProbe measure(int skeletons, int bones, int frames, int rate) throws Exception
+    {
+        server = new SyntheticServer(skeletons, bones);
+        client = new NatNetClient("DecodePerformanceTest", new byte[] { 1, 0, 0, 0 });
+        assertTrue("Could not connect to synthetic server", client.connect(InetAddress.getLoopbackAddress()));
+        assertEquals("Actors in scene", 1 + skeletons, client.getScene().actors.length);
+
+        final DecodeProbe probe = new DecodeProbe(WARMUP_FRAMES + frames);
+        client.addPacketListener(probe);
+        client.addSceneListener(probe);
+
+        server.stream(WARMUP_FRAMES, WARMUP_RATE);
+        assertTrue("Warmup frames not received", probe.awaitFrame(server.getFrameNumber(), TIMEOUT));
+        probe.reset();
+        server.stream(frames, rate);
+        probe.awaitFrame(server.getFrameNumber(), TIMEOUT);
+        return probe;
+    }
+
+
+    /**
+     * Class for measuring the decode path between the raw packet and the scene update.
+     * The measurement itself doesn't allocate once the per-thread state exists.
+     */
+    private static class DecodeProbe implements PacketListener, SceneListener
+    {
+        public DecodeProbe(int maxFrameNumber)
+        {
+            start = new ThreadLocal<long[]>()
+            {
+                @Override
+                protected long[] initialValue()
+                {
+                    return new long[3]; // valid, CPU time, allocated bytes
+                }
+            };
+            received = new BitSet(maxFrameNumber + 1);
+            reset();
+        }
+
+
+        public final synchronized void reset()
+        {
+            frames        = 0;
+            maxTime       = 0;
+            allocatedSum  = 0;
+        }
+
+
+        @Override
+        public void packetReceived(byte[] data, int offset, int length)
+        {
+            if ( data[offset] != NatNetClient.NAT_FRAMEOFDATA ) return;
+            final long[] s = start.get();
+            s[1] = cpuTime();
+            s[2] = allocatedBytes();
+            s[0] = 1;
+        }
+
+
+        @Override
+        public void sceneUpdated(Scene scene)
+        {
+            final long   allocated = allocatedBytes();
+            final long   time      = cpuTime();
+            final long[] s         = start.get();
+            final int    frameNumber;
+            synchronized(scene)
+            {
+                frameNumber = scene.frameNumber;
+            }
+
+            synchronized(this)
+            {
+                if ( s[0] != 0 )
+                {
+                    s[0] = 0;
+                    frames++;
+                    maxTime       = Math.max(maxTime, time - s[1]);
+                    allocatedSum += allocated - s[2];
+                }
+                if ( frameNumber < received.size() ) received.set(frameNumber);
+                lastFrame = frameNumber;
+                notifyAll();
+            }
+        }
+
+
+        @Override
+        public void sceneChanged(Scene scene)
+        {
+            // not measured
+        }
+
+
+        public synchronized boolean awaitFrame(int frameNumber, long timeout) throws InterruptedException
+        {
+            final long deadline = System.currentTimeMillis() + timeout;
+            long wait;
+            while ( (lastFrame < frameNumber) && ((wait = deadline - System.currentTimeMillis()) > 0) )
+            {
+                wait(wait);
+            }
+            return lastFrame >= frameNumber;
+        }
+
+
+        public synchronized int getFrameCount()
+        {
+            return frames;
+        }
+
+
+        public synchronized long getMaxTime()
+        {
+            return maxTime;
+        }
+
+
+        public synchronized long getAverageAllocation()
+        {
+            return (frames > 0) ? allocatedSum / frames : 0;
+        }
+
+
+        public synchronized int countMissing(int first, int last)
+        {
+            return (last - first + 1) - received.get(first, last + 1).cardinality();
+        }
+
+
+        private static long allocatedBytes()
+        {
+            return ((THREAD_COUNTERS != null) && THREAD_COUNTERS.isThreadAllocatedMemoryEnabled()) ?
+                    THREAD_COUNTERS.getThreadAllocatedBytes(Thread.currentThread().getId()) : 0;
+        }
+
+
+        private static long cpuTime()
+        {
+            return THREADS.isThreadCpuTimeEnabled() ? THREADS.getCurrentThreadCpuTime() : 0;
+        }
+
+
+        private final ThreadLocal<long[]> start;
+        private final BitSet              received;
+        private int                       frames, lastFrame;
+        private long                      maxTime, allocatedSum;
+    }
+
+
+    private SyntheticServer server;
+    private NatNetClient    client;
+
+    private final static ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    // allocation counters are an extension of the HotSpot JVM (null: not available)
+    private final static com.sun.management.ThreadMXBean THREAD_COUNTERS =
+            (THREADS instanceof com.sun.management.ThreadMXBean) ? (com.sun.management.ThreadMXBean) THREADS : null;
+
+    private final static int  WARMUP_FRAMES    = 2000;
+    private final static int  WARMUP_RATE      = 1000;  // Hz
+    private final static int  MEASURED_FRAMES  = 1000;
+    private final static int  RATE             = 500;   // Hz
+    private final static int  LOSS_FRAMES      = 1200;
+    private final static int  LOSS_RATE        = 240;   // Hz, fastest common capture rate
+    private final static long TIMEOUT          = 2000;  // ms
+
+    // scene sizes: skeletons and bones per skeleton
+    private final static int  SMALL_SKELETONS  = 1;
+    private final static int  SMALL_BONES      = 21;
+    private final static int  MEDIUM_SKELETONS = 4;
+    private final static int  MEDIUM_BONES     = 21;
+    private final static int  LARGE_SKELETONS  = 10;
+    private final static int  LARGE_BONES      = 51;
+
+    // limits of the decode path
+    // (a frame of the large scene has over 1000 markers and bones, so any allocation per element exceeds the byte limit)
+    private final static long MAX_BYTES_PER_FRAME   = 1024;
+    private final static long MAX_DECODE_TIME_SMALL = 1000000;  // ns CPU time
+    private final static long MAX_DECODE_TIME_LARGE = 5000000;  // ns CPU time
+}
@@ -3,6 +3,8 @@ package mocap;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.logging.Logger;
 
 public class MoCapTest_Console 
@@ -14,25 +16,24 @@ public class MoCapTest_Console
         logger.addHandler(new CompactLogHandler());     
         //Logger.getLogger(NatNetClient.class.getName()).setLevel(Level.FINE);
         
-        MoCapClient client = new NatNetClient("MoCap Java Test Client", new byte[] {1, 2, 3, 4});
+        NatNetClient client = new NatNetClient("MoCap Java Test Client", new byte[] {1, 2, 3, 4});
         
         String[] servers = new String[] {"127.0.0.1", "156.62.159.85", "10.1.1.199"};
+        List<InetAddress> addresses = new LinkedList<>();
         for ( String server : servers )
         {
             try
             {
-                InetAddress addr = InetAddress.getByName(server);
-                System.out.println("Attempting to connect to MoCap server at " + addr);
-                if ( client.connect(addr) )
-                {
-                    break;
-                }
+                addresses.add(InetAddress.getByName(server));
             }
             catch (UnknownHostException e)
             {
                 System.err.println("Could not resolve server address " + server);
             }
         }
+        // try all servers at once and connect to the first one that answers
+        System.out.println("Attempting to connect to MoCap servers at " + addresses);
+        client.connect(addresses, false);
         
         if ( client.isConnected() )
         {
@@ -42,9 +43,25 @@ public class MoCapTest_Console
             Scene scene = client.getScene();
             client.addSceneListener(new Listener());
             
+            FrameCursor cursor = client.createFrameCursor();
             for ( int i = 0 ; i < 10 ; i++)
             {
-                client.update();
+                try
+                {
+                    if ( !cursor.awaitNextFrame(1000) )
+                    {
+                        System.out.println("No new frame");
+                        continue;
+                    }
+                }
+                catch (InterruptedException e)
+                {
+                    break;
+                }
+                if ( cursor.getMissedFrames() > 0 )
+                {
+                    System.out.println("Missed " + cursor.getMissedFrames() + " frames");
+                }
                 synchronized(scene)
                 {
                     System.out.println("Frame " + scene.frameNumber);
@@ -0,0 +1,354 @@
+package mocap;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Local NatNet 2.9 server with a synthetic scene for tests.
+ * <p>
+ * The scene consists of one rigid body, a configurable number of skeletons
+ * with a configurable number of bones, and one force plate with two channels.
+ * The server answers pings, model definition, frame and stream address requests
+ * on the loopback interface and streams frames on demand with {@link #stream(int, int)}.
+ *
+ * @author  Stefan Marks
+ */
+class SyntheticServer implements Closeable
+{
+    /**
+     * Creates and starts the server.
+     *
+     * @param skeletons  the number of skeletons in the scene
+     * @param bones      the number of bones of each skeleton
+     *
+     * @throws SocketException if the server ports can't be opened
+     */
+    public SyntheticServer(int skeletons, int bones) throws SocketException
+    {
+        this.skeletons = skeletons;
+        this.bones     = bones;
+
+        loopback    = InetAddress.getLoopbackAddress();
+        cmdSocket   = new DatagramSocket(new InetSocketAddress(loopback, NatNetClient.PORT_COMMAND));
+        dataSocket  = new DatagramSocket();
+        frameBuffer = ByteBuffer.allocate(MAX_PACKETSIZE).order(ByteOrder.LITTLE_ENDIAN);
+        frameNumber = 0;
+
+        responder = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                respond();
+            }
+        }, "SyntheticServer Thread");
+        responder.setDaemon(true);
+        responder.start();
+    }
+
+
+    /**
+     * Streams frames to the client at a fixed rate.
+     * The call returns when all frames have been sent.
+     *
+     * @param frames  the number of frames to send
+     * @param rate    the frame rate in Hz
+     *
+     * @throws IOException if a frame can't be sent
+     */
+    public void stream(int frames, int rate) throws IOException
+    {
+        final long interval = 1000000000L / rate;
+        long       deadline = System.nanoTime();
+        for ( int i = 0 ; i < frames ; i++ )
+        {
+            synchronized(frameBuffer)
+            {
+                frameNumber++;
+                final int length = marshalFrame(frameBuffer);
+                dataSocket.send(new DatagramPacket(frameBuffer.array(), length, loopback, NatNetClient.PORT_DATA));
+            }
+
+            // keep the rate independent of the time it takes to send a frame
+            deadline += interval;
+            long wait;
+            while ( (wait = deadline - System.nanoTime()) > 0 )
+            {
+                LockSupport.parkNanos(wait);
+            }
+        }
+    }
+
+
+    /**
+     * Gets the number of the last frame that was streamed.
+     *
+     * @return the frame number
+     */
+    public int getFrameNumber()
+    {
+        synchronized(frameBuffer)
+        {
+            return frameNumber;
+        }
+    }
+
+
+    @Override
+    public void close()
+    {
+        cmdSocket.close();
+        dataSocket.close();
+        try
+        {
+            responder.join(1000);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    /**
+     * Answers the requests of the client until the command socket is closed.
+     */
+    private void respond()
+    {
+        final byte[]         in     = new byte[MAX_PACKETSIZE];
+        final DatagramPacket packet = new DatagramPacket(in, in.length);
+        final ByteBuffer     out    = ByteBuffer.allocate(MAX_PACKETSIZE).order(ByteOrder.LITTLE_ENDIAN);
+        while ( !cmdSocket.isClosed() )
+        {
+            try
+            {
+                packet.setLength(in.length);
+                cmdSocket.receive(packet);
+                final ByteBuffer request = ByteBuffer.wrap(in, 0, packet.getLength()).order(ByteOrder.LITTLE_ENDIAN);
+                final short      id      = request.getShort();
+                request.getShort(); // length
+
+                int length;
+                switch ( id )
+                {
+                    case NatNetClient.NAT_PING:
+                        length = marshalPingResponse(out);
+                        break;
+
+                    case NatNetClient.NAT_REQUEST_MODELDEF:
+                        length = marshalModelDefinition(out);
+                        break;
+
+                    case NatNetClient.NAT_REQUEST_FRAMEOFDATA:
+                        // like a real server: the current frame, not a new one
+                        synchronized(frameBuffer)
+                        {
+                            length = marshalFrame(out);
+                        }
+                        break;
+
+                    case NatNetClient.NAT_REQUEST:
+                        final String command = unmarshalString(request);
+                        putHeader(out, NatNetClient.NAT_RESPONSE);
+                        putString(out, command.equals("getDataStreamAddress") ? loopback.getHostAddress() : "OK");
+                        length = finishPacket(out);
+                        break;
+
+                    default:
+                        putHeader(out, NatNetClient.NAT_UNRECOGNIZED_REQUEST);
+                        length = finishPacket(out);
+                        break;
+                }
+                cmdSocket.send(new DatagramPacket(out.array(), length, packet.getSocketAddress()));
+            }
+            catch (IOException e)
+            {
+                // socket closed: end of the server
+            }
+        }
+    }
+
+
+    private int marshalPingResponse(ByteBuffer buf)
+    {
+        putHeader(buf, NatNetClient.NAT_PINGRESPONSE);
+        final byte[] name = new byte[256];
+        final byte[] text = "SyntheticServer".getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(text, 0, name, 0, text.length);
+        buf.put(name);
+        buf.put(new byte[] { 1, 0, 0, 0 }); // server version
+        buf.put(new byte[] { 2, 9, 0, 0 }); // NatNet version
+        return finishPacket(buf);
+    }
+
+
+    private int marshalModelDefinition(ByteBuffer buf)
+    {
+        putHeader(buf, NatNetClient.NAT_MODELDEF);
+        buf.putInt(2 + 2 * skeletons + 1); // dataset count
+
+        // rigid body with its markerset
+        buf.putInt(0); // markerset
+        putString(buf, "Rigid1");
+        buf.putInt(2);
+        putString(buf, "Rigid1_M1");
+        putString(buf, "Rigid1_M2");
+        buf.putInt(1); // rigid body
+        putString(buf, "Rigid1");
+        buf.putInt(0);  // ID
+        buf.putInt(-1); // parent ID
+        buf.putFloat(0).putFloat(0).putFloat(0);
+
+        for ( int s = 0 ; s < skeletons ; s++ )
+        {
+            final String name = "Skeleton" + s;
+            buf.putInt(0); // markerset
+            putString(buf, name);
+            buf.putInt(bones);
+            for ( int b = 0 ; b < bones ; b++ )
+            {
+                putString(buf, name + "_M" + b);
+            }
+            buf.putInt(2); // skeleton
+            putString(buf, name);
+            buf.putInt(s + 1);
+            buf.putInt(bones);
+            for ( int b = 0 ; b < bones ; b++ )
+            {
+                putString(buf, "Bone" + b);
+                buf.putInt(b + 1); // ID
+                buf.putInt(b);     // parent ID
+                buf.putFloat(0).putFloat(0.1f).putFloat(0);
+            }
+        }
+
+        buf.putInt(3); // force plate
+        buf.putInt(0);
+        putString(buf, "ForcePlate1");
+        buf.put(new byte[FORCEPLATE_CALIBRATION]);
+        buf.putInt(2);
+        putString(buf, "Fz");
+        putString(buf, "Fx");
+        return finishPacket(buf);
+    }
+
+
+    private int marshalFrame(ByteBuffer buf)
+    {
+        final float t = frameNumber / 100f;
+        putHeader(buf, NatNetClient.NAT_FRAMEOFDATA);
+        buf.putInt(frameNumber);
+
+        // markersets
+        buf.putInt(1 + skeletons);
+        putString(buf, "Rigid1");
+        buf.putInt(2);
+        for ( int i = 0 ; i < 2 * 3 ; i++ )
+        {
+            buf.putFloat(i + t);
+        }
+        for ( int s = 0 ; s < skeletons ; s++ )
+        {
+            putString(buf, "Skeleton" + s);
+            buf.putInt(bones);
+            for ( int i = 0 ; i < bones * 3 ; i++ )
+            {
+                buf.putFloat(i + t);
+            }
+        }
+        buf.putInt(0); // unidentified markers
+
+        // rigid body
+        buf.putInt(1);
+        buf.putInt(0);
+        buf.putFloat(t).putFloat(1).putFloat(0);
+        buf.putFloat(0).putFloat(0).putFloat(0).putFloat(1);
+        buf.putInt(0);        // markers
+        buf.putFloat(0);      // mean error
+        buf.putShort((short) 1); // tracked
+
+        // skeletons
+        buf.putInt(skeletons);
+        for ( int s = 0 ; s < skeletons ; s++ )
+        {
+            buf.putInt(s + 1);
+            buf.putInt(bones);
+            for ( int b = 0 ; b < bones ; b++ )
+            {
+                final float angle = t * 0.5f + b;
+                buf.putInt(b + 1);
+                buf.putFloat(s).putFloat(b * 0.1f).putFloat(t);
+                buf.putFloat((float) Math.sin(angle)).putFloat(0).putFloat(0).putFloat((float) Math.cos(angle));
+                buf.putInt(0);        // markers
+                buf.putFloat(0.1f);   // bone length
+                buf.putShort((short) 1); // tracked
+            }
+        }
+
+        buf.putInt(0); // labelled markers
+
+        // force plate
+        buf.putInt(1);
+        buf.putInt(0);
+        buf.putInt(2);
+        buf.putInt(1).putFloat(100 + t);
+        buf.putInt(1).putFloat(t);
+
+        buf.putFloat(0.004f);        // latency
+        buf.putInt(0).putInt(0);     // timecode
+        buf.putDouble(frameNumber / 100.0); // timestamp
+        return finishPacket(buf);
+    }
+
+
+    private static void putHeader(ByteBuffer buf, short id)
+    {
+        buf.clear();
+        buf.putShort(id);
+        buf.putShort((short) 0); // length, filled in by finishPacket
+    }
+
+
+    private static int finishPacket(ByteBuffer buf)
+    {
+        final int length = buf.position();
+        buf.putShort(2, (short) (length - 4));
+        return length;
+    }
+
+
+    private static void putString(ByteBuffer buf, String s)
+    {
+        buf.put(s.getBytes(StandardCharsets.US_ASCII));
+        buf.put((byte) 0);
+    }
+
+
+    private static String unmarshalString(ByteBuffer buf)
+    {
+        StringBuilder s = new StringBuilder();
+        char c;
+        while ( buf.hasRemaining() && ((c = (char) buf.get()) != '\0') ) { s.append(c); }
+        return s.toString();
+    }
+
+
+    private final int            skeletons, bones;
+    private final InetAddress    loopback;
+    private final DatagramSocket cmdSocket, dataSocket;
+    private final ByteBuffer     frameBuffer;
+    private final Thread         responder;
+    private int                  frameNumber;
+
+    private final static int MAX_PACKETSIZE         = 65507;
+    private final static int FORCEPLATE_CALIBRATION = 652; // calibration matrix and corners
+}
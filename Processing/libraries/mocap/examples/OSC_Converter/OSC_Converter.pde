@@ -7,15 +7,12 @@
  
 import java.util.*;
 import java.net.*;
-import oscP5.*;
-import netP5.*;
 import mocap.*;
 
-final static int OSC_PORT = 57120;
+final static int OSC_PORT = OscBridge.DEFAULT_PORT;
 
-MoCapClient    client;
-OscP5          osc;
-NetAddressList receivers;
+NatNetClient client;
+OscBridge    bridge;
 
 
 void setup()
@@ -43,8 +40,9 @@ void setup()
   //client = new NatNetClient(); // simple with default values
   client = new NatNetClient("Processing OSC Converter", new byte[] {1, 0}); // customising the client data
   
-  // try to connect to server
+  // try to connect to servers (all at once, the first one to answer wins)
   String[] serverAddresses = loadStrings("servers.txt");
+  List<InetAddress> addresses = new ArrayList<InetAddress>();
   for ( String serverAddress : serverAddresses )
   {
     String address = serverAddress.trim();
@@ -52,40 +50,49 @@ void setup()
   
     try
     {
-        InetAddress addr = InetAddress.getByName(address);
-        println("Attempting to connect to MoCap server at " + addr);
-        if ( client.connect(addr) )
-        {
-            break;
-        }
+        addresses.add(InetAddress.getByName(address));
     }
     catch (UnknownHostException e)
     {
         println("Could not resolve server address " + address);
     }
   }
+  println("Attempting to connect to MoCap servers at " + addresses);
+  client.connect(addresses, false);
   
   if ( client.isConnected() )
   {
-    // create a new instance of oscP5 
-    osc = new OscP5(this, OSC_PORT);
-    
-    // create list of OSC packet receivers
-    receivers = new NetAddressList();
-    String[] receiverAddresses = loadStrings("receivers.txt");
-    for ( String address : receiverAddresses )
+    try
     {
-      if ( address.startsWith("#") ) continue; // comment line
+      // create the OSC bridge (sends on the network thread at the full MoCap rate)
+      // with the /actor/bone/x|y|z|a messages,
+      // use new OscBridge(0, OscBridge.MessageFormat.POSE) for /actor/bone with position and quaternion
+      bridge = new OscBridge();
       
-      String[] parts = address.split(""); // split IP address and port
-      int port = OSC_PORT;
-      if ( parts.length >= 1 )
+      // create list of OSC packet receivers
+      String[] receiverAddresses = loadStrings("receivers.txt");
+      for ( String line : receiverAddresses )
       {
-        port =  Integer.parseInt(parts[1]);
+        String address = line.trim();
+        if ( address.isEmpty() || address.startsWith("#") ) continue; // comment line
+        
+        String[] parts = address.split("\\s+"); // split IP address and port
+        int port = OSC_PORT;
+        if ( parts.length > 1 )
+        {
+          port = Integer.parseInt(parts[1]);
+        }
+        
+        // add to receiver list
+        bridge.addReceiver(new InetSocketAddress(parts[0], port));
       }
       
-      // add to receiver list
-      receivers.add(parts[0], port);
+      bridge.setRootBoneOnly(true); // stream only root bones, remove to stream all bones
+      client.addSceneListener(bridge);
+    }
+    catch (java.io.IOException e)
+    {
+      println("Could not create OSC bridge (" + e.getMessage() + ")");
     }
   }
   else
@@ -108,35 +115,25 @@ void draw()
     client.update();
     Scene scene = client.getScene();
 
-    if ( osc != null )
+    if ( bridge != null )
     {
-      // iterate through actors and bones
-      for ( Actor actor : scene.actors )   // stream all actors
-      //Actor actor = scene.actors[0];     // stream only first actor
+      synchronized(scene)
       {
-        //for ( Bone bone : actor.bones )  // stream all bones
-        Bone bone = actor.bones[0];        // stream only root bone
+        // list the OSC addresses that are being streamed
+        for ( Actor actor : scene.actors )
         {
-          String name = "/" + actor.name + "/" + bone.name + "/";
-          OscBundle bundle = new OscBundle();
-          
-          // form OSC messages by adding XYZ position...
-          OscMessage msgX = new OscMessage(name + "x"); msgX.add(bone.px);
-          OscMessage msgY = new OscMessage(name + "y"); msgY.add(bone.py);
-          OscMessage msgZ = new OscMessage(name + "z"); msgZ.add(bone.pz);
-          // ...and bone rotation
-          float[] axisAngle = bone.getAxisAngle();
-          OscMessage msgA = new OscMessage(name + "a"); msgA.add(axisAngle[3]);
-          // wrap messages in a bundle
-          bundle.add(msgX); bundle.add(msgY); bundle.add(msgZ); bundle.add(msgA);
-
-          text(name + " > " + bundle.toString(), 10, yPos, 0);
-          yPos += 10;
-
-          // and send to receivers
-          osc.send(bundle, receivers);     
+          int boneCount = actor.bones.length;
+          if ( bridge.isRootBoneOnly() ) boneCount = min(boneCount, 1);
+          for ( int boneIdx = 0 ; boneIdx < boneCount ; boneIdx++ )
+          {
+            Bone bone = actor.bones[boneIdx];
+            text("/" + actor.name + "/" + bone.name + " > " +
+                 nf(bone.px, 1, 3) + " " + nf(bone.py, 1, 3) + " " + nf(bone.pz, 1, 3),
+                 10, yPos, 0);
+            yPos += 10;
+          }
         }
-      }  
+      }
     }
   }
-}
\ No newline at end of file
+}